@@ -8,11 +8,11 @@
 package de.ii.ldproxy.resources.app;
 
 import com.google.common.collect.ImmutableMap;
-import com.google.common.io.ByteSource;
 import de.ii.ldproxy.ogcapi.domain.ApiMediaType;
 import de.ii.ldproxy.ogcapi.domain.ApiRequestContext;
 import de.ii.ldproxy.ogcapi.domain.DefaultLinksGenerator;
 import de.ii.ldproxy.ogcapi.domain.ExtensionRegistry;
+import de.ii.ldproxy.ogcapi.domain.FileEntity;
 import de.ii.ldproxy.ogcapi.domain.I18n;
 import de.ii.ldproxy.ogcapi.domain.Link;
 import de.ii.ldproxy.ogcapi.domain.OgcApi;
@@ -40,8 +40,10 @@ import javax.ws.rs.ServerErrorException;
 import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URLConnection;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -172,19 +174,12 @@ public class QueriesHandlerResourcesImpl implements QueriesHandlerResources {
                                                                 .findAny()
                                                                 .map(ResourceFormatExtension.class::cast)
                                                                 .orElseThrow(() -> new NotAcceptableException(MessageFormat.format("The requested media type {0} cannot be generated.", requestContext.getMediaType().type())));
-        ;
-        final byte[] resource;
-        try {
-            resource = Files.readAllBytes(resourceFile);
-        } catch (IOException e) {
-            throw new ServerErrorException("resource could not be read: "+resourceId, 500);
-        }
 
         // TODO: URLConnection content-type guessing doesn't seem to work well, maybe try Apache Tika
         String contentType = URLConnection.guessContentTypeFromName(resourceId);
         if (contentType==null) {
-            try {
-                contentType = URLConnection.guessContentTypeFromStream(ByteSource.wrap(resource).openStream());
+            try (InputStream stream = new BufferedInputStream(Files.newInputStream(resourceFile))) {
+                contentType = URLConnection.guessContentTypeFromStream(stream);
             } catch (IOException e) {
                 // nothing we can do here, just take the default
             }
@@ -192,21 +187,30 @@ public class QueriesHandlerResourcesImpl implements QueriesHandlerResources {
         if (contentType==null || contentType.isEmpty())
             contentType = "application/octet-stream";
 
+        // the resource is sent as a stream, it is never loaded into memory and not read for the entity tag
         Date lastModified = getLastModified(resourceFile.toFile());
-        EntityTag etag = getEtag(resource);
+        EntityTag etag = getEtagFromAttributes(resourceFile);
+        if (Objects.isNull(etag))
+            throw new ServerErrorException("resource could not be read: "+resourceId, 500);
         Response.ResponseBuilder response = evaluatePreconditions(requestContext, lastModified, etag);
         if (Objects.nonNull(response))
             return response.build();
 
-        return prepareSuccessResponse(requestContext, null,
-                                      lastModified, etag,
-                                      queryInput.getCacheControl().orElse(null),
-                                      queryInput.getExpires().orElse(null),
-                                      null,
-                                      true,
-                                      resourceId)
-                .entity(format.getResourceEntity(resource, resourceId, apiData, requestContext))
-                .type(contentType)
-                .build();
+        response = prepareSuccessResponse(requestContext, null,
+                                          lastModified, etag,
+                                          queryInput.getCacheControl().orElse(null),
+                                          queryInput.getExpires().orElse(null),
+                                          null,
+                                          true,
+                                          resourceId)
+                .type(contentType);
+
+        Object entity = format.getResourceEntity(resourceFile, resourceId, apiData, requestContext);
+        if (entity instanceof FileEntity)
+            // supports range requests
+            return prepareFileResponse(response, requestContext, ((FileEntity) entity).getFile(), lastModified, etag).build();
+
+        return response.entity(entity)
+                       .build();
     }
 }
@@ -11,6 +11,7 @@ import com.google.common.io.ByteSource;
 import de.ii.ldproxy.ogcapi.domain.ApiMediaType;
 import de.ii.ldproxy.ogcapi.domain.ApiMediaTypeContent;
 import de.ii.ldproxy.ogcapi.domain.ApiRequestContext;
+import de.ii.ldproxy.ogcapi.domain.FileEntity;
 import de.ii.ldproxy.ogcapi.domain.HttpMethods;
 import de.ii.ldproxy.ogcapi.domain.ImmutableApiMediaType;
 import de.ii.ldproxy.ogcapi.domain.ImmutableApiMediaTypeContent;
@@ -76,8 +77,12 @@ public class ResourceFormatAny implements ResourceFormatExtension {
     }
 
     @Override
-    public Object getResourceEntity(byte[] resource, String resourceId, OgcApiDataV2 apiData, ApiRequestContext requestContext) {
-        return resource;
+    public Object getResourceEntity(Path resource, String resourceId, OgcApiDataV2 apiData, ApiRequestContext requestContext) {
+        try {
+            return new FileEntity(resource, 0, Files.size(resource));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read resource: " + resourceId, e);
+        }
     }
 
     @Override
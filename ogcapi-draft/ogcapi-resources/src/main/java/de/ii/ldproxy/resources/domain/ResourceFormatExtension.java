@@ -31,7 +31,7 @@ public interface ResourceFormatExtension extends FormatExtension {
         return true;
     }
 
-    Object getResourceEntity(byte[] resource,
+    Object getResourceEntity(Path resource,
                              String resourceId,
                              OgcApiDataV2 apiData,
                              ApiRequestContext requestContext);
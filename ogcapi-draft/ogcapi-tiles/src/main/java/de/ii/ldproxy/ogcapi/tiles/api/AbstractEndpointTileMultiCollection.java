@@ -29,6 +29,7 @@ import de.ii.ldproxy.ogcapi.domain.URICustomizer;
 import de.ii.ldproxy.ogcapi.features.core.domain.FeaturesCoreConfiguration;
 import de.ii.ldproxy.ogcapi.features.core.domain.FeaturesCoreProviders;
 import de.ii.ldproxy.ogcapi.tiles.app.TileProviderMbtiles;
+import de.ii.ldproxy.ogcapi.tiles.domain.CachedTile;
 import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableQueryInputTileEmpty;
 import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableQueryInputTileMbtilesTile;
 import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableQueryInputTileMultiLayer;
@@ -61,10 +62,10 @@ import org.slf4j.LoggerFactory;
 import javax.ws.rs.NotAcceptableException;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.ServerErrorException;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import java.io.IOException;
-import java.io.InputStream;
 import java.text.MessageFormat;
 import java.util.HashMap;
 import java.util.List;
@@ -207,10 +208,7 @@ public abstract class AbstractEndpointTileMultiCollection extends Endpoint {
 
         Optional<FeatureProvider2> featureProvider = providers.getFeatureProvider(apiData);
 
-        List<String> collections = queryParams.containsKey("collections") ?
-            Splitter.on(",")
-                .splitToList(queryParams.get("collections")) :
-            apiData.getCollections()
+        List<String> allCollections = apiData.getCollections()
                 .values()
                 .stream()
                 .filter(collection -> apiData.isCollectionEnabled(collection.getId()))
@@ -223,16 +221,28 @@ public abstract class AbstractEndpointTileMultiCollection extends Endpoint {
                 })
                 .map(FeatureTypeConfiguration::getId)
                 .collect(Collectors.toList());
+        List<String> collections = queryParams.containsKey("collections") ?
+            Splitter.on(",")
+                .splitToList(queryParams.get("collections")) :
+            allCollections;
 
         // check, if the cache can be used (no query parameters except f)
-        boolean useCache = tileProvider.tilesMayBeCached() &&
-            tilesConfiguration.getCache() != TilesConfiguration.TileCacheType.NONE &&
-            (queryParams.isEmpty() || (queryParams.size()==1 && queryParams.containsKey("f")));
+        boolean cacheable = tileProvider.tilesMayBeCached() &&
+            tilesConfiguration.getCache() != TilesConfiguration.TileCacheType.NONE;
 
         // don't store the tile in the cache if it is outside the range
         MinMax cacheMinMax = tilesConfiguration.getZoomLevelsDerived()
             .get(tileMatrixSetId);
-        useCache = useCache && (Objects.isNull(cacheMinMax) || (level <= cacheMinMax.getMax() && level >= cacheMinMax.getMin()));
+        cacheable = cacheable && (Objects.isNull(cacheMinMax) || (level <= cacheMinMax.getMax() && level >= cacheMinMax.getMin()));
+
+        boolean useCache = cacheable &&
+            (queryParams.isEmpty() || (queryParams.size()==1 && queryParams.containsKey("f")));
+
+        // a selection of collections without other query parameters can be taken from the tile with all collections
+        boolean isSubset = cacheable &&
+            queryParams.containsKey("collections") &&
+            queryParams.keySet().stream().allMatch(name -> name.equals("collections") || name.equals("f")) &&
+            allCollections.containsAll(collections);
 
         Tile tile = new ImmutableTile.Builder()
             .tileMatrixSet(tileMatrixSet)
@@ -252,20 +262,25 @@ public abstract class AbstractEndpointTileMultiCollection extends Endpoint {
         // if cache can be used and the tile is cached for the requested format, return the cache
         if (useCache) {
             // get the tile from the cache and return it
-            Optional<InputStream> tileStream = Optional.empty();
+            Optional<CachedTile> cachedTile = Optional.empty();
             try {
-                tileStream = cache.getTile(tile);
+                cachedTile = cache.getCachedTile(tile);
             } catch (Exception e) {
                 LOGGER.warn("Failed to retrieve multi-collection tile {}/{}/{}/{} from the cache. Reason: {}",
                             tile.getTileMatrixSet().getId(), tile.getTileLevel(), tile.getTileRow(),
                             tile.getTileCol(), e.getMessage());
             }
-            if (tileStream.isPresent()) {
-                queryInput = new ImmutableQueryInputTileStream.Builder()
+            if (cachedTile.isPresent()) {
+                ImmutableQueryInputTileStream.Builder builder = new ImmutableQueryInputTileStream.Builder()
                     .from(getGenericQueryInput(apiData))
                     .tile(tile)
-                    .tileContent(tileStream.get())
-                    .build();
+                    .tileContent(cachedTile.get().getContent())
+                    .tilePath(cachedTile.get().getPath())
+                    .tileGzipContent(cachedTile.get().getGzipContent())
+                    .tileGzipPath(cachedTile.get().getGzipPath())
+                    .tileEtag(cachedTile.get().getEtag().map(EntityTag::new));
+                cachedTile.get().getLastModified().ifPresent(builder::lastModified);
+                queryInput = builder.build();
             }
         }
 
@@ -275,6 +290,17 @@ public abstract class AbstractEndpointTileMultiCollection extends Endpoint {
                                                     queryParams, allowedParameters,
                                                     getGenericQueryInput(apiData), tile);
 
+        if (isSubset && queryInput instanceof TilesQueriesHandler.QueryInputTileMultiLayer) {
+            queryInput = new ImmutableQueryInputTileMultiLayer.Builder()
+                .from((TilesQueriesHandler.QueryInputTileMultiLayer) queryInput)
+                .fullTile(new ImmutableTile.Builder()
+                              .from(tile)
+                              .collectionIds(allCollections)
+                              .temporary(false)
+                              .build())
+                .build();
+        }
+
         TilesQueriesHandler.Query query = null;
         if (queryInput instanceof TilesQueriesHandler.QueryInputTileMbtilesTile)
             query = TilesQueriesHandler.Query.MBTILES_TILE;
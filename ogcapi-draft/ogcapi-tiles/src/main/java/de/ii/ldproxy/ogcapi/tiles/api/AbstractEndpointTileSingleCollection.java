@@ -26,6 +26,7 @@ import de.ii.ldproxy.ogcapi.domain.QueryInput;
 import de.ii.ldproxy.ogcapi.features.core.domain.FeaturesCoreConfiguration;
 import de.ii.ldproxy.ogcapi.features.core.domain.FeaturesCoreProviders;
 import de.ii.ldproxy.ogcapi.tiles.app.TileProviderMbtiles;
+import de.ii.ldproxy.ogcapi.tiles.domain.CachedTile;
 import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableQueryInputTileMbtilesTile;
 import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableQueryInputTileSingleLayer;
 import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableQueryInputTileStream;
@@ -55,10 +56,10 @@ import org.slf4j.LoggerFactory;
 import javax.ws.rs.NotAcceptableException;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.ServerErrorException;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import java.io.IOException;
-import java.io.InputStream;
 import java.text.MessageFormat;
 import java.util.HashMap;
 import java.util.List;
@@ -237,20 +238,25 @@ public abstract class AbstractEndpointTileSingleCollection extends EndpointSubCo
         // if cache can be used and the tile is cached for the requested format, return the cache
         if (useCache) {
             // get the tile from the cache and return it
-            Optional<InputStream> tileStream = Optional.empty();
+            Optional<CachedTile> cachedTile = Optional.empty();
             try {
-                tileStream = cache.getTile(tile);
+                cachedTile = cache.getCachedTile(tile);
             } catch (Exception e) {
                 LOGGER.warn("Failed to retrieve multi-collection tile {}/{}/{}/{} from the cache. Reason: {}",
                             tile.getTileMatrixSet().getId(), tile.getTileLevel(), tile.getTileRow(),
                             tile.getTileCol(), e.getMessage());
             }
-            if (tileStream.isPresent()) {
-                queryInput = new ImmutableQueryInputTileStream.Builder()
+            if (cachedTile.isPresent()) {
+                ImmutableQueryInputTileStream.Builder builder = new ImmutableQueryInputTileStream.Builder()
                     .from(getGenericQueryInput(apiData))
                     .tile(tile)
-                    .tileContent(tileStream.get())
-                    .build();
+                    .tileContent(cachedTile.get().getContent())
+                    .tilePath(cachedTile.get().getPath())
+                    .tileGzipContent(cachedTile.get().getGzipContent())
+                    .tileGzipPath(cachedTile.get().getGzipPath())
+                    .tileEtag(cachedTile.get().getEtag().map(EntityTag::new));
+                cachedTile.get().getLastModified().ifPresent(builder::lastModified);
+                queryInput = builder.build();
             }
         }
 
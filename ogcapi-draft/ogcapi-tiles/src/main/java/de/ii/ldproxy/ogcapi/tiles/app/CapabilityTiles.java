@@ -93,6 +93,7 @@ public class CapabilityTiles implements ApiBuildingBlock {
                                                                                                            .build()))
                                                                                                    .zoomLevelsCache(ImmutableMap.of())
                                                                                                    .seeding(ImmutableMap.of())
+                                                                                                   .zoomLevelsFromChildTiles(ImmutableMap.of())
                                                                                                    .limit(LIMIT_DEFAULT)
                                                                                                    .singleCollectionEnabled(true)
                                                                                                    .multiCollectionEnabled(true)
@@ -268,6 +269,28 @@ public class CapabilityTiles implements ApiBuildingBlock {
                     }
                 }
 
+                Map<String, MinMax> zoomLevelsFromChildTiles = config.getZoomLevelsFromChildTilesDerived();
+                if (Objects.nonNull(zoomLevelsFromChildTiles)) {
+                    for (Map.Entry<String, MinMax> entry2 : zoomLevelsFromChildTiles.entrySet()) {
+                        String tileMatrixSetId = entry2.getKey();
+                        MinMax zoomLevelsTms = getZoomLevels(apiData, tileMatrixSetId);
+                        if (Objects.isNull(zoomLevelsTms)) {
+                            builder.addStrictErrors(MessageFormat.format("The generation of tiles from child tiles in the TILES module of collection ''{0}'' references a tile matrix set ''{1}'' that is not configured for this API.", collectionId, tileMatrixSetId));
+                        } else if (zoomLevelsTms.getMax() <= entry2.getValue().getMax()) {
+                            builder.addStrictErrors(MessageFormat.format("The generation of tiles from child tiles in the TILES module of collection ''{0}'' for tile matrix set ''{1}'' is specified to end at level ''{2}'', but the maximum level is ''{3}'' and the child tiles are one level below.", collectionId, tileMatrixSetId, entry2.getValue().getMax(), zoomLevelsTms.getMax()));
+                        }
+                    }
+                }
+
+                Map<String, MinMax> zoomLevelsPointDeduplication = config.getZoomLevelsPointDeduplicationDerived();
+                if (Objects.nonNull(zoomLevelsPointDeduplication)) {
+                    for (String tileMatrixSetId : zoomLevelsPointDeduplication.keySet()) {
+                        if (Objects.isNull(getZoomLevels(apiData, tileMatrixSetId))) {
+                            builder.addStrictErrors(MessageFormat.format("The deduplication of points in the TILES module of collection ''{0}'' references a tile matrix set ''{1}'' that is not configured for this API.", collectionId, tileMatrixSetId));
+                        }
+                    }
+                }
+
                 final Integer limit = Objects.requireNonNullElse(config.getLimitDerived(), 0);
                 if (limit < 1) {
                     builder.addStrictErrors(MessageFormat.format("The feature limit in the TILES module must be a positive integer. Found in collection ''{1}'': {0}.",limit, collectionId));
@@ -11,13 +11,16 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 import de.ii.ldproxy.ogcapi.tiles.domain.MvtFeature;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
 
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 class ClusterAnalysis {
 
@@ -26,33 +29,65 @@ class ClusterAnalysis {
     Set<MvtFeature> standalone = new HashSet<>();
 
     static ClusterAnalysis analyse(List<MvtFeature> features, boolean boundary) {
-        // determine clusters of connected features
+        // determine clusters of connected features; only features with intersecting envelopes are tested and the
+        // clusters are tracked in a union-find structure, where the first feature of a cluster is its root
+        List<Geometry> geometries = features.stream()
+                                            .map(feature -> boundary ? feature.getGeometry().getBoundary() : feature.getGeometry())
+                                            .collect(Collectors.toUnmodifiableList());
+        STRtree index = new STRtree();
+        for (int i = 0; i < geometries.size(); i++) {
+            index.insert(geometries.get(i).getEnvelopeInternal(), i);
+        }
+
+        int[] parent = new int[features.size()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < geometries.size(); i++) {
+            final int fi = i;
+            PreparedGeometry gi = PreparedGeometryFactory.prepare(geometries.get(i));
+            index.query(geometries.get(i).getEnvelopeInternal(), item -> {
+                int fj = (Integer) item;
+                if (fj > fi && find(parent, fi) != find(parent, fj) && gi.intersects(geometries.get(fj))) {
+                    union(parent, fi, fj);
+                }
+            });
+        }
+
+        int[] clusterSize = new int[features.size()];
+        for (int i = 0; i < parent.length; i++) {
+            clusterSize[find(parent, i)]++;
+        }
+
         ClusterAnalysis clusterResult = new ClusterAnalysis();
         for (int i = 0; i < features.size(); i++) {
-            MvtFeature fi = features.get(i);
-            Geometry gi = fi.getGeometry();
-            Optional<MvtFeature> cluster = Optional.ofNullable(clusterResult.inCluster.get(fi));
-            for (int j = i+1; j < features.size(); j++) {
-                MvtFeature fj = features.get(j);
-                Geometry gj = fj.getGeometry();
-                boolean clustered = boundary ? gi.getBoundary().intersects(gj.getBoundary()) : gi.intersects(gj);
-                if (clustered) {
-                    if (cluster.isPresent()) {
-                        // already in a cluster, add to the new feature to the cluster
-                        clusterResult.clusters.put(cluster.get(),fj);
-                        clusterResult.inCluster.put(fj,cluster.get());
-                    } else {
-                        // new cluster
-                        clusterResult.clusters.put(fi,fj);
-                        clusterResult.inCluster.put(fj,fi);
-                    }
-                }
-            }
-            // if the feature wasn't already in a cluster and hasn't started a new cluster, it is standalone
-            if (cluster.isEmpty() && !clusterResult.clusters.containsKey(fi)) {
-                clusterResult.standalone.add(fi);
+            int root = find(parent, i);
+            if (root != i) {
+                clusterResult.clusters.put(features.get(root), features.get(i));
+                clusterResult.inCluster.put(features.get(i), features.get(root));
+            } else if (clusterSize[i] == 1) {
+                clusterResult.standalone.add(features.get(i));
             }
         }
         return clusterResult;
     }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            // path halving
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int i, int j) {
+        int ri = find(parent, i);
+        int rj = find(parent, j);
+        // the root is the first feature of the cluster
+        if (ri < rj)
+            parent[rj] = ri;
+        else if (rj < ri)
+            parent[ri] = rj;
+    }
 }
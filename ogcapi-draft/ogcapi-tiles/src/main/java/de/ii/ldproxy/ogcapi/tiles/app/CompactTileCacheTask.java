@@ -0,0 +1,78 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app;
+
+import de.ii.ldproxy.ogcapi.domain.OgcApi;
+import de.ii.ldproxy.ogcapi.tiles.domain.TileCache;
+import de.ii.xtraplatform.dropwizard.domain.Dropwizard;
+import de.ii.xtraplatform.runtime.domain.LogContext;
+import de.ii.xtraplatform.store.domain.entities.EntityRegistry;
+import io.dropwizard.servlets.tasks.Task;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+/**
+ * Removes unused tile data from the Mbtiles tile caches of an API. Tile caches created by older versions are rebuilt
+ * once on the first compaction, while this takes place no tiles can be written to the cache.
+ */
+@Component
+@Instantiate
+public class CompactTileCacheTask extends Task {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CompactTileCacheTask.class);
+
+  private final EntityRegistry entityRegistry;
+  private final TileCache tileCache;
+
+  protected CompactTileCacheTask(@Requires Dropwizard dropwizard,
+      @Requires EntityRegistry entityRegistry, @Requires TileCache tileCache) {
+    super("compact-tile-cache");
+    this.entityRegistry = entityRegistry;
+    this.tileCache = tileCache;
+
+    dropwizard.getEnvironment().admin().addTask(this);
+  }
+
+  @Override
+  public void execute(Map<String, List<String>> parameters, PrintWriter output) throws Exception {
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Compact tile cache request: {}", parameters);
+    }
+
+    Optional<String> apiId = Optional.ofNullable(parameters.get("api"))
+        .flatMap(values -> values.stream().filter(Objects::nonNull).findFirst());
+
+    if (apiId.isEmpty()) {
+      output.println("No api id given");
+      output.flush();
+      return;
+    }
+
+    Optional<OgcApi> ogcApi = entityRegistry.getEntity(OgcApi.class, apiId.get());
+
+    if (ogcApi.isEmpty()) {
+      output.println("No api with the given id found");
+      output.flush();
+      return;
+    }
+
+    try (MDC.MDCCloseable closeable =
+        LogContext.putCloseable(LogContext.CONTEXT.SERVICE, apiId.get())) {
+      tileCache.compact(ogcApi.get().getData());
+    }
+  }
+}
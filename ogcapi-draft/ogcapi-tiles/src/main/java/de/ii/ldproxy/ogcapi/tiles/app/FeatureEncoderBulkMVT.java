@@ -0,0 +1,421 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app;
+
+import de.ii.ldproxy.ogcapi.tiles.app.mbtiles.SqlHelper;
+import de.ii.ldproxy.ogcapi.tiles.domain.FeatureTransformationContextTiles;
+import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableTile;
+import de.ii.ldproxy.ogcapi.tiles.domain.Tile;
+import de.ii.ldproxy.ogcapi.tiles.domain.TileCache;
+import de.ii.ldproxy.ogcapi.tiles.domain.TilesConfiguration;
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
+import de.ii.xtraplatform.crs.domain.BoundingBox;
+import de.ii.xtraplatform.features.domain.FeatureObjectEncoder;
+import de.ii.xtraplatform.runtime.domain.LogContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static de.ii.ldproxy.ogcapi.tiles.app.CapabilityTiles.LIMIT_DEFAULT;
+
+/**
+ * Generates all tiles of a collection in the tile ranges of a bulk seeding from a single scan of the features, see
+ * {@link FeatureTransformationContextTiles#bulkLimits()}.
+ *
+ * <p>Each feature is written once to a temporary SQLite database in the working directory of the tile cache, together
+ * with the tiles that it touches in each zoom level. At the end the database sorts the tile assignments and the tiles
+ * are encoded one after another, so the memory that is needed does not depend on the number of features. All tiles
+ * except {@link FeatureTransformationContextTiles#tile()} are written to the tile cache, tiles that are already cached
+ * are skipped. As with a query per tile, at most the configured limit of features is included in each tile.
+ *
+ * <p>The database is removed at the end of the stream. If the stream fails or is cancelled before, the caller that
+ * runs the stream has to {@link #close() close} the encoder.
+ */
+public class FeatureEncoderBulkMVT extends FeatureObjectEncoder<PropertyMVT, FeatureMVT> implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(FeatureEncoderBulkMVT.class);
+  // the number of tile assignments that are written to the database in one batch
+  private static final int BATCH_SIZE = 10_000;
+  // the types of property values in the database
+  private static final byte TYPE_STRING = 0;
+  private static final byte TYPE_LONG = 1;
+  private static final byte TYPE_DOUBLE = 2;
+  private static final byte TYPE_BOOLEAN = 3;
+
+  private final FeatureTransformationContextTiles encodingContext;
+  private final TilesConfiguration tilesConfiguration;
+  private final TileCache tileCache;
+  private final String collectionId;
+  private final Tile tile;
+  private final TileMatrixSet tileMatrixSet;
+  private final List<TileMatrixSetLimits> limitsList;
+  private final List<String> properties;
+  private final int tileLimit;
+  private final GeometryFactory geometryFactoryWorld;
+  private final WKBWriter wkbWriter;
+
+  private final long transformerStart = System.nanoTime();
+  private Path databaseFile;
+  private Connection connection;
+  private PreparedStatement insertFeature;
+  private PreparedStatement insertBin;
+  private long featureCount = 0;
+  private long binCount = 0;
+  private long tileCount = 0;
+
+  public FeatureEncoderBulkMVT(FeatureTransformationContextTiles encodingContext) {
+    this.encodingContext = encodingContext;
+    this.tilesConfiguration = encodingContext.tilesConfiguration();
+    this.tileCache = encodingContext.getTileCache();
+    this.collectionId = encodingContext.getCollectionId();
+    this.tile = encodingContext.tile();
+    this.tileMatrixSet = tile.getTileMatrixSet();
+    // the tiles are encoded in the order of the sorted tile assignments
+    this.limitsList = encodingContext.bulkLimits()
+        .stream()
+        .sorted(Comparator.comparing(limits -> Integer.parseInt(limits.getTileMatrix())))
+        .collect(Collectors.toList());
+    this.properties = encodingContext.getFields();
+    this.tileLimit = Objects.requireNonNullElse(tilesConfiguration.getLimitDerived(), LIMIT_DEFAULT);
+    // the coordinates are stored in packed sequences, not as coordinate objects
+    this.geometryFactoryWorld = new GeometryFactory(PackedCoordinateSequenceFactory.DOUBLE_FACTORY);
+    this.wkbWriter = new WKBWriter(2);
+  }
+
+  @Override
+  public FeatureMVT createFeature() {
+    return ModifiableFeatureMVT.create();
+  }
+
+  @Override
+  public PropertyMVT createProperty() {
+    return ModifiablePropertyMVT.create();
+  }
+
+  @Override
+  public void onStart(ModifiableContext context) {
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Start bulk generation of tiles for collection {}, tile matrix set {}, tile matrices {}.", collectionId,
+          tileMatrixSet.getId(), limitsList.stream().map(TileMatrixSetLimits::getTileMatrix).collect(Collectors.joining(",")));
+    }
+
+    try {
+      databaseFile = Files.createTempFile(tileCache.getWorkDirectory(), String.format("bulk-%s-%s-", encodingContext.getApiData().getId(), collectionId), ".db");
+      connection = SqlHelper.getConnection(databaseFile.toFile());
+      // the database is only used by this encoder and removed at the end
+      SqlHelper.execute(connection, "PRAGMA journal_mode=OFF");
+      SqlHelper.execute(connection, "PRAGMA synchronous=OFF");
+      SqlHelper.execute(connection, "CREATE TABLE features (seq INTEGER PRIMARY KEY, data BLOB)");
+      SqlHelper.execute(connection, "CREATE TABLE bins (level INTEGER, row INTEGER, col INTEGER, seq INTEGER)");
+      connection.setAutoCommit(false);
+      insertFeature = connection.prepareStatement("INSERT INTO features (seq, data) VALUES(?,?)");
+      insertBin = connection.prepareStatement("INSERT INTO bins (level, row, col, seq) VALUES(?,?,?,?)");
+    } catch (IOException | SQLException e) {
+      close();
+      throw new RuntimeException(String.format("Could not create the working database for the bulk generation of tiles for collection '%s'.", collectionId), e);
+    }
+  }
+
+  @Override
+  public void onFeature(FeatureMVT feature) {
+    Optional<Geometry> featureGeometry = feature.getJtsGeometry(geometryFactoryWorld);
+
+    if (featureGeometry.isEmpty()) {
+      return;
+    }
+
+    Envelope envelope = featureGeometry.get().getEnvelopeInternal();
+    BoundingBox bbox = tileMatrixSet.getBoundingBox();
+    try {
+      long seq = ++featureCount;
+      boolean inAnyTile = false;
+      for (TileMatrixSetLimits limits : limitsList) {
+        int level = Integer.parseInt(limits.getTileMatrix());
+        double tileWidth = (bbox.getXmax() - bbox.getXmin()) / tileMatrixSet.getCols(level);
+        double tileHeight = (bbox.getYmax() - bbox.getYmin()) / tileMatrixSet.getRows(level);
+        // the tiles that the feature touches including their buffer
+        double bufferX = tileWidth * TileEncoderMVT.BUFFER / tileMatrixSet.getTileSize();
+        double bufferY = tileHeight * TileEncoderMVT.BUFFER / tileMatrixSet.getTileSize();
+        int minCol = Math.max(limits.getMinTileCol(), (int) Math.floor((envelope.getMinX() - bufferX - bbox.getXmin()) / tileWidth));
+        int maxCol = Math.min(limits.getMaxTileCol(), (int) Math.floor((envelope.getMaxX() + bufferX - bbox.getXmin()) / tileWidth));
+        int minRow = Math.max(limits.getMinTileRow(), (int) Math.floor((bbox.getYmax() - envelope.getMaxY() - bufferY) / tileHeight));
+        int maxRow = Math.min(limits.getMaxTileRow(), (int) Math.floor((bbox.getYmax() - envelope.getMinY() + bufferY) / tileHeight));
+        for (int row = minRow; row <= maxRow; row++) {
+          for (int col = minCol; col <= maxCol; col++) {
+            insertBin.setInt(1, level);
+            insertBin.setInt(2, row);
+            insertBin.setInt(3, col);
+            insertBin.setLong(4, seq);
+            insertBin.addBatch();
+            inAnyTile = true;
+            if (++binCount % BATCH_SIZE == 0) {
+              insertBin.executeBatch();
+            }
+          }
+        }
+      }
+
+      if (inAnyTile) {
+        insertFeature.setLong(1, seq);
+        insertFeature.setBytes(2, writeFeature(feature.getIdValue(), feature.getPropertiesAsMap(), featureGeometry.get()));
+        insertFeature.executeUpdate();
+      }
+    } catch (IOException | SQLException e) {
+      close();
+      throw new RuntimeException(String.format("Could not write feature %s to the working database for the bulk generation of tiles for collection '%s'.", feature.getIdValue(), collectionId), e);
+    }
+  }
+
+  @Override
+  public void onEnd(ModifiableContext context) {
+    long encoderStart = System.nanoTime();
+
+    push(writeTiles());
+
+    if (LOGGER.isDebugEnabled()) {
+      long encoderDuration = (System.nanoTime() - encoderStart) / 1000000;
+      long transformerDuration = (System.nanoTime() - transformerStart) / 1000000;
+      LOGGER.debug("Collection {}, tile matrix set {}, tile matrices {}: {} tiles written in bulk. Features returned: {}, tile assignments: {}, total duration: {}ms, encoding: {}ms.",
+          collectionId, tileMatrixSet.getId(), limitsList.stream().map(TileMatrixSetLimits::getTileMatrix).collect(Collectors.joining(",")),
+          tileCount, context.metadata().getNumberReturned().orElse(0), binCount, transformerDuration, encoderDuration);
+    }
+  }
+
+  /**
+   * encode the tiles from the working database, write them to the tile cache and remove the database
+   *
+   * @return the tile of the encoding context, which is not written to the cache
+   */
+  byte[] writeTiles() {
+    byte[] mvt = null;
+    byte[] emptyMvt = new TileWriterMVT(tileMatrixSet.getTileExtent(), tileMatrixSet.getTileSize()).encode();
+    WKBReader wkbReader = new WKBReader(geometryFactoryWorld);
+
+    try {
+      insertBin.executeBatch();
+      connection.commit();
+      // the database sorts the tile assignments while building the index
+      SqlHelper.execute(connection, "CREATE INDEX bins_tile ON bins (level, row, col, seq)");
+      connection.commit();
+
+      try (PreparedStatement select = connection.prepareStatement("SELECT b.level, b.row, b.col, f.data FROM bins b JOIN features f ON f.seq = b.seq ORDER BY b.level, b.row, b.col, b.seq");
+           ResultSet resultSet = select.executeQuery()) {
+        boolean hasNext = resultSet.next();
+        for (TileMatrixSetLimits limits : limitsList) {
+          int level = Integer.parseInt(limits.getTileMatrix());
+          for (int row = limits.getMinTileRow(); row <= limits.getMaxTileRow(); row++) {
+            for (int col = limits.getMinTileCol(); col <= limits.getMaxTileCol(); col++) {
+              Tile currentTile = new ImmutableTile.Builder()
+                  .from(tile)
+                  .tileLevel(level)
+                  .tileRow(row)
+                  .tileCol(col)
+                  .build();
+              boolean isMainTile = level == tile.getTileLevel() && row == tile.getTileRow() && col == tile.getTileCol();
+              boolean skip = !isMainTile && isCached(currentTile);
+
+              TileEncoderMVT tileEncoding = null;
+              int count = 0;
+              while (hasNext && compare(resultSet, level, row, col) <= 0) {
+                if (!skip && count < tileLimit && compare(resultSet, level, row, col) == 0) {
+                  if (Objects.isNull(tileEncoding)) {
+                    // the features are selected for the tile, the geometries can be changed
+                    tileEncoding = new TileEncoderMVT(currentTile, tilesConfiguration, collectionId, properties, false);
+                  }
+                  readFeature(resultSet.getBytes(4), wkbReader, tileEncoding);
+                  count++;
+                }
+                hasNext = resultSet.next();
+              }
+
+              if (skip) {
+                continue;
+              }
+
+              byte[] tileMvt = emptyMvt;
+              if (Objects.nonNull(tileEncoding)) {
+                tileEncoding.merge();
+                tileMvt = tileEncoding.encode();
+              }
+
+              if (isMainTile) {
+                // the tile is returned and written to the cache by the caller
+                mvt = tileMvt;
+              } else {
+                try {
+                  tileCache.storeTile(currentTile, tileMvt);
+                } catch (Throwable e) {
+                  String msg = "Failure to write tile {}/{}/{}/{} of a bulk seeding in dataset '{}', collection '{}' to the cache";
+                  LogContext.errorAsInfo(LOGGER, e, msg, tileMatrixSet.getId(), level, row, col, encodingContext.getApiData().getId(), collectionId);
+                }
+              }
+              tileCount++;
+            }
+          }
+        }
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException(String.format("Could not read the working database for the bulk generation of tiles for collection '%s'.", collectionId), e);
+    } finally {
+      close();
+    }
+
+    return Objects.requireNonNullElse(mvt, emptyMvt);
+  }
+
+  private boolean isCached(Tile tile) {
+    try {
+      return tileCache.tileExists(tile);
+    } catch (Exception e) {
+      LOGGER.warn("Failed to retrieve tile {}/{}/{}/{} for collection {} from the cache. Reason: {}",
+          tile.getTileMatrixSet().getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), collectionId, e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * compare the tile of the current tile assignment with a tile
+   */
+  private static int compare(ResultSet resultSet, int level, int row, int col) throws SQLException {
+    int result = Integer.compare(resultSet.getInt(1), level);
+    if (result == 0)
+      result = Integer.compare(resultSet.getInt(2), row);
+    if (result == 0)
+      result = Integer.compare(resultSet.getInt(3), col);
+    return result;
+  }
+
+  private byte[] writeFeature(String idValue, Map<String, Object> featureProperties, Geometry geometry) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeBoolean(Objects.nonNull(idValue));
+    if (Objects.nonNull(idValue))
+      writeString(out, idValue);
+    out.writeInt(featureProperties.size());
+    for (Map.Entry<String, Object> property : featureProperties.entrySet()) {
+      writeString(out, property.getKey());
+      Object value = property.getValue();
+      if (value instanceof Long) {
+        out.writeByte(TYPE_LONG);
+        out.writeLong((Long) value);
+      } else if (value instanceof Double) {
+        out.writeByte(TYPE_DOUBLE);
+        out.writeDouble((Double) value);
+      } else if (value instanceof Boolean) {
+        out.writeByte(TYPE_BOOLEAN);
+        out.writeBoolean((Boolean) value);
+      } else {
+        out.writeByte(TYPE_STRING);
+        writeString(out, String.valueOf(value));
+      }
+    }
+    byte[] wkb = wkbWriter.write(geometry);
+    out.writeInt(wkb.length);
+    out.write(wkb);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private void readFeature(byte[] data, WKBReader wkbReader, TileEncoderMVT tileEncoding) {
+    String idValue = null;
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+      if (in.readBoolean())
+        idValue = readString(in);
+      int size = in.readInt();
+      // same order as in FeatureMVT.getPropertiesAsMap()
+      Map<String, Object> featureProperties = new TreeMap<>();
+      for (int i = 0; i < size; i++) {
+        String key = readString(in);
+        byte type = in.readByte();
+        switch (type) {
+          case TYPE_LONG:
+            featureProperties.put(key, in.readLong());
+            break;
+          case TYPE_DOUBLE:
+            featureProperties.put(key, in.readDouble());
+            break;
+          case TYPE_BOOLEAN:
+            featureProperties.put(key, in.readBoolean());
+            break;
+          case TYPE_STRING:
+          default:
+            featureProperties.put(key, readString(in));
+        }
+      }
+      byte[] wkb = new byte[in.readInt()];
+      in.readFully(wkb);
+      tileEncoding.addFeature(idValue, featureProperties, wkbReader.read(wkb));
+    } catch (IOException | ParseException e) {
+      LOGGER.error("Error while reading feature {} in tile {}/{}/{}/{} in collection {} from the working database. The feature is skipped.", idValue, tileMatrixSet.getId(), tileEncoding.getTile().getTileLevel(), tileEncoding.getTile().getTileRow(), tileEncoding.getTile().getTileCol(), collectionId);
+      if(LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Stacktrace:", e);
+      }
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * close the connection and remove the working database, if it still exists; can be called more than once
+   */
+  @Override
+  public synchronized void close() {
+    try {
+      if (Objects.nonNull(connection))
+        connection.close();
+    } catch (SQLException e) {
+      // ignore
+    }
+    connection = null;
+
+    try {
+      if (Objects.nonNull(databaseFile))
+        Files.deleteIfExists(databaseFile);
+    } catch (IOException e) {
+      LOGGER.debug("Could not delete the working database '{}' of the bulk generation of tiles: {}", databaseFile, e.getMessage());
+    }
+    databaseFile = null;
+  }
+}
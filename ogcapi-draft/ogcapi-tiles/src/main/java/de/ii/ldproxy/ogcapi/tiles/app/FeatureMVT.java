@@ -19,6 +19,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.SortedMap;
 import org.immutables.value.Value;
+import org.locationtech.jts.geom.CoordinateSequence;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 
@@ -90,6 +91,10 @@ public interface FeatureMVT extends FeatureBase<PropertyMVT, FeatureSchema> {
         .findFirst();
   }
 
+  default Optional<CoordinateSequence> getJtsPointCoordinateSequence() {
+    return getGeometry().flatMap(PropertyMVT::getJtsPointCoordinateSequence);
+  }
+
   default Optional<Geometry> getJtsGeometry(GeometryFactory geometryFactory) {
     return getGeometry().flatMap(geometry -> geometry.getJtsGeometry(geometryFactory));
   }
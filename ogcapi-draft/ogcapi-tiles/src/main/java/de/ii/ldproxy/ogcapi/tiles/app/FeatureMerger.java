@@ -10,7 +10,6 @@ package de.ii.ldproxy.ogcapi.tiles.app;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
 import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableMvtFeature.Builder;
 import de.ii.ldproxy.ogcapi.tiles.domain.MvtFeature;
 import org.locationtech.jts.geom.Geometry;
@@ -22,12 +21,14 @@ import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.geom.PrecisionModel;
 import org.locationtech.jts.operation.linemerge.LineMerger;
 import org.locationtech.jts.operation.overlayng.OverlayNG;
+import org.locationtech.jts.operation.union.CascadedPolygonUnion;
+import org.locationtech.jts.operation.union.UnionStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -47,6 +48,7 @@ class FeatureMerger {
     private final GeometryFactory geometryFactory;
     private final PrecisionModel precisionModel;
     private final String context;
+    private final UnionStrategy unionStrategy;
 
     FeatureMerger(List<String> groupBy, boolean allProperties, List<String> properties, GeometryFactory geometryFactory, PrecisionModel precisionModel, String context) {
         this.groupBy = groupBy;
@@ -55,47 +57,69 @@ class FeatureMerger {
         this.geometryFactory = geometryFactory;
         this.precisionModel = precisionModel;
         this.context = context;
+        this.unionStrategy = new UnionStrategy() {
+            @Override
+            public Geometry union(Geometry g0, Geometry g1) {
+                OverlayNG overlay = new OverlayNG(g0, g1, precisionModel, OverlayNG.UNION);
+                overlay.setStrictMode(true);
+                return overlay.getResult();
+            }
+
+            @Override
+            public boolean isFloatingPrecision() {
+                return precisionModel.isFloating();
+            }
+        };
     }
 
     List<MvtFeature> merge(Set<MvtFeature> mergeFeatures) {
-        ImmutableList<ImmutableList<Object>> valueGroups = groupBy.stream()
-                                                                  .map(att -> mergeFeatures.stream()
-                                                                                           .map(props -> props.getProperties().getOrDefault(att, NULL))
-                                                                                           .distinct()
-                                                                                           .collect(ImmutableList.toImmutableList()))
-                                                                  .collect(ImmutableList.toImmutableList());
+        // group the features by the values of the groupBy attributes in a single pass
+        Map<List<Object>, List<MvtFeature>> polygonGroups = new LinkedHashMap<>();
+        Map<List<Object>, List<MvtFeature>> lineStringGroups = new LinkedHashMap<>();
+        for (MvtFeature feature : mergeFeatures) {
+            Geometry geometry = feature.getGeometry();
+            Map<List<Object>, List<MvtFeature>> groups;
+            if (geometry instanceof Polygon || geometry instanceof MultiPolygon)
+                groups = polygonGroups;
+            else if (geometry instanceof LineString || geometry instanceof MultiLineString)
+                groups = lineStringGroups;
+            else
+                continue;
+            List<Object> values = groupBy.stream()
+                                         .map(att -> feature.getProperties().getOrDefault(att, NULL))
+                                         .collect(ImmutableList.toImmutableList());
+            groups.computeIfAbsent(values, ignore -> new ArrayList<>()).add(feature);
+        }
 
         List<MvtFeature> polygonFeatures = new ArrayList<>();
         List<MvtFeature> lineStringFeatures = new ArrayList<>();
-        if (mergeFeatures.stream().anyMatch(feature -> feature.getGeometry() instanceof Polygon || feature.getGeometry() instanceof MultiPolygon)) {
-            Lists.cartesianProduct(valueGroups)
-                 .forEach(values -> {
-                     try {
-                         polygonFeatures.addAll(mergePolygons(mergeFeatures, values));
-                     } catch (Exception e) {
-                         LOGGER.error("{}: Error while merging polygon geometries grouped by {}. The features are skipped.", context, values);
-                         if (LOGGER.isDebugEnabled()) {
-                             LOGGER.debug("Stacktrace:", e);
-                         }
-                     }
-                 });
+        if (!polygonGroups.isEmpty()) {
+            polygonGroups.forEach((values, features) -> {
+                try {
+                    polygonFeatures.addAll(mergePolygons(features, values));
+                } catch (Exception e) {
+                    LOGGER.error("{}: Error while merging polygon geometries grouped by {}. The features are skipped.", context, values);
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Stacktrace:", e);
+                    }
+                }
+            });
             LOGGER.trace("{}: {} merged polygon features, total pixel area: {}.", context, polygonFeatures.size(), polygonFeatures.stream()
                                                                                                                                   .mapToDouble(f -> f.getGeometry().getArea())
                                                                                                                                   .sum());
         }
 
-        if (mergeFeatures.stream().anyMatch(feature -> feature.getGeometry() instanceof LineString || feature.getGeometry() instanceof MultiLineString)) {
-            Lists.cartesianProduct(valueGroups)
-                 .forEach(values -> {
-                     try {
-                         lineStringFeatures.addAll(mergeLineStrings(mergeFeatures, values));
-                     } catch (Exception e) {
-                         LOGGER.error("{}: Error while merging line string geometries grouped by {}. The features are skipped.", context, values);
-                         if (LOGGER.isDebugEnabled()) {
-                             LOGGER.debug("Stacktrace:", e);
-                         }
-                     }
-                 });
+        if (!lineStringGroups.isEmpty()) {
+            lineStringGroups.forEach((values, features) -> {
+                try {
+                    lineStringFeatures.addAll(mergeLineStrings(features, values));
+                } catch (Exception e) {
+                    LOGGER.error("{}: Error while merging line string geometries grouped by {}. The features are skipped.", context, values);
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Stacktrace:", e);
+                    }
+                }
+            });
             LOGGER.trace("{}: {} merged line string features, total pixel length: {}.",
                          context, lineStringFeatures.size(), lineStringFeatures.stream()
                                                                                .mapToDouble(f -> f.getGeometry().getLength())
@@ -106,33 +130,10 @@ class FeatureMerger {
         return polygonFeatures;
     }
 
-    private List<MvtFeature> mergePolygons(Set<MvtFeature> mergeFeatures, List<Object> values) {
+    private List<MvtFeature> mergePolygons(List<MvtFeature> features, List<Object> values) {
         // merge all polygons with the values for the groupBy attributes
         ImmutableList.Builder<MvtFeature> result = ImmutableList.builder();
 
-        // identify features that match the values
-        List<MvtFeature> features = mergeFeatures
-                .stream()
-                .filter(feature -> feature.getGeometry() instanceof Polygon || feature.getGeometry() instanceof MultiPolygon)
-                .filter(feature -> {
-                    int i = 0;
-                    boolean match = true;
-                    for (String att : groupBy) {
-                        if (values.get(i).equals(NULL)) {
-                            if (feature.getProperties().containsKey(att)) {
-                                match = false;
-                                break;
-                            }
-                        } else if (!values.get(i).equals(feature.getProperties().get(att))) {
-                            match = false;
-                            break;
-                        }
-                        i++;
-                    }
-                    return match;
-                })
-                .collect(Collectors.toUnmodifiableList());
-
         // nothing to merge?
         if (features.isEmpty()) {
             return result.build();
@@ -173,13 +174,9 @@ class FeatureMerger {
                             break;
                         default:
                             try {
-                                Iterator<Polygon> iter = polygons.iterator();
-                                geom = iter.next();
-                                while (iter.hasNext()) {
-                                    OverlayNG overlay = new OverlayNG(geom, iter.next(), precisionModel, OverlayNG.SYMDIFFERENCE);
-                                    overlay.setStrictMode(true);
-                                    geom = overlay.getResult();
-                                }
+                                // union the polygons in a tree of unions of neighbouring polygons; unlike with a
+                                // symmetric difference, areas where polygons overlap are kept and do not become holes
+                                geom = CascadedPolygonUnion.union(polygons, unionStrategy);
                             } catch (Exception e) {
                                 geom = geometryFactory.createMultiPolygon(polygons.toArray(Polygon[]::new));
                             }
@@ -214,32 +211,9 @@ class FeatureMerger {
     }
 
     // merge all polygons with the values for the groupBy attributes
-    private List<MvtFeature> mergeLineStrings(Set<MvtFeature> mergeFeatures, List<Object> values) {
+    private List<MvtFeature> mergeLineStrings(List<MvtFeature> features, List<Object> values) {
         ImmutableList.Builder<MvtFeature> result = ImmutableList.builder();
 
-        // identify features that match the values
-        List<MvtFeature> features = mergeFeatures
-                .stream()
-                .filter(feature -> feature.getGeometry() instanceof LineString || feature.getGeometry() instanceof MultiLineString)
-                .filter(feature -> {
-                    int i = 0;
-                    boolean match = true;
-                    for (String att : groupBy) {
-                        if (values.get(i).equals(NULL)) {
-                            if (feature.getProperties().containsKey(att)) {
-                                match = false;
-                                break;
-                            }
-                        } else if (!values.get(i).equals(feature.getProperties().get(att))) {
-                            match = false;
-                            break;
-                        }
-                        i++;
-                    }
-                    return match;
-                })
-                .collect(Collectors.toUnmodifiableList());
-
         // nothing to merge?
         if (features.isEmpty()) {
             return result.build();
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import de.ii.ldproxy.ogcapi.tiles.domain.CachedTile;
+import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableCachedTile;
+
+import javax.annotation.Nullable;
+import java.util.Date;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * In-memory tier of the tile cache of an API. Holds the most recently used tiles together with their
+ * entity tag and last modification date, bounded by the total size of the tiles.
+ *
+ * <p>A tile that has been read from the cache is only added, if it has not been invalidated since the read started:
+ * the reader takes the version of the key before it reads the tile, every invalidation increases the version.
+ */
+class MemoryTileCache {
+
+    // a single tile may use at most this share of the capacity
+    private static final int MAX_TILE_SHARE = 64;
+    // the keys are spread over a fixed number of locks, each with the version of its keys
+    private static final int STRIPES = 64;
+    private final Cache<String, MemoryTile> cache;
+    private final long maxTileSize;
+    private final Object[] locks = new Object[STRIPES];
+    private final long[] versions = new long[STRIPES];
+
+    MemoryTileCache(long maxBytes) {
+        this.cache = CacheBuilder.newBuilder()
+                                 .maximumWeight(maxBytes)
+                                 .weigher((String key, MemoryTile tile) -> tile.size() + key.length())
+                                 .build();
+        this.maxTileSize = maxBytes / MAX_TILE_SHARE;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    Optional<CachedTile> get(String key) {
+        return Optional.ofNullable(cache.getIfPresent(key))
+                       .map(MemoryTile::toCachedTile);
+    }
+
+    /**
+     * get the version of a key; the version has to be taken before the tile is read from the cache
+     * @param key the key of the tile
+     * @return the version
+     */
+    long getVersion(String key) {
+        int stripe = getStripe(key);
+        synchronized (locks[stripe]) {
+            return versions[stripe];
+        }
+    }
+
+    /**
+     * add a tile, unless it is too large or it has been invalidated after the version was taken
+     * @param version the version of the key before the tile was read
+     * @param gzipContent the gzip-compressed content of the tile, if the cache stores the tile compressed
+     * @return the tile
+     */
+    @SuppressWarnings("UnstableApiUsage")
+    CachedTile put(String key, long version, byte[] content, @Nullable byte[] gzipContent, Date lastModified) {
+        MemoryTile tile = new MemoryTile(content, gzipContent, Hashing.murmur3_128().hashBytes(content).toString(), lastModified);
+        if (tile.size() <= maxTileSize) {
+            int stripe = getStripe(key);
+            synchronized (locks[stripe]) {
+                if (versions[stripe] == version)
+                    cache.put(key, tile);
+            }
+        }
+        return tile.toCachedTile();
+    }
+
+    void invalidate(String key) {
+        int stripe = getStripe(key);
+        synchronized (locks[stripe]) {
+            versions[stripe]++;
+            cache.invalidate(key);
+        }
+    }
+
+    void invalidateAll() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            synchronized (locks[stripe]) {
+                versions[stripe]++;
+            }
+        }
+        cache.invalidateAll();
+    }
+
+    private static int getStripe(String key) {
+        return Math.floorMod(key.hashCode(), STRIPES);
+    }
+
+    private static class MemoryTile {
+        final byte[] content;
+        final byte[] gzipContent;
+        final String etag;
+        final Date lastModified;
+
+        MemoryTile(byte[] content, byte[] gzipContent, String etag, Date lastModified) {
+            this.content = content;
+            this.gzipContent = gzipContent;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        int size() {
+            return content.length + (Objects.nonNull(gzipContent) ? gzipContent.length : 0);
+        }
+
+        CachedTile toCachedTile() {
+            return new ImmutableCachedTile.Builder()
+                .content(ByteSource.wrap(content))
+                .gzipContent(Optional.ofNullable(gzipContent).map(ByteSource::wrap))
+                .etag(etag)
+                .lastModified(lastModified)
+                .build();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app;
+
+import com.google.common.collect.ImmutableList;
+import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableMvtFeature;
+import de.ii.ldproxy.ogcapi.tiles.domain.MvtFeature;
+import de.ii.ldproxy.ogcapi.tiles.domain.Rule;
+import de.ii.ldproxy.ogcapi.tiles.domain.Tile;
+import de.ii.ldproxy.ogcapi.tiles.domain.TilesConfiguration;
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import no.ecc.vectortile.VectorTileDecoder;
+import org.locationtech.jts.geom.CoordinateXY;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.util.AffineTransformation;
+import org.locationtech.jts.precision.GeometryPrecisionReducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static de.ii.ldproxy.ogcapi.tiles.app.CapabilityTiles.LIMIT_DEFAULT;
+
+/**
+ * Generates a single-layer vector tile from the four tiles of the next zoom level that it covers. The geometries of
+ * the child tiles are scaled to the tile, the pieces of a feature from the different child tiles are combined and the
+ * result is simplified, clipped and merged in the same way as the geometries from a feature query.
+ *
+ * <p>The child tiles only include their buffer, which is half of the buffer of the tile after the scaling, so the
+ * geometries are clipped to this smaller buffer; if the child tiles have been generated from their child tiles, too,
+ * the buffer is even smaller. As with a feature query, at most the configured limit of features is
+ * included in each layer, the features are taken in the order of the child tiles.
+ *
+ * <p>The pieces of a feature are combined, if they have the same id and the same attributes. The decoder of the child
+ * tiles does not distinguish a feature without an id from a feature with the id 0, so features with the id 0 are
+ * treated as features without an id: their pieces are not combined and they are written without an id.
+ */
+class ParentTileEncoderMVT {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ParentTileEncoderMVT.class);
+  // the buffer of the child tiles around the tile in pixels
+  private static final double BUFFER = TileEncoderMVT.BUFFER / 2.0;
+
+  private final Tile tile;
+  private final TileMatrixSet tileMatrixSet;
+  private final TilesConfiguration tilesConfiguration;
+  private final double maxRelativeAreaChangeInPolygonRepair;
+  private final double maxAbsoluteAreaChangeInPolygonRepair;
+  private final double minimumSizeInPixel;
+  private final PrecisionModel tilePrecisionModel;
+  private final GeometryPrecisionReducer reducer;
+  private final GeometryFactory geometryFactoryTile;
+  private final Polygon clipGeometry;
+  private final List<String> groupBy;
+  private final int limit;
+  private final VectorTileDecoder decoder;
+  // the features of the child tiles, by layer; the pieces of a feature with an id are combined
+  private final Map<String, Map<List<Object>, ChildFeature>> layers;
+  private long featuresWithoutId = 0;
+
+  ParentTileEncoderMVT(Tile tile, TilesConfiguration tilesConfiguration) {
+    this.tile = tile;
+    this.tileMatrixSet = tile.getTileMatrixSet();
+    this.tilesConfiguration = tilesConfiguration;
+    this.maxRelativeAreaChangeInPolygonRepair = tilesConfiguration.getMaxRelativeAreaChangeInPolygonRepairDerived();
+    this.maxAbsoluteAreaChangeInPolygonRepair = tilesConfiguration.getMaxAbsoluteAreaChangeInPolygonRepairDerived();
+    this.minimumSizeInPixel = tilesConfiguration.getMinimumSizeInPixelDerived();
+    this.tilePrecisionModel = new PrecisionModel((double)tileMatrixSet.getTileExtent() / (double)tileMatrixSet.getTileSize());
+    this.reducer = new GeometryPrecisionReducer(tilePrecisionModel);
+    this.geometryFactoryTile = new GeometryFactory(tilePrecisionModel);
+    this.limit = Objects.requireNonNullElse(tilesConfiguration.getLimitDerived(), LIMIT_DEFAULT);
+    // the coordinates are scaled to the tile, not to a fixed size
+    this.decoder = new VectorTileDecoder();
+    decoder.setAutoScale(false);
+    this.layers = new LinkedHashMap<>();
+
+    final int size = tileMatrixSet.getTileSize();
+    CoordinateXY[] coords = new CoordinateXY[5];
+    coords[0] = new CoordinateXY(-BUFFER, size+BUFFER);
+    coords[1] = new CoordinateXY(size+BUFFER, size+BUFFER);
+    coords[2] = new CoordinateXY(size+BUFFER, -BUFFER);
+    coords[3] = new CoordinateXY(-BUFFER, -BUFFER);
+    coords[4] = coords[0];
+    this.clipGeometry = geometryFactoryTile.createPolygon(coords);
+
+    final Map<String, List<Rule>> rules = tilesConfiguration.getRulesDerived();
+    this.groupBy = (Objects.nonNull(rules) && rules.containsKey(tileMatrixSet.getId())) ?
+        rules.get(tileMatrixSet.getId()).stream()
+            .filter(rule -> rule.getMax()>=tile.getTileLevel() && rule.getMin()<=tile.getTileLevel() && rule.getMerge().orElse(false))
+            .map(Rule::getGroupBy)
+            .findAny()
+            .orElse(null) :
+        null;
+  }
+
+  /**
+   * add the features of a child tile
+   * @param childTile the child tile, one of the four tiles of the next zoom level that are covered by the tile
+   * @param content the encoded child tile
+   * @throws IOException the child tile could not be decoded
+   */
+  void addChildTile(Tile childTile, byte[] content) throws IOException {
+    if (content.length == 0) {
+      // empty tile
+      return;
+    }
+
+    // the child tile covers a quarter of the tile
+    double halfSize = tileMatrixSet.getTileSize() / 2.0;
+    double dx = (childTile.getTileCol() - 2 * tile.getTileCol()) * halfSize;
+    double dy = (childTile.getTileRow() - 2 * tile.getTileRow()) * halfSize;
+
+    for (VectorTileDecoder.Feature feature : decoder.decode(content).asList()) {
+      // the coordinates are in the extent of the layer in the child tile
+      double scale = halfSize / feature.getExtent();
+      Geometry geometry = feature.getGeometry();
+      geometry.apply(new AffineTransformation().scale(scale, scale).translate(dx, dy));
+
+      // features without an id cannot be matched across child tiles; the decoder returns 0, if a feature has no id
+      List<Object> key = feature.getId() != 0
+          ? ImmutableList.of(feature.getId(), feature.getAttributes())
+          : ImmutableList.of(--featuresWithoutId);
+      layers.computeIfAbsent(feature.getLayerName(), ignore -> new LinkedHashMap<>())
+          .computeIfAbsent(key, ignore -> new ChildFeature(feature.getId(), feature.getAttributes()))
+          .pieces.add(geometry);
+    }
+  }
+
+  byte[] encode() {
+    TileWriterMVT tileWriter = new TileWriterMVT(tileMatrixSet.getTileExtent(), tileMatrixSet.getTileSize());
+    // the geometries are already in tile coordinates
+    AffineTransformation identity = new AffineTransformation();
+
+    for (Map.Entry<String, Map<List<Object>, ChildFeature>> layer : layers.entrySet()) {
+      String layerName = layer.getKey();
+      Set<MvtFeature> mergeFeatures = new HashSet<>();
+      long mergeCount = 0;
+      long count = 0;
+
+      for (ChildFeature feature : layer.getValue().values()) {
+        if (count >= limit) {
+          break;
+        }
+        try {
+          Geometry tileGeometry = TileGeometryUtil
+              .getTileGeometry(feature.getGeometry(), identity, clipGeometry, reducer, tilePrecisionModel, minimumSizeInPixel, maxRelativeAreaChangeInPolygonRepair, maxAbsoluteAreaChangeInPolygonRepair);
+          if (Objects.isNull(tileGeometry)) {
+            continue;
+          }
+          count++;
+
+          // if polygons have to be merged, store them for now and process at the end
+          if (Objects.nonNull(groupBy) && tileGeometry.getGeometryType().contains("Polygon")) {
+            mergeFeatures.add(new ImmutableMvtFeature.Builder()
+                .id(++mergeCount)
+                .properties(feature.attributes)
+                .geometry(tileGeometry)
+                .build());
+            continue;
+          }
+
+          // Geometry is invalid -> log this information and skip it, if that option is used
+          if (!tileGeometry.isValid()) {
+            LOGGER.info("Feature {} in layer {} has an invalid tile geometry in tile {}/{}/{}/{}.", feature.id, layerName, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+            if (tilesConfiguration.isIgnoreInvalidGeometriesDerived()) {
+              continue;
+            }
+          }
+
+          // the id 0 is not distinguished from a missing id, see above
+          tileWriter.addFeature(layerName, feature.attributes, tileGeometry, feature.id != 0 ? feature.id : null);
+        } catch (Exception e) {
+          LOGGER.error("Error while processing feature {} in tile {}/{}/{}/{} in layer {}. The feature is skipped.", feature.id, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), layerName);
+          if(LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Stacktrace:", e);
+          }
+        }
+      }
+
+      if (mergeCount > 0) {
+        FeatureMerger merger = new FeatureMerger(groupBy, true, ImmutableList.of(), geometryFactoryTile, tilePrecisionModel, String.format("Layer %s, tile %s/%d/%d/%d", layerName, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol()));
+        merger.merge(mergeFeatures).forEach(mergedFeature -> {
+          Geometry geom = mergedFeature.getGeometry();
+          // Geometry is invalid? -> log this information and skip it, if that option is used
+          if (!geom.isValid()) {
+            LOGGER.info("A merged feature in layer {} has an invalid tile geometry in tile {}/{}/{}/{}. Properties: {}", layerName, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), mergedFeature.getProperties());
+            if (tilesConfiguration.isIgnoreInvalidGeometriesDerived())
+              return;
+          }
+          tileWriter.addFeature(layerName, mergedFeature.getProperties(), geom, null);
+        });
+      }
+    }
+
+    return tileWriter.encode();
+  }
+
+  /**
+   * a feature with its pieces from the child tiles
+   */
+  private class ChildFeature {
+    private final long id;
+    private final Map<String, Object> attributes;
+    private final List<Geometry> pieces = new ArrayList<>();
+
+    ChildFeature(long id, Map<String, Object> attributes) {
+      this.id = id;
+      this.attributes = attributes;
+    }
+
+    Geometry getGeometry() {
+      if (pieces.size() == 1) {
+        return pieces.get(0);
+      }
+
+      // the pieces overlap in the buffers of the child tiles
+      Geometry geometry = geometryFactoryTile.buildGeometry(pieces);
+      try {
+        return geometry.union();
+      } catch (Exception e) {
+        // the geometry is repaired during the simplification
+        return geometry;
+      }
+    }
+  }
+}
@@ -10,12 +10,14 @@ package de.ii.ldproxy.ogcapi.tiles.app;
 import de.ii.xtraplatform.features.domain.FeatureSchema;
 import de.ii.xtraplatform.features.domain.PropertyBase;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.IntFunction;
 import org.immutables.value.Value;
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LineString;
@@ -24,6 +26,7 @@ import org.locationtech.jts.geom.MultiLineString;
 import org.locationtech.jts.geom.MultiPoint;
 import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
 
 @Value.Modifiable
 @Value.Style(set = "*")
@@ -61,6 +64,26 @@ public interface PropertyMVT extends PropertyBase<PropertyMVT, FeatureSchema> {
         });
   }
 
+  /**
+   * @return the points of a point or multi-point geometry in a packed sequence, without creating a geometry or a
+   *         coordinate object for each point; empty for other geometry types
+   */
+  default Optional<CoordinateSequence> getJtsPointCoordinateSequence() {
+    return getGeometryType()
+        .flatMap(geometryType -> {
+          switch (geometryType) {
+            case POINT:
+              double[] ordinates = new double[2];
+              return Optional.of(!getNestedProperties().isEmpty() && getNestedProperties().get(0).readJtsOrdinates(ordinates, 0)
+                  ? new PackedCoordinateSequence.Double(ordinates, 2, 0)
+                  : new PackedCoordinateSequence.Double(new double[0], 2, 0));
+            case MULTI_POINT:
+              return Optional.of(getJtsCoordinateSequence());
+          }
+          return Optional.empty();
+        });
+  }
+
   default Optional<Geometry> getJtsPoint(GeometryFactory geometryFactory) {
     return getNestedProperties().isEmpty()
         ? Optional.empty()
@@ -70,15 +93,15 @@ public interface PropertyMVT extends PropertyBase<PropertyMVT, FeatureSchema> {
   }
 
   default Optional<MultiPoint> getJtsMultiPoint(GeometryFactory geometryFactory) {
-    return getJtsCoordinateArrayAsGeometry(geometryFactory::createMultiPointFromCoords, true);
+    return getJtsCoordinateSequenceAsGeometry(geometryFactory::createMultiPoint, true);
   }
 
   default Optional<LineString> getJtsLineString(GeometryFactory geometryFactory, boolean isTopLevel) {
-    return getJtsCoordinateArrayAsGeometry(geometryFactory::createLineString, isTopLevel);
+    return getJtsCoordinateSequenceAsGeometry(geometryFactory::createLineString, isTopLevel);
   }
 
   default Optional<LinearRing> getJtsLinearRing(GeometryFactory geometryFactory) {
-    return getJtsCoordinateArrayAsGeometry(geometryFactory::createLinearRing, false);
+    return getJtsCoordinateSequenceAsGeometry(geometryFactory::createLinearRing, false);
   }
 
   default Optional<MultiLineString> getJtsMultiLineString(GeometryFactory geometryFactory) {
@@ -121,11 +144,61 @@ public interface PropertyMVT extends PropertyBase<PropertyMVT, FeatureSchema> {
               .toArray(arrayCreator);
   }
 
-  default <T extends Geometry> Optional<T> getJtsCoordinateArrayAsGeometry(Function<Coordinate[], T> geometryCreator, boolean isTopLevel) {
-    Coordinate[] coordinateArray = isTopLevel ? getJtsCoordinateArray() : getJtsNestedCoordinateArray();
-    return coordinateArray.length == 0
+  default <T extends Geometry> Optional<T> getJtsCoordinateSequenceAsGeometry(Function<CoordinateSequence, T> geometryCreator, boolean isTopLevel) {
+    CoordinateSequence coordinateSequence = isTopLevel ? getJtsCoordinateSequence() : getJtsNestedCoordinateSequence();
+    return coordinateSequence.size() == 0
         ? Optional.empty()
-        : Optional.of(geometryCreator.apply(coordinateArray));
+        : Optional.of(geometryCreator.apply(coordinateSequence));
+  }
+
+  default CoordinateSequence getJtsCoordinateSequence() {
+    return getNestedProperties().isEmpty()
+        ? new PackedCoordinateSequence.Double(new double[0], 2, 0)
+        : getNestedProperties().get(0)
+            .getJtsNestedCoordinateSequence();
+  }
+
+  /**
+   * The values of a position still arrive as strings in nested properties, since the feature tokens are turned into
+   * properties by {@link de.ii.xtraplatform.features.domain.FeatureObjectEncoder} outside of this module; they are
+   * parsed here once, when the geometry is created, directly into the packed array.
+   *
+   * @return the positions in a packed sequence of x/y values, without creating a coordinate object for each position
+   */
+  default CoordinateSequence getJtsNestedCoordinateSequence() {
+    List<PropertyMVT> positions = getNestedProperties();
+    double[] ordinates = new double[positions.size() * 2];
+    int size = 0;
+    for (PropertyMVT position : positions) {
+      if (position.readJtsOrdinates(ordinates, size * 2)) {
+        size++;
+      }
+    }
+    return new PackedCoordinateSequence.Double(size == positions.size() ? ordinates : Arrays.copyOf(ordinates, size * 2), 2, 0);
+  }
+
+  /**
+   * read the x and y value of a position
+   * @param ordinates the array for the values
+   * @param offset the index of the x value in the array
+   * @return {@code true}, if the position has both values
+   */
+  default boolean readJtsOrdinates(double[] ordinates, int offset) {
+    int i = 0;
+    for (PropertyMVT value : getNestedProperties()) {
+      if (value.isValue() && Objects.nonNull(value.getValue())) {
+        try {
+          ordinates[offset + i] = Double.parseDouble(value.getValue());
+        } catch (Throwable e) {
+          return false;
+        }
+
+        if (++i == 2) {
+          return true;
+        }
+      }
+    }
+    return false;
   }
 
   @Value.Lazy
@@ -0,0 +1,308 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Clips geometries to an axis-aligned rectangle, without the general overlay of JTS.
+ *
+ * <p>Line strings are clipped segment by segment (Liang-Barsky), the rings of polygons are clipped against each
+ * edge of the rectangle (Sutherland-Hodgman). Where a concave polygon leaves and re-enters the rectangle, the
+ * clipped ring has zero-width parts along the edge of the rectangle; these are removed by the polygon repair of
+ * {@link TileGeometryUtil}, which then only has to process the part of the geometry in the rectangle.
+ */
+class RectangleClipper {
+
+    // the edges of the rectangle
+    private static final int LEFT = 0;
+    private static final int RIGHT = 1;
+    private static final int BOTTOM = 2;
+    private static final int TOP = 3;
+
+    private final double xmin;
+    private final double ymin;
+    private final double xmax;
+    private final double ymax;
+    private final Envelope rectangle;
+
+    RectangleClipper(Envelope rectangle) {
+        this.rectangle = rectangle;
+        this.xmin = rectangle.getMinX();
+        this.ymin = rectangle.getMinY();
+        this.xmax = rectangle.getMaxX();
+        this.ymax = rectangle.getMaxY();
+    }
+
+    /**
+     * @param geometry the geometry
+     * @return the part of the geometry in the rectangle, an empty geometry, if the geometry is outside of the
+     * rectangle; empty, if the geometry type is not supported
+     */
+    Optional<Geometry> clip(Geometry geometry) {
+        GeometryFactory factory = geometry.getFactory();
+        Envelope envelope = geometry.getEnvelopeInternal();
+        if (rectangle.contains(envelope))
+            return Optional.of(geometry);
+        if (!rectangle.intersects(envelope))
+            return Optional.of(factory.createGeometryCollection());
+
+        if (geometry instanceof Point) {
+            // the envelope of a point intersects the rectangle, so it is inside
+            return Optional.of(geometry);
+        } else if (geometry instanceof MultiPoint) {
+            List<Point> points = new ArrayList<>();
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                Point point = (Point) geometry.getGeometryN(i);
+                if (rectangle.intersects(point.getCoordinate()))
+                    points.add(point);
+            }
+            return Optional.of(factory.createMultiPoint(points.toArray(Point[]::new)));
+        } else if (geometry instanceof LineString) {
+            List<LineString> lineStrings = new ArrayList<>();
+            clipLineString((LineString) geometry, lineStrings);
+            return Optional.of(lineStrings.size() == 1
+                                   ? lineStrings.get(0)
+                                   : factory.createMultiLineString(lineStrings.toArray(LineString[]::new)));
+        } else if (geometry instanceof MultiLineString) {
+            List<LineString> lineStrings = new ArrayList<>();
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                clipLineString((LineString) geometry.getGeometryN(i), lineStrings);
+            }
+            return Optional.of(factory.createMultiLineString(lineStrings.toArray(LineString[]::new)));
+        } else if (geometry instanceof Polygon) {
+            Polygon polygon = clipPolygon((Polygon) geometry);
+            return Optional.of(Objects.nonNull(polygon) ? polygon : factory.createPolygon());
+        } else if (geometry instanceof MultiPolygon) {
+            List<Polygon> polygons = new ArrayList<>();
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                Polygon polygon = clipPolygon((Polygon) geometry.getGeometryN(i));
+                if (Objects.nonNull(polygon))
+                    polygons.add(polygon);
+            }
+            return Optional.of(factory.createMultiPolygon(polygons.toArray(Polygon[]::new)));
+        }
+
+        return Optional.empty();
+    }
+
+    private void clipLineString(LineString lineString, List<LineString> result) {
+        if (rectangle.contains(lineString.getEnvelopeInternal())) {
+            result.add(lineString);
+            return;
+        }
+        if (!rectangle.intersects(lineString.getEnvelopeInternal()))
+            return;
+
+        CoordinateSequence sequence = lineString.getCoordinateSequence();
+        List<Coordinate> part = new ArrayList<>();
+        double[] segment = new double[4];
+        for (int i = 1; i < sequence.size(); i++) {
+            if (!clipSegment(sequence.getX(i - 1), sequence.getY(i - 1), sequence.getX(i), sequence.getY(i), segment)) {
+                addLineString(lineString.getFactory(), part, result);
+                part = new ArrayList<>();
+                continue;
+            }
+            Coordinate start = new Coordinate(segment[0], segment[1]);
+            Coordinate end = new Coordinate(segment[2], segment[3]);
+            if (!part.isEmpty() && !part.get(part.size() - 1).equals2D(start)) {
+                // the line string has left the rectangle
+                addLineString(lineString.getFactory(), part, result);
+                part = new ArrayList<>();
+            }
+            if (part.isEmpty())
+                part.add(start);
+            part.add(end);
+        }
+        addLineString(lineString.getFactory(), part, result);
+    }
+
+    private static void addLineString(GeometryFactory factory, List<Coordinate> coordinates, List<LineString> result) {
+        if (coordinates.size() >= 2)
+            result.add(factory.createLineString(coordinates.toArray(Coordinate[]::new)));
+    }
+
+    /**
+     * Liang-Barsky clipping of a segment
+     * @return {@code false}, if the segment is outside of the rectangle, otherwise the clipped segment is in
+     * {@code result} as x0, y0, x1, y1
+     */
+    private boolean clipSegment(double x0, double y0, double x1, double y1, double[] result) {
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        double[] t = {0.0, 1.0};
+        if (!clipTest(-dx, x0 - xmin, t) || !clipTest(dx, xmax - x0, t) ||
+            !clipTest(-dy, y0 - ymin, t) || !clipTest(dy, ymax - y0, t))
+            return false;
+
+        result[0] = t[0] > 0.0 ? x0 + t[0] * dx : x0;
+        result[1] = t[0] > 0.0 ? y0 + t[0] * dy : y0;
+        result[2] = t[1] < 1.0 ? x0 + t[1] * dx : x1;
+        result[3] = t[1] < 1.0 ? y0 + t[1] * dy : y1;
+        return true;
+    }
+
+    private static boolean clipTest(double p, double q, double[] t) {
+        if (p == 0.0)
+            return q >= 0.0;
+        double r = q / p;
+        if (p < 0.0) {
+            if (r > t[1])
+                return false;
+            if (r > t[0])
+                t[0] = r;
+        } else {
+            if (r < t[0])
+                return false;
+            if (r < t[1])
+                t[1] = r;
+        }
+        return true;
+    }
+
+    private Polygon clipPolygon(Polygon polygon) {
+        if (rectangle.contains(polygon.getEnvelopeInternal()))
+            return polygon;
+
+        LinearRing shell = clipRing(polygon.getExteriorRing());
+        if (Objects.isNull(shell))
+            return null;
+
+        List<LinearRing> holes = new ArrayList<>();
+        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+            LinearRing hole = clipRing(polygon.getInteriorRingN(i));
+            if (Objects.nonNull(hole))
+                holes.add(hole);
+        }
+
+        return polygon.getFactory().createPolygon(shell, holes.toArray(LinearRing[]::new));
+    }
+
+    /**
+     * Sutherland-Hodgman clipping of a ring
+     * @return the clipped ring, {@code null}, if nothing is left of the ring
+     */
+    private LinearRing clipRing(LinearRing ring) {
+        if (rectangle.contains(ring.getEnvelopeInternal()))
+            return ring;
+        if (!rectangle.intersects(ring.getEnvelopeInternal()))
+            return null;
+
+        // the ring is processed as x/y values and without the closing position
+        CoordinateSequence sequence = ring.getCoordinateSequence();
+        int size = sequence.size() - 1;
+        if (size < 3)
+            return null;
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = sequence.getX(i);
+            ys[i] = sequence.getY(i);
+        }
+
+        for (int edge = LEFT; edge <= TOP && size > 0; edge++) {
+            double[] inputXs = xs;
+            double[] inputYs = ys;
+            int inputSize = size;
+            // each position adds at most two positions
+            xs = new double[inputSize * 2];
+            ys = new double[inputSize * 2];
+            size = 0;
+            double previousX = inputXs[inputSize - 1];
+            double previousY = inputYs[inputSize - 1];
+            boolean previousInside = isInside(previousX, previousY, edge);
+            for (int i = 0; i < inputSize; i++) {
+                double currentX = inputXs[i];
+                double currentY = inputYs[i];
+                boolean currentInside = isInside(currentX, currentY, edge);
+                if (currentInside != previousInside) {
+                    setIntersection(previousX, previousY, currentX, currentY, edge, xs, ys, size);
+                    size++;
+                }
+                if (currentInside) {
+                    xs[size] = currentX;
+                    ys[size] = currentY;
+                    size++;
+                }
+                previousX = currentX;
+                previousY = currentY;
+                previousInside = currentInside;
+            }
+        }
+
+        // remove repeated positions
+        int clippedSize = 0;
+        for (int i = 0; i < size; i++) {
+            if (clippedSize == 0 || xs[i] != xs[clippedSize - 1] || ys[i] != ys[clippedSize - 1]) {
+                xs[clippedSize] = xs[i];
+                ys[clippedSize] = ys[i];
+                clippedSize++;
+            }
+        }
+        if (clippedSize > 1 && xs[0] == xs[clippedSize - 1] && ys[0] == ys[clippedSize - 1])
+            clippedSize--;
+        if (clippedSize < 3)
+            return null;
+
+        CoordinateSequence clipped = ring.getFactory().getCoordinateSequenceFactory().create(clippedSize + 1, 2);
+        for (int i = 0; i <= clippedSize; i++) {
+            clipped.setOrdinate(i, CoordinateSequence.X, xs[i % clippedSize]);
+            clipped.setOrdinate(i, CoordinateSequence.Y, ys[i % clippedSize]);
+        }
+        return ring.getFactory().createLinearRing(clipped);
+    }
+
+    private boolean isInside(double x, double y, int edge) {
+        switch (edge) {
+            case LEFT:
+                return x >= xmin;
+            case RIGHT:
+                return x <= xmax;
+            case BOTTOM:
+                return y >= ymin;
+            default:
+                return y <= ymax;
+        }
+    }
+
+    private void setIntersection(double x0, double y0, double x1, double y1, int edge, double[] xs, double[] ys, int index) {
+        switch (edge) {
+            case LEFT:
+                xs[index] = xmin;
+                ys[index] = y0 + (y1 - y0) * (xmin - x0) / (x1 - x0);
+                break;
+            case RIGHT:
+                xs[index] = xmax;
+                ys[index] = y0 + (y1 - y0) * (xmax - x0) / (x1 - x0);
+                break;
+            case BOTTOM:
+                xs[index] = x0 + (x1 - x0) * (ymin - y0) / (y1 - y0);
+                ys[index] = ymin;
+                break;
+            default:
+                xs[index] = x0 + (x1 - x0) * (ymax - y0) / (y1 - y0);
+                ys[index] = ymax;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app;
+
+import de.ii.ldproxy.ogcapi.tiles.domain.TileSeeding;
+import de.ii.xtraplatform.dropwizard.domain.Dropwizard;
+import io.dropwizard.servlets.tasks.Task;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Changes the number of threads of a running seeding of an API.
+ */
+@Component
+@Instantiate
+public class SeedingThreadsTask extends Task {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SeedingThreadsTask.class);
+
+  private final TileSeeding tileSeeding;
+
+  protected SeedingThreadsTask(@Requires Dropwizard dropwizard, @Requires TileSeeding tileSeeding) {
+    super("tile-seeding-threads");
+    this.tileSeeding = tileSeeding;
+
+    dropwizard.getEnvironment().admin().addTask(this);
+  }
+
+  @Override
+  public void execute(Map<String, List<String>> parameters, PrintWriter output) throws Exception {
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Tile seeding threads request: {}", parameters);
+    }
+
+    Optional<String> apiId = getValue(parameters, "api");
+
+    if (apiId.isEmpty()) {
+      output.println("No api id given");
+      output.flush();
+      return;
+    }
+
+    Optional<Integer> threads;
+    try {
+      threads = getValue(parameters, "threads").map(Integer::parseInt);
+    } catch (NumberFormatException e) {
+      threads = Optional.empty();
+    }
+
+    if (threads.isEmpty() || threads.get() < 1) {
+      output.println("No valid number of threads given");
+      output.flush();
+      return;
+    }
+
+    Optional<Integer> result = tileSeeding.setThreads(apiId.get(), threads.get());
+
+    if (result.isEmpty()) {
+      output.println("No seeding of the api with the given id is running");
+    } else {
+      output.println(String.format("The seeding uses up to %d threads", result.get()));
+    }
+    output.flush();
+  }
+
+  private Optional<String> getValue(Map<String, List<String>> parameters, String name) {
+    return Optional.ofNullable(parameters.get(name))
+        .flatMap(values -> values.stream().filter(Objects::nonNull).findFirst());
+  }
+}
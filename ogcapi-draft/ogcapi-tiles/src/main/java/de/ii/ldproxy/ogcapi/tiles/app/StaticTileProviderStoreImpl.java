@@ -9,6 +9,7 @@ package de.ii.ldproxy.ogcapi.tiles.app;
 
 import com.google.common.collect.ImmutableList;
 import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.tiles.app.archive.TileArchive;
 import de.ii.ldproxy.ogcapi.tiles.app.mbtiles.MbtilesMetadata;
 import de.ii.ldproxy.ogcapi.tiles.app.mbtiles.MbtilesTileset;
 import de.ii.ldproxy.ogcapi.tiles.domain.StaticTileProviderStore;
@@ -18,6 +19,7 @@ import de.ii.xtraplatform.store.domain.entities.ImmutableValidationResult;
 import de.ii.xtraplatform.store.domain.entities.ValidationResult;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
 import org.apache.felix.ipojo.annotations.Provides;
 import org.osgi.framework.BundleContext;
 
@@ -27,18 +29,20 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.sql.SQLException;
 import java.text.MessageFormat;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static de.ii.ldproxy.ogcapi.domain.FoundationConfiguration.API_RESOURCES_DIR;
 import static de.ii.xtraplatform.runtime.domain.Constants.DATA_DIR_KEY;
 
 /**
- * Access tiles in Mbtiles files.
+ * Access tiles in Mbtiles files or tile archives.
  */
 @Component
 @Provides
@@ -47,17 +51,40 @@ public class StaticTileProviderStoreImpl implements StaticTileProviderStore {
 
     private static final String TILES_DIR_NAME = "tiles";
     private final Path store;
-    private Map<String, MbtilesTileset> mbtiles;
+    // the opened tile set containers, by path; a file is opened again, if it has been replaced
+    private final Map<Path, OpenedContainer<MbtilesTileset>> tilesets;
+    private final Map<Path, OpenedContainer<TileArchive>> tileArchives;
 
     public StaticTileProviderStoreImpl(@org.apache.felix.ipojo.annotations.Context BundleContext bundleContext) throws IOException {
         this.store = Paths.get(bundleContext.getProperty(DATA_DIR_KEY), API_RESOURCES_DIR)
                                             .resolve(TILES_DIR_NAME);
         Files.createDirectories(store);
-        mbtiles = new HashMap<>();
+        tilesets = new ConcurrentHashMap<>();
+        tileArchives = new ConcurrentHashMap<>();
+    }
+
+    @Invalidate
+    void onStop() {
+        tilesets.values().forEach(opened -> opened.container.close());
+        tilesets.clear();
+        tileArchives.clear();
+    }
+
+    /**
+     * a tile set container and the version of the file that has been opened
+     */
+    private static class OpenedContainer<T> {
+        final T container;
+        final String version;
+
+        OpenedContainer(T container, String version) {
+            this.container = container;
+            this.version = version;
+        }
     }
 
     /**
-     * check that all tile set container exist and register them all in a map
+     * check that all tile set containers exist and open them
      * @param apiData the API
      * @param apiValidation the validation level
      * @return the validation result
@@ -74,11 +101,10 @@ public class StaticTileProviderStoreImpl implements StaticTileProviderStore {
                 && config.get().getTileProvider() instanceof TileProviderMbtiles) {
             TileProviderMbtiles provider = (TileProviderMbtiles) config.get().getTileProvider();
             Path path = getTileProvider(apiData, provider.getFilename());
-            String key = String.join("/", apiData.getId(), CapabilityTiles.DATASET_TILES);
             try {
-                mbtiles.put(key, new MbtilesTileset(path));
+                open(path);
             } catch (Exception e) {
-                builder.addErrors(MessageFormat.format("The Mbtiles container for the multi-collection tile provider at path ''{0}'' could not be initialized.", path.toString()));
+                builder.addErrors(MessageFormat.format("The tile set container for the multi-collection tile provider at path ''{0}'' could not be initialized.", path.toString()));
             }
         }
 
@@ -90,11 +116,10 @@ public class StaticTileProviderStoreImpl implements StaticTileProviderStore {
                     && config.get().getTileProvider() instanceof TileProviderMbtiles) {
                 TileProviderMbtiles provider = (TileProviderMbtiles) config.get().getTileProvider();
                 Path path = getTileProvider(apiData, provider.getFilename());
-                String key = String.join("/", apiData.getId(), collectionId);
                 try {
-                    mbtiles.put(key, new MbtilesTileset(path));
+                    open(path);
                 } catch (Exception e) {
-                    builder.addErrors(MessageFormat.format("The Mbtiles container for the tile provider for collection ''{1}'' at path ''{0}'' could not be initialized.", path.toString(), collectionId));
+                    builder.addErrors(MessageFormat.format("The tile set container for the tile provider for collection ''{1}'' at path ''{0}'' could not be initialized.", path.toString(), collectionId));
                 }
             }
         }
@@ -102,6 +127,86 @@ public class StaticTileProviderStoreImpl implements StaticTileProviderStore {
         return builder.build();
     }
 
+    private void open(Path path) throws IOException {
+        if (isArchive(path)) {
+            getArchive(path);
+        } else {
+            getTileset(path);
+        }
+    }
+
+    /**
+     * the tile set in an Mbtiles file; if the file has been replaced since it was opened, the previous tile set is
+     * closed and the new file is opened
+     * @param path the path of the Mbtiles file
+     * @return the tile set
+     * @throws IOException the file could not be accessed
+     */
+    private MbtilesTileset getTileset(Path path) throws IOException {
+        String version = getVersion(path);
+        OpenedContainer<MbtilesTileset> opened = tilesets.get(path);
+        if (Objects.nonNull(opened) && opened.version.equals(version))
+            return opened.container;
+        synchronized (tilesets) {
+            opened = tilesets.get(path);
+            if (Objects.nonNull(opened) && opened.version.equals(version))
+                return opened.container;
+            MbtilesTileset tileset = new MbtilesTileset(path, true);
+            tilesets.put(path, new OpenedContainer<>(tileset, version));
+            // connections that are still in use are closed when they are released
+            if (Objects.nonNull(opened))
+                opened.container.close();
+            return tileset;
+        }
+    }
+
+    /**
+     * the tile archive in a file; if the file has been replaced since it was opened, the new file is opened
+     * @param path the path of the tile archive
+     * @return the tile archive
+     * @throws IOException the file could not be accessed or is not a tile archive
+     */
+    private TileArchive getArchive(Path path) throws IOException {
+        String version = getVersion(path);
+        OpenedContainer<TileArchive> opened = tileArchives.get(path);
+        if (Objects.nonNull(opened) && opened.version.equals(version))
+            return opened.container;
+        synchronized (tileArchives) {
+            opened = tileArchives.get(path);
+            if (Objects.nonNull(opened) && opened.version.equals(version))
+                return opened.container;
+            // the mapping of the previous file is released, when it is no longer used
+            TileArchive archive = new TileArchive(path);
+            tileArchives.put(path, new OpenedContainer<>(archive, version));
+            return archive;
+        }
+    }
+
+    /**
+     * @param path the path of a file
+     * @return the modification time and the size of the file, as they are also used for the entity tags of the tiles
+     * @throws IOException the file could not be accessed
+     */
+    private static String getVersion(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return attributes.lastModifiedTime().toMillis() + "-" + attributes.size();
+    }
+
+    private static boolean isArchive(Path path) {
+        return path.getFileName().toString().endsWith("." + TileArchive.FILE_EXTENSION);
+    }
+
+    private MbtilesMetadata getMetadata(OgcApiDataV2 apiData, String filename) throws SQLException {
+        Path path = getTileProvider(apiData, filename);
+        try {
+            if (isArchive(path))
+                return getArchive(path).getMetadata();
+            return getTileset(path).getMetadata();
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Could not read tile set container '%s'.", path), e);
+        }
+    }
+
     @Override
     public Path getTileProviderStore() {
         return store;
@@ -114,12 +219,12 @@ public class StaticTileProviderStoreImpl implements StaticTileProviderStore {
 
     @Override
     public InputStream getTile(Path tileProvider, Tile tile) {
-        String key = String.join("/", tile.getApiData().getId(), tile.isDatasetTile() ? CapabilityTiles.DATASET_TILES : tile.getCollectionId());
-        MbtilesTileset tileset = mbtiles.get(key);
         try {
-            return tileset.getTile(tile).orElseThrow(NotFoundException::new);
+            if (isArchive(tileProvider))
+                return getArchive(tileProvider).getTile(tile).orElseThrow(NotFoundException::new);
+            return getTileset(tileProvider).getTile(tile).orElseThrow(NotFoundException::new);
         } catch (SQLException | IOException e) {
-            throw new RuntimeException(String.format("Error accessing tile %d/%d/%d in dataset '%s' in Mbtiles file '%s', format '%s'.",
+            throw new RuntimeException(String.format("Error accessing tile %d/%d/%d in dataset '%s' in tile provider '%s', format '%s'.",
                                                      tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(),
                                                      tile.getApiData().getId(), tileProvider.toString(), tile.getOutputFormat().getExtension()), e);
         }
@@ -127,20 +232,17 @@ public class StaticTileProviderStoreImpl implements StaticTileProviderStore {
 
     @Override
     public Optional<Integer> getMinzoom(OgcApiDataV2 apiData, String filename) throws SQLException {
-        MbtilesTileset tileset = new MbtilesTileset(getTileProvider(apiData, filename));
-        return tileset.getMetadata().getMinzoom();
+        return getMetadata(apiData, filename).getMinzoom();
     }
 
     @Override
     public Optional<Integer> getMaxzoom(OgcApiDataV2 apiData, String filename) throws SQLException {
-        MbtilesTileset tileset = new MbtilesTileset(getTileProvider(apiData, filename));
-        return tileset.getMetadata().getMaxzoom();
+        return getMetadata(apiData, filename).getMaxzoom();
     }
 
     @Override
     public Optional<Integer> getDefaultzoom(OgcApiDataV2 apiData, String filename) throws SQLException {
-        MbtilesTileset tileset = new MbtilesTileset(getTileProvider(apiData, filename));
-        List<Number> center = tileset.getMetadata().getCenter();
+        List<Number> center = getMetadata(apiData, filename).getCenter();
         if (center.size()==3)
             return Optional.of(Math.round(center.get(2).floatValue()));
         return Optional.empty();
@@ -148,8 +250,7 @@ public class StaticTileProviderStoreImpl implements StaticTileProviderStore {
 
     @Override
     public List<Double> getCenter(OgcApiDataV2 apiData, String filename) throws SQLException {
-        MbtilesTileset tileset = new MbtilesTileset(getTileProvider(apiData, filename));
-        List<Number> center = tileset.getMetadata().getCenter();
+        List<Number> center = getMetadata(apiData, filename).getCenter();
         if (center.size()>=2)
             return ImmutableList.of(center.get(0).doubleValue(), center.get(1).doubleValue());
         return ImmutableList.of();
@@ -157,8 +258,7 @@ public class StaticTileProviderStoreImpl implements StaticTileProviderStore {
 
     @Override
     public String getFormat(OgcApiDataV2 apiData, String filename) throws SQLException {
-        MbtilesTileset tileset = new MbtilesTileset(getTileProvider(apiData, filename));
-        MbtilesMetadata.MbtilesFormat format = tileset.getMetadata().getFormat();
+        MbtilesMetadata.MbtilesFormat format = getMetadata(apiData, filename).getFormat();
         if (format==MbtilesMetadata.MbtilesFormat.pbf)
             return "MVT";
         else if (format==MbtilesMetadata.MbtilesFormat.jpg)
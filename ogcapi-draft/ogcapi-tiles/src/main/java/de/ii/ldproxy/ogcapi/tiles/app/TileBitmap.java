@@ -0,0 +1,240 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The tiles of a tile set that are in the cache, one bit per tile. The bitmap is sparse: the tiles of a zoom level are
+ * grouped in blocks of 64x64 tiles and only blocks with a cached tile use memory.
+ *
+ * <p>Only a complete bitmap, i.e. one that has been filled from the cache, is used to answer lookups; until then, the
+ * tiles that are stored or deleted are only recorded. The bitmap is persisted next to the cache and the persisted copy
+ * is deleted as soon as the bitmap changes, so a persisted bitmap is never outdated.
+ */
+class TileBitmap {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TileBitmap.class);
+    private static final int MAGIC = 0x4C445442; // "LDTB"
+    private static final int VERSION = 1;
+    private static final int BLOCK_BITS = 6;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+    private static final int MAX_FILL_ATTEMPTS = 3;
+
+    private final Path path;
+    // each block has one long per row, one bit per column
+    private final Map<Long, AtomicLongArray> blocks;
+    private final Object buildLock = new Object();
+    // the number of tiles that have been removed, a bitmap is only complete, if no tile has been removed while it was filled
+    private final AtomicInteger removals = new AtomicInteger();
+    private final AtomicInteger fillAttempts = new AtomicInteger();
+    private volatile boolean complete;
+    // the bitmap has changed since it was persisted
+    private volatile boolean dirty;
+
+    /**
+     * receives the tiles of a tile set
+     */
+    interface Filler {
+        void fill(TileBitmap bitmap) throws IOException, SQLException;
+    }
+
+    private TileBitmap(Path path, Map<Long, AtomicLongArray> blocks, boolean complete, boolean dirty) {
+        this.path = path;
+        this.blocks = blocks;
+        this.complete = complete;
+        this.dirty = dirty;
+    }
+
+    /**
+     * load the persisted bitmap; if there is none, the bitmap is empty and not complete
+     * @param path the path of the persisted bitmap
+     * @return the bitmap
+     */
+    static TileBitmap load(Path path) {
+        Optional<TileBitmap> bitmap = Optional.empty();
+        if (Files.exists(path)) {
+            try {
+                bitmap = Optional.of(read(path));
+            } catch (IOException e) {
+                LOGGER.warn("Tile bitmap '{}' could not be read, it is rebuilt: {}", path, e.getMessage());
+            }
+        }
+        return bitmap.orElseGet(() -> new TileBitmap(path, new ConcurrentHashMap<>(), false, true));
+    }
+
+    /**
+     * a new, empty bitmap that is complete, i.e. it is not filled from a cache, but records the tiles from the start
+     * @param path the path of the persisted bitmap
+     * @return the bitmap
+     */
+    static TileBitmap create(Path path) {
+        return new TileBitmap(path, new ConcurrentHashMap<>(), true, true);
+    }
+
+    private static TileBitmap read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new BufferedInputStream(Files.newInputStream(path))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Invalid tile bitmap.");
+            boolean complete = in.readBoolean();
+            int blockCount = in.readInt();
+            Map<Long, AtomicLongArray> blocks = new ConcurrentHashMap<>(blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                long key = in.readLong();
+                AtomicLongArray block = new AtomicLongArray(BLOCK_SIZE);
+                for (int j = 0; j < BLOCK_SIZE; j++) {
+                    block.set(j, in.readLong());
+                }
+                blocks.put(key, block);
+            }
+            return new TileBitmap(path, blocks, complete, false);
+        }
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    boolean contains(int level, int row, int col) {
+        AtomicLongArray block = blocks.get(getBlockKey(level, row, col));
+        return block != null && (block.get(row & BLOCK_MASK) & (1L << (col & BLOCK_MASK))) != 0;
+    }
+
+    void add(int level, int row, int col) {
+        long bit = 1L << (col & BLOCK_MASK);
+        long previous = blocks.computeIfAbsent(getBlockKey(level, row, col), key -> new AtomicLongArray(BLOCK_SIZE))
+                              .getAndAccumulate(row & BLOCK_MASK, bit, (value, mask) -> value | mask);
+        if ((previous & bit) == 0)
+            changed();
+    }
+
+    void remove(int level, int row, int col) {
+        removals.incrementAndGet();
+        AtomicLongArray block = blocks.get(getBlockKey(level, row, col));
+        if (block == null)
+            return;
+        long bit = 1L << (col & BLOCK_MASK);
+        long previous = block.getAndAccumulate(row & BLOCK_MASK, ~bit, (value, mask) -> value & mask);
+        if ((previous & bit) != 0)
+            changed();
+    }
+
+    /**
+     * forget all tiles, e.g. after tiles have been removed in bulk; the bitmap has to be filled again
+     */
+    void reset() {
+        removals.incrementAndGet();
+        complete = false;
+        fillAttempts.set(0);
+        blocks.clear();
+        changed();
+    }
+
+    /**
+     * fill the bitmap from the cache, unless it is already complete; if tiles are removed while the bitmap is filled,
+     * it is not complete and the next call tries again, up to a limit
+     * @param filler adds all tiles in the cache to the bitmap
+     */
+    void complete(Filler filler) throws IOException, SQLException {
+        synchronized (buildLock) {
+            if (complete || fillAttempts.getAndIncrement() >= MAX_FILL_ATTEMPTS)
+                return;
+            int removalsBefore = removals.get();
+            // tiles that have been recorded before may have been removed in the meantime
+            blocks.clear();
+            filler.fill(this);
+            if (removals.get() == removalsBefore) {
+                complete = true;
+                changed();
+            }
+        }
+    }
+
+    /**
+     * write the bitmap next to the cache, if it has changed
+     * @throws IOException the bitmap could not be written
+     */
+    void persist() throws IOException {
+        boolean snapshotComplete;
+        Map<Long, long[]> snapshot = new HashMap<>();
+        synchronized (this) {
+            // an incomplete bitmap is rebuilt anyway
+            if (!dirty || !complete)
+                return;
+            dirty = false;
+            snapshotComplete = complete;
+            blocks.forEach((key, block) -> {
+                long[] rows = new long[BLOCK_SIZE];
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    rows[i] = block.get(i);
+                }
+                snapshot.put(key, rows);
+            });
+        }
+
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeBoolean(snapshotComplete);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<Long, long[]> block : snapshot.entrySet()) {
+                out.writeLong(block.getKey());
+                for (long row : block.getValue()) {
+                    out.writeLong(row);
+                }
+            }
+        }
+
+        // the bitmap may have changed while it was written
+        synchronized (this) {
+            if (dirty)
+                Files.deleteIfExists(tmpPath);
+            else
+                Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private void changed() {
+        if (dirty)
+            return;
+        synchronized (this) {
+            if (dirty)
+                return;
+            dirty = true;
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                LOGGER.error("Outdated tile bitmap '{}' could not be deleted: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    private static long getBlockKey(int level, int row, int col) {
+        return ((long) level << 50) | ((long) (row >>> BLOCK_BITS) << 25) | (col >>> BLOCK_BITS);
+    }
+}
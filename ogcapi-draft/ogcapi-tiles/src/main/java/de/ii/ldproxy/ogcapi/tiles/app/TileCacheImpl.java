@@ -11,13 +11,20 @@ import static de.ii.ldproxy.ogcapi.domain.FoundationConfiguration.CACHE_DIR;
 import static de.ii.xtraplatform.runtime.domain.Constants.DATA_DIR_KEY;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.ByteSource;
 import de.ii.ldproxy.ogcapi.domain.ExtensionRegistry;
 import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
 import de.ii.ldproxy.ogcapi.features.core.domain.FeaturesCoreProviders;
 import de.ii.ldproxy.ogcapi.features.core.domain.SchemaInfo;
+import de.ii.ldproxy.ogcapi.tiles.app.archive.TileArchive;
+import de.ii.ldproxy.ogcapi.tiles.app.archive.TileArchiveWriter;
 import de.ii.ldproxy.ogcapi.tiles.app.mbtiles.ImmutableMbtilesMetadata;
 import de.ii.ldproxy.ogcapi.tiles.app.mbtiles.MbtilesMetadata;
 import de.ii.ldproxy.ogcapi.tiles.app.mbtiles.MbtilesTileset;
+import de.ii.ldproxy.ogcapi.tiles.domain.CachedTile;
+import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableCachedTile;
 import de.ii.ldproxy.ogcapi.tiles.domain.MinMax;
 import de.ii.ldproxy.ogcapi.tiles.domain.Tile;
 import de.ii.ldproxy.ogcapi.tiles.domain.TileCache;
@@ -34,12 +41,13 @@ import de.ii.xtraplatform.crs.domain.CrsTransformerFactory;
 import de.ii.xtraplatform.store.domain.entities.EntityRegistry;
 import de.ii.xtraplatform.store.domain.entities.ImmutableValidationResult;
 import de.ii.xtraplatform.store.domain.entities.ValidationResult;
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
@@ -47,6 +55,8 @@ import java.sql.SQLException;
 import java.text.MessageFormat;
 import java.time.Instant;
 import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -55,11 +65,18 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Context;
 import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
 import org.apache.felix.ipojo.annotations.Provides;
 import org.apache.felix.ipojo.annotations.Requires;
 import org.osgi.framework.BundleContext;
@@ -77,10 +94,37 @@ public class TileCacheImpl implements TileCache {
     private static final Logger LOGGER = LoggerFactory.getLogger(TileCacheImpl.class);
     private static final String TILES_DIR_NAME = "tiles";
     private static final String TMP_DIR_NAME = "__tmp__";
+    private static final String WORK_DIR_NAME = "__work__";
+    private static final String ETAG_SUFFIX = ".etag";
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final String BITMAP_SUFFIX = ".bitmap";
+    // FILES: up to this number of rows, the row directories of a zoom level are looked up directly instead of listing them
+    private static final int MAX_PROBED_ROWS = 1_000;
     private static final long TEN_MINUTES = 10 * 60 * 1000;
+    private static final int MAX_PENDING_WRITES = 10_000;
+    private static final int MAX_WRITE_BATCH = 1_000;
+    private static final long WRITER_STOP_TIMEOUT = 60 * 1000;
     private final Path cacheStore;
     private long lastCleanup = System.currentTimeMillis();
     private final Map<String, MbtilesTileset> mbtiles;
+    // MBTILES: tiles that are queued for storage, by tile key; these are also used to answer reads
+    private final Map<String, PendingTile> pendingTiles;
+    private final BlockingQueue<PendingTile> writeQueue;
+    // signals the writer thread that tiles have been queued; tiles are only taken from the queue while holding the lock
+    private final Semaphore queuedTiles = new Semaphore(0);
+    private final Object writeLock = new Object();
+    private final Thread writer;
+    // ARCHIVE: the read-optimized archives of the tile sets, by tile set; empty, if there is no current archive
+    private final Map<String, Optional<TileArchive>> archives;
+    // ARCHIVE: the tiles that have been changed or deleted since the current archive has been built, by tile set;
+    // these tiles are read from the Mbtiles cache
+    private final Map<String, TileBitmap> archiveMasks;
+    // ARCHIVE: the tiles that have been changed or deleted since the build of a new archive has started, by tile set
+    private final Map<String, TileBitmap> archivesInProgress;
+    // the tiles in the cache, by tile set and, for FILES, by tile format
+    private final Map<String, TileBitmap> bitmaps;
+    // in-memory tier for the most recently used tiles, by API
+    private final Map<String, MemoryTileCache> memoryCaches;
     private final TileMatrixSetLimitsGenerator limitsGenerator;
     private final FeaturesCoreProviders providers;
     private final SchemaInfo schemaInfo;
@@ -112,10 +156,57 @@ public class TileCacheImpl implements TileCache {
         this.crsTransformerFactory = crsTransformerFactory;
         Files.createDirectories(cacheStore);
 
-        mbtiles = new HashMap<>();
+        mbtiles = new ConcurrentHashMap<>();
+        archives = new ConcurrentHashMap<>();
+        archiveMasks = new ConcurrentHashMap<>();
+        archivesInProgress = new ConcurrentHashMap<>();
+        bitmaps = new ConcurrentHashMap<>();
+        pendingTiles = new ConcurrentHashMap<>();
+        memoryCaches = new ConcurrentHashMap<>();
+        writeQueue = new LinkedBlockingQueue<>(MAX_PENDING_WRITES);
+
+        writer = new Thread(this::writeBehind, "tile-cache-writer");
+        writer.setDaemon(true);
+        writer.start();
 
         // TODO move to background task
         cleanup();
+
+        // no task is running yet, remove the working files of tasks that have been interrupted
+        deleteWorkFiles();
+    }
+
+    /**
+     * write the queued tiles, stop the writer thread and close the Mbtiles files
+     */
+    @Invalidate
+    void onStop() {
+        try {
+            flush();
+        } catch (IOException | SQLException e) {
+            LOGGER.error("Failure to write tiles to the cache while stopping: {}", e.getMessage());
+        }
+        writer.interrupt();
+        try {
+            writer.join(WRITER_STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            // tiles that have been queued in the meantime
+            flush();
+        } catch (IOException | SQLException e) {
+            LOGGER.error("Failure to write tiles to the cache while stopping: {}", e.getMessage());
+        }
+        synchronized (mbtiles) {
+            mbtiles.values().forEach(MbtilesTileset::close);
+            mbtiles.clear();
+        }
+        try {
+            persistArchiveMasks("");
+        } catch (IOException e) {
+            LOGGER.error("Failure to persist the changes since the tile archives have been built, the archives will not be used: {}", e.getMessage());
+        }
     }
 
     /**
@@ -128,6 +219,14 @@ public class TileCacheImpl implements TileCache {
 
         Map<String, TileMatrixSet> tileMatrixSets = tileMatrixSetRepository.getAll();
         Optional<TilesConfiguration> config = apiData.getExtension(TilesConfiguration.class);
+        int memoryCacheSize = config.filter(TilesConfiguration::isEnabled)
+                                    .map(TilesConfiguration::getMemoryCacheSize)
+                                    .orElse(0);
+        if (memoryCacheSize > 0)
+            memoryCaches.put(apiData.getId(), new MemoryTileCache(memoryCacheSize * 1024L * 1024L));
+        else
+            memoryCaches.remove(apiData.getId());
+
         if (config.isPresent()
                 && config.get().isEnabled()
                 && config.get().isMultiCollectionEnabled()
@@ -163,9 +262,11 @@ public class TileCacheImpl implements TileCache {
                TileMatrixSet tileMatrixSet,
                TilesConfiguration.TileCacheType cacheType) {
         switch (cacheType) {
+            case ARCHIVE:
             case MBTILES:
                 try {
                     getOrInitTileset(apiData, collectionId, tileMatrixSet);
+                    getBitmap(apiData.getId(), collectionId, tileMatrixSet.getId(), Optional.empty());
                 } catch (IOException e) {
                     builder.addErrors(MessageFormat.format("The Mbtiles container for the tile cache for collection ''{0}'' could not be initialized.", collectionId.orElse("__all__")));
                 }
@@ -175,6 +276,7 @@ public class TileCacheImpl implements TileCache {
             case FILES:
                 try {
                     Files.createDirectories(cacheStore.resolve(apiData.getId()).resolve(collectionId.orElse("__all__")).resolve(tileMatrixSet.getId()));
+                    getTileFormats(apiData, collectionId).forEach(format -> getBitmap(apiData.getId(), collectionId, tileMatrixSet.getId(), Optional.of(format.getExtension())));
                 } catch (IOException e) {
                     builder.addErrors(MessageFormat.format("The folders for the tile cache for collection ''{0}'' could not be initialized.", collectionId.orElse("__all__")));
                 }
@@ -215,10 +317,23 @@ public class TileCacheImpl implements TileCache {
 
     @Override
     public boolean tileExists(Tile tile) throws IOException, SQLException {
+        if (!tile.getTemporary()) {
+            // the first lookup fills the bitmap from the cache, afterwards the cache is no longer accessed
+            TileBitmap bitmap = getBitmap(tile);
+            if (!bitmap.isComplete())
+                completeBitmap(tile, bitmap);
+            if (bitmap.isComplete())
+                return bitmap.contains(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+        }
+
         switch (getType(tile)) {
+            case ARCHIVE:
+                if (getArchive(tile).map(archive -> archive.tileExists(tile)).orElse(false))
+                    return true;
+
             case MBTILES:
                 if (!tile.getTemporary())
-                    return getTileset(tile).tileExists(tile);
+                    return pendingTiles.containsKey(tile.getKey()) || getTileset(tile).tileExists(tile);
 
             case FILES:
             default:
@@ -228,26 +343,88 @@ public class TileCacheImpl implements TileCache {
 
     @Override
     public Optional<InputStream> getTile(Tile tile) throws IOException, SQLException {
+        Optional<CachedTile> cachedTile = getCachedTile(tile);
+        if (cachedTile.isEmpty())
+            return Optional.empty();
+        return Optional.of(cachedTile.get().getContent().openStream());
+    }
+
+    @Override
+    @SuppressWarnings("UnstableApiUsage")
+    public Optional<CachedTile> getCachedTile(Tile tile) throws IOException, SQLException {
+        Optional<MemoryTileCache> memoryCache = getMemoryCache(tile);
+        if (memoryCache.isPresent()) {
+            Optional<CachedTile> cachedTile = memoryCache.get().get(tile.getKey());
+            if (cachedTile.isPresent())
+                return cachedTile;
+        }
+        // a tile that is changed while it is read is not added to the memory cache
+        long memoryVersion = memoryCache.map(cache -> cache.getVersion(tile.getKey())).orElse(0L);
+
+        if (!tile.getTemporary()) {
+            TileBitmap bitmap = getBitmap(tile);
+            if (bitmap.isComplete() && !bitmap.contains(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol()))
+                return Optional.empty();
+        }
+
         switch (getType(tile)) {
+            case ARCHIVE:
+                Optional<CachedTile> archivedTile = getArchive(tile).flatMap(archive -> archive.getCachedTile(tile));
+                if (archivedTile.isPresent())
+                    return memoryCache.isEmpty() ? archivedTile : Optional.of(loadIntoMemory(memoryCache.get(), memoryVersion, tile, archivedTile.get()));
+
             case MBTILES:
-                if (!tile.getTemporary())
-                    return getTileset(tile).getTile(tile);
+                if (!tile.getTemporary()) {
+                    PendingTile pendingTile = pendingTiles.get(tile.getKey());
+                    if (Objects.nonNull(pendingTile))
+                        return Optional.of(new ImmutableCachedTile.Builder()
+                                               .content(ByteSource.wrap(pendingTile.content))
+                                               .etag(Hashing.murmur3_128().hashBytes(pendingTile.content).toString())
+                                               .lastModified(new Date(pendingTile.lastModified))
+                                               .build());
+                    Optional<CachedTile> cachedTile = getTileset(tile).getCachedTile(tile);
+                    if (memoryCache.isEmpty() || cachedTile.isEmpty())
+                        return cachedTile;
+                    return Optional.of(loadIntoMemory(memoryCache.get(), memoryVersion, tile, cachedTile.get()));
+                }
 
             case FILES:
             default:
                 Path path = getPath(tile);
                 if (Files.notExists(path))
                     return Optional.empty();
-                return Optional.of(new BufferedInputStream(new FileInputStream(path.toFile())));
+                ImmutableCachedTile.Builder builder = new ImmutableCachedTile.Builder()
+                    .content(com.google.common.io.Files.asByteSource(path.toFile()))
+                    .path(path)
+                    .lastModified(new Date(Files.getLastModifiedTime(path).toMillis()));
+                if (!tile.getTemporary()) {
+                    readEtag(path).ifPresent(builder::etag);
+                    Path gzipPath = getGzipPath(path);
+                    if (Files.exists(gzipPath))
+                        builder.gzipPath(gzipPath)
+                               .gzipContent(com.google.common.io.Files.asByteSource(gzipPath.toFile()));
+                }
+                if (memoryCache.isEmpty())
+                    return Optional.of(builder.build());
+                return Optional.of(loadIntoMemory(memoryCache.get(), memoryVersion, tile, builder.build()));
         }
     }
 
     @Override
     public Optional<Boolean> tileIsEmpty(Tile tile) throws IOException, SQLException {
         switch (getType(tile)) {
+            case ARCHIVE:
+                Optional<Boolean> archivedTileIsEmpty = getArchive(tile).flatMap(archive -> archive.tileIsEmpty(tile));
+                if (archivedTileIsEmpty.isPresent())
+                    return archivedTileIsEmpty;
+
             case MBTILES:
-                if (!tile.getTemporary())
+                if (!tile.getTemporary()) {
+                    PendingTile pendingTile = pendingTiles.get(tile.getKey());
+                    if (Objects.nonNull(pendingTile))
+                        return Optional.of(pendingTile.content.length==0 && tile.getOutputFormat().getSupportsEmptyTile());
                     return getTileset(tile).tileIsEmpty(tile);
+                }
 
             case FILES:
             default:
@@ -261,9 +438,16 @@ public class TileCacheImpl implements TileCache {
     @Override
     public void deleteTile(Tile tile) throws IOException, SQLException {
         switch (getType(tile)) {
+            case ARCHIVE:
+                // the archive cannot be changed, the tile is masked until the archive is rebuilt with the next seeding
+                maskArchiveTile(tile);
+
             case MBTILES:
                 if (!tile.getTemporary()) {
+                    flush();
                     getTileset(tile).deleteTile(tile);
+                    getBitmap(tile).remove(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+                    getMemoryCache(tile).ifPresent(memoryCache -> memoryCache.invalidate(tile.getKey()));
                     break;
                 }
 
@@ -271,6 +455,11 @@ public class TileCacheImpl implements TileCache {
             default:
                 Path path = getPath(tile);
                 Files.delete(path);
+                Files.deleteIfExists(getEtagPath(path));
+                Files.deleteIfExists(getGzipPath(path));
+                if (!tile.getTemporary())
+                    getBitmap(tile).remove(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+                getMemoryCache(tile).ifPresent(memoryCache -> memoryCache.invalidate(tile.getKey()));
                 break;
         }
     }
@@ -309,7 +498,13 @@ public class TileCacheImpl implements TileCache {
             .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, Map.Entry::getValue));
 
         switch (getType(apiData, collectionId)) {
+            case ARCHIVE:
+                // if all tiles are purged, the archives are removed, otherwise the purged tiles are masked
+                if (boundingBox.isEmpty())
+                    dropArchives(apiData, collectionId, relevantZoomLevels.keySet());
+
             case MBTILES:
+                flush();
                 deleteTilesMbtiles(apiData, collectionId, relevantZoomLevels, relevantBoundingBoxes);
                 break;
             case FILES:
@@ -317,15 +512,41 @@ public class TileCacheImpl implements TileCache {
                 break;
         }
 
+        Optional.ofNullable(memoryCaches.get(apiData.getId())).ifPresent(MemoryTileCache::invalidateAll);
+
+        // the bitmaps are filled again with the next seeding
+        String prefix = apiData.getId() + "/";
+        bitmaps.entrySet()
+               .stream()
+               .filter(entry -> entry.getKey().startsWith(prefix))
+               .forEach(entry -> entry.getValue().reset());
+
         LOGGER.info("Purging tile cache has finished");
     }
 
     @Override
+    @SuppressWarnings("UnstableApiUsage")
     public void storeTile(Tile tile, byte[] content) throws IOException, SQLException {
         switch (getType(tile)) {
+            case ARCHIVE:
+                // a tile in the archive is replaced, the tile is read from the Mbtiles cache until the archive is rebuilt
+                maskArchiveTile(tile);
+
             case MBTILES:
                 if (!tile.getTemporary()) {
-                    getTileset(tile).writeTile(tile, content);
+                    // write-behind, tiles are written in batches by a background thread
+                    PendingTile pendingTile = new PendingTile(tile.getKey(), tile, getTileset(tile), content);
+                    pendingTiles.put(pendingTile.key, pendingTile);
+                    // the tile is removed from the bitmap again, if it cannot be written
+                    getBitmap(tile).add(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+                    try {
+                        writeQueue.put(pendingTile);
+                        queuedTiles.release();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        if (pendingTiles.remove(pendingTile.key, pendingTile))
+                            getBitmap(tile).remove(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+                    }
                     break;
                 }
 
@@ -333,10 +554,468 @@ public class TileCacheImpl implements TileCache {
             default:
                 Path path = getPath(tile);
                 if (Files.notExists(path) || Files.isWritable(path)) {
-                    Files.write(path, content);
+                    if (tile.getTemporary()) {
+                        Files.write(path, content);
+                    } else {
+                        // remove the entity tag and the compressed copy first, readers then fall back to the tile
+                        Path etagPath = getEtagPath(path);
+                        Path gzipPath = getGzipPath(path);
+                        Files.deleteIfExists(etagPath);
+                        Files.deleteIfExists(gzipPath);
+                        Files.write(path, content);
+                        if (storeGzipCopy(tile)) {
+                            try (OutputStream gzipStream = new GZIPOutputStream(Files.newOutputStream(gzipPath))) {
+                                gzipStream.write(content);
+                            }
+                        }
+                        Files.writeString(etagPath, Hashing.murmur3_128().hashBytes(content).toString());
+                        getBitmap(tile).add(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+                    }
                 }
                 break;
         }
+
+        getMemoryCache(tile).ifPresent(memoryCache -> memoryCache.invalidate(tile.getKey()));
+    }
+
+    @Override
+    public void flush() throws IOException, SQLException {
+        synchronized (writeLock) {
+            List<PendingTile> batch = new ArrayList<>();
+            while (writeQueue.drainTo(batch, MAX_WRITE_BATCH) > 0) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    @Override
+    public void archive(OgcApiDataV2 apiData) throws IOException, SQLException {
+        flush();
+
+        List<Optional<String>> collectionIds = new ArrayList<>();
+        collectionIds.add(Optional.empty());
+        apiData.getCollections().keySet().forEach(collectionId -> collectionIds.add(Optional.of(collectionId)));
+        for (Optional<String> collectionId : collectionIds) {
+            Optional<TilesConfiguration> config = collectionId.isEmpty()
+                    ? apiData.getExtension(TilesConfiguration.class)
+                    : apiData.getExtension(TilesConfiguration.class, collectionId.get());
+            if (config.isEmpty() || !config.get().isEnabled() || config.get().getCache() != TilesConfiguration.TileCacheType.ARCHIVE)
+                continue;
+            for (String tileMatrixSetId : config.get().getZoomLevelsDerived().keySet()) {
+                buildArchive(apiData, collectionId, getTileMatrixSetById(tileMatrixSetId));
+            }
+        }
+    }
+
+    @Override
+    public void compact(OgcApiDataV2 apiData) throws IOException, SQLException {
+        flush();
+
+        String prefix = apiData.getId() + "/";
+        for (Map.Entry<String, MbtilesTileset> tileset : mbtiles.entrySet()) {
+            if (tileset.getKey().startsWith(prefix)) {
+                LOGGER.debug("Compacting tile cache: {}", tileset.getKey());
+                tileset.getValue().compact();
+            }
+        }
+    }
+
+    @Override
+    public void persistBitmaps(OgcApiDataV2 apiData) throws IOException {
+        String prefix = apiData.getId() + "/";
+        for (Map.Entry<String, TileBitmap> bitmap : bitmaps.entrySet()) {
+            if (bitmap.getKey().startsWith(prefix))
+                bitmap.getValue().persist();
+        }
+        persistArchiveMasks(prefix);
+    }
+
+    /**
+     * ARCHIVE: persist the tiles that have changed since the archives have been built; without a persisted mask, an
+     * archive is not used after a restart
+     * @param prefix the prefix of the tile sets
+     */
+    private void persistArchiveMasks(String prefix) throws IOException {
+        for (Map.Entry<String, TileBitmap> mask : archiveMasks.entrySet()) {
+            // the archive is replaced by a new archive with its own mask
+            if (mask.getKey().startsWith(prefix) && !archivesInProgress.containsKey(mask.getKey()))
+                mask.getValue().persist();
+        }
+    }
+
+    /**
+     * ARCHIVE: write all tiles of the Mbtiles cache of a tile set to a new archive, which replaces the current archive
+     * @param apiData the API
+     * @param collectionId the collection; an empty value represents the dataset
+     * @param tileMatrixSet the tile matrix set
+     */
+    private void buildArchive(OgcApiDataV2 apiData, Optional<String> collectionId, TileMatrixSet tileMatrixSet) throws IOException, SQLException {
+        String key = getTilesetKey(apiData.getId(), collectionId, tileMatrixSet.getId());
+        Path path = getArchivePath(apiData.getId(), collectionId, tileMatrixSet.getId());
+        LOGGER.debug("Building tile archive: {}", path);
+
+        MbtilesTileset tileset = getOrInitTileset(apiData, collectionId, tileMatrixSet);
+        MbtilesMetadata metadata = tileset.getMetadata();
+        TileArchiveWriter writer = new TileArchiveWriter(path, metadata, metadata.getFormat() == MbtilesMetadata.MbtilesFormat.pbf);
+        // tiles that are changed while the archive is built are masked in the new archive
+        TileBitmap changes = TileBitmap.create(getArchiveMaskPath(path));
+        synchronized (archives) {
+            archivesInProgress.put(key, changes);
+            // the persisted mask of the current archive does not match the new archive
+            Files.deleteIfExists(getArchiveMaskPath(path));
+        }
+        try {
+            // the rows in the Mbtiles file are counted from the bottom
+            tileset.forEachTile((level, row, col, content) -> writer.add(level, tileMatrixSet.getTmsRow(level, row), col, content));
+            writer.finish();
+        } catch (IOException | SQLException | RuntimeException e) {
+            archivesInProgress.remove(key, changes);
+            throw e;
+        }
+
+        synchronized (archives) {
+            if (archivesInProgress.remove(key, changes)) {
+                changes.persist();
+                archiveMasks.put(key, changes);
+                archives.put(key, Optional.of(new TileArchive(path)));
+            } else {
+                // the archive has been removed while it was built
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * ARCHIVE: the current archive of the tile set of a tile
+     * @param tile the tile
+     * @return the archive, if one has been built, the tile has not changed since then and the tile is not temporary
+     */
+    private Optional<TileArchive> getArchive(Tile tile) {
+        if (tile.getTemporary())
+            return Optional.empty();
+        String apiId = tile.getApiData().getId();
+        Optional<String> collectionId = tile.isDatasetTile() ? Optional.empty() : Optional.of(tile.getCollectionId());
+        String tileMatrixSetId = tile.getTileMatrixSet().getId();
+        String key = getTilesetKey(apiId, collectionId, tileMatrixSetId);
+        Optional<TileArchive> archive = archives.computeIfAbsent(key, ignore -> openArchive(apiId, collectionId, tileMatrixSetId));
+        if (archive.isEmpty())
+            return archive;
+        TileBitmap mask = archiveMasks.get(key);
+        if (Objects.isNull(mask) || mask.contains(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol()))
+            return Optional.empty();
+        return archive;
+    }
+
+    /**
+     * ARCHIVE: open the archive of a tile set together with the tiles that have changed since the archive has been built
+     * @param apiId the API
+     * @param collectionId the collection; an empty value represents the dataset
+     * @param tileMatrixSetId the tile matrix set
+     * @return the archive, if one exists and its mask is current
+     */
+    private Optional<TileArchive> openArchive(String apiId, Optional<String> collectionId, String tileMatrixSetId) {
+        Path path = getArchivePath(apiId, collectionId, tileMatrixSetId);
+        if (Files.notExists(path))
+            return Optional.empty();
+        TileBitmap mask = TileBitmap.load(getArchiveMaskPath(path));
+        try {
+            if (!mask.isComplete()) {
+                // the changes since the archive has been built are unknown
+                LOGGER.info("Tile archive '{}' is outdated, the Mbtiles cache is used instead.", path);
+                Files.deleteIfExists(path);
+                return Optional.empty();
+            }
+            TileArchive archive = new TileArchive(path);
+            archiveMasks.put(getTilesetKey(apiId, collectionId, tileMatrixSetId), mask);
+            return Optional.of(archive);
+        } catch (IOException e) {
+            LOGGER.error("Tile archive '{}' could not be opened, the Mbtiles cache is used instead: {}", path, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * ARCHIVE: a tile has been changed or deleted, it is read from the Mbtiles cache until the archive is rebuilt
+     * @param tile the tile
+     */
+    private void maskArchiveTile(Tile tile) {
+        if (tile.getTemporary())
+            return;
+        String apiId = tile.getApiData().getId();
+        Optional<String> collectionId = tile.isDatasetTile() ? Optional.empty() : Optional.of(tile.getCollectionId());
+        String tileMatrixSetId = tile.getTileMatrixSet().getId();
+        String key = getTilesetKey(apiId, collectionId, tileMatrixSetId);
+        // open the archive first, so that its mask is loaded
+        archives.computeIfAbsent(key, ignore -> openArchive(apiId, collectionId, tileMatrixSetId));
+        maskArchiveTile(key, tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+    }
+
+    private void maskArchiveTile(String key, int level, int row, int col) {
+        synchronized (archives) {
+            TileBitmap mask = archiveMasks.get(key);
+            if (Objects.nonNull(mask))
+                mask.add(level, row, col);
+            TileBitmap changes = archivesInProgress.get(key);
+            if (Objects.nonNull(changes))
+                changes.add(level, row, col);
+        }
+    }
+
+    private void dropArchives(OgcApiDataV2 apiData, Optional<String> collectionId, Set<String> tileMatrixSetIds) throws IOException {
+        for (String tileMatrixSetId : tileMatrixSetIds) {
+            // first the dataset tiles
+            dropArchive(apiData.getId(), Optional.empty(), tileMatrixSetId);
+
+            if (collectionId.isPresent()) {
+                // also the single collection tiles for the collection
+                dropArchive(apiData.getId(), collectionId, tileMatrixSetId);
+            } else {
+                // all single collection tiles
+                for (String colId : apiData.getCollections().keySet()) {
+                    dropArchive(apiData.getId(), Optional.of(colId), tileMatrixSetId);
+                }
+            }
+        }
+    }
+
+    private void dropArchive(String apiId, Optional<String> collectionId, String tileMatrixSetId) throws IOException {
+        String key = getTilesetKey(apiId, collectionId, tileMatrixSetId);
+        synchronized (archives) {
+            archivesInProgress.remove(key);
+            archives.put(key, Optional.empty());
+            archiveMasks.remove(key);
+            Path path = getArchivePath(apiId, collectionId, tileMatrixSetId);
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(getArchiveMaskPath(path));
+        }
+    }
+
+    private Path getArchivePath(String apiId, Optional<String> collectionId, String tileMatrixSetId) {
+        return cacheStore.resolve(apiId).resolve(collectionId.orElse("__all__")).resolve(tileMatrixSetId + "." + TileArchive.FILE_EXTENSION);
+    }
+
+    /**
+     * ARCHIVE: the tiles that have changed since an archive has been built are persisted next to the archive
+     * @param archivePath the path of the archive
+     * @return the path of the mask
+     */
+    private static Path getArchiveMaskPath(Path archivePath) {
+        return archivePath.resolveSibling(archivePath.getFileName() + BITMAP_SUFFIX);
+    }
+
+    /**
+     * the bitmap of the tiles in the cache of the tile set of a tile
+     * @param tile the tile, not temporary
+     * @return the bitmap
+     */
+    private TileBitmap getBitmap(Tile tile) {
+        Optional<String> collectionId = tile.isDatasetTile() ? Optional.empty() : Optional.of(tile.getCollectionId());
+        // the FILES cache stores all tile formats in the same directories
+        TilesConfiguration.TileCacheType type = getType(tile);
+        Optional<String> extension = type == TilesConfiguration.TileCacheType.MBTILES || type == TilesConfiguration.TileCacheType.ARCHIVE
+            ? Optional.empty()
+            : Optional.of(tile.getOutputFormat().getExtension());
+        return getBitmap(tile.getApiData().getId(), collectionId, tile.getTileMatrixSet().getId(), extension);
+    }
+
+    /**
+     * get the bitmap of the tiles in the cache of a tile set, the bitmap is loaded when it is accessed for the first time
+     * @param apiId the API
+     * @param collectionId the collection; an empty value represents the dataset
+     * @param tileMatrixSetId the tile matrix set
+     * @param extension FILES: the file extension of the tile format
+     * @return the bitmap
+     */
+    private TileBitmap getBitmap(String apiId, Optional<String> collectionId, String tileMatrixSetId, Optional<String> extension) {
+        String key = getTilesetKey(apiId, collectionId, tileMatrixSetId) + extension.map(ext -> "/" + ext).orElse("");
+        return bitmaps.computeIfAbsent(key, ignore -> TileBitmap.load(cacheStore.resolve(apiId)
+                                                                                 .resolve(collectionId.orElse("__all__"))
+                                                                                 .resolve(tileMatrixSetId + extension.map(ext -> "." + ext).orElse("") + BITMAP_SUFFIX)));
+    }
+
+    /**
+     * fill the bitmap of the tile set of a tile from the cache
+     * @param tile the tile
+     * @param bitmap the bitmap of the tile set
+     */
+    private void completeBitmap(Tile tile, TileBitmap bitmap) throws IOException, SQLException {
+        TileMatrixSet tileMatrixSet = tile.getTileMatrixSet();
+        switch (getType(tile)) {
+            case ARCHIVE:
+            case MBTILES:
+                // the tiles in an archive are also in the Mbtiles cache
+                flush();
+                MbtilesTileset tileset = getTileset(tile);
+                // the rows in the Mbtiles file are counted from the bottom
+                bitmap.complete(b -> tileset.forEachTilePosition((level, row, col) -> b.add(level, tileMatrixSet.getTmsRow(level, row), col)));
+                break;
+
+            case FILES:
+            default:
+                Path tileMatrixSetDir = getTilesStore().resolve(tile.getApiData().getId())
+                                                       .resolve(tile.isDatasetTile() ? "__all__" : tile.getCollectionId())
+                                                       .resolve(tileMatrixSet.getId());
+                String extension = "." + tile.getOutputFormat().getExtension();
+                bitmap.complete(b -> addTileFiles(tileMatrixSetDir, extension, b));
+                break;
+        }
+    }
+
+    private static String getTilesetKey(String apiId, Optional<String> collectionId, String tileMatrixSetId) {
+        return String.join("/", apiId, collectionId.orElse("__all__"), tileMatrixSetId);
+    }
+
+    /**
+     * MBTILES: background thread that writes queued tiles, all tiles of a tile set in a batch are written in a single transaction;
+     * the tiles are taken from the queue while holding the lock, so {@link #flush()} never misses a tile that is being written
+     */
+    private void writeBehind() {
+        List<PendingTile> batch = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (writeQueue.isEmpty())
+                    queuedTiles.acquire();
+                queuedTiles.drainPermits();
+                synchronized (writeLock) {
+                    writeQueue.drainTo(batch, MAX_WRITE_BATCH);
+                    if (!batch.isEmpty())
+                        writeBatch(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                LOGGER.error("Failure to write {} tiles to the cache, the tiles will be generated again: {}", batch.size(), e.getMessage());
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Stacktrace: ", e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * MBTILES: write a batch of queued tiles; the tiles of a tile set that could not be written are removed from the bitmap,
+     * so that they are generated again
+     * @param batch the tiles
+     * @throws IOException the first error that occurred while writing the tiles
+     * @throws SQLException the first error that occurred while writing the tiles
+     */
+    private void writeBatch(List<PendingTile> batch) throws IOException, SQLException {
+        Map<MbtilesTileset, List<PendingTile>> tilesets = new HashMap<>();
+        for (PendingTile pendingTile : batch) {
+            tilesets.computeIfAbsent(pendingTile.tileset, ignore -> new ArrayList<>())
+                    .add(pendingTile);
+        }
+        Exception failure = null;
+        for (Map.Entry<MbtilesTileset, List<PendingTile>> entry : tilesets.entrySet()) {
+            List<Map.Entry<Tile, byte[]>> tiles = new ArrayList<>(entry.getValue().size());
+            List<Long> lastModified = new ArrayList<>(entry.getValue().size());
+            for (PendingTile pendingTile : entry.getValue()) {
+                tiles.add(new SimpleImmutableEntry<>(pendingTile.tile, pendingTile.content));
+                lastModified.add(pendingTile.lastModified);
+            }
+            try {
+                entry.getKey().writeTiles(tiles, lastModified);
+            } catch (IOException | SQLException | RuntimeException e) {
+                for (PendingTile pendingTile : entry.getValue()) {
+                    // a newer version of the tile is still queued
+                    if (pendingTiles.get(pendingTile.key) == pendingTile)
+                        getBitmap(pendingTile.tile).remove(pendingTile.tile.getTileLevel(), pendingTile.tile.getTileRow(), pendingTile.tile.getTileCol());
+                }
+                if (Objects.isNull(failure))
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+
+        // a newer version of a tile may have been queued in the meantime
+        for (PendingTile pendingTile : batch) {
+            pendingTiles.remove(pendingTile.key, pendingTile);
+        }
+
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure instanceof SQLException)
+            throw (SQLException) failure;
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+    }
+
+    /**
+     * read a tile from the cache and add it to the memory cache
+     * @param memoryCache the memory cache of the API
+     * @param memoryVersion the version of the tile in the memory cache before the tile was read
+     * @param tile the tile
+     * @param cachedTile the tile in the cache
+     * @return the tile
+     */
+    private CachedTile loadIntoMemory(MemoryTileCache memoryCache, long memoryVersion, Tile tile, CachedTile cachedTile) throws IOException {
+        // use the time when the tile was loaded, if the cache has no modification date
+        Date lastModified = cachedTile.getLastModified().orElseGet(Date::new);
+        if (cachedTile.getGzipContent().isPresent()) {
+            // read the compressed tile only once
+            byte[] gzipContent = cachedTile.getGzipContent().get().read();
+            byte[] content = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzipContent)));
+            return memoryCache.put(tile.getKey(), memoryVersion, content, gzipContent, lastModified);
+        }
+        return memoryCache.put(tile.getKey(), memoryVersion, cachedTile.getContent().read(), null, lastModified);
+    }
+
+    /**
+     * FILES: the entity tag of a tile is stored in a file next to the tile
+     * @param path the path of the tile
+     * @return the path of the entity tag
+     */
+    private static Path getEtagPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ETAG_SUFFIX);
+    }
+
+    /**
+     * FILES: a gzip-compressed copy of a tile may be stored in a file next to the tile
+     * @param path the path of the tile
+     * @return the path of the compressed tile
+     */
+    private static Path getGzipPath(Path path) {
+        return path.resolveSibling(path.getFileName() + GZIP_SUFFIX);
+    }
+
+    /**
+     * FILES: compressed copies are only stored for formats that are also compressed in Mbtiles and if enabled
+     * @param tile the tile
+     * @return {@code true}, if a compressed copy of the tile should be stored
+     */
+    private boolean storeGzipCopy(Tile tile) {
+        return tile.getOutputFormat().getGzippedInMbtiles()
+            && (tile.isDatasetTile()
+                ? tile.getApiData().getExtension(TilesConfiguration.class)
+                : tile.getApiData().getExtension(TilesConfiguration.class, tile.getCollectionId())).map(TilesConfiguration::getGzipFiles)
+                                                                                                  .orElse(false);
+    }
+
+    private static Optional<String> readEtag(Path path) throws IOException {
+        Path etagPath = getEtagPath(path);
+        if (Files.notExists(etagPath))
+            return Optional.empty();
+        try {
+            return Optional.of(Files.readString(etagPath).trim());
+        } catch (NoSuchFileException e) {
+            // the tile has been deleted in the meantime
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * the memory cache of the API, if one is configured; temporary tiles are never kept in memory
+     * @param tile the tile
+     * @return the memory cache
+     */
+    private Optional<MemoryTileCache> getMemoryCache(Tile tile) {
+        if (tile.getTemporary())
+            return Optional.empty();
+        return Optional.ofNullable(memoryCaches.get(tile.getApiData().getId()));
     }
 
     /**
@@ -357,6 +1036,28 @@ public class TileCacheImpl implements TileCache {
         return tmpDirectory;
     }
 
+    @Override
+    public Path getWorkDirectory() throws IOException {
+        Path workDirectory = cacheStore.resolve(WORK_DIR_NAME);
+        Files.createDirectories(workDirectory);
+        return workDirectory;
+    }
+
+    private void deleteWorkFiles() throws IOException {
+        Path workDirectory = cacheStore.resolve(WORK_DIR_NAME);
+        if (!Files.isDirectory(workDirectory))
+            return;
+        try (Stream<Path> files = Files.list(workDirectory)) {
+            files.forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    LOGGER.debug("Could not delete the working file '{}' of the tile cache: {}", path, e.getMessage());
+                }
+            });
+        }
+    }
+
     /**
      * identifies the type of the cache for this tile (set)
      * @param tile a tile in a tile set
@@ -385,7 +1086,7 @@ public class TileCacheImpl implements TileCache {
      * @return the Tileset
      */
     private MbtilesTileset getTileset(Tile tile) throws IOException {
-        if (getType(tile)!= TilesConfiguration.TileCacheType.MBTILES)
+        if (getType(tile)!= TilesConfiguration.TileCacheType.MBTILES && getType(tile)!= TilesConfiguration.TileCacheType.ARCHIVE)
             throw new IllegalStateException(String.format("Cannot get an Mbtiles cache. Found cache type: %s", getType(tile).toString()));
         OgcApiDataV2 apiData = tile.getApiData();
         Optional<String> collectionId = tile.isDatasetTile() ? Optional.empty() : Optional.of(tile.getCollectionId());
@@ -403,51 +1104,58 @@ public class TileCacheImpl implements TileCache {
     private MbtilesTileset getOrInitTileset(OgcApiDataV2 apiData, Optional<String> collectionId, TileMatrixSet tileMatrixSet) throws IOException {
         String apiId = apiData.getId();
         String tileMatrixSetId = tileMatrixSet.getId();
-        String key = String.join("/", apiId, collectionId.orElse("__all__"), tileMatrixSetId);
-        if (!mbtiles.containsKey(key)) {
-            Files.createDirectories(cacheStore.resolve(apiId).resolve(collectionId.orElse("__all__")));
-            Path path = cacheStore.resolve(apiId).resolve(collectionId.orElse("__all__")).resolve(tileMatrixSetId+".mbtiles");
-            if (Files.exists(path)) {
-                mbtiles.put(key, new MbtilesTileset(path));
-            } else {
-                TilesConfiguration config = collectionId.isEmpty()
-                        ? apiData.getExtension(TilesConfiguration.class).get()
-                        : apiData.getExtension(TilesConfiguration.class, collectionId.get()).get();
-
-                // get the tile set metadata
-                TileSet tileSetMetadata = TilesHelper.buildTileSet(apiData,
-                                                                   tileMatrixSet,
-                                                                   config.getZoomLevelsDerived().get(tileMatrixSetId),
-                                                                   config.getCenterDerived(),
-                                                                   collectionId,
-                                                                   TileSet.DataType.vector,
-                                                                   ImmutableList.of(),
-                                                                   Optional.empty(),
-                                                                   crsTransformerFactory,
-                                                                   limitsGenerator,
-                                                                   providers,
-                                                                   entityRegistry);
-
-                // convert to Mbtiles metadata
-                // TODO support attribution, type, version
-                MbtilesMetadata md = ImmutableMbtilesMetadata.builder()
-                                                             .name(apiData.getLabel())
-                                                             .format(MbtilesMetadata.MbtilesFormat.pbf)
-                                                             .description(apiData.getDescription())
-                                                             .minzoom(TilesHelper.getMinzoom(tileSetMetadata))
-                                                             .maxzoom(TilesHelper.getMaxzoom(tileSetMetadata))
-                                                             .bounds(TilesHelper.getBounds(tileSetMetadata))
-                                                             .center(TilesHelper.getCenter(tileSetMetadata))
-                                                             .vectorLayers(TilesHelper.getVectorLayers(apiData,
-                                                                                                       collectionId,
-                                                                                                       tileMatrixSet.getId(),
-                                                                                                       providers,
-                                                                                                       schemaInfo))
-                                                             .build();
-                mbtiles.put(key, new MbtilesTileset(path, md));
+        String key = getTilesetKey(apiId, collectionId, tileMatrixSetId);
+        MbtilesTileset tileset = mbtiles.get(key);
+        if (Objects.nonNull(tileset))
+            return tileset;
+
+        // opening or creating the Mbtiles file must only happen once
+        synchronized (mbtiles) {
+            if (!mbtiles.containsKey(key)) {
+                Files.createDirectories(cacheStore.resolve(apiId).resolve(collectionId.orElse("__all__")));
+                Path path = cacheStore.resolve(apiId).resolve(collectionId.orElse("__all__")).resolve(tileMatrixSetId+".mbtiles");
+                if (Files.exists(path)) {
+                    mbtiles.put(key, new MbtilesTileset(path));
+                } else {
+                    TilesConfiguration config = collectionId.isEmpty()
+                            ? apiData.getExtension(TilesConfiguration.class).get()
+                            : apiData.getExtension(TilesConfiguration.class, collectionId.get()).get();
+
+                    // get the tile set metadata
+                    TileSet tileSetMetadata = TilesHelper.buildTileSet(apiData,
+                                                                       tileMatrixSet,
+                                                                       config.getZoomLevelsDerived().get(tileMatrixSetId),
+                                                                       config.getCenterDerived(),
+                                                                       collectionId,
+                                                                       TileSet.DataType.vector,
+                                                                       ImmutableList.of(),
+                                                                       Optional.empty(),
+                                                                       crsTransformerFactory,
+                                                                       limitsGenerator,
+                                                                       providers,
+                                                                       entityRegistry);
+
+                    // convert to Mbtiles metadata
+                    // TODO support attribution, type, version
+                    MbtilesMetadata md = ImmutableMbtilesMetadata.builder()
+                                                                 .name(apiData.getLabel())
+                                                                 .format(MbtilesMetadata.MbtilesFormat.pbf)
+                                                                 .description(apiData.getDescription())
+                                                                 .minzoom(TilesHelper.getMinzoom(tileSetMetadata))
+                                                                 .maxzoom(TilesHelper.getMaxzoom(tileSetMetadata))
+                                                                 .bounds(TilesHelper.getBounds(tileSetMetadata))
+                                                                 .center(TilesHelper.getCenter(tileSetMetadata))
+                                                                 .vectorLayers(TilesHelper.getVectorLayers(apiData,
+                                                                                                           collectionId,
+                                                                                                           tileMatrixSet.getId(),
+                                                                                                           providers,
+                                                                                                           schemaInfo))
+                                                                 .build();
+                    mbtiles.put(key, new MbtilesTileset(path, md));
+                }
             }
+            return mbtiles.get(key);
         }
-        return mbtiles.get(key);
     }
 
     /**
@@ -521,6 +1229,11 @@ public class TileCacheImpl implements TileCache {
     private void deleteTilesMbtiles(OgcApiDataV2 apiData, Optional<String> collectionId,
                                     TileMatrixSet tileMatrixSet, MinMax levels, BoundingBox bbox) throws SQLException, IOException {
         MbtilesTileset tileset = getOrInitTileset(apiData, collectionId, tileMatrixSet);
+        String key = getTilesetKey(apiData.getId(), collectionId, tileMatrixSet.getId());
+        // ARCHIVE: the purged tiles are masked in the archive
+        boolean maskArchive = getType(apiData, collectionId) == TilesConfiguration.TileCacheType.ARCHIVE
+            && (archives.computeIfAbsent(key, ignore -> openArchive(apiData.getId(), collectionId, tileMatrixSet.getId())).isPresent()
+                || archivesInProgress.containsKey(key));
         List<TileMatrixSetLimits> limitsList = getLimits(apiData, tileMatrixSet, levels, collectionId, bbox);
         for (TileMatrixSetLimits limits : limitsList) {
             if (LOGGER.isTraceEnabled()) {
@@ -534,6 +1247,9 @@ public class TileCacheImpl implements TileCache {
                     tileMatrixSet.getTmsRow(Integer.parseInt(limits.getTileMatrix()),
                         limits.getMinTileRow()));
             }
+            if (maskArchive)
+                // the rows in the Mbtiles file are counted from the bottom
+                tileset.forEachTilePosition(tileMatrixSet, limits, (level, row, col) -> maskArchiveTile(key, level, tileMatrixSet.getTmsRow(level, row), col));
             tileset.deleteTiles(tileMatrixSet, limits);
         }
     }
@@ -560,61 +1276,168 @@ public class TileCacheImpl implements TileCache {
 
 
         Path basePath = getTilesStore().resolve(apiData.getId());
+        if (Files.notExists(basePath))
+            return;
 
-        try (Stream<Path> walk = Files.find(basePath, 5,
-            (path, basicFileAttributes) -> basicFileAttributes.isRegularFile()
-                && shouldDeleteTileFile(basePath.relativize(path), collectionId, limits, extensions))){
-            walk.map(Path::toFile).forEach(File::delete);
+        // the dataset tiles and the single collection tiles of the collection or of all collections
+        List<Path> collectionDirs;
+        if (collectionId.isPresent()) {
+            collectionDirs = ImmutableList.of(basePath.resolve("__all__"), basePath.resolve(collectionId.get()));
+        } else {
+            try (Stream<Path> dirs = Files.list(basePath)) {
+                collectionDirs = dirs.filter(Files::isDirectory)
+                                     .collect(Collectors.toUnmodifiableList());
+            }
         }
-    }
 
-    @SuppressWarnings("UnstableApiUsage")
-    private static boolean shouldDeleteTileFile(Path tilePath,
-        Optional<String> collectionId,
-        Map<String, Map<String, TileMatrixSetLimits>> tmsLimits, List<String> extensions) {
-        if (tilePath.getNameCount() < 5) {
-            return false;
+        // only visit the directories of the affected rows
+        List<Entry<Path, TileMatrixSetLimits>> rowDirs = new ArrayList<>();
+        for (Path collectionDir : collectionDirs) {
+            for (Map.Entry<String, Map<String, TileMatrixSetLimits>> tileMatrixSetLimits : limits.entrySet()) {
+                for (TileMatrixSetLimits levelLimits : tileMatrixSetLimits.getValue().values()) {
+                    Path levelDir = collectionDir.resolve(tileMatrixSetLimits.getKey()).resolve(levelLimits.getTileMatrix());
+                    if (Files.notExists(levelDir))
+                        continue;
+                    if (levelLimits.getMaxTileRow() - levelLimits.getMinTileRow() < MAX_PROBED_ROWS) {
+                        for (int row = levelLimits.getMinTileRow(); row <= levelLimits.getMaxTileRow(); row++) {
+                            Path rowDir = levelDir.resolve(String.valueOf(row));
+                            if (Files.exists(rowDir))
+                                rowDirs.add(new SimpleImmutableEntry<>(rowDir, levelLimits));
+                        }
+                    } else {
+                        // many rows, list the existing rows instead
+                        try (Stream<Path> dirs = Files.list(levelDir)) {
+                            dirs.filter(rowDir -> isInRange(rowDir.getFileName().toString(), levelLimits.getMinTileRow(), levelLimits.getMaxTileRow()))
+                                .forEach(rowDir -> rowDirs.add(new SimpleImmutableEntry<>(rowDir, levelLimits)));
+                        }
+                    }
+                }
+            }
         }
 
-        String collection = tilePath.getName(0).toString();
+        try {
+            rowDirs.parallelStream()
+                   .forEach(rowDir -> deleteTileFiles(rowDir.getKey(), rowDir.getValue(), extensions));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
 
-        if (!Objects.equals(collection, "__all__")
-            && collectionId.isPresent() && !Objects.equals(collectionId.get(), collection)) {
-            return false;
+    /**
+     * FILES: delete the tiles in a row directory that are within the limits, including the entity tags and compressed copies
+     * @param rowDir the directory of the row
+     * @param limits the limits in the zoom level
+     * @param extensions the file extensions of the tile formats
+     */
+    private static void deleteTileFiles(Path rowDir, TileMatrixSetLimits limits, List<String> extensions) {
+        try (Stream<Path> files = Files.list(rowDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (isTileFileInRange(file.getFileName().toString(), limits, extensions))
+                    Files.deleteIfExists(file);
+            }
+        } catch (NoSuchFileException e) {
+            // the directory has been removed in the meantime
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
-        String tmsId = tilePath.getName(1).toString();
+    /**
+     * FILES: add the tiles of a tile format in the directory of a tile set to a bitmap, the rows are listed in parallel
+     * @param tileMatrixSetDir the directory of the tile set
+     * @param extension the file extension of the tile format, including the dot
+     * @param bitmap the bitmap
+     */
+    private static void addTileFiles(Path tileMatrixSetDir, String extension, TileBitmap bitmap) throws IOException {
+        if (Files.notExists(tileMatrixSetDir))
+            return;
 
-        if (!tmsLimits.containsKey(tmsId)) {
-            return false;
+        List<Path> levelDirs;
+        try (Stream<Path> dirs = Files.list(tileMatrixSetDir)) {
+            levelDirs = dirs.filter(dir -> getIndex(dir.getFileName().toString()) >= 0)
+                            .collect(Collectors.toUnmodifiableList());
         }
 
-        Map<String, TileMatrixSetLimits> levelLimits = tmsLimits.get(tmsId);
-        String level = tilePath.getName(2).toString();
-
-        if (!levelLimits.containsKey(level)) {
-            return false;
+        for (Path levelDir : levelDirs) {
+            int level = getIndex(levelDir.getFileName().toString());
+            List<Path> rowDirs;
+            try (Stream<Path> dirs = Files.list(levelDir)) {
+                rowDirs = dirs.filter(dir -> getIndex(dir.getFileName().toString()) >= 0)
+                              .collect(Collectors.toUnmodifiableList());
+            }
+            try {
+                rowDirs.parallelStream()
+                       .forEach(rowDir -> {
+                           int row = getIndex(rowDir.getFileName().toString());
+                           try (Stream<Path> files = Files.list(rowDir)) {
+                               files.map(file -> file.getFileName().toString())
+                                    .filter(file -> file.endsWith(extension))
+                                    .mapToInt(file -> getIndex(file.substring(0, file.length() - extension.length())))
+                                    .filter(col -> col >= 0)
+                                    .forEach(col -> bitmap.add(level, row, col));
+                           } catch (IOException e) {
+                               throw new UncheckedIOException(e);
+                           }
+                       });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
         }
+    }
 
-        TileMatrixSetLimits limits = levelLimits.get(level);
-        int row = Integer.parseInt(tilePath.getName(3).toString());
+    /**
+     * @param name the name of a directory or file
+     * @return the row, column or zoom level, or -1, if the name is not a number
+     */
+    private static int getIndex(String name) {
+        try {
+            return Integer.parseInt(name);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
 
-        if (row < limits.getMinTileRow() || row > limits.getMaxTileRow()) {
+    private static boolean isInRange(String name, int min, int max) {
+        try {
+            int value = Integer.parseInt(name);
+            return value >= min && value <= max;
+        } catch (NumberFormatException e) {
             return false;
         }
+    }
 
-        String file = tilePath.getName(4).toString();
-        int col = Integer.parseInt(com.google.common.io.Files.getNameWithoutExtension(file));
+    /**
+     * MBTILES: a tile that has been queued for storage
+     */
+    private static class PendingTile {
+        final String key;
+        final Tile tile;
+        final MbtilesTileset tileset;
+        final byte[] content;
+        // the time when the tile was stored, not when it is written
+        final long lastModified;
+
+        PendingTile(String key, Tile tile, MbtilesTileset tileset, byte[] content) {
+            this.key = key;
+            this.tile = tile;
+            this.tileset = tileset;
+            this.content = content;
+            this.lastModified = System.currentTimeMillis();
+        }
+    }
+
+    @SuppressWarnings("UnstableApiUsage")
+    private static boolean isTileFileInRange(String file, TileMatrixSetLimits limits, List<String> extensions) {
+        if (file.endsWith(ETAG_SUFFIX))
+            file = file.substring(0, file.length() - ETAG_SUFFIX.length());
+        else if (file.endsWith(GZIP_SUFFIX))
+            file = file.substring(0, file.length() - GZIP_SUFFIX.length());
         String extension = com.google.common.io.Files.getFileExtension(file);
 
         if (!extensions.contains(extension)) {
             return false;
         }
 
-        if (col < limits.getMinTileCol() || col > limits.getMaxTileCol()) {
-            return false;
-        }
-
-        return true;
+        return isInRange(com.google.common.io.Files.getNameWithoutExtension(file), limits.getMinTileCol(), limits.getMaxTileCol());
     }
 }
@@ -0,0 +1,294 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app;
+
+import com.google.common.collect.ImmutableList;
+import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableMvtFeature;
+import de.ii.ldproxy.ogcapi.tiles.domain.MinMax;
+import de.ii.ldproxy.ogcapi.tiles.domain.MvtFeature;
+import de.ii.ldproxy.ogcapi.tiles.domain.Rule;
+import de.ii.ldproxy.ogcapi.tiles.domain.Tile;
+import de.ii.ldproxy.ogcapi.tiles.domain.TilesConfiguration;
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
+import de.ii.xtraplatform.crs.domain.BoundingBox;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.CoordinateXY;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.impl.CoordinateArraySequence;
+import org.locationtech.jts.geom.util.AffineTransformation;
+import org.locationtech.jts.precision.GeometryPrecisionReducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static de.ii.ldproxy.ogcapi.tiles.app.CapabilityTiles.LIMIT_DEFAULT;
+
+/**
+ * Encodes the features of a collection in a single-layer vector tile. The feature geometries are in the CRS of the
+ * tile matrix set, they are transformed to tile coordinates, simplified, clipped and, if configured, merged.
+ */
+class TileEncoderMVT {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TileEncoderMVT.class);
+  // the buffer around a tile in pixels
+  static final int BUFFER = 8;
+
+  private final Tile tile;
+  private final TileMatrixSet tileMatrixSet;
+  private final TilesConfiguration tilesConfiguration;
+  private final String collectionId;
+  private final String layerName;
+  private final List<String> properties;
+  private final boolean allProperties;
+  private final double maxRelativeAreaChangeInPolygonRepair;
+  private final double maxAbsoluteAreaChangeInPolygonRepair;
+  private final double minimumSizeInPixel;
+  private final PrecisionModel tilePrecisionModel;
+  private final GeometryPrecisionReducer reducer;
+  private final GeometryFactory geometryFactoryTile;
+  private final Polygon clipGeometry;
+  private final List<String> groupBy;
+  private final TileWriterMVT tileWriter;
+  private final AffineTransformation affineTransformation;
+  // the area of the tile including the buffer in the CRS of the tile matrix set, only used if the features are not
+  // selected for the tile
+  private final Envelope envelope;
+  private final Set<MvtFeature> mergeFeatures = new HashSet<>();
+  // the positions of the point features in the tile, if points at the same position are written only once
+  private final Set<List<Coordinate>> points;
+  // at most this number of features is included in the tile, as with a query of the tile
+  private final int limit;
+  // the number of features that intersect the tile and its buffer
+  private long accepted = 0;
+  private long mergeCount = 0;
+  private long written = 0;
+
+  /**
+   * @param tile the tile
+   * @param tilesConfiguration the tiles configuration of the collection
+   * @param collectionId the collection
+   * @param properties the properties that are included in the tile, "*" for all properties
+   * @param withEnvelope {@code true}, if features that do not intersect the tile and its buffer have to be skipped;
+   *                     in this case the feature geometries are not changed
+   */
+  TileEncoderMVT(Tile tile, TilesConfiguration tilesConfiguration, String collectionId, List<String> properties, boolean withEnvelope) {
+    this.tile = tile;
+    this.tileMatrixSet = tile.getTileMatrixSet();
+    this.tilesConfiguration = tilesConfiguration;
+    this.collectionId = collectionId;
+    this.layerName = Objects.requireNonNullElse(collectionId, "layer");
+    this.properties = properties;
+    this.allProperties = properties.contains("*");
+    this.maxRelativeAreaChangeInPolygonRepair = tilesConfiguration.getMaxRelativeAreaChangeInPolygonRepairDerived();
+    this.maxAbsoluteAreaChangeInPolygonRepair = tilesConfiguration.getMaxAbsoluteAreaChangeInPolygonRepairDerived();
+    this.minimumSizeInPixel = tilesConfiguration.getMinimumSizeInPixelDerived();
+    this.limit = Objects.requireNonNullElse(tilesConfiguration.getLimitDerived(), LIMIT_DEFAULT);
+    this.tilePrecisionModel = new PrecisionModel((double)tileMatrixSet.getTileExtent() / (double)tileMatrixSet.getTileSize());
+    this.reducer = new GeometryPrecisionReducer(tilePrecisionModel);
+    this.geometryFactoryTile = new GeometryFactory(tilePrecisionModel);
+    this.tileWriter = new TileWriterMVT(tileMatrixSet.getTileExtent(), tileMatrixSet.getTileSize());
+    this.affineTransformation = tile.createTransformNativeToTile();
+
+    final int size = tileMatrixSet.getTileSize();
+    CoordinateXY[] coords = new CoordinateXY[5];
+    coords[0] = new CoordinateXY(-BUFFER, size+BUFFER);
+    coords[1] = new CoordinateXY(size+BUFFER, size+BUFFER);
+    coords[2] = new CoordinateXY(size+BUFFER, -BUFFER);
+    coords[3] = new CoordinateXY(-BUFFER, -BUFFER);
+    coords[4] = coords[0];
+    this.clipGeometry = geometryFactoryTile.createPolygon(coords);
+
+    final Map<String, List<Rule>> rules = tilesConfiguration.getRulesDerived();
+    this.groupBy = (Objects.nonNull(rules) && rules.containsKey(tileMatrixSet.getId())) ?
+        rules.get(tileMatrixSet.getId()).stream()
+            .filter(rule -> rule.getMax()>=tile.getTileLevel() && rule.getMin()<=tile.getTileLevel() && rule.getMerge().orElse(false))
+            .map(Rule::getGroupBy)
+            .findAny()
+            .orElse(null) :
+        null;
+
+    final MinMax pointDeduplication = tilesConfiguration.getZoomLevelsPointDeduplicationDerived().get(tileMatrixSet.getId());
+    this.points = Objects.nonNull(pointDeduplication) && pointDeduplication.getMin() <= tile.getTileLevel() && pointDeduplication.getMax() >= tile.getTileLevel()
+        ? new HashSet<>()
+        : null;
+
+    if (withEnvelope) {
+      BoundingBox bbox = tile.getBoundingBox();
+      this.envelope = new Envelope(bbox.getXmin(), bbox.getXmax(), bbox.getYmin(), bbox.getYmax());
+      envelope.expandBy((bbox.getXmax() - bbox.getXmin()) * BUFFER / size,
+                        (bbox.getYmax() - bbox.getYmin()) * BUFFER / size);
+    } else {
+      this.envelope = null;
+    }
+  }
+
+  Tile getTile() {
+    return tile;
+  }
+
+  long getWritten() {
+    return written;
+  }
+
+  /**
+   * add a feature to the tile; if the configured limit of features has been reached, the feature is skipped, which
+   * matters for the tiles of a metatile, since the features of all tiles are returned by a single query
+   * @param idValue the feature id, {@code null}, if the feature has no id
+   * @param featureProperties the properties of the feature
+   * @param featureGeometry the geometry in the CRS of the tile matrix set; the geometry is transformed to tile
+   *                        coordinates in place, unless the tile has been created with an envelope
+   */
+  void addFeature(String idValue, Map<String, Object> featureProperties, Geometry featureGeometry) {
+    if (featureGeometry instanceof Point || featureGeometry instanceof MultiPoint) {
+      addPoints(idValue, featureProperties, featureGeometry instanceof Point
+          ? ((Point) featureGeometry).getCoordinateSequence()
+          : new CoordinateArraySequence(featureGeometry.getCoordinates()));
+      return;
+    }
+
+    if (Objects.nonNull(envelope) && !envelope.intersects(featureGeometry.getEnvelopeInternal())) {
+      return;
+    }
+
+    if (accepted++ >= limit) {
+      return;
+    }
+
+    try {
+      Geometry tileGeometry = TileGeometryUtil
+          .getTileGeometry(Objects.nonNull(envelope) ? featureGeometry.copy() : featureGeometry, affineTransformation, clipGeometry, reducer, tilePrecisionModel, minimumSizeInPixel, maxRelativeAreaChangeInPolygonRepair, maxAbsoluteAreaChangeInPolygonRepair);
+      if (Objects.isNull(tileGeometry)) {
+        return;
+      }
+
+      // if polygons have to be merged, store them for now and process at the end
+      if (Objects.nonNull(groupBy) && tileGeometry.getGeometryType().contains("Polygon")) {
+        mergeFeatures.add(new ImmutableMvtFeature.Builder()
+            .id(++mergeCount)
+            .properties(featureProperties)
+            .geometry(tileGeometry)
+            .build());
+        return;
+      }
+
+      // Geometry is invalid -> log this information and skip it, if that option is used
+      if (!tileGeometry.isValid()) {
+        LOGGER.info("Feature {} in collection {} has an invalid tile geometry in tile {}/{}/{}/{}. Size in pixels: {}.", idValue, collectionId, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), featureGeometry.getArea());
+        if (tilesConfiguration.isIgnoreInvalidGeometriesDerived()) {
+          return;
+        }
+      }
+
+      write(idValue, featureProperties, tileGeometry);
+
+    } catch (Exception e) {
+      LOGGER.error("Error while processing feature {} in tile {}/{}/{}/{} in collection {}. The feature is skipped.", idValue, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), collectionId);
+      if(LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Stacktrace:", e);
+      }
+    }
+  }
+
+  /**
+   * add a point feature to the tile; points do not need the geometry processing of other geometries, they are only
+   * transformed to tile coordinates and snapped to the tile grid, points outside of the tile and its buffer are
+   * dropped; the points count for the limit of features in the tile; in the zoom levels with point deduplication, see
+   * {@link TilesConfiguration#getZoomLevelsPointDeduplicationDerived()}, a feature at the same position in the tile as
+   * a feature that has already been added is skipped, regardless of its properties, so only the id and the properties
+   * of the first feature at a position are included
+   * @param idValue the feature id, {@code null}, if the feature has no id
+   * @param featureProperties the properties of the feature
+   * @param coordinates the points in the CRS of the tile matrix set
+   */
+  void addPoints(String idValue, Map<String, Object> featureProperties, CoordinateSequence coordinates) {
+    final double min = -BUFFER;
+    final double max = tileMatrixSet.getTileSize() + BUFFER;
+    Set<Coordinate> tileCoordinates = new LinkedHashSet<>();
+    Coordinate coordinate = new CoordinateXY();
+    for (int i = 0; i < coordinates.size(); i++) {
+      coordinate.setX(coordinates.getX(i));
+      coordinate.setY(coordinates.getY(i));
+      Coordinate tileCoordinate = affineTransformation.transform(coordinate, new CoordinateXY());
+      if (tileCoordinate.x < min || tileCoordinate.x > max || tileCoordinate.y < min || tileCoordinate.y > max) {
+        continue;
+      }
+      tilePrecisionModel.makePrecise(tileCoordinate);
+      tileCoordinates.add(tileCoordinate);
+    }
+    // a duplicate is skipped before it counts for the limit
+    if (tileCoordinates.isEmpty() || accepted >= limit || (Objects.nonNull(points) && !points.add(ImmutableList.copyOf(tileCoordinates)))) {
+      return;
+    }
+    accepted++;
+
+    try {
+      write(idValue, featureProperties, tileCoordinates.size() == 1
+          ? geometryFactoryTile.createPoint(tileCoordinates.iterator().next())
+          : geometryFactoryTile.createMultiPointFromCoords(tileCoordinates.toArray(Coordinate[]::new)));
+    } catch (Exception e) {
+      LOGGER.error("Error while processing feature {} in tile {}/{}/{}/{} in collection {}. The feature is skipped.", idValue, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), collectionId);
+      if(LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Stacktrace:", e);
+      }
+    }
+  }
+
+  private void write(String idValue, Map<String, Object> featureProperties, Geometry tileGeometry) {
+    // If we have an id that happens to be a long value, use it
+    Long id = null;
+    if (idValue != null) {
+      try {
+        id = Long.parseLong(idValue);
+      } catch (Exception e) {
+        // nothing to do
+      }
+    }
+
+    // Add the feature with the layer name, a Map with attributes and the JTS Geometry.
+    if (tileWriter.addFeature(layerName, featureProperties, tileGeometry, id)) {
+      written++;
+    }
+  }
+
+  /**
+   * merge the polygons that have been stored for merging, if a merge rule applies to the tile
+   */
+  void merge() {
+    if (Objects.nonNull(groupBy) && mergeCount >0) {
+      FeatureMerger merger = new FeatureMerger(groupBy, allProperties, properties, geometryFactoryTile, tilePrecisionModel, String.format("Collection %s, tile %s/%d/%d/%d", collectionId, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol()));
+      merger.merge(mergeFeatures).forEach(mergedFeature -> {
+        Geometry geom = mergedFeature.getGeometry();
+        // Geometry is invalid? -> log this information and skip it, if that option is used
+        if (!geom.isValid()) {
+          LOGGER.info("A merged feature in collection {} has an invalid tile geometry in tile {}/{}/{}/{}. Properties: {}", collectionId, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), mergedFeature.getProperties());
+          if (tilesConfiguration.isIgnoreInvalidGeometriesDerived())
+            return;
+        }
+        if (tileWriter.addFeature(layerName, mergedFeature.getProperties(), geom, null)) {
+          written++;
+        }
+      });
+    }
+  }
+
+  byte[] encode() {
+    return tileWriter.encode();
+  }
+}
@@ -10,6 +10,7 @@ package de.ii.ldproxy.ogcapi.tiles.app;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
 import de.ii.ldproxy.ogcapi.domain.ApiMediaType;
 import de.ii.ldproxy.ogcapi.domain.ApiMediaTypeContent;
 import de.ii.ldproxy.ogcapi.domain.FeatureTypeConfigurationOgcApi;
@@ -21,6 +22,8 @@ import de.ii.ldproxy.ogcapi.domain.URICustomizer;
 import de.ii.ldproxy.ogcapi.features.core.domain.FeaturesCoreConfiguration;
 import de.ii.ldproxy.ogcapi.features.core.domain.FeaturesQuery;
 import de.ii.ldproxy.ogcapi.tiles.domain.FeatureTransformationContextTiles;
+import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableTile;
+import de.ii.ldproxy.ogcapi.tiles.domain.MinMax;
 import de.ii.ldproxy.ogcapi.tiles.domain.PredefinedFilter;
 import de.ii.ldproxy.ogcapi.tiles.domain.Rule;
 import de.ii.ldproxy.ogcapi.tiles.domain.Tile;
@@ -31,6 +34,7 @@ import de.ii.ldproxy.ogcapi.tiles.domain.TileFromFeatureQuery;
 import de.ii.ldproxy.ogcapi.tiles.domain.TileSet;
 import de.ii.ldproxy.ogcapi.tiles.domain.TilesConfiguration;
 import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
 import de.ii.xtraplatform.cql.domain.And;
 import de.ii.xtraplatform.cql.domain.Cql;
 import de.ii.xtraplatform.cql.domain.CqlFilter;
@@ -44,8 +48,6 @@ import de.ii.xtraplatform.crs.domain.OgcCrs;
 import de.ii.xtraplatform.features.domain.FeatureQuery;
 import de.ii.xtraplatform.features.domain.FeatureTokenEncoder;
 import de.ii.xtraplatform.features.domain.ImmutableFeatureQuery;
-import no.ecc.vectortile.VectorTileDecoder;
-import no.ecc.vectortile.VectorTileEncoder;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
 import org.apache.felix.ipojo.annotations.Provides;
@@ -57,14 +59,15 @@ import org.slf4j.LoggerFactory;
 import javax.ws.rs.core.MediaType;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 import static de.ii.ldproxy.ogcapi.features.core.domain.FeaturesCoreConfiguration.PARAMETER_BBOX;
@@ -124,6 +127,8 @@ public class TileFormatMVT extends TileFormatWithQuerySupportExtension {
     @Override
     public Optional<FeatureTokenEncoder<?>> getFeatureEncoder(
         FeatureTransformationContextTiles transformationContext) {
+        if (!transformationContext.bulkLimits().isEmpty())
+            return Optional.of(new FeatureEncoderBulkMVT(transformationContext));
         return Optional.of(new FeatureEncoderMVT(transformationContext));
     }
 
@@ -144,19 +149,91 @@ public class TileFormatMVT extends TileFormatWithQuerySupportExtension {
                                  Map<String, String> queryParameters,
                                  TilesConfiguration tilesConfiguration,
                                  URICustomizer uriCustomizer) {
+        return getQuery(tile, tile.getBoundingBox(), getLimit(tilesConfiguration), allowedParameters, queryParameters, tilesConfiguration, uriCustomizer);
+    }
+
+    @Override
+    public Optional<FeatureQuery> getMetatileQuery(List<Tile> tiles,
+                                                   List<OgcApiQueryParameter> allowedParameters,
+                                                   Map<String, String> queryParameters,
+                                                   TilesConfiguration tilesConfiguration,
+                                                   URICustomizer uriCustomizer) {
+        if (tiles.isEmpty())
+            return Optional.empty();
+
+        // the tiles are in the same tile matrix, so the bounding box of the metatile is the union of the tile bounding boxes
+        BoundingBox bbox = tiles.stream()
+                                .map(Tile::getBoundingBox)
+                                .reduce((bbox1, bbox2) -> BoundingBox.of(Math.min(bbox1.getXmin(), bbox2.getXmin()),
+                                                                         Math.min(bbox1.getYmin(), bbox2.getYmin()),
+                                                                         Math.max(bbox1.getXmax(), bbox2.getXmax()),
+                                                                         Math.max(bbox1.getYmax(), bbox2.getYmax()),
+                                                                         bbox1.getEpsgCrs()))
+                                .get();
+
+        // the limit applies to each tile, it is enforced when the features are added to the tiles, see TileEncoderMVT
+        int limit = (int) Math.min(Integer.MAX_VALUE, (long) getLimit(tilesConfiguration) * tiles.size());
+
+        return Optional.of(getQuery(tiles.get(0), bbox, limit, allowedParameters, queryParameters, tilesConfiguration, uriCustomizer));
+    }
+
+    @Override
+    public Optional<FeatureQuery> getBulkQuery(Tile tile,
+                                               List<TileMatrixSetLimits> limits,
+                                               List<OgcApiQueryParameter> allowedParameters,
+                                               Map<String, String> queryParameters,
+                                               TilesConfiguration tilesConfiguration,
+                                               URICustomizer uriCustomizer) {
+        if (limits.isEmpty())
+            return Optional.empty();
+
+        // the features of all zoom levels must be selected with the same filter and properties
+        TileMatrixSet tileMatrixSet = tile.getTileMatrixSet();
+        int level = tile.getTileLevel();
+        boolean sameQuery = limits.stream()
+                                  .map(tileMatrixSetLimits -> Integer.parseInt(tileMatrixSetLimits.getTileMatrix()))
+                                  .allMatch(otherLevel -> Objects.equals(getPredefinedFilter(tilesConfiguration, tileMatrixSet.getId(), otherLevel),
+                                                                         getPredefinedFilter(tilesConfiguration, tileMatrixSet.getId(), level))
+                                      && Objects.equals(getRuleProperties(tilesConfiguration, tileMatrixSet.getId(), otherLevel),
+                                                        getRuleProperties(tilesConfiguration, tileMatrixSet.getId(), level)));
+        if (!sameQuery)
+            return Optional.empty();
+
+        BoundingBox bbox = limits.stream()
+                                 .map(tileMatrixSetLimits -> {
+                                     int otherLevel = Integer.parseInt(tileMatrixSetLimits.getTileMatrix());
+                                     BoundingBox upperLeft = tileMatrixSet.getTileBoundingBox(otherLevel, tileMatrixSetLimits.getMinTileCol(), tileMatrixSetLimits.getMinTileRow());
+                                     BoundingBox lowerRight = tileMatrixSet.getTileBoundingBox(otherLevel, tileMatrixSetLimits.getMaxTileCol(), tileMatrixSetLimits.getMaxTileRow());
+                                     return BoundingBox.of(upperLeft.getXmin(), lowerRight.getYmin(), lowerRight.getXmax(), upperLeft.getYmax(), upperLeft.getEpsgCrs());
+                                 })
+                                 .reduce((bbox1, bbox2) -> BoundingBox.of(Math.min(bbox1.getXmin(), bbox2.getXmin()),
+                                                                          Math.min(bbox1.getYmin(), bbox2.getYmin()),
+                                                                          Math.max(bbox1.getXmax(), bbox2.getXmax()),
+                                                                          Math.max(bbox1.getYmax(), bbox2.getYmax()),
+                                                                          bbox1.getEpsgCrs()))
+                                 .get();
+
+        // all features are streamed once, the encoder applies the limit to each tile
+        return Optional.of(getQuery(tile, bbox, Integer.MAX_VALUE, allowedParameters, queryParameters, tilesConfiguration, uriCustomizer));
+    }
+
+    private int getLimit(TilesConfiguration tilesConfiguration) {
+        return Objects.requireNonNullElse(tilesConfiguration.getLimitDerived(), LIMIT_DEFAULT);
+    }
+
+    private FeatureQuery getQuery(Tile tile,
+                                  BoundingBox tileBbox,
+                                  int limit,
+                                  List<OgcApiQueryParameter> allowedParameters,
+                                  Map<String, String> queryParameters,
+                                  TilesConfiguration tilesConfiguration,
+                                  URICustomizer uriCustomizer) {
 
         String collectionId = tile.getCollectionId();
         String tileMatrixSetId = tile.getTileMatrixSet().getId();
         int level = tile.getTileLevel();
 
-        final Map<String, List<PredefinedFilter>> predefFilters = tilesConfiguration.getFiltersDerived();
-        final String predefFilter = (Objects.nonNull(predefFilters) && predefFilters.containsKey(tileMatrixSetId)) ?
-                predefFilters.get(tileMatrixSetId).stream()
-                             .filter(filter -> filter.getMax()>=level && filter.getMin()<=level && filter.getFilter().isPresent())
-                             .map(filter -> filter.getFilter().get())
-                             .findAny()
-                             .orElse(null) :
-                null;
+        final String predefFilter = getPredefinedFilter(tilesConfiguration, tileMatrixSetId, level);
 
         String featureTypeId = tile.getApiData()
                                    .getCollections()
@@ -166,18 +243,13 @@ public class TileFormatMVT extends TileFormatWithQuerySupportExtension {
                                    .orElse(collectionId);
         ImmutableFeatureQuery.Builder queryBuilder = ImmutableFeatureQuery.builder()
                                                                           .type(featureTypeId)
-                                                                          .limit(Objects.requireNonNullElse(tilesConfiguration.getLimitDerived(),LIMIT_DEFAULT))
+                                                                          .limit(limit)
                                                                           .offset(0)
                                                                           .crs(tile.getTileMatrixSet().getCrs());
                                                                           //.maxAllowableOffset(getMaxAllowableOffsetNative(tile));
 
-        final Map<String, List<Rule>> rules = tilesConfiguration.getRulesDerived();
-        if (!queryParameters.containsKey("properties") && (Objects.nonNull(rules) && rules.containsKey(tileMatrixSetId))) {
-            List<String> properties = rules.get(tileMatrixSetId).stream()
-                                           .filter(rule -> rule.getMax() >= level && rule.getMin() <= level)
-                                           .map(Rule::getProperties)
-                                           .flatMap(Collection::stream)
-                                           .collect(Collectors.toList());
+        if (!queryParameters.containsKey("properties")) {
+            List<String> properties = getRuleProperties(tilesConfiguration, tileMatrixSetId, level);
             if (!properties.isEmpty()) {
                 queryParameters = ImmutableMap.<String, String>builder()
                                               .putAll(queryParameters)
@@ -206,7 +278,7 @@ public class TileFormatMVT extends TileFormatWithQuerySupportExtension {
             parameter.transformQuery(collectionData, queryBuilder, queryParameters, apiData);
         }
 
-        BoundingBox bbox = tile.getBoundingBox();
+        BoundingBox bbox = tileBbox;
         try {
             // reduce bbox to the area in which there is data (to avoid coordinate transformation issues
             // with large scale and data that is stored in a regional, projected CRS)
@@ -268,68 +340,153 @@ public class TileFormatMVT extends TileFormatWithQuerySupportExtension {
         return queryBuilder.build();
     }
 
+    private String getPredefinedFilter(TilesConfiguration tilesConfiguration, String tileMatrixSetId, int level) {
+        final Map<String, List<PredefinedFilter>> predefFilters = tilesConfiguration.getFiltersDerived();
+        return (Objects.nonNull(predefFilters) && predefFilters.containsKey(tileMatrixSetId)) ?
+                predefFilters.get(tileMatrixSetId).stream()
+                             .filter(filter -> filter.getMax()>=level && filter.getMin()<=level && filter.getFilter().isPresent())
+                             .map(filter -> filter.getFilter().get())
+                             .findAny()
+                             .orElse(null) :
+                null;
+    }
+
+    private List<String> getRuleProperties(TilesConfiguration tilesConfiguration, String tileMatrixSetId, int level) {
+        final Map<String, List<Rule>> rules = tilesConfiguration.getRulesDerived();
+        return (Objects.nonNull(rules) && rules.containsKey(tileMatrixSetId)) ?
+                rules.get(tileMatrixSetId).stream()
+                     .filter(rule -> rule.getMax() >= level && rule.getMin() <= level)
+                     .map(Rule::getProperties)
+                     .flatMap(Collection::stream)
+                     .collect(Collectors.toList()) :
+                ImmutableList.of();
+    }
+
     @Override
-    public TileFromFeatureQuery.MultiLayerTileContent combineSingleLayerTilesToMultiLayerTile(TileMatrixSet tileMatrixSet, Map<String, Tile> singleLayerTileMap, Map<String, ByteArrayOutputStream> singleLayerByteArrayMap) throws IOException {
-        VectorTileEncoder encoder = new VectorTileEncoder(tileMatrixSet.getTileExtent());
-        VectorTileDecoder decoder = new VectorTileDecoder();
-        Set<String> processedCollections = new TreeSet<>();
-        int count = 0;
-        while (count++ <= 3) {
-            for (String collectionId : singleLayerTileMap.keySet()) {
-                if (!processedCollections.contains(collectionId)) {
-                    Tile singleLayerTile = singleLayerTileMap.get(collectionId);
-                    ByteArrayOutputStream tileBytes = singleLayerByteArrayMap.get(collectionId);
-                    if (Objects.nonNull(tileBytes) && tileBytes.size()>0) {
-                        try {
-                            List<VectorTileDecoder.Feature> features = decoder.decode(tileBytes.toByteArray()).asList();
-                            features.forEach(feature -> encoder.addFeature(feature.getLayerName(),feature.getAttributes(),feature.getGeometry(),feature.getId()));
-                            processedCollections.add(collectionId);
-                        } catch (IOException e) {
-                            // maybe the file is still generated, try to wait once before giving up
-                            String msg = "Failure to access the single-layer tile {}/{}/{}/{} in dataset '{}', layer '{}', format '{}'. Trying again ...";
-                            LOGGER.info(msg, tileMatrixSet.getId(), singleLayerTile.getTileLevel(), singleLayerTile.getTileRow(), singleLayerTile.getTileCol(),
-                                        singleLayerTile.getApiData().getId(), collectionId, getExtension());
-                        } catch (IllegalArgumentException e) {
-                            // another problem generating the tile, remove the problematic tile file from the cache
-                            try {
-                                tileCache.deleteTile(singleLayerTile);
-                            } catch (SQLException throwables) {
-                                // ignore
-                            }
-                            throw new RuntimeException(String.format("Failure to process the single-layer tile %s/%d/%d/%d in dataset '%s', layer '%s', format '%s'.",
-                                                                     tileMatrixSet.getId(), singleLayerTile.getTileLevel(), singleLayerTile.getTileRow(), singleLayerTile.getTileCol(),
-                                                                     singleLayerTile.getApiData().getId(), collectionId, getExtension()), e);
-                        }
-                    } else {
-                        try {
-                            if (tileCache.tileIsEmpty(singleLayerTile).orElse(false)) {
-                        // an empty tile, so we are done for this collection
-                        processedCollections.add(collectionId);
+    public Optional<byte[]> getTileFromChildTiles(Tile tile, TilesConfiguration tilesConfiguration) {
+        TileMatrixSet tileMatrixSet = tile.getTileMatrixSet();
+        int level = tile.getTileLevel();
+        MinMax levels = tilesConfiguration.getZoomLevelsFromChildTilesDerived().get(tileMatrixSet.getId());
+        if (tile.isDatasetTile() || tile.getTemporary() || Objects.isNull(levels)
+            || level < levels.getMin() || level > levels.getMax() || level >= tileMatrixSet.getMaxLevel())
+            return Optional.empty();
+
+        // the child tiles must contain the same features and properties
+        if (!Objects.equals(getPredefinedFilter(tilesConfiguration, tileMatrixSet.getId(), level), getPredefinedFilter(tilesConfiguration, tileMatrixSet.getId(), level + 1))
+            || !Objects.equals(getRuleProperties(tilesConfiguration, tileMatrixSet.getId(), level), getRuleProperties(tilesConfiguration, tileMatrixSet.getId(), level + 1)))
+            return Optional.empty();
+
+        ParentTileEncoderMVT encoder = new ParentTileEncoderMVT(tile, tilesConfiguration);
+        for (int row = 2 * tile.getTileRow(); row <= 2 * tile.getTileRow() + 1; row++) {
+            for (int col = 2 * tile.getTileCol(); col <= 2 * tile.getTileCol() + 1; col++) {
+                Tile childTile = new ImmutableTile.Builder()
+                        .from(tile)
+                        .tileLevel(level + 1)
+                        .tileRow(row)
+                        .tileCol(col)
+                        .build();
+                try {
+                    Optional<InputStream> childTileContent = tileCache.getTile(childTile);
+                    if (childTileContent.isEmpty()) {
+                        // the child tile has to be generated first
+                        return Optional.empty();
+                    }
+                    try (InputStream inputStream = childTileContent.get()) {
+                        encoder.addChildTile(childTile, ByteStreams.toByteArray(inputStream));
                     }
-                        } catch (Exception e) {
-                            LOGGER.warn("Failed to retrieve tile {}/{}/{}/{} for collection {} from the cache. Reason: {}",
-                                        singleLayerTile.getTileMatrixSet().getId(), singleLayerTile.getTileLevel(), singleLayerTile.getTileRow(),
-                                        singleLayerTile.getTileCol(), collectionId, e.getMessage());
-                        }
+                } catch (IOException | SQLException e) {
+                    LOGGER.debug("Failure to access the child tile {}/{}/{}/{} in dataset '{}', collection '{}'. The tile is generated from the features. Reason: {}",
+                                 tileMatrixSet.getId(), childTile.getTileLevel(), childTile.getTileRow(), childTile.getTileCol(),
+                                 tile.getApiData().getId(), tile.getCollectionId(), e.getMessage());
+                    return Optional.empty();
+                }
+            }
+        }
+
+        return Optional.of(encoder.encode());
+    }
+
+    @Override
+    public TileFromFeatureQuery.MultiLayerTileContent combineSingleLayerTilesToMultiLayerTile(TileMatrixSet tileMatrixSet, Map<String, Tile> singleLayerTileMap, Map<String, ByteArrayOutputStream> singleLayerByteArrayMap) throws IOException {
+        // the layers of the single-layer tiles are copied without decoding the features
+        ByteArrayOutputStream multiLayerTile = new ByteArrayOutputStream();
+        Set<String> layerNames = new HashSet<>();
+        int processedCollections = 0;
+        for (String collectionId : singleLayerTileMap.keySet()) {
+            Tile singleLayerTile = singleLayerTileMap.get(collectionId);
+            ByteArrayOutputStream tileBytes = singleLayerByteArrayMap.get(collectionId);
+            if (Objects.isNull(tileBytes)) {
+                // the tile could not be read or generated, unless it is an empty tile
+                try {
+                    if (tileCache.tileIsEmpty(singleLayerTile).orElse(false)) {
+                        processedCollections++;
                     }
+                } catch (Exception e) {
+                    LOGGER.warn("Failed to retrieve tile {}/{}/{}/{} for collection {} from the cache. Reason: {}",
+                                singleLayerTile.getTileMatrixSet().getId(), singleLayerTile.getTileLevel(), singleLayerTile.getTileRow(),
+                                singleLayerTile.getTileCol(), collectionId, e.getMessage());
                 }
+                continue;
             }
-            if (processedCollections.size()==singleLayerTileMap.size())
-                break;
+
+            List<TileLayersMVT.Layer> layers;
             try {
-                Thread.sleep(1000);
-            } catch (InterruptedException ex) {
-                // ignore and just continue
+                layers = TileLayersMVT.read(tileBytes.toByteArray());
+            } catch (IllegalArgumentException e) {
+                // a problem generating the tile, remove the problematic tile file from the cache
+                try {
+                    tileCache.deleteTile(singleLayerTile);
+                } catch (SQLException throwables) {
+                    // ignore
+                }
+                throw new RuntimeException(String.format("Failure to process the single-layer tile %s/%d/%d/%d in dataset '%s', layer '%s', format '%s'.",
+                                                         tileMatrixSet.getId(), singleLayerTile.getTileLevel(), singleLayerTile.getTileRow(), singleLayerTile.getTileCol(),
+                                                         singleLayerTile.getApiData().getId(), collectionId, getExtension()), e);
+            }
+
+            for (TileLayersMVT.Layer layer : layers) {
+                // the layer of a single-layer tile is named after the collection
+                String layerName = layers.size() == 1 ? collectionId : layer.name;
+                if (!layerNames.add(layerName)) {
+                    LOGGER.warn("The layer '{}' occurs more than once in the multi-layer tile {}/{}/{}/{} in dataset '{}', only the first layer is included.",
+                                layerName, tileMatrixSet.getId(), singleLayerTile.getTileLevel(), singleLayerTile.getTileRow(), singleLayerTile.getTileCol(),
+                                singleLayerTile.getApiData().getId());
+                    continue;
+                }
+                layer.writeTo(multiLayerTile, layerName);
             }
+            processedCollections++;
         }
 
         TileFromFeatureQuery.MultiLayerTileContent result = new TileFromFeatureQuery.MultiLayerTileContent();
-        result.byteArray = encoder.encode();
-        result.isComplete = processedCollections.size()==singleLayerTileMap.size();
+        result.byteArray = multiLayerTile.toByteArray();
+        result.isComplete = processedCollections == singleLayerTileMap.size();
 
         return result;
     }
 
+    @Override
+    public Optional<byte[]> getLayersFromMultiLayerTile(byte[] multiLayerTile, List<String> layerNames) {
+        Map<String, TileLayersMVT.Layer> layers;
+        try {
+            layers = TileLayersMVT.read(multiLayerTile)
+                                  .stream()
+                                  .filter(layer -> Objects.nonNull(layer.name))
+                                  .collect(Collectors.toMap(layer -> layer.name, layer -> layer, (layer1, layer2) -> layer1));
+        } catch (IllegalArgumentException e) {
+            LOGGER.debug("Failure to read the layers of a multi-layer tile: {}", e.getMessage());
+            return Optional.empty();
+        }
+
+        // the layers are copied without decoding the features; a layer without features is not included in the tile
+        ByteArrayOutputStream tile = new ByteArrayOutputStream();
+        layerNames.stream()
+                  .map(layers::get)
+                  .filter(Objects::nonNull)
+                  .forEach(layer -> layer.writeTo(tile));
+        return Optional.of(tile.toByteArray());
+    }
+
     @Override
     public double getMaxAllowableOffsetNative(Tile tile) {
         double maxAllowableOffsetTileMatrixSet = tile.getTileMatrixSet().getMaxAllowableOffset(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
@@ -359,6 +516,6 @@ public class TileFormatMVT extends TileFormatWithQuerySupportExtension {
      * @return
      */
     public byte[] getEmptyTile(Tile tile) {
-        return new VectorTileEncoder(tile.getTileMatrixSet().getTileExtent()).encode();
+        return new TileWriterMVT(tile.getTileMatrixSet().getTileExtent(), tile.getTileMatrixSet().getTileSize()).encode();
     }
 }
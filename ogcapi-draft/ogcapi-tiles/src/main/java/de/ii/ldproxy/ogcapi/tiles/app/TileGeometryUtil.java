@@ -42,12 +42,14 @@ public class TileGeometryUtil {
 
         // The following changes are applied:
         // 1. The coordinates are converted to the tile coordinate system (0/0 is top left, 256/256 is bottom right)
-        // 2. Small rings or line strings are dropped (small in the context of the tile, one pixel or less). The idea
+        // 2. The geometry is clipped to the tile with a buffer. This is done first, so that the following steps only
+        //    have to process the part of the geometry in the tile, which is typically small for large geometries
+        //    that are included in many tiles.
+        // 3. Small rings or line strings are dropped (small in the context of the tile, one pixel or less). The idea
         //    is to simply drop them as early as possible and before the next processing steps which may depend on
         //    having valid geometries and removing everything that will eventually be removed anyway helps.
-        // 3. Remove unnecessary vertices and snap coordinates to the grid.
-        // 4. If the resulting geometry is invalid polygonal geometry, try to make it valid.
-        // 5. Hopefully we have a valid geometry now, so try to clip it to the tile.
+        // 4. Remove unnecessary vertices and snap coordinates to the grid.
+        // 5. If the resulting geometry is invalid polygonal geometry, try to make it valid.
         //
         // After each step, check, if we still have a geometry or the resulting tile geometry was too small for
         // the tile. In that case the feature is ignored.
@@ -55,17 +57,21 @@ public class TileGeometryUtil {
         // 1 convert to the tile coordinate system
         geom.apply(affineTransformation);
 
-        // 2 remove small rings or line strings (small in the context of the tile)
+        // 2 limit the coordinates to the tile with a buffer
+        geom = clipToRectangle(geom, clipGeometry);
+        if (Objects.isNull(geom) || geom.isEmpty())
+            return null;
+
+        // 3 remove small rings or line strings (small in the context of the tile)
         geom = removeSmallPieces(geom, minimumSizeInPixel);
         if (Objects.isNull(geom) || geom.isEmpty())
             return null;
 
-        // 3 simplify the geometry
+        // 4 simplify the geometry and reduce the geometry to the tile grid
         geom = TopologyPreservingSimplifier.simplify(geom, 1.0/precisionModel.getScale());
         if (Objects.isNull(geom) || geom.isEmpty())
             return null;
 
-        // 4 reduce the geometry to the tile grid
         geom = reduce(geom, reducer, precisionModel, maxRelativeAreaChangeInPolygonRepair, maxAbsoluteAreaChangeInPolygonRepair);
         if (Objects.isNull(geom) || geom.isEmpty())
             return null;
@@ -75,17 +81,12 @@ public class TileGeometryUtil {
             geom = repairPolygon(geom, maxRelativeAreaChangeInPolygonRepair, maxAbsoluteAreaChangeInPolygonRepair, 1.0/precisionModel.getScale());
             if (Objects.isNull(geom) || geom.isEmpty())
                 return null;
-        }
 
-        // 6 limit the coordinates to the tile with a buffer
-        geom = clipGeometry(geom, clipGeometry);
-        if (Objects.isNull(geom) || geom.isEmpty())
-            return null;
-
-        // reduce the geometry to the tile grid
-        geom = reduce(geom, reducer, precisionModel, maxRelativeAreaChangeInPolygonRepair, maxAbsoluteAreaChangeInPolygonRepair);
-        if (Objects.isNull(geom) || geom.isEmpty())
-            return null;
+            // reduce the geometry to the tile grid
+            geom = reduce(geom, reducer, precisionModel, maxRelativeAreaChangeInPolygonRepair, maxAbsoluteAreaChangeInPolygonRepair);
+            if (Objects.isNull(geom) || geom.isEmpty())
+                return null;
+        }
 
         // finally again remove any small rings or line strings created in the processing
         geom = removeSmallPieces(geom, minimumSizeInPixel);
@@ -101,7 +102,7 @@ public class TileGeometryUtil {
                 return null;
 
             // limit the coordinates to the tile with a buffer
-            geom = clipGeometry(geom, clipGeometry);
+            geom = clipToRectangle(geom, clipGeometry);
             if (Objects.isNull(geom) || geom.isEmpty())
                 return null;
 
@@ -135,6 +136,13 @@ public class TileGeometryUtil {
         return segments;
     }
 
+    private static Geometry clipToRectangle(Geometry geometry, Geometry clipGeometry) {
+        // the clip geometry is the tile with a buffer, use the general overlay only for other geometry types
+        return new RectangleClipper(clipGeometry.getEnvelopeInternal())
+            .clip(geometry)
+            .orElseGet(() -> clipGeometry(geometry, clipGeometry));
+    }
+
     private static Geometry clipGeometry(Geometry geometry, Geometry clipGeometry) {
         try {
             Geometry original = geometry;
@@ -0,0 +1,206 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app;
+
+import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Access to the layers of an encoded vector tile at the protobuf level, without decoding the features.
+ *
+ * <p>A vector tile is a sequence of layer messages (field 3 of the tile message), so a tile with several layers is
+ * the concatenation of the layers of other tiles, as long as the layer names are unique. The name of a layer is the
+ * only field of a layer message that is interpreted here, all other fields are copied unchanged.
+ */
+class TileLayersMVT {
+
+  static final int TILE_LAYERS = 3;
+  static final int LAYER_NAME = 1;
+  static final int WIRETYPE_VARINT = 0;
+  static final int WIRETYPE_FIXED64 = 1;
+  static final int WIRETYPE_LENGTH_DELIMITED = 2;
+  static final int WIRETYPE_FIXED32 = 5;
+
+  private TileLayersMVT() {
+  }
+
+  /**
+   * a layer message in an encoded vector tile
+   */
+  static class Layer {
+    final String name;
+    private final byte[] tile;
+    // the position of the layer message in the tile, without the field tag and the length
+    private final int offset;
+    private final int length;
+
+    private Layer(String name, byte[] tile, int offset, int length) {
+      this.name = name;
+      this.tile = tile;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /**
+     * append the layer to a tile
+     * @param out the tile
+     */
+    void writeTo(ByteArrayOutputStream out) {
+      writeTag(out, TILE_LAYERS, WIRETYPE_LENGTH_DELIMITED);
+      writeVarint(out, length);
+      out.write(tile, offset, length);
+    }
+
+    /**
+     * append the layer to a tile with another name
+     * @param out the tile
+     * @param newName the name of the layer in the tile
+     */
+    void writeTo(ByteArrayOutputStream out, String newName) {
+      if (Objects.equals(name, newName)) {
+        writeTo(out);
+        return;
+      }
+
+      ByteArrayOutputStream layer = new ByteArrayOutputStream(length + newName.length() + 8);
+      byte[] nameBytes = newName.getBytes(StandardCharsets.UTF_8);
+      writeTag(layer, LAYER_NAME, WIRETYPE_LENGTH_DELIMITED);
+      writeVarint(layer, nameBytes.length);
+      layer.write(nameBytes, 0, nameBytes.length);
+
+      // copy all other fields
+      int position = offset;
+      int end = offset + length;
+      while (position < end) {
+        int fieldStart = position;
+        long tag = readVarint(tile, position, end);
+        position += varintSize(tile, position, end);
+        position = skipValue(tile, position, end, (int) (tag & 0x7));
+        if ((int) (tag >>> 3) != LAYER_NAME) {
+          layer.write(tile, fieldStart, position - fieldStart);
+        }
+      }
+
+      byte[] bytes = layer.toByteArray();
+      writeTag(out, TILE_LAYERS, WIRETYPE_LENGTH_DELIMITED);
+      writeVarint(out, bytes.length);
+      out.write(bytes, 0, bytes.length);
+    }
+  }
+
+  /**
+   * @param tile an encoded vector tile
+   * @return the layers of the tile in the order of the tile
+   * @throws IllegalArgumentException the tile is not a valid protobuf message
+   */
+  static List<Layer> read(byte[] tile) {
+    ImmutableList.Builder<Layer> layers = ImmutableList.builder();
+    int position = 0;
+    while (position < tile.length) {
+      long tag = readVarint(tile, position, tile.length);
+      position += varintSize(tile, position, tile.length);
+      int wireType = (int) (tag & 0x7);
+      if ((int) (tag >>> 3) == TILE_LAYERS && wireType == WIRETYPE_LENGTH_DELIMITED) {
+        int length = (int) readVarint(tile, position, tile.length);
+        position += varintSize(tile, position, tile.length);
+        if (length < 0 || position + length > tile.length)
+          throw new IllegalArgumentException("Invalid vector tile, a layer exceeds the tile.");
+        layers.add(new Layer(readName(tile, position, position + length), tile, position, length));
+        position += length;
+      } else {
+        // unknown fields of the tile message are dropped
+        position = skipValue(tile, position, tile.length, wireType);
+      }
+    }
+    return layers.build();
+  }
+
+  private static String readName(byte[] tile, int start, int end) {
+    String name = null;
+    int position = start;
+    while (position < end) {
+      long tag = readVarint(tile, position, end);
+      position += varintSize(tile, position, end);
+      int wireType = (int) (tag & 0x7);
+      if ((int) (tag >>> 3) == LAYER_NAME && wireType == WIRETYPE_LENGTH_DELIMITED) {
+        int length = (int) readVarint(tile, position, end);
+        position += varintSize(tile, position, end);
+        if (length < 0 || position + length > end)
+          throw new IllegalArgumentException("Invalid vector tile, a layer name exceeds the layer.");
+        name = new String(tile, position, length, StandardCharsets.UTF_8);
+        position += length;
+      } else {
+        position = skipValue(tile, position, end, wireType);
+      }
+    }
+    return name;
+  }
+
+  private static int skipValue(byte[] bytes, int position, int end, int wireType) {
+    int next;
+    switch (wireType) {
+      case WIRETYPE_VARINT:
+        next = position + varintSize(bytes, position, end);
+        break;
+      case WIRETYPE_FIXED64:
+        next = position + 8;
+        break;
+      case WIRETYPE_LENGTH_DELIMITED:
+        long length = readVarint(bytes, position, end);
+        next = position + varintSize(bytes, position, end) + (int) length;
+        if (length < 0 || next < position)
+          throw new IllegalArgumentException("Invalid vector tile, invalid field length.");
+        break;
+      case WIRETYPE_FIXED32:
+        next = position + 4;
+        break;
+      default:
+        throw new IllegalArgumentException(String.format("Invalid vector tile, unsupported wire type %d.", wireType));
+    }
+    if (next > end)
+      throw new IllegalArgumentException("Invalid vector tile, a field exceeds the message.");
+    return next;
+  }
+
+  private static long readVarint(byte[] bytes, int position, int end) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (position >= end)
+        throw new IllegalArgumentException("Invalid vector tile, truncated varint.");
+      byte b = bytes[position++];
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+    throw new IllegalArgumentException("Invalid vector tile, malformed varint.");
+  }
+
+  private static int varintSize(byte[] bytes, int position, int end) {
+    int size = 1;
+    while (position < end && (bytes[position] & 0x80) != 0) {
+      position++;
+      size++;
+    }
+    return size;
+  }
+
+  static void writeTag(ByteArrayOutputStream out, int field, int wireType) {
+    writeVarint(out, (field << 3) | wireType);
+  }
+
+  static void writeVarint(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+}
@@ -64,6 +64,10 @@ public abstract class TileProviderFeatures extends TileProvider {
 
     public abstract Map<String, MinMax> getSeeding();
 
+    public abstract Map<String, MinMax> getZoomLevelsFromChildTiles();
+
+    public abstract Map<String, MinMax> getZoomLevelsPointDeduplication();
+
     public abstract Map<String, List<PredefinedFilter>> getFilters();
 
     public abstract Map<String, List<Rule>> getRules();
@@ -252,6 +256,16 @@ public abstract class TileProviderFeatures extends TileProvider {
             getZoomLevelsCache().forEach(mergedZoomLevelsCache::put);
         builder.zoomLevelsCache(mergedZoomLevelsCache);
 
+        Map<String, MinMax> mergedZoomLevelsFromChildTiles = Objects.nonNull(src.getZoomLevelsFromChildTiles()) ? Maps.newLinkedHashMap(src.getZoomLevelsFromChildTiles()) : Maps.newLinkedHashMap();
+        if (Objects.nonNull(getZoomLevelsFromChildTiles()))
+            getZoomLevelsFromChildTiles().forEach(mergedZoomLevelsFromChildTiles::put);
+        builder.zoomLevelsFromChildTiles(mergedZoomLevelsFromChildTiles);
+
+        Map<String, MinMax> mergedZoomLevelsPointDeduplication = Objects.nonNull(src.getZoomLevelsPointDeduplication()) ? Maps.newLinkedHashMap(src.getZoomLevelsPointDeduplication()) : Maps.newLinkedHashMap();
+        if (Objects.nonNull(getZoomLevelsPointDeduplication()))
+            getZoomLevelsPointDeduplication().forEach(mergedZoomLevelsPointDeduplication::put);
+        builder.zoomLevelsPointDeduplication(mergedZoomLevelsPointDeduplication);
+
         Map<String, List<Rule>> mergedRules = Objects.nonNull(src.getRules()) ? Maps.newLinkedHashMap(src.getRules()) : Maps.newLinkedHashMap();
         if (Objects.nonNull(getRules()))
             getRules().forEach(mergedRules::put);
@@ -0,0 +1,406 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+
+import static de.ii.ldproxy.ogcapi.tiles.app.TileLayersMVT.LAYER_NAME;
+import static de.ii.ldproxy.ogcapi.tiles.app.TileLayersMVT.TILE_LAYERS;
+import static de.ii.ldproxy.ogcapi.tiles.app.TileLayersMVT.WIRETYPE_FIXED32;
+import static de.ii.ldproxy.ogcapi.tiles.app.TileLayersMVT.WIRETYPE_FIXED64;
+import static de.ii.ldproxy.ogcapi.tiles.app.TileLayersMVT.WIRETYPE_LENGTH_DELIMITED;
+import static de.ii.ldproxy.ogcapi.tiles.app.TileLayersMVT.WIRETYPE_VARINT;
+import static de.ii.ldproxy.ogcapi.tiles.app.TileLayersMVT.writeTag;
+import static de.ii.ldproxy.ogcapi.tiles.app.TileLayersMVT.writeVarint;
+
+/**
+ * Writes vector tiles in the Mapbox Vector Tile format.
+ *
+ * <p>The features are encoded when they are added: the keys and values of the properties are interned in the
+ * dictionaries of the layer and the geometry commands are delta- and zigzag-encoded from the coordinate sequences,
+ * so only the encoded features are kept until the tile is written. The geometries have to be in tile coordinates
+ * and already clipped to the tile with its buffer.
+ */
+class TileWriterMVT {
+
+  private static final int VERSION = 2;
+
+  // fields of a layer message
+  private static final int LAYER_FEATURES = 2;
+  private static final int LAYER_KEYS = 3;
+  private static final int LAYER_VALUES = 4;
+  private static final int LAYER_EXTENT = 5;
+  private static final int LAYER_VERSION = 15;
+
+  // fields of a feature message
+  private static final int FEATURE_ID = 1;
+  private static final int FEATURE_TAGS = 2;
+  private static final int FEATURE_TYPE = 3;
+  private static final int FEATURE_GEOMETRY = 4;
+
+  // fields of a value message
+  private static final int VALUE_STRING = 1;
+  private static final int VALUE_FLOAT = 2;
+  private static final int VALUE_DOUBLE = 3;
+  private static final int VALUE_SINT = 6;
+  private static final int VALUE_BOOL = 7;
+
+  // geometry types
+  private static final int POINT = 1;
+  private static final int LINESTRING = 2;
+  private static final int POLYGON = 3;
+
+  // geometry commands
+  private static final int MOVE_TO = 1;
+  private static final int LINE_TO = 2;
+  private static final int CLOSE_PATH = 7;
+
+  private final int extent;
+  private final double scale;
+  private final Map<String, Layer> layers = new LinkedHashMap<>();
+
+  // buffers that are reused for each feature
+  private final Buffer featureBuffer = new Buffer();
+  private int[] commands = new int[256];
+  private int commandCount;
+  private int[] tags = new int[32];
+  private int tagCount;
+  private int[] xs = new int[256];
+  private int[] ys = new int[256];
+  private int cursorX;
+  private int cursorY;
+
+  /**
+   * @param extent the extent of the tile in the tile coordinates of the vector tile
+   * @param tileSize the size of the tile in pixels, the coordinates of the geometries are in pixels
+   */
+  TileWriterMVT(int extent, int tileSize) {
+    this.extent = extent;
+    this.scale = (double) extent / (double) tileSize;
+  }
+
+  /**
+   * a byte buffer that is appended to another buffer without copying the bytes first
+   */
+  private static class Buffer extends ByteArrayOutputStream {
+    void appendTo(ByteArrayOutputStream out) {
+      out.write(buf, 0, count);
+    }
+  }
+
+  /**
+   * the features, keys and values of a layer
+   */
+  private static class Layer {
+    private final String name;
+    private final Buffer features = new Buffer();
+    private final Map<String, Integer> keys = new LinkedHashMap<>();
+    private final Map<Object, Integer> values = new LinkedHashMap<>();
+
+    private Layer(String name) {
+      this.name = name;
+    }
+  }
+
+  /**
+   * add a feature to a layer of the tile; the parts of a geometry collection are added as separate features
+   * @param layerName the layer
+   * @param attributes the properties of the feature, properties without a value are skipped
+   * @param geometry the geometry in tile coordinates
+   * @param id the feature id, {@code null}, if the feature has no id
+   * @return {@code true}, if the feature has been added, {@code false}, if nothing is left of the geometry in the
+   * tile grid
+   */
+  boolean addFeature(String layerName, Map<String, ?> attributes, Geometry geometry, Long id) {
+    if (geometry.isEmpty()) {
+      return false;
+    }
+
+    if (geometry instanceof GeometryCollection && !(geometry instanceof MultiPoint || geometry instanceof MultiLineString || geometry instanceof MultiPolygon)) {
+      boolean added = false;
+      for (int i = 0; i < geometry.getNumGeometries(); i++) {
+        added |= addFeature(layerName, attributes, geometry.getGeometryN(i), id);
+      }
+      return added;
+    }
+
+    commandCount = 0;
+    cursorX = 0;
+    cursorY = 0;
+    int type;
+    if (geometry instanceof Point || geometry instanceof MultiPoint) {
+      type = POINT;
+      writePoints(geometry);
+    } else if (geometry instanceof LineString || geometry instanceof MultiLineString) {
+      type = LINESTRING;
+      for (int i = 0; i < geometry.getNumGeometries(); i++) {
+        writeLineString(((LineString) geometry.getGeometryN(i)).getCoordinateSequence());
+      }
+    } else if (geometry instanceof Polygon || geometry instanceof MultiPolygon) {
+      type = POLYGON;
+      for (int i = 0; i < geometry.getNumGeometries(); i++) {
+        Polygon polygon = (Polygon) geometry.getGeometryN(i);
+        if (writeRing(polygon.getExteriorRing().getCoordinateSequence(), true)) {
+          for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+            writeRing(polygon.getInteriorRingN(j).getCoordinateSequence(), false);
+          }
+        }
+      }
+    } else {
+      return false;
+    }
+
+    if (commandCount == 0) {
+      return false;
+    }
+
+    Layer layer = layers.computeIfAbsent(layerName, Layer::new);
+    tagCount = 0;
+    attributes.forEach((key, value) -> {
+      if (Objects.nonNull(key) && Objects.nonNull(value)) {
+        addTag(layer.keys.computeIfAbsent(key, ignore -> layer.keys.size()));
+        addTag(layer.values.computeIfAbsent(value, ignore -> layer.values.size()));
+      }
+    });
+
+    featureBuffer.reset();
+    if (Objects.nonNull(id) && id >= 0) {
+      writeTag(featureBuffer, FEATURE_ID, WIRETYPE_VARINT);
+      writeVarint(featureBuffer, id);
+    }
+    writePacked(featureBuffer, FEATURE_TAGS, tags, tagCount);
+    writeTag(featureBuffer, FEATURE_TYPE, WIRETYPE_VARINT);
+    writeVarint(featureBuffer, type);
+    writePacked(featureBuffer, FEATURE_GEOMETRY, commands, commandCount);
+
+    writeTag(layer.features, LAYER_FEATURES, WIRETYPE_LENGTH_DELIMITED);
+    writeVarint(layer.features, featureBuffer.size());
+    featureBuffer.appendTo(layer.features);
+
+    return true;
+  }
+
+  /**
+   * @return the encoded tile, an empty array, if no feature has been added
+   */
+  byte[] encode() {
+    ByteArrayOutputStream tile = new ByteArrayOutputStream();
+    Buffer message = new Buffer();
+    for (Layer layer : layers.values()) {
+      message.reset();
+      writeTag(message, LAYER_VERSION, WIRETYPE_VARINT);
+      writeVarint(message, VERSION);
+      writeString(message, LAYER_NAME, layer.name);
+      layer.features.appendTo(message);
+      for (String key : layer.keys.keySet()) {
+        writeString(message, LAYER_KEYS, key);
+      }
+      Buffer value = new Buffer();
+      for (Object object : layer.values.keySet()) {
+        value.reset();
+        writeValue(value, object);
+        writeTag(message, LAYER_VALUES, WIRETYPE_LENGTH_DELIMITED);
+        writeVarint(message, value.size());
+        value.appendTo(message);
+      }
+      writeTag(message, LAYER_EXTENT, WIRETYPE_VARINT);
+      writeVarint(message, extent);
+
+      writeTag(tile, TILE_LAYERS, WIRETYPE_LENGTH_DELIMITED);
+      writeVarint(tile, message.size());
+      message.appendTo(tile);
+    }
+    return tile.toByteArray();
+  }
+
+  private void writePoints(Geometry geometry) {
+    int count = geometry.getNumGeometries();
+    addCommand(MOVE_TO, count);
+    for (int i = 0; i < count; i++) {
+      Point point = (Point) geometry.getGeometryN(i);
+      addPosition(toTile(point.getX()), toTile(point.getY()));
+    }
+  }
+
+  private void writeLineString(CoordinateSequence sequence) {
+    int size = toTile(sequence, false);
+    if (size < 2) {
+      return;
+    }
+
+    addCommand(MOVE_TO, 1);
+    addPosition(xs[0], ys[0]);
+    addCommand(LINE_TO, size - 1);
+    for (int i = 1; i < size; i++) {
+      addPosition(xs[i], ys[i]);
+    }
+  }
+
+  /**
+   * @return {@code false}, if nothing is left of the ring in the tile grid
+   */
+  private boolean writeRing(CoordinateSequence sequence, boolean exterior) {
+    int size = toTile(sequence, true);
+    if (size < 3) {
+      return false;
+    }
+
+    // exterior rings have a positive area in tile coordinates (clockwise, as the y axis points down), interior rings
+    // a negative area
+    long area = 0;
+    for (int i = 0; i < size; i++) {
+      int j = (i + 1) % size;
+      area += (long) xs[i] * ys[j] - (long) xs[j] * ys[i];
+    }
+    if (area == 0) {
+      return false;
+    }
+    boolean reverse = exterior != (area > 0);
+
+    addCommand(MOVE_TO, 1);
+    addPosition(xs[reverse ? size - 1 : 0], ys[reverse ? size - 1 : 0]);
+    addCommand(LINE_TO, size - 1);
+    for (int i = 1; i < size; i++) {
+      int k = reverse ? size - 1 - i : i;
+      addPosition(xs[k], ys[k]);
+    }
+    addCommand(CLOSE_PATH, 1);
+    return true;
+  }
+
+  /**
+   * convert the coordinates to the tile grid and remove repeated positions
+   * @param sequence the coordinates
+   * @param ring {@code true}, if the sequence is a ring, the closing position is removed, too
+   * @return the number of positions in {@code xs} and {@code ys}
+   */
+  private int toTile(CoordinateSequence sequence, boolean ring) {
+    int size = 0;
+    if (xs.length < sequence.size()) {
+      xs = new int[sequence.size()];
+      ys = new int[sequence.size()];
+    }
+    for (int i = 0; i < sequence.size(); i++) {
+      int x = toTile(sequence.getX(i));
+      int y = toTile(sequence.getY(i));
+      if (size == 0 || x != xs[size - 1] || y != ys[size - 1]) {
+        xs[size] = x;
+        ys[size] = y;
+        size++;
+      }
+    }
+    if (ring && size > 1 && xs[0] == xs[size - 1] && ys[0] == ys[size - 1]) {
+      size--;
+    }
+    return size;
+  }
+
+  private int toTile(double value) {
+    return (int) Math.round(value * scale);
+  }
+
+  private void addCommand(int command, int count) {
+    add((command & 0x7) | (count << 3));
+  }
+
+  private void addPosition(int x, int y) {
+    add(zigzag(x - cursorX));
+    add(zigzag(y - cursorY));
+    cursorX = x;
+    cursorY = y;
+  }
+
+  private void add(int value) {
+    if (commandCount == commands.length) {
+      commands = Arrays.copyOf(commands, commands.length * 2);
+    }
+    commands[commandCount++] = value;
+  }
+
+  private void addTag(int value) {
+    if (tagCount == tags.length) {
+      tags = Arrays.copyOf(tags, tags.length * 2);
+    }
+    tags[tagCount++] = value;
+  }
+
+  private static int zigzag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  private static void writePacked(ByteArrayOutputStream out, int field, int[] values, int count) {
+    if (count == 0) {
+      return;
+    }
+    int length = 0;
+    for (int i = 0; i < count; i++) {
+      length += varintSize(values[i] & 0xFFFFFFFFL);
+    }
+    writeTag(out, field, WIRETYPE_LENGTH_DELIMITED);
+    writeVarint(out, length);
+    for (int i = 0; i < count; i++) {
+      writeVarint(out, values[i] & 0xFFFFFFFFL);
+    }
+  }
+
+  private static int varintSize(long value) {
+    int size = 1;
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  private static void writeString(ByteArrayOutputStream out, int field, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeTag(out, field, WIRETYPE_LENGTH_DELIMITED);
+    writeVarint(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  private static void writeValue(ByteArrayOutputStream out, Object value) {
+    if (value instanceof Boolean) {
+      writeTag(out, VALUE_BOOL, WIRETYPE_VARINT);
+      writeVarint(out, (Boolean) value ? 1 : 0);
+    } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      long l = ((Number) value).longValue();
+      writeTag(out, VALUE_SINT, WIRETYPE_VARINT);
+      writeVarint(out, (l << 1) ^ (l >> 63));
+    } else if (value instanceof Float) {
+      writeTag(out, VALUE_FLOAT, WIRETYPE_FIXED32);
+      writeFixed(out, Float.floatToIntBits((Float) value), 4);
+    } else if (value instanceof Number) {
+      writeTag(out, VALUE_DOUBLE, WIRETYPE_FIXED64);
+      writeFixed(out, Double.doubleToLongBits(((Number) value).doubleValue()), 8);
+    } else {
+      writeString(out, VALUE_STRING, value.toString());
+    }
+  }
+
+  private static void writeFixed(ByteArrayOutputStream out, long value, int bytes) {
+    // little-endian
+    for (int i = 0; i < bytes; i++) {
+      out.write((int) (value >>> (8 * i)) & 0xFF);
+    }
+  }
+}
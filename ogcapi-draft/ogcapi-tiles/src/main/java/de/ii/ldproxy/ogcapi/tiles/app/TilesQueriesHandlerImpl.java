@@ -7,9 +7,12 @@
  */
 package de.ii.ldproxy.ogcapi.tiles.app;
 
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.ii.ldproxy.ogcapi.domain.ApiMediaType;
 import de.ii.ldproxy.ogcapi.domain.ApiRequestContext;
 import de.ii.ldproxy.ogcapi.domain.DefaultLinksGenerator;
@@ -26,6 +29,7 @@ import de.ii.ldproxy.ogcapi.features.core.domain.FeaturesCoreProviders;
 import de.ii.ldproxy.ogcapi.html.domain.HtmlConfiguration;
 import de.ii.ldproxy.ogcapi.tiles.domain.FeatureTransformationContextTiles;
 import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableFeatureTransformationContextTiles;
+import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableTile;
 import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableTileSets;
 import de.ii.ldproxy.ogcapi.tiles.domain.MinMax;
 import de.ii.ldproxy.ogcapi.tiles.domain.StaticTileProviderStore;
@@ -37,6 +41,7 @@ import de.ii.ldproxy.ogcapi.tiles.domain.TileSet;
 import de.ii.ldproxy.ogcapi.tiles.domain.TileSetFormatExtension;
 import de.ii.ldproxy.ogcapi.tiles.domain.TileSets;
 import de.ii.ldproxy.ogcapi.tiles.domain.TileSetsFormatExtension;
+import de.ii.ldproxy.ogcapi.tiles.domain.TilesConfiguration;
 import de.ii.ldproxy.ogcapi.tiles.domain.TilesQueriesHandler;
 import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
 import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetRepository;
@@ -59,6 +64,7 @@ import de.ii.xtraplatform.streams.domain.Reactive.Sink;
 import de.ii.xtraplatform.streams.domain.Reactive.SinkReducedTransformed;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
 import org.apache.felix.ipojo.annotations.Provides;
 import org.apache.felix.ipojo.annotations.Requires;
 import org.slf4j.Logger;
@@ -71,24 +77,36 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.text.MessageFormat;
 import java.time.Instant;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Component
@@ -97,6 +115,10 @@ import java.util.stream.Collectors;
 public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TilesQueriesHandlerImpl.class);
+    private static final String GZIP_ETAG_SUFFIX = "-gzip";
+    // the layers mostly wait for the feature provider, so more threads than processors are used
+    private static final int MAX_LAYER_THREADS = 4 * Runtime.getRuntime().availableProcessors();
+    private static final int MAX_QUEUED_LAYERS = 4 * MAX_LAYER_THREADS;
 
     private final I18n i18n;
     private final CrsTransformerFactory crsTransformerFactory;
@@ -108,6 +130,10 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
     private final StaticTileProviderStore staticTileProviderStore;
     private final FeaturesCoreProviders providers;
     private final TileMatrixSetRepository tileMatrixSetRepository;
+    // tiles that are currently generated, by tile key; concurrent requests for the same tile wait for the result
+    private final Map<String, CompletableFuture<Object>> tilesInProgress;
+    // generates the layers of multi-layer tiles
+    private final ExecutorService layerExecutor;
 
     public TilesQueriesHandlerImpl(@Requires I18n i18n,
                                    @Requires CrsTransformerFactory crsTransformerFactory,
@@ -127,6 +153,18 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
         this.staticTileProviderStore = staticTileProviderStore;
         this.providers = providers;
         this.tileMatrixSetRepository = tileMatrixSetRepository;
+        this.tilesInProgress = new ConcurrentHashMap<>();
+        // if all threads are busy and the queue is full, the request thread generates the layer itself; after the
+        // shutdown the layer is rejected, the CallerRunsPolicy would drop it and leave the request waiting
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_LAYER_THREADS, MAX_LAYER_THREADS, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(MAX_QUEUED_LAYERS),
+                                                             new ThreadFactoryBuilder().setNameFormat("tiles-layers-%d").setDaemon(true).build(),
+                                                             (task, pool) -> {
+                                                                 if (pool.isShutdown())
+                                                                     throw new RejectedExecutionException("The tile layers cannot be generated, the service is stopping.");
+                                                                 task.run();
+                                                             });
+        executor.allowCoreThreadTimeOut(true);
+        this.layerExecutor = executor;
 
         this.queryHandlers = ImmutableMap.<Query, QueryHandler<? extends QueryInput>>builder()
             .put(Query.TILE_SETS, QueryHandler.with(QueryInputTileSets.class, this::getTileSetsResponse))
@@ -140,6 +178,11 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
             .build();
     }
 
+    @Invalidate
+    void onStop() {
+        layerExecutor.shutdownNow();
+    }
+
     @Override
     public Map<Query, QueryHandler<? extends QueryInput>> getQueryHandlers() {
         return queryHandlers;
@@ -343,6 +386,8 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
                     .apiData(apiData)
                     .featureSchema(featureProvider.getData().getTypes().get(featureTypeId))
                     .tile(tile)
+                    .additionalTiles(queryInput.getAdditionalTiles())
+                    .bulkLimits(queryInput.getBulkLimits())
                     .tileCache(tileCache)
                     .collectionId(collectionId)
                     .ogcApiRequest(requestContext)
@@ -368,10 +413,25 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
 
         if (outputFormat.supportsFeatureQuery() && encoder.isPresent()) {
 
-            FeatureStream featureStream = featureProvider.queries().getFeatureStream(query);
+            // build the tile from the cached tiles of the next zoom level, if configured; not for metatiles or bulk seeding
+            Optional<byte[]> tileFromChildTiles = queryInput.getAdditionalTiles().isEmpty() && queryInput.getBulkLimits().isEmpty()
+                ? generateTileFromChildTiles(tile, outputFormat)
+                : Optional.empty();
+            if (tileFromChildTiles.isPresent()) {
+                // internal processing, no need to process headers
+                return prepareSuccessResponse(requestContext.getApi(), requestContext, null)
+                    .entity(tileFromChildTiles.get())
+                    .build();
+            }
 
-            ResultReduced<byte[]> result = generateTile(featureStream, encoder.get(),
-                transformationContext, outputFormat);
+            // metatiles and bulk queries write more tiles than the first one, so the result of another request of the
+            // first tile cannot be used instead; these queries are only issued by the seeding, which does not query a
+            // tile twice at the same time
+            Supplier<ResultReduced<byte[]>> generator = () -> generateTile(featureProvider.queries().getFeatureStream(query),
+                                                                           encoder.get(), transformationContext, outputFormat);
+            ResultReduced<byte[]> result = queryInput.getAdditionalTiles().isEmpty() && queryInput.getBulkLimits().isEmpty()
+                ? generateOnce(tile, generator, ResultReduced::isSuccess)
+                : generator.get();
 
             // internal processing, no need to process headers
             return prepareSuccessResponse(requestContext.getApi(), requestContext, null)
@@ -383,8 +443,85 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
     }
 
     private Response getMultiLayerTileResponse(QueryInputTileMultiLayer queryInput, ApiRequestContext requestContext) {
+        Tile multiLayerTile = queryInput.getTile();
+        TileMatrixSet tileMatrixSet = multiLayerTile.getTileMatrixSet();
+        int tileLevel = multiLayerTile.getTileLevel();
+        int tileRow = multiLayerTile.getTileRow();
+        int tileCol = multiLayerTile.getTileCol();
+
+        if (!(multiLayerTile.getOutputFormat() instanceof TileFormatWithQuerySupportExtension))
+            throw new RuntimeException(String.format("Unexpected tile format without query support. Found: %s", multiLayerTile.getOutputFormat().getClass().getSimpleName()));
+        TileFormatWithQuerySupportExtension outputFormat = (TileFormatWithQuerySupportExtension) multiLayerTile.getOutputFormat();
+
+        List<Link> links = new DefaultLinksGenerator().generateLinks(requestContext.getUriCustomizer(),
+                                                                     requestContext.getMediaType(),
+                                                                     requestContext.getAlternateMediaTypes(),
+                                                                     i18n,
+                                                                     requestContext.getLanguage());
+
+        // a selection of collections is taken from the cached tile with all collections, if possible
+        Optional<TileFormatWithQuerySupportExtension.MultiLayerTileContent> layersFromFullTile = queryInput.getFullTile()
+            .flatMap(fullTile -> getLayersFromCachedTile(fullTile, multiLayerTile.getCollectionIds(), outputFormat));
+
+        TileFormatWithQuerySupportExtension.MultiLayerTileContent result = layersFromFullTile.isPresent()
+            ? layersFromFullTile.get()
+            : generateOnce(multiLayerTile,
+                           () -> generateMultiLayerTile(queryInput, requestContext, outputFormat, links),
+                           content -> content.isComplete);
+
+        Date lastModified = Date.from(Instant.now());
+        EntityTag etag = getEtag(result.byteArray);
+        Response.ResponseBuilder response = evaluatePreconditions(requestContext, lastModified, etag);
+        if (Objects.nonNull(response))
+            return response.build();
+
+        return prepareSuccessResponse(requestContext,
+                                      queryInput.getIncludeLinkHeader() ? links : null,
+                                      lastModified,
+                                      etag,
+                                      queryInput.getCacheControl().orElse(null),
+                                      queryInput.getExpires().orElse(null),
+                                      null,
+                                      true,
+                                      String.format("%s_%d_%d_%d.%s", tileMatrixSet.getId(), tileLevel, tileRow, tileCol, outputFormat.getMediaType().fileExtension()))
+                .entity(result.byteArray)
+                .build();
+    }
+
+    /**
+     * Extract layers from a cached multi-layer tile.
+     *
+     * @param fullTile the multi-layer tile with all collections
+     * @param collectionIds the collections to extract
+     * @param outputFormat the tile format
+     * @return the tile with the selected collections; empty, if the tile is not cached or the format does not support
+     * the extraction of layers
+     */
+    private Optional<TileFormatWithQuerySupportExtension.MultiLayerTileContent> getLayersFromCachedTile(Tile fullTile, List<String> collectionIds, TileFormatWithQuerySupportExtension outputFormat) {
+        Optional<byte[]> content;
+        try {
+            Optional<InputStream> tileContent = tileCache.getTile(fullTile);
+            if (tileContent.isEmpty())
+                return Optional.empty();
+            content = outputFormat.getLayersFromMultiLayerTile(ByteStreams.toByteArray(tileContent.get()), collectionIds);
+        } catch (SQLException | IOException e) {
+            // could not read the cache, generate the tile
+            return Optional.empty();
+        }
+
+        return content.map(bytes -> {
+            TileFormatWithQuerySupportExtension.MultiLayerTileContent result = new TileFormatWithQuerySupportExtension.MultiLayerTileContent();
+            result.byteArray = bytes;
+            result.isComplete = true;
+            return result;
+        });
+    }
+
+    private TileFormatWithQuerySupportExtension.MultiLayerTileContent generateMultiLayerTile(QueryInputTileMultiLayer queryInput,
+                                                                                             ApiRequestContext requestContext,
+                                                                                             TileFormatWithQuerySupportExtension outputFormat,
+                                                                                             List<Link> links) {
         OgcApi api = requestContext.getApi();
-        OgcApiDataV2 apiData = api.getData();
         Tile multiLayerTile = queryInput.getTile();
         List<String> collectionIds = multiLayerTile.getCollectionIds();
         Map<String, FeatureQuery> queryMap = queryInput.getQueryMap();
@@ -395,10 +532,6 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
         int tileRow = multiLayerTile.getTileRow();
         int tileCol = multiLayerTile.getTileCol();
 
-        if (!(multiLayerTile.getOutputFormat() instanceof TileFormatWithQuerySupportExtension))
-            throw new RuntimeException(String.format("Unexpected tile format without query support. Found: %s", multiLayerTile.getOutputFormat().getClass().getSimpleName()));
-        TileFormatWithQuerySupportExtension outputFormat = (TileFormatWithQuerySupportExtension) multiLayerTile.getOutputFormat();
-
         // process parameters and generate query
         Optional<CrsTransformer> crsTransformer = Optional.empty();
         boolean swapCoordinates = false;
@@ -411,87 +544,40 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
             swapCoordinates = crsTransformer.isPresent() && crsTransformer.get()
                                                                           .needsCoordinateSwap();
         }
+        Optional<CrsTransformer> layerCrsTransformer = crsTransformer;
+        boolean layerSwapCoordinates = swapCoordinates;
 
-        List<Link> links = new DefaultLinksGenerator().generateLinks(requestContext.getUriCustomizer(),
-                                                                     requestContext.getMediaType(),
-                                                                     requestContext.getAlternateMediaTypes(),
-                                                                     i18n,
-                                                                     requestContext.getLanguage());
-
-        Map<String, ByteArrayOutputStream> byteArrayMap = new HashMap<>();
-
+        // the layers are generated concurrently, the layer order of the tile is determined by the single-layer tile map
+        Map<String, CompletableFuture<Optional<byte[]>>> layerFutures = new LinkedHashMap<>();
         for (String collectionId : collectionIds) {
             // TODO limitation of the current model: all layers have to come from the same feature provider and use the same CRS
 
-            Tile tile = singleLayerTileMap.get(collectionId);
-
-            if (!multiLayerTile.getTemporary()) {
-                // use cached tile
-                try {
-                    Optional<InputStream> tileContent = tileCache.getTile(tile);
-                    if (tileContent.isPresent()) {
-                        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                        ByteStreams.copy(tileContent.get(), buffer);
-                        byteArrayMap.put(collectionId, buffer);
-                        continue;
-                    }
-                } catch (SQLException | IOException e) {
-                    // could not read the cache, generate the tile
-                }
-            }
-
-            String featureTypeId = apiData.getCollections()
-                                      .get(collectionId)
-                                      .getExtension(FeaturesCoreConfiguration.class)
-                                      .map(cfg -> cfg.getFeatureType().orElse(collectionId))
-                                      .orElse(collectionId);
-
+            // if only the collections are selected, the single-layer tiles are the same as for the full tile
+            Tile tile = queryInput.getFullTile().isPresent()
+                ? new ImmutableTile.Builder().from(singleLayerTileMap.get(collectionId)).temporary(false).build()
+                : singleLayerTileMap.get(collectionId);
             FeatureQuery query = queryMap.get(collectionId);
-            ImmutableFeatureTransformationContextTiles transformationContext;
-            try {
-                transformationContext = new ImmutableFeatureTransformationContextTiles.Builder()
-                        .apiData(apiData)
-                        .featureSchema(featureProvider.getData().getTypes().get(featureTypeId))
-                        .tile(tile)
-                        .tileCache(tileCache)
-                        .collectionId(collectionId)
-                        .ogcApiRequest(requestContext)
-                        .crsTransformer(crsTransformer)
-                        .shouldSwapCoordinates(swapCoordinates)
-                        .codelists(entityRegistry.getEntitiesForType(Codelist.class)
-                                                 .stream()
-                                                 .collect(Collectors.toMap(PersistentEntity::getId, c -> c)))
-                        .defaultCrs(queryInput.getDefaultCrs())
-                        .links(links)
-                        .isFeatureCollection(true)
-                        .fields(query.getFields())
-                        .limit(query.getLimit())
-                        .offset(0)
-                        .i18n(i18n)
-                        .outputStream(new OutputStreamToByteConsumer())
-                        .build();
-            } catch (Exception e) {
-                throw new RuntimeException("Error building the tile transformation context.", e);
-            }
-
-            Optional<FeatureTokenEncoder<?>> encoder = outputFormat.getFeatureEncoder(transformationContext);
 
-            if (outputFormat.supportsFeatureQuery() && encoder.isPresent()) {
-
-                FeatureStream featureStream = featureProvider.queries().getFeatureStream(query);
-
-                ResultReduced<byte[]> result = generateTile(featureStream, encoder.get(),
-                    transformationContext, outputFormat);
+            layerFutures.put(collectionId, CompletableFuture.supplyAsync(() -> getSingleLayerTileContent(tile, query, queryInput, requestContext, outputFormat, links, layerCrsTransformer, layerSwapCoordinates),
+                                                                          layerExecutor));
+        }
 
-                if (result.isSuccess()) {
-                    byte[] bytes = result.reduced();
-                    ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length);
-                    buffer.write(bytes, 0, bytes.length);
-                    byteArrayMap.put(collectionId, buffer);
-                }
-            } else {
-                throw new NotAcceptableException(MessageFormat.format("The requested media type {0} cannot be generated, because it does not support streaming.", requestContext.getMediaType().type()));
+        Map<String, ByteArrayOutputStream> byteArrayMap = new HashMap<>();
+        for (Map.Entry<String, CompletableFuture<Optional<byte[]>>> entry : layerFutures.entrySet()) {
+            Optional<byte[]> content;
+            try {
+                content = entry.getValue().join();
+            } catch (CompletionException e) {
+                layerFutures.values().forEach(future -> future.cancel(false));
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw e;
             }
+            content.ifPresent(bytes -> {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length);
+                buffer.write(bytes, 0, bytes.length);
+                byteArrayMap.put(entry.getKey(), buffer);
+            });
         }
 
         TileFormatWithQuerySupportExtension.MultiLayerTileContent result;
@@ -511,35 +597,100 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
             }
         }
 
-        Date lastModified = Date.from(Instant.now());
-        EntityTag etag = getEtag(result.byteArray);
-        Response.ResponseBuilder response = evaluatePreconditions(requestContext, lastModified, etag);
-        if (Objects.nonNull(response))
-            return response.build();
-
-        return prepareSuccessResponse(requestContext,
-                                      queryInput.getIncludeLinkHeader() ? links : null,
-                                      lastModified,
-                                      etag,
-                                      queryInput.getCacheControl().orElse(null),
-                                      queryInput.getExpires().orElse(null),
-                                      null,
-                                      true,
-                                      String.format("%s_%d_%d_%d.%s", tileMatrixSet.getId(), tileLevel, tileRow, tileCol, outputFormat.getMediaType().fileExtension()))
-                .entity(result.byteArray)
-                .build();
+        return result;
     }
 
-    private Response getTileStreamResponse(QueryInputTileStream queryInput, ApiRequestContext requestContext) {
+    /**
+     * Get a layer of a multi-layer tile from the cache or generate it. The layers of a tile are processed concurrently.
+     *
+     * @param tile the single-layer tile
+     * @param query the feature query of the collection
+     * @param queryInput the query input of the multi-layer tile
+     * @param requestContext the request context
+     * @param outputFormat the tile format
+     * @param links the links
+     * @param crsTransformer the transformation to the CRS of the tile matrix set
+     * @param swapCoordinates {@code true}, if the axis order of the coordinates has to be changed
+     * @return the single-layer tile; empty, if the tile could not be generated
+     */
+    private Optional<byte[]> getSingleLayerTileContent(Tile tile,
+                                                       FeatureQuery query,
+                                                       QueryInputTileMultiLayer queryInput,
+                                                       ApiRequestContext requestContext,
+                                                       TileFormatWithQuerySupportExtension outputFormat,
+                                                       List<Link> links,
+                                                       Optional<CrsTransformer> crsTransformer,
+                                                       boolean swapCoordinates) {
+        OgcApiDataV2 apiData = requestContext.getApi().getData();
+        FeatureProvider2 featureProvider = queryInput.getTile().getFeatureProvider().get();
+        String collectionId = tile.getCollectionId();
 
-        byte[] content;
+        if (!tile.getTemporary()) {
+            // use cached tile
+            try {
+                Optional<InputStream> tileContent = tileCache.getTile(tile);
+                if (tileContent.isPresent()) {
+                    return Optional.of(ByteStreams.toByteArray(tileContent.get()));
+                }
+            } catch (SQLException | IOException e) {
+                // could not read the cache, generate the tile
+            }
+
+            // build the tile from the cached tiles of the next zoom level, if configured
+            Optional<byte[]> tileFromChildTiles = generateTileFromChildTiles(tile, outputFormat);
+            if (tileFromChildTiles.isPresent()) {
+                return tileFromChildTiles;
+            }
+        }
+
+        String featureTypeId = apiData.getCollections()
+                                  .get(collectionId)
+                                  .getExtension(FeaturesCoreConfiguration.class)
+                                  .map(cfg -> cfg.getFeatureType().orElse(collectionId))
+                                  .orElse(collectionId);
+
+        ImmutableFeatureTransformationContextTiles transformationContext;
         try {
-            content = queryInput.getTileContent().readAllBytes();
-        } catch (IOException e) {
-            throw new RuntimeException("Could not read tile from cache.",e);
+            transformationContext = new ImmutableFeatureTransformationContextTiles.Builder()
+                    .apiData(apiData)
+                    .featureSchema(featureProvider.getData().getTypes().get(featureTypeId))
+                    .tile(tile)
+                    .tileCache(tileCache)
+                    .collectionId(collectionId)
+                    .ogcApiRequest(requestContext)
+                    .crsTransformer(crsTransformer)
+                    .shouldSwapCoordinates(swapCoordinates)
+                    .codelists(entityRegistry.getEntitiesForType(Codelist.class)
+                                             .stream()
+                                             .collect(Collectors.toMap(PersistentEntity::getId, c -> c)))
+                    .defaultCrs(queryInput.getDefaultCrs())
+                    .links(links)
+                    .isFeatureCollection(true)
+                    .fields(query.getFields())
+                    .limit(query.getLimit())
+                    .offset(0)
+                    .i18n(i18n)
+                    .outputStream(new OutputStreamToByteConsumer())
+                    .build();
+        } catch (Exception e) {
+            throw new RuntimeException("Error building the tile transformation context.", e);
         }
 
-        StreamingOutput streamingOutput = outputStream -> ByteStreams.copy(new ByteArrayInputStream(content), outputStream);
+        Optional<FeatureTokenEncoder<?>> encoder = outputFormat.getFeatureEncoder(transformationContext);
+
+        if (outputFormat.supportsFeatureQuery() && encoder.isPresent()) {
+
+            ResultReduced<byte[]> result = generateOnce(tile, () -> generateTile(featureProvider.queries().getFeatureStream(query),
+                                                                                 encoder.get(), transformationContext, outputFormat),
+                                                        ResultReduced::isSuccess);
+
+            return result.isSuccess() ? Optional.of(result.reduced()) : Optional.empty();
+        } else {
+            throw new NotAcceptableException(MessageFormat.format("The requested media type {0} cannot be generated, because it does not support streaming.", requestContext.getMediaType().type()));
+        }
+    }
+
+    private Response getTileStreamResponse(QueryInputTileStream queryInput, ApiRequestContext requestContext) {
 
         List<Link> links = new DefaultLinksGenerator().generateLinks(requestContext.getUriCustomizer(),
                                                                      requestContext.getMediaType(),
@@ -549,22 +700,87 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
 
         Date lastModified = queryInput.getLastModified()
                                       .orElse(Date.from(Instant.now()));
-        EntityTag etag = getEtag(content);
-        Response.ResponseBuilder response = evaluatePreconditions(requestContext, lastModified, etag);
-        if (Objects.nonNull(response))
-            return response.build();
+
+        // pass a compressed tile from the cache through unchanged, if the client accepts it; all responses, including
+        // 304 responses, then depend on the Accept-Encoding header
+        boolean varyOnEncoding = queryInput.getTileGzipContent().isPresent();
+        boolean gzip = varyOnEncoding && acceptsGzip(requestContext);
+
+        // if the entity tag is known from the cache, evaluate the preconditions before the tile is read;
+        // the compressed tile is a different representation with its own entity tag
+        EntityTag etag = queryInput.getTileEtag()
+                                   .map(tag -> gzip ? new EntityTag(tag.getValue() + GZIP_ETAG_SUFFIX, tag.isWeak()) : tag)
+                                   .orElse(null);
+        if (Objects.nonNull(etag)) {
+            Response.ResponseBuilder response = evaluatePreconditions(requestContext, lastModified, etag);
+            if (Objects.nonNull(response))
+                return varyOnEncoding ? response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build() : response.build();
+        }
+
+        // tiles that are stored as files are streamed from disk
+        java.nio.file.Path path = (gzip ? queryInput.getTileGzipPath() : queryInput.getTilePath()).orElse(null);
+        byte[] content = null;
+        if (Objects.isNull(path)) {
+            try {
+                content = (gzip ? queryInput.getTileGzipContent().get() : queryInput.getTileContent()).read();
+            } catch (IOException e) {
+                throw new RuntimeException("Could not read tile from cache.",e);
+            }
+        }
+
+        if (Objects.isNull(etag)) {
+            etag = Objects.nonNull(content) ? getEtag(content) : getEtag(path.toFile());
+            Response.ResponseBuilder response = evaluatePreconditions(requestContext, lastModified, etag);
+            if (Objects.nonNull(response))
+                return varyOnEncoding ? response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build() : response.build();
+        }
 
         Tile tile = queryInput.getTile();
-        return prepareSuccessResponse(requestContext,
-                                      queryInput.getIncludeLinkHeader() ? links : null,
-                                      lastModified, etag,
-                                      queryInput.getCacheControl().orElse(null),
-                                      queryInput.getExpires().orElse(null),
-                                      null,
-                                      true,
-                                      String.format("%s_%d_%d_%d.%s", tile.getTileMatrixSet().getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), tile.getOutputFormat().getMediaType().fileExtension()))
-                .entity(streamingOutput)
-                .build();
+        Response.ResponseBuilder response = prepareSuccessResponse(requestContext,
+                                                                   queryInput.getIncludeLinkHeader() ? links : null,
+                                                                   lastModified, etag,
+                                                                   queryInput.getCacheControl().orElse(null),
+                                                                   queryInput.getExpires().orElse(null),
+                                                                   null,
+                                                                   true,
+                                                                   String.format("%s_%d_%d_%d.%s", tile.getTileMatrixSet().getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), tile.getOutputFormat().getMediaType().fileExtension()));
+        if (varyOnEncoding)
+            response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip)
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+
+        if (Objects.isNull(content))
+            return prepareFileResponse(response, requestContext, path, lastModified, etag).build();
+
+        return response.entity(content)
+                       .build();
+    }
+
+    /**
+     * checks whether the client accepts the gzip content encoding
+     * @param requestContext the request
+     * @return {@code true}, if the Accept-Encoding header includes gzip or, if gzip is not listed, the wildcard with a
+     *         non-zero quality value
+     */
+    static boolean acceptsGzip(ApiRequestContext requestContext) {
+        return requestContext.getHeader(HttpHeaders.ACCEPT_ENCODING)
+                             .flatMap(header -> {
+                                 Optional<Boolean> wildcard = Optional.empty();
+                                 for (String coding : Splitter.on(',').trimResults().omitEmptyStrings().split(header)) {
+                                     List<String> params = Splitter.on(';').trimResults().splitToList(coding);
+                                     boolean accepted = params.stream()
+                                                              .skip(1)
+                                                              .filter(param -> param.startsWith("q="))
+                                                              .noneMatch(param -> param.matches("q=0(\\.0{0,3})?"));
+                                     // an explicit entry for gzip takes precedence over the wildcard
+                                     if (params.get(0).equalsIgnoreCase("gzip"))
+                                         return Optional.of(accepted);
+                                     if (params.get(0).equals("*"))
+                                         wildcard = Optional.of(accepted);
+                                 }
+                                 return wildcard;
+                             })
+                             .orElse(false);
     }
 
     private Response getMbtilesTileResponse(QueryInputTileMbtilesTile queryInput, ApiRequestContext requestContext) {
@@ -586,7 +802,7 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
                                                                      requestContext.getLanguage());
 
         Date lastModified = getLastModified(provider.toFile());
-        EntityTag etag = getEtag(staticTileProviderStore.getTile(provider, queryInput.getTile()));
+        EntityTag etag = getEtag(provider.toFile(), queryInput.getTile());
         Response.ResponseBuilder response = evaluatePreconditions(requestContext, lastModified, etag);
         if (Objects.nonNull(response))
             return response.build();
@@ -700,6 +916,97 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
                                       .orElseThrow(() -> new ServerErrorException("TileMatrixSet not found: "+tileMatrixSetId, 500));
     }
 
+    /**
+     * The tiles in a static tile provider only change with the Mbtiles file, so the entity tag is derived from the
+     * file and the tile, without reading the tile.
+     *
+     * @param tileProvider the Mbtiles file
+     * @param tile the tile
+     * @return the weak entity tag
+     */
+    @SuppressWarnings("UnstableApiUsage")
+    private EntityTag getEtag(File tileProvider, Tile tile) {
+        String etag = Hashing.murmur3_128()
+                             .newHasher()
+                             .putLong(tileProvider.lastModified())
+                             .putLong(tileProvider.length())
+                             .putString(tile.getKey(), StandardCharsets.UTF_8)
+                             .hash()
+                             .toString();
+        return new EntityTag(etag, true);
+    }
+
+    /**
+     * Generate a tile, unless the same tile is already being generated by another request. In that case wait for the
+     * other request and use its result. Temporary tiles depend on the query parameters and are always generated. Only
+     * for requests that generate just the tile, since the key of the tile is used to detect the same request.
+     *
+     * @param tile the tile
+     * @param generator generates the tile
+     * @param isReusable tests whether the result of another request can be used, otherwise the tile is generated again
+     * @return the generated tile
+     */
+    @SuppressWarnings("unchecked")
+    <T> T generateOnce(Tile tile, Supplier<T> generator, Predicate<T> isReusable) {
+        if (tile.getTemporary())
+            return generator.get();
+
+        String key = tile.getKey();
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inProgress = tilesInProgress.putIfAbsent(key, future);
+        if (Objects.nonNull(inProgress)) {
+            T result;
+            try {
+                result = (T) inProgress.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw e;
+            }
+            return isReusable.test(result) ? result : generator.get();
+        }
+
+        try {
+            T result = generator.get();
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            tilesInProgress.remove(key, future);
+        }
+    }
+
+    /**
+     * Generate a single-layer tile from the cached tiles of the next zoom level and write it to the cache, if this is
+     * configured for the zoom level of the tile.
+     *
+     * @param tile the single-layer tile
+     * @param outputFormat the tile format
+     * @return the tile; empty, if the tile has to be generated from the features
+     */
+    private Optional<byte[]> generateTileFromChildTiles(Tile tile, TileFormatWithQuerySupportExtension outputFormat) {
+        if (tile.getTemporary())
+            return Optional.empty();
+
+        Optional<byte[]> content = Optional.ofNullable(tile.getApiData().getCollections().get(tile.getCollectionId()))
+                                           .flatMap(collection -> collection.getExtension(TilesConfiguration.class))
+                                           .flatMap(tilesConfiguration -> outputFormat.getTileFromChildTiles(tile, tilesConfiguration));
+
+        if (content.isPresent()) {
+            try {
+                // write/update tile in cache
+                tileCache.storeTile(tile, content.get());
+            } catch (Throwable e) {
+                String msg = "Failure to write the tile {}/{}/{}/{} in dataset '{}', collection '{}', format '{}' to the cache";
+                LogContext.errorAsInfo(LOGGER, e, msg, tile.getTileMatrixSet().getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), tile.getApiData().getId(), tile.getCollectionId(), outputFormat.getExtension());
+            }
+        }
+
+        return content;
+    }
+
     private ResultReduced<byte[]> generateTile(
         FeatureStream featureStream,
         FeatureTokenEncoder<?> encoder,
@@ -740,6 +1047,15 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
                 throw (WebApplicationException) e.getCause();
             }
             throw new IllegalStateException("Feature stream error.", e.getCause());
+        } finally {
+            // release resources of the encoder, also if the stream has failed or was cancelled
+            if (encoder instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) encoder).close();
+                } catch (Exception e) {
+                    LOGGER.debug("Could not close the feature encoder: {}", e.getMessage());
+                }
+            }
         }
     }
 }
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app.archive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.google.common.io.ByteSource;
+import de.ii.ldproxy.ogcapi.tiles.app.mbtiles.MbtilesMetadata;
+import de.ii.ldproxy.ogcapi.tiles.domain.CachedTile;
+import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableCachedTile;
+import de.ii.ldproxy.ogcapi.tiles.domain.Tile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A read-only, single-file tile archive. The directory is ordered along a Hilbert curve per zoom level, the archive is
+ * memory-mapped and tiles are looked up with a binary search in the directory.
+ *
+ * <p>File layout (big-endian):
+ * <ul>
+ *     <li>header: magic, version, tile compression, length of the metadata, number of directory entries, offset of the directory, offset of the tile data;</li>
+ *     <li>metadata: the Mbtiles metadata as JSON;</li>
+ *     <li>directory: the entries sorted by tile key, each with the tile key, the offset of the tile in the tile data and the length of the tile;</li>
+ *     <li>tile data: the tiles in the order in which they have been written, identical tiles are usually only stored once.</li>
+ * </ul>
+ */
+public class TileArchive {
+
+    public static final String FILE_EXTENSION = "tilearchive";
+    static final int MAGIC = 0x4C445441; // "LDTA"
+    static final int VERSION = 1;
+    static final int COMPRESSION_NONE = 0;
+    static final int COMPRESSION_GZIP = 1;
+    static final int HEADER_SIZE = 40;
+    static final int ENTRY_SIZE = 20;
+    // tiles are at most 64 MB, the mapped segments of the tile data overlap by this size, so each tile is in one segment
+    static final int MAX_TILE_SIZE = 1 << 26;
+    private static final long SEGMENT_SIZE = 1L << 30;
+    // rows and columns of a tile matrix must be smaller than the side of the Hilbert curve
+    private static final int HILBERT_ORDER = 28;
+    private static final long HILBERT_SIDE = 1L << HILBERT_ORDER;
+
+    private final Path archivePath;
+    private final boolean gzip;
+    private final long entryCount;
+    private final MbtilesMetadata metadata;
+    private final Date lastModified;
+    private final MappedByteBuffer directory;
+    private final MappedByteBuffer[] data;
+
+    /**
+     * open an existing tile archive
+     * @param archivePath the path of the tile archive
+     * @throws IOException the file is not a valid tile archive or could not be read
+     */
+    public TileArchive(Path archivePath) throws IOException {
+        if (!Files.exists(archivePath)) {
+            throw new IOException(String.format("Tile archive does not exist: %s", archivePath));
+        }
+        this.archivePath = archivePath;
+        this.lastModified = new Date(Files.getLastModifiedTime(archivePath).toMillis());
+
+        // the mappings stay valid after the channel has been closed
+        try (FileChannel channel = FileChannel.open(archivePath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE)
+                throw new IOException(String.format("Invalid tile archive: %s", archivePath));
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC)
+                throw new IOException(String.format("Invalid tile archive: %s", archivePath));
+            if (header.getInt(4) != VERSION)
+                throw new IOException(String.format("Unsupported version %d of tile archive: %s", header.getInt(4), archivePath));
+            this.gzip = header.getInt(8) == COMPRESSION_GZIP;
+            int metadataLength = header.getInt(12);
+            this.entryCount = header.getLong(16);
+            long directoryOffset = header.getLong(24);
+            long dataOffset = header.getLong(32);
+
+            byte[] json = new byte[metadataLength];
+            channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, metadataLength).get(json);
+            ObjectMapper mapper = new ObjectMapper();
+            mapper.registerModule(new Jdk8Module());
+            this.metadata = mapper.readValue(json, MbtilesMetadata.class);
+
+            if (entryCount * ENTRY_SIZE > Integer.MAX_VALUE)
+                throw new IOException(String.format("The directory of tile archive is too large: %s", archivePath));
+            this.directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, entryCount * ENTRY_SIZE);
+
+            long dataSize = size - dataOffset;
+            int segments = (int) Math.max(1, (dataSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            this.data = new MappedByteBuffer[segments];
+            for (int i = 0; i < segments; i++) {
+                long start = i * SEGMENT_SIZE;
+                data[i] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + start, Math.min(dataSize - start, SEGMENT_SIZE + MAX_TILE_SIZE));
+            }
+        }
+    }
+
+    public MbtilesMetadata getMetadata() {
+        return metadata;
+    }
+
+    public Path getPath() {
+        return archivePath;
+    }
+
+    /**
+     * the key of a tile in the archive; the zoom level is stored in the upper bits, the position of the tile on the
+     * Hilbert curve in the lower bits, so tiles are ordered by zoom level and then along the curve
+     * @param level the zoom level
+     * @param row the row, counted from the top
+     * @param col the column
+     * @return the key
+     */
+    public static long getKey(int level, int row, int col) {
+        if (row < 0 || col < 0 || row >= HILBERT_SIDE || col >= HILBERT_SIDE)
+            throw new IllegalArgumentException(String.format("Tile %d/%d/%d is outside of the range supported by tile archives.", level, row, col));
+        long x = col;
+        long y = row;
+        long d = 0;
+        for (long s = HILBERT_SIDE / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = HILBERT_SIDE - 1 - x;
+                    y = HILBERT_SIDE - 1 - y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return ((long) level << (2 * HILBERT_ORDER)) | d;
+    }
+
+    /**
+     * get the tile as it is stored in the archive, i.e. gzip-compressed for formats that are compressed in Mbtiles
+     * @param tile the tile
+     * @return the stored content of the tile, an empty array for an empty tile; the result is empty, if the tile is not in the archive
+     */
+    public Optional<byte[]> getTileData(Tile tile) {
+        long index = find(getKey(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol()));
+        if (index < 0)
+            return Optional.empty();
+        int position = (int) (index * ENTRY_SIZE);
+        long offset = directory.getLong(position + 8);
+        int length = directory.getInt(position + 16);
+        byte[] content = new byte[length];
+        if (length > 0) {
+            ByteBuffer segment = data[(int) (offset / SEGMENT_SIZE)].duplicate();
+            segment.position((int) (offset % SEGMENT_SIZE));
+            segment.get(content);
+        }
+        return Optional.of(content);
+    }
+
+    public Optional<InputStream> getTile(Tile tile) throws IOException {
+        Optional<byte[]> content = getTileData(tile);
+        if (content.isEmpty())
+            return Optional.empty();
+        InputStream stream = new ByteArrayInputStream(content.get());
+        return Optional.of(gzip && content.get().length > 0 ? new GZIPInputStream(stream) : stream);
+    }
+
+    /**
+     * get a tile from the archive; the modification time is the time when the archive was written
+     * @param tile the tile
+     * @return the tile, if it is in the archive
+     */
+    public Optional<CachedTile> getCachedTile(Tile tile) {
+        Optional<byte[]> content = getTileData(tile);
+        if (content.isEmpty())
+            return Optional.empty();
+        ImmutableCachedTile.Builder builder = new ImmutableCachedTile.Builder()
+            .lastModified(lastModified);
+        if (gzip && content.get().length > 0) {
+            ByteSource gzipContent = ByteSource.wrap(content.get());
+            builder.gzipContent(gzipContent)
+                   .content(new ByteSource() {
+                       @Override
+                       public InputStream openStream() throws IOException {
+                           return new GZIPInputStream(gzipContent.openStream());
+                       }
+                   });
+        } else {
+            builder.content(ByteSource.wrap(content.get()));
+        }
+        return Optional.of(builder.build());
+    }
+
+    public boolean tileExists(Tile tile) {
+        return find(getKey(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol())) >= 0;
+    }
+
+    public Optional<Boolean> tileIsEmpty(Tile tile) {
+        long index = find(getKey(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol()));
+        if (index < 0)
+            return Optional.empty();
+        return Optional.of(directory.getInt((int) (index * ENTRY_SIZE) + 16) == 0 && tile.getOutputFormat().getSupportsEmptyTile());
+    }
+
+    /**
+     * binary search in the directory
+     * @param key the tile key
+     * @return the index of the directory entry, or -1, if the tile is not in the archive
+     */
+    private long find(long key) {
+        long low = 0;
+        long high = entryCount - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long midKey = directory.getLong((int) (mid * ENTRY_SIZE));
+            if (midKey < key)
+                low = mid + 1;
+            else if (midKey > key)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,295 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app.archive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import de.ii.ldproxy.ogcapi.tiles.app.mbtiles.MbtilesMetadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Writes a {@link TileArchive}. Tiles can be added in any order. The tile data is appended to a temporary file, the
+ * directory entries are sorted in runs of limited size that are spilled to a second temporary file and merged when the
+ * archive is finished, so the memory use does not depend on the number of tiles. The archive replaces an existing file
+ * at the target path only when it is complete.
+ */
+public class TileArchiveWriter {
+
+    // the number of directory entries that are sorted in memory
+    private static final int RUN_SIZE = 1 << 20;
+    // identical tiles are only stored once; the hashes of the most recently added tiles are kept, which covers the
+    // tiles that occur many times, e.g. tiles of water or land areas
+    private static final int MAX_HASHES = 100_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path archivePath;
+    private final Path dataPath;
+    private final Path runsPath;
+    private final Path tmpPath;
+    private final MbtilesMetadata metadata;
+    private final boolean gzip;
+    private final DataOutputStream tileData;
+    private long dataLength = 0;
+    private final DataOutputStream runs;
+    private final List<Integer> runSizes = new ArrayList<>();
+    private final long[] entryKeys = new long[RUN_SIZE];
+    private final long[] entryOffsets = new long[RUN_SIZE];
+    private final int[] entryLengths = new int[RUN_SIZE];
+    private int entryCount = 0;
+    private final Map<HashCode, Long> blobOffsets = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<HashCode, Long> eldest) {
+            return size() > MAX_HASHES;
+        }
+    };
+
+    /**
+     * start a new tile archive
+     * @param archivePath the path of the tile archive
+     * @param metadata the metadata of the tile set
+     * @param gzip {@code true}, if the tiles that are added are gzip-compressed
+     * @throws IOException the temporary files could not be created
+     */
+    public TileArchiveWriter(Path archivePath, MbtilesMetadata metadata, boolean gzip) throws IOException {
+        this.archivePath = archivePath;
+        this.dataPath = archivePath.resolveSibling(archivePath.getFileName() + ".data");
+        this.runsPath = archivePath.resolveSibling(archivePath.getFileName() + ".runs");
+        this.tmpPath = archivePath.resolveSibling(archivePath.getFileName() + ".tmp");
+        this.metadata = metadata;
+        this.gzip = gzip;
+        this.tileData = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dataPath), BUFFER_SIZE));
+        this.runs = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runsPath), BUFFER_SIZE));
+    }
+
+    /**
+     * add a tile; each tile is added only once, if a tile is added again, one of the versions is stored
+     * @param level the zoom level
+     * @param row the row, counted from the top
+     * @param col the column
+     * @param content the tile as it should be stored, an empty array for an empty tile
+     * @throws IOException the tile could not be buffered
+     */
+    @SuppressWarnings("UnstableApiUsage")
+    public void add(int level, int row, int col, byte[] content) throws IOException {
+        if (content.length > TileArchive.MAX_TILE_SIZE)
+            throw new IllegalArgumentException(String.format("Tile %d/%d/%d is too large for a tile archive: %d bytes.", level, row, col, content.length));
+        long key = TileArchive.getKey(level, row, col);
+        long offset = 0;
+        if (content.length > 0) {
+            HashCode hash = Hashing.murmur3_128().hashBytes(content);
+            Long blobOffset = blobOffsets.get(hash);
+            if (blobOffset == null) {
+                offset = dataLength;
+                tileData.write(content);
+                dataLength += content.length;
+                blobOffsets.put(hash, offset);
+            } else {
+                offset = blobOffset;
+            }
+        }
+
+        if (entryCount == RUN_SIZE)
+            writeRun();
+        entryKeys[entryCount] = key;
+        entryOffsets[entryCount] = offset;
+        entryLengths[entryCount] = content.length;
+        entryCount++;
+    }
+
+    /**
+     * write the archive and remove the temporary files
+     * @throws IOException the archive could not be written
+     */
+    public void finish() throws IOException {
+        List<Run> openRuns = new ArrayList<>();
+        try {
+            tileData.close();
+            if (entryCount > 0)
+                writeRun();
+            runs.close();
+
+            ObjectMapper mapper = new ObjectMapper();
+            mapper.registerModule(new Jdk8Module());
+            byte[] json = mapper.writeValueAsBytes(metadata);
+            long directoryOffset = TileArchive.HEADER_SIZE + json.length;
+
+            // the runs are merged into the directory
+            long position = 0;
+            for (int i = 0; i < runSizes.size(); i++) {
+                FileChannel channel = FileChannel.open(runsPath, StandardOpenOption.READ);
+                channel.position(position);
+                Run run = new Run(i, runSizes.get(i), new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE)));
+                openRuns.add(run);
+                position += (long) runSizes.get(i) * TileArchive.ENTRY_SIZE;
+            }
+            // a tile that is in more than one run, keep the last one
+            PriorityQueue<Run> queue = new PriorityQueue<>(Comparator.comparingLong((Run run) -> run.key)
+                                                                     .thenComparingInt(run -> run.index));
+            for (Run run : openRuns) {
+                if (run.next())
+                    queue.add(run);
+            }
+
+            long directorySize = 0;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath), BUFFER_SIZE))) {
+                // the number of entries and the offset of the tile data are updated at the end
+                out.writeInt(TileArchive.MAGIC);
+                out.writeInt(TileArchive.VERSION);
+                out.writeInt(gzip ? TileArchive.COMPRESSION_GZIP : TileArchive.COMPRESSION_NONE);
+                out.writeInt(json.length);
+                out.writeLong(0);
+                out.writeLong(directoryOffset);
+                out.writeLong(0);
+                out.write(json);
+
+                boolean pending = false;
+                long pendingKey = 0;
+                long pendingOffset = 0;
+                int pendingLength = 0;
+                while (!queue.isEmpty()) {
+                    Run run = queue.poll();
+                    if (pending && pendingKey != run.key) {
+                        writeEntry(out, pendingKey, pendingOffset, pendingLength);
+                        directorySize++;
+                    }
+                    pending = true;
+                    pendingKey = run.key;
+                    pendingOffset = run.offset;
+                    pendingLength = run.length;
+                    if (run.next())
+                        queue.add(run);
+                }
+                if (pending) {
+                    writeEntry(out, pendingKey, pendingOffset, pendingLength);
+                    directorySize++;
+                }
+
+                Files.copy(dataPath, out);
+            }
+
+            try (RandomAccessFile header = new RandomAccessFile(tmpPath.toFile(), "rw")) {
+                header.seek(16);
+                header.writeLong(directorySize);
+                header.seek(32);
+                header.writeLong(directoryOffset + directorySize * TileArchive.ENTRY_SIZE);
+            }
+
+            // readers that still use the previous archive keep their mapping
+            Files.move(tmpPath, archivePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tileData.close();
+            runs.close();
+            for (Run run : openRuns) {
+                run.in.close();
+            }
+            Files.deleteIfExists(dataPath);
+            Files.deleteIfExists(runsPath);
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, long key, long offset, int length) throws IOException {
+        out.writeLong(key);
+        out.writeLong(offset);
+        out.writeInt(length);
+    }
+
+    /**
+     * sort the buffered directory entries by tile key and append them to the runs
+     */
+    private void writeRun() throws IOException {
+        // heapsort, the entries are in three arrays
+        for (int i = entryCount / 2 - 1; i >= 0; i--) {
+            siftDown(i, entryCount);
+        }
+        for (int end = entryCount - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+
+        for (int i = 0; i < entryCount; i++) {
+            writeEntry(runs, entryKeys[i], entryOffsets[i], entryLengths[i]);
+        }
+        runSizes.add(entryCount);
+        entryCount = 0;
+    }
+
+    private void siftDown(int i, int size) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size)
+                return;
+            if (child + 1 < size && entryKeys[child + 1] > entryKeys[child])
+                child++;
+            if (entryKeys[i] >= entryKeys[child])
+                return;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long key = entryKeys[i];
+        entryKeys[i] = entryKeys[j];
+        entryKeys[j] = key;
+        long offset = entryOffsets[i];
+        entryOffsets[i] = entryOffsets[j];
+        entryOffsets[j] = offset;
+        int length = entryLengths[i];
+        entryLengths[i] = entryLengths[j];
+        entryLengths[j] = length;
+    }
+
+    /**
+     * a sorted run of directory entries that is read while the runs are merged
+     */
+    private static class Run {
+        final int index;
+        final DataInputStream in;
+        int remaining;
+        long key;
+        long offset;
+        int length;
+
+        Run(int index, int size, DataInputStream in) {
+            this.index = index;
+            this.remaining = size;
+            this.in = in;
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0)
+                return false;
+            remaining--;
+            key = in.readLong();
+            offset = in.readLong();
+            length = in.readInt();
+            return true;
+        }
+    }
+}
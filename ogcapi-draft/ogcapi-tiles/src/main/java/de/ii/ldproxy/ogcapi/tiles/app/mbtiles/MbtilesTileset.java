@@ -13,14 +13,20 @@ import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import de.ii.ldproxy.ogcapi.tiles.domain.CachedTile;
+import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableCachedTile;
 import de.ii.ldproxy.ogcapi.tiles.domain.Tile;
 import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
 import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -28,31 +34,74 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
-public class MbtilesTileset {
+public class MbtilesTileset implements AutoCloseable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MbtilesTileset.class);
     private static final int EMPTY_TILE_ID = 1;
-    private Connection connection = null;
+    @SuppressWarnings("UnstableApiUsage")
+    private static final String EMPTY_TILE_HASH = Hashing.murmur3_128().hashBytes(new byte[0]).toString();
+    private static final int MAX_READ_CONNECTIONS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final String SQL_SELECT_TILE = "SELECT tile_data FROM tiles WHERE zoom_level=? AND tile_row=? AND tile_column=?";
+    private static final String SQL_SELECT_TILE_ID = "SELECT tile_id FROM tile_map WHERE zoom_level=? AND tile_row=? AND tile_column=?";
+    private static final String SQL_SELECT_TILE_INFO = "SELECT tile_map.tile_id, tile_hash, last_modified FROM tile_map LEFT JOIN tile_blobs ON tile_map.tile_id=tile_blobs.tile_id WHERE zoom_level=? AND tile_row=? AND tile_column=?";
+    private static final String SQL_SELECT_ALL_TILE_POSITIONS = "SELECT zoom_level, tile_row, tile_column FROM tile_map";
+    private static final String SQL_SELECT_TILE_POSITIONS_IN_LIMITS = "SELECT zoom_level, tile_row, tile_column FROM tile_map WHERE zoom_level=? AND tile_row>=? AND tile_column>=? AND tile_row<=? AND tile_column<=?";
+    private static final String SQL_SELECT_ALL_TILES = "SELECT zoom_level, tile_row, tile_column, tile_map.tile_id, tile_data FROM tile_map LEFT JOIN tile_blobs ON tile_map.tile_id=tile_blobs.tile_id";
+    private static final String SQL_DELETE_PURGED_BLOBS = "DELETE FROM tile_blobs WHERE tile_id IN (SELECT tile_id FROM purged_blobs) AND NOT EXISTS (SELECT 1 FROM tile_map WHERE tile_map.tile_id=tile_blobs.tile_id)";
+    private static final String SQL_DELETE_ORPHANED_BLOBS = "DELETE FROM tile_blobs WHERE tile_id>? AND tile_id<=? AND tile_id<>? AND NOT EXISTS (SELECT 1 FROM tile_map WHERE tile_map.tile_id=tile_blobs.tile_id)";
+    // maintenance is done in small steps, so that tiles can be written in between
+    private static final int COMPACT_BLOB_BATCH = 10_000;
+    private static final int COMPACT_VACUUM_PAGES = 1_000;
+    private static final String SQL_DELETE_UNUSED_BLOB = "DELETE FROM tile_blobs WHERE tile_id=? AND NOT EXISTS (SELECT 1 FROM tile_map WHERE tile_map.tile_id=?)";
     private final Path tilesetPath;
-    private Semaphore mutex = new Semaphore(1);
+    private final boolean readOnly;
+    // readers use a pool of read-only connections, all changes go through a single writer connection
+    private final BlockingQueue<Connection> readConnections = new LinkedBlockingQueue<>();
+    private final AtomicInteger readConnectionCount = new AtomicInteger(0);
+    private Connection writeConnection = null;
+    private final Semaphore mutex = new Semaphore(1);
+    private volatile boolean closed = false;
 
     public MbtilesTileset(Path tilesetPath) {
+        this(tilesetPath, false);
+    }
+
+    /**
+     * open an existing Mbtiles file
+     * @param tilesetPath the path of the Mbtiles file
+     * @param readOnly {@code true}, if the tile set is never updated, e.g. a static tile provider
+     */
+    public MbtilesTileset(Path tilesetPath, boolean readOnly) {
         if (!Files.exists(tilesetPath)) {
             throw new RuntimeException(String.format("Mbtiles file does not exist: %s", tilesetPath));
         }
         this.tilesetPath = tilesetPath;
+        this.readOnly = readOnly;
 
-        // test a connection
-        getConnection();
+        // test a connection; for a writable tile set this also switches the database to WAL mode
+        if (readOnly) {
+            releaseConnection(getConnection());
+        } else {
+            upgradeSchema(getWriteConnection());
+        }
     }
 
     public MbtilesTileset(Path tilesetPath, MbtilesMetadata metadata) {
@@ -60,17 +109,23 @@ public class MbtilesTileset {
             throw new RuntimeException(String.format("Mbtiles file already exists: %s", tilesetPath));
         }
         this.tilesetPath = tilesetPath;
+        this.readOnly = false;
 
         try {
             // create db
-            Connection connection = getConnection();
+            Connection connection = getWriteConnection();
+
+            // unused pages can be returned to the file system with incremental vacuums, see compact()
+            SqlHelper.execute(connection, "PRAGMA auto_vacuum=INCREMENTAL");
 
             // create tables and views
             SqlHelper.execute(connection, "BEGIN TRANSACTION IMMEDIATE");
             SqlHelper.execute(connection, "CREATE TABLE metadata (name text, value text)");
-            SqlHelper.execute(connection, "CREATE TABLE tile_map (zoom_level integer, tile_column integer, tile_row integer, tile_id integer)");
+            SqlHelper.execute(connection, "CREATE TABLE tile_map (zoom_level integer, tile_column integer, tile_row integer, tile_id integer, last_modified integer)");
             SqlHelper.execute(connection, "CREATE UNIQUE INDEX tile_index on tile_map (zoom_level, tile_column, tile_row)");
-            SqlHelper.execute(connection, "CREATE TABLE tile_blobs (tile_id integer primary key, tile_data blob)");
+            SqlHelper.execute(connection, "CREATE TABLE tile_blobs (tile_id integer primary key, tile_data blob, tile_hash text)");
+            SqlHelper.execute(connection, "CREATE INDEX tile_blobs_hash on tile_blobs (tile_hash)");
+            SqlHelper.execute(connection, "CREATE INDEX tile_map_tile_id on tile_map (tile_id)");
             SqlHelper.execute(connection, "CREATE VIEW tiles AS SELECT zoom_level, tile_column, tile_row, tile_data FROM tile_map INNER JOIN tile_blobs ON tile_map.tile_id = tile_blobs.tile_id");
 
             // populate metadata
@@ -113,195 +168,511 @@ public class MbtilesTileset {
             }
 
             SqlHelper.execute(connection, "COMMIT");
-            releaseConnection(connection);
 
         } catch (Exception e) {
             throw new RuntimeException(String.format("Could not create new Mbtiles file: %s", tilesetPath), e);
         }
     }
 
+    /**
+     * caches created by older versions do not have the content hash of the tile blobs that is used to share identical tiles
+     * and the modification time of the tiles
+     * @param connection the writer connection
+     */
+    private void upgradeSchema(Connection connection) {
+        try {
+            List<String> tileBlobsColumns = getColumns(connection, "tile_blobs");
+            if (!tileBlobsColumns.isEmpty() && !tileBlobsColumns.contains("tile_hash")) {
+                SqlHelper.execute(connection, "BEGIN TRANSACTION IMMEDIATE");
+                SqlHelper.execute(connection, "ALTER TABLE tile_blobs ADD COLUMN tile_hash text");
+                SqlHelper.execute(connection, "CREATE INDEX IF NOT EXISTS tile_blobs_hash on tile_blobs (tile_hash)");
+                SqlHelper.execute(connection, "CREATE INDEX IF NOT EXISTS tile_map_tile_id on tile_map (tile_id)");
+                SqlHelper.execute(connection, "COMMIT");
+            }
+            List<String> tileMapColumns = getColumns(connection, "tile_map");
+            if (!tileMapColumns.isEmpty() && !tileMapColumns.contains("last_modified")) {
+                SqlHelper.execute(connection, "ALTER TABLE tile_map ADD COLUMN last_modified integer");
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(String.format("Could not upgrade Mbtiles file: %s", tilesetPath), e);
+        }
+    }
+
+    private static List<String> getColumns(Connection connection, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(String.format("PRAGMA table_info(%s)", table));
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                columns.add(rs.getString("name"));
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * get a read-only connection from the pool; a new connection is opened, if all connections are in use
+     * and the maximum number of connections has not been reached, otherwise wait for a connection
+     * @return the connection, which has to be returned with {@link #releaseConnection(Connection)}
+     */
     private Connection getConnection() {
-        // we use a single connection per database to avoid multi-threading conflicts
-        if (Objects.isNull(connection))
-            connection = SqlHelper.getConnection(tilesetPath.toFile());
-        return connection;
+        if (closed)
+            throw new IllegalStateException(String.format("Mbtiles file has been closed: %s", tilesetPath));
+        Connection connection = readConnections.poll();
+        if (Objects.nonNull(connection))
+            return connection;
+
+        if (readConnectionCount.getAndIncrement() < MAX_READ_CONNECTIONS) {
+            try {
+                return SqlHelper.getConnection(tilesetPath.toFile(), true, false);
+            } catch (RuntimeException e) {
+                readConnectionCount.decrementAndGet();
+                throw e;
+            }
+        }
+        readConnectionCount.decrementAndGet();
+
+        try {
+            return readConnections.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(String.format("Interrupted while waiting for a connection to Mbtiles file: %s", tilesetPath), e);
+        }
     }
 
     private void releaseConnection(Connection connection) {
-        // nothing to do
+        readConnections.offer(connection);
+        // a connection that was in use when the tile set was closed
+        if (closed)
+            closeReadConnections();
+    }
+
+    /**
+     * the single connection used for all changes; callers have to hold the mutex, except during the creation of the tile set
+     * @return the connection
+     */
+    private Connection getWriteConnection() {
+        if (readOnly)
+            throw new IllegalStateException(String.format("Mbtiles file is read-only: %s", tilesetPath));
+        if (closed)
+            throw new IllegalStateException(String.format("Mbtiles file has been closed: %s", tilesetPath));
+        if (Objects.isNull(writeConnection))
+            writeConnection = SqlHelper.getConnection(tilesetPath.toFile(), false, true);
+        return writeConnection;
+    }
+
+    /**
+     * close the connections to the Mbtiles file; connections that are in use are closed when they are released
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closeReadConnections();
+        mutex.acquireUninterruptibly();
+        try {
+            if (Objects.nonNull(writeConnection)) {
+                closeConnection(writeConnection);
+                writeConnection = null;
+            }
+        } finally {
+            mutex.release();
+        }
+    }
+
+    private void closeReadConnections() {
+        Connection connection;
+        while (Objects.nonNull(connection = readConnections.poll())) {
+            readConnectionCount.decrementAndGet();
+            closeConnection(connection);
+        }
+    }
+
+    private void closeConnection(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.debug("Could not close a connection to Mbtiles file '{}': {}", tilesetPath, e.getMessage());
+        }
     }
 
     public MbtilesMetadata getMetadata() throws SQLException {
         ImmutableMbtilesMetadata.Builder builder = ImmutableMbtilesMetadata.builder();
         Connection connection = getConnection();
-        ResultSet rs = SqlHelper.executeQuery(connection, "SELECT name, value FROM metadata");
-        while (rs.next()) {
-            final String name = rs.getString("name");
-            final String value = rs.getString("value");
-            if (Objects.nonNull(value)) {
-                switch (name) {
-                    case "name":
-                        builder.name(value);
-                        break;
-                    case "format":
-                        MbtilesMetadata.MbtilesFormat format = MbtilesMetadata.MbtilesFormat.of(value);
-                        if (Objects.isNull(format))
-                            throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
-                        builder.format(format);
-                        break;
-                    case "bounds":
-                        List<Double> bounds = Splitter.on(',')
-                                                      .trimResults()
-                                                      .omitEmptyStrings()
-                                                      .splitToStream(value)
-                                                      .map(Double::parseDouble)
-                                                      .collect(Collectors.toUnmodifiableList());
-                        if (bounds.size()!=4)
-                            throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
-                        builder.bounds(bounds);
-                        break;
-                    case "center":
-                        List<Double> center = Splitter.on(',')
-                                                      .trimResults()
-                                                      .omitEmptyStrings()
-                                                      .splitToStream(value)
-                                                      .map(Double::parseDouble)
-                                                      .collect(Collectors.toUnmodifiableList());
-                        if (center.size()!=3)
-                            throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
-                        builder.center(center);
-                        break;
-                    case "minzoom":
-                        builder.minzoom(Integer.parseInt(value));
-                        break;
-                    case "maxzoom":
-                        builder.maxzoom(Integer.parseInt(value));
-                        break;
-                    case "description":
-                        builder.description(value);
-                        break;
-                    case "attribution":
-                        builder.attribution(value);
-                        break;
-                    case "type":
-                        MbtilesMetadata.MbtilesType type = MbtilesMetadata.MbtilesType.of(value);
-                        if (Objects.isNull(type))
-                            throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
-                        builder.type(type);
-                        break;
-                    case "version":
-                        try {
-                            int v = Integer.parseInt(value);
-                            builder.version(v);
-                        } catch (NumberFormatException e) {
-                            builder.version(Float.parseFloat(value));
-                        }
-                        break;
-                    case "vector_layers":
-                        // TODO vector_layers
-                        break;
+        try (PreparedStatement statement = connection.prepareStatement("SELECT name, value FROM metadata");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                final String name = rs.getString("name");
+                final String value = rs.getString("value");
+                if (Objects.nonNull(value)) {
+                    switch (name) {
+                        case "name":
+                            builder.name(value);
+                            break;
+                        case "format":
+                            MbtilesMetadata.MbtilesFormat format = MbtilesMetadata.MbtilesFormat.of(value);
+                            if (Objects.isNull(format))
+                                throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
+                            builder.format(format);
+                            break;
+                        case "bounds":
+                            List<Double> bounds = Splitter.on(',')
+                                                          .trimResults()
+                                                          .omitEmptyStrings()
+                                                          .splitToStream(value)
+                                                          .map(Double::parseDouble)
+                                                          .collect(Collectors.toUnmodifiableList());
+                            if (bounds.size()!=4)
+                                throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
+                            builder.bounds(bounds);
+                            break;
+                        case "center":
+                            List<Double> center = Splitter.on(',')
+                                                          .trimResults()
+                                                          .omitEmptyStrings()
+                                                          .splitToStream(value)
+                                                          .map(Double::parseDouble)
+                                                          .collect(Collectors.toUnmodifiableList());
+                            if (center.size()!=3)
+                                throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
+                            builder.center(center);
+                            break;
+                        case "minzoom":
+                            builder.minzoom(Integer.parseInt(value));
+                            break;
+                        case "maxzoom":
+                            builder.maxzoom(Integer.parseInt(value));
+                            break;
+                        case "description":
+                            builder.description(value);
+                            break;
+                        case "attribution":
+                            builder.attribution(value);
+                            break;
+                        case "type":
+                            MbtilesMetadata.MbtilesType type = MbtilesMetadata.MbtilesType.of(value);
+                            if (Objects.isNull(type))
+                                throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
+                            builder.type(type);
+                            break;
+                        case "version":
+                            try {
+                                int v = Integer.parseInt(value);
+                                builder.version(v);
+                            } catch (NumberFormatException e) {
+                                builder.version(Float.parseFloat(value));
+                            }
+                            break;
+                        case "vector_layers":
+                            // TODO vector_layers
+                            break;
+                    }
                 }
             }
+        } finally {
+            releaseConnection(connection);
         }
-        releaseConnection(connection);
         return builder.build();
     }
 
     public Optional<InputStream> getTile(Tile tile) throws SQLException, IOException {
-        Optional<InputStream> result = Optional.empty();
+        Optional<byte[]> content = getTileData(tile);
+        if (content.isEmpty())
+            return Optional.empty();
+        InputStream stream = new ByteArrayInputStream(content.get());
+        return Optional.of(tile.getOutputFormat().getGzippedInMbtiles() ? new GZIPInputStream(stream) : stream);
+    }
+
+    /**
+     * get the tile as it is stored in the Mbtiles file, i.e. gzip-compressed for formats that are compressed in Mbtiles
+     * @param tile the tile
+     * @return the stored content of the tile, if it exists
+     * @throws SQLException an error occurred while accessing the Mbtiles file
+     */
+    private Optional<byte[]> getTileData(Tile tile) throws SQLException {
         int level = tile.getTileLevel();
         int row = tile.getTileMatrixSet().getTmsRow(level, tile.getTileRow());
         int col = tile.getTileCol();
-        boolean gzip = tile.getOutputFormat().getGzippedInMbtiles();
+        byte[] content = null;
         Connection connection = getConnection();
-        String sql = String.format("SELECT tile_data FROM tiles WHERE zoom_level=%d AND tile_row=%d AND tile_column=%d", level, row, col);
-        ResultSet rs = SqlHelper.executeQuery(connection, sql);
-        if (rs.next()) {
-            result = Optional.of(gzip ? new GZIPInputStream(rs.getBinaryStream("tile_data")) : rs.getBinaryStream("tile_data"));
+        try (PreparedStatement statement = connection.prepareStatement(SQL_SELECT_TILE)) {
+            setTileParameters(statement, level, row, col);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) {
+                    // read the blob before the connection is returned to the pool
+                    content = rs.getBytes("tile_data");
+                }
+            }
+        } finally {
+            releaseConnection(connection);
         }
-        releaseConnection(connection);
-        return result;
+        return Optional.ofNullable(content);
     }
 
-    public Optional<Boolean> tileIsEmpty(Tile tile) throws SQLException {
-        Optional<Boolean> result = Optional.empty();
-        Connection connection = getConnection();
+    /**
+     * get the hash of the uncompressed content and the modification time of a tile in a tile cache, without reading
+     * the tile; the content is read when the byte source is opened, for formats that are compressed in Mbtiles the
+     * compressed content is available, too
+     * @param tile the tile
+     * @return the tile, if it exists
+     * @throws SQLException an error occurred while accessing the Mbtiles file
+     */
+    public Optional<CachedTile> getCachedTile(Tile tile) throws SQLException {
         int level = tile.getTileLevel();
         int row = tile.getTileMatrixSet().getTmsRow(level, tile.getTileRow());
         int col = tile.getTileCol();
-        String sql = String.format("SELECT tile_id FROM tile_map WHERE zoom_level=%d AND tile_row=%d AND tile_column=%d", level, row, col);
-        ResultSet rs = SqlHelper.executeQuery(connection, sql);
-        if (rs.next()) {
-            result = Optional.of(rs.getInt("tile_id")==EMPTY_TILE_ID && tile.getOutputFormat().getSupportsEmptyTile());
+        ImmutableCachedTile.Builder builder = new ImmutableCachedTile.Builder();
+        Connection connection = getConnection();
+        try (PreparedStatement statement = connection.prepareStatement(SQL_SELECT_TILE_INFO)) {
+            setTileParameters(statement, level, row, col);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next())
+                    return Optional.empty();
+                String hash = rs.getString("tile_hash");
+                if (Objects.nonNull(hash))
+                    builder.etag(hash);
+                else if (rs.getInt("tile_id")==EMPTY_TILE_ID)
+                    builder.etag(EMPTY_TILE_HASH);
+                long lastModified = rs.getLong("last_modified");
+                if (!rs.wasNull())
+                    builder.lastModified(new Date(lastModified));
+            }
+        } finally {
+            releaseConnection(connection);
         }
-        releaseConnection(connection);
-        return result;
+        if (tile.getOutputFormat().getGzippedInMbtiles()) {
+            builder.gzipContent(new ByteSource() {
+                @Override
+                public InputStream openStream() throws IOException {
+                    try {
+                        return new ByteArrayInputStream(getTileData(tile).orElseThrow(() -> new IOException(String.format("Tile %s has been removed from the Mbtiles file: %s", tile.getKey(), tilesetPath))));
+                    } catch (SQLException e) {
+                        throw new IOException(e);
+                    }
+                }
+            });
+        }
+        return Optional.of(builder.content(new ByteSource() {
+                                      @Override
+                                      public InputStream openStream() throws IOException {
+                                          try {
+                                              return getTile(tile).orElseThrow(() -> new IOException(String.format("Tile %s has been removed from the Mbtiles file: %s", tile.getKey(), tilesetPath)));
+                                          } catch (SQLException e) {
+                                              throw new IOException(e);
+                                          }
+                                      }
+                                  })
+                                  .build());
     }
 
-    public boolean tileExists(Tile tile) throws SQLException {
+    /**
+     * receives the tiles of a tile set
+     */
+    public interface TileConsumer {
+        void accept(int level, int row, int col, byte[] content) throws IOException;
+    }
+
+    /**
+     * read all tiles of the tile set as they are stored, i.e. gzip-compressed for formats that are compressed in Mbtiles
+     * @param consumer receives the tiles; the row is counted from the bottom as in the Mbtiles file, an empty tile is an empty array
+     * @throws SQLException an error occurred while accessing the Mbtiles file
+     * @throws IOException an error occurred in the consumer
+     */
+    public void forEachTile(TileConsumer consumer) throws SQLException, IOException {
+        Connection connection = getConnection();
+        try (PreparedStatement statement = connection.prepareStatement(SQL_SELECT_ALL_TILES)) {
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    byte[] content = rs.getInt("tile_id")==EMPTY_TILE_ID ? new byte[0] : rs.getBytes("tile_data");
+                    if (Objects.nonNull(content))
+                        consumer.accept(rs.getInt("zoom_level"), rs.getInt("tile_row"), rs.getInt("tile_column"), content);
+                }
+            }
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+    /**
+     * receives the positions of the tiles of a tile set
+     */
+    public interface TilePositionConsumer {
+        void accept(int level, int row, int col);
+    }
+
+    /**
+     * visit all tiles of the tile set without reading the tile data
+     * @param consumer receives the tiles; the row is counted from the bottom as in the Mbtiles file
+     * @throws SQLException an error occurred while accessing the Mbtiles file
+     */
+    public void forEachTilePosition(TilePositionConsumer consumer) throws SQLException {
+        Connection connection = getConnection();
+        try (PreparedStatement statement = connection.prepareStatement(SQL_SELECT_ALL_TILE_POSITIONS)) {
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(rs.getInt("zoom_level"), rs.getInt("tile_row"), rs.getInt("tile_column"));
+                }
+            }
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+    /**
+     * visit the tiles of the tile set within limits without reading the tile data
+     * @param tileMatrixSet the tile matrix set
+     * @param limits the limits in a zoom level
+     * @param consumer receives the tiles; the row is counted from the bottom as in the Mbtiles file
+     * @throws SQLException an error occurred while accessing the Mbtiles file
+     */
+    public void forEachTilePosition(TileMatrixSet tileMatrixSet, TileMatrixSetLimits limits, TilePositionConsumer consumer) throws SQLException {
+        int level = Integer.parseInt(limits.getTileMatrix());
         Connection connection = getConnection();
+        try (PreparedStatement statement = connection.prepareStatement(SQL_SELECT_TILE_POSITIONS_IN_LIMITS)) {
+            setLimitsParameters(statement, tileMatrixSet, level, limits);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(rs.getInt("zoom_level"), rs.getInt("tile_row"), rs.getInt("tile_column"));
+                }
+            }
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+    public Optional<Boolean> tileIsEmpty(Tile tile) throws SQLException {
         int level = tile.getTileLevel();
         int row = tile.getTileMatrixSet().getTmsRow(level, tile.getTileRow());
         int col = tile.getTileCol();
-        String sql = String.format("SELECT tile_data FROM tiles WHERE zoom_level=%d AND tile_row=%d AND tile_column=%d", level, row, col);
-        boolean exists = SqlHelper.executeQuery(connection, sql).next();
-        releaseConnection(connection);
-        return exists;
+        Connection connection = getConnection();
+        try (PreparedStatement statement = connection.prepareStatement(SQL_SELECT_TILE_ID)) {
+            setTileParameters(statement, level, row, col);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) {
+                    return Optional.of(rs.getInt("tile_id")==EMPTY_TILE_ID && tile.getOutputFormat().getSupportsEmptyTile());
+                }
+            }
+        } finally {
+            releaseConnection(connection);
+        }
+        return Optional.empty();
     }
 
-    public void writeTile(Tile tile, byte[] content) throws SQLException, IOException {
+    public boolean tileExists(Tile tile) throws SQLException {
         int level = tile.getTileLevel();
         int row = tile.getTileMatrixSet().getTmsRow(level, tile.getTileRow());
         int col = tile.getTileCol();
-        boolean gzip = tile.getOutputFormat().getGzippedInMbtiles();
-        boolean supportsEmtpyTile = tile.getOutputFormat().getSupportsEmptyTile();
+        Connection connection = getConnection();
+        try (PreparedStatement statement = connection.prepareStatement(SQL_SELECT_TILE_ID)) {
+            setTileParameters(statement, level, row, col);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next();
+            }
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+    public void writeTile(Tile tile, byte[] content) throws SQLException, IOException {
+        writeTiles(ImmutableList.of(new SimpleImmutableEntry<>(tile, content)));
+    }
+
+    /**
+     * write multiple tiles in a single transaction, the tiles are modified now
+     * @param tiles the tiles with their uncompressed content
+     * @throws SQLException an error occurred while accessing the Mbtiles file
+     * @throws IOException an error occurred while compressing a tile or the thread has been interrupted
+     */
+    public void writeTiles(List<Map.Entry<Tile, byte[]>> tiles) throws SQLException, IOException {
+        writeTiles(tiles, Collections.nCopies(tiles.size(), System.currentTimeMillis()));
+    }
+
+    /**
+     * write multiple tiles in a single transaction
+     * @param tiles the tiles with their uncompressed content
+     * @param lastModified the times when the tiles were generated, in milliseconds, in the order of the tiles
+     * @throws SQLException an error occurred while accessing the Mbtiles file
+     * @throws IOException an error occurred while compressing a tile or the thread has been interrupted
+     */
+    public void writeTiles(List<Map.Entry<Tile, byte[]>> tiles, List<Long> lastModified) throws SQLException, IOException {
+        // compress and hash outside of the mutex
+        List<TileBlob> blobs = new ArrayList<>(tiles.size());
+        for (int i = 0; i < tiles.size(); i++) {
+            blobs.add(new TileBlob(tiles.get(i).getKey(), tiles.get(i).getValue(), lastModified.get(i)));
+        }
         try {
             mutex.acquire();
-            Connection connection = getConnection();
-            // do we have an old blob?
-            boolean exists = false;
-            Integer old_tile_id = null;
-            String sql = String.format("SELECT tile_id FROM tile_map WHERE zoom_level=%d AND tile_row=%d AND tile_column=%d", level, row, col);
-            ResultSet rs = SqlHelper.executeQuery(connection, sql);
-            if (rs.next()) {
-                exists = true;
-                old_tile_id = rs.getInt(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Interrupted while waiting to write to Mbtiles file: %s", tilesetPath));
+        }
+        try {
+            Connection connection = getWriteConnection();
+            SqlHelper.execute(connection, "BEGIN TRANSACTION IMMEDIATE");
+            try {
+                for (TileBlob blob : blobs) {
+                    writeTile(connection, blob);
+                }
+                SqlHelper.execute(connection, "COMMIT");
+            } catch (SQLException | RuntimeException e) {
+                SqlHelper.execute(connection, "ROLLBACK");
+                throw e;
             }
-            // add the new tile
-            int tile_id = EMPTY_TILE_ID;
-            if (content.length>0 || !supportsEmtpyTile) {
-                PreparedStatement statement = connection.prepareStatement("INSERT INTO tile_blobs (tile_data) VALUES(?)");
-                ByteArrayOutputStream mvt = new ByteArrayOutputStream(content.length);
-                if (gzip) {
-                    GZIPOutputStream gzipStream = new GZIPOutputStream(mvt);
-                    gzipStream.write(content);
-                    gzipStream.close();
-                } else {
-                    mvt.write(content);
+        } finally {
+            mutex.release();
+        }
+    }
+
+    private void writeTile(Connection connection, TileBlob blob) throws SQLException {
+        // do we have an old blob?
+        boolean exists = false;
+        Integer old_tile_id = null;
+        try (PreparedStatement statement = connection.prepareStatement(SQL_SELECT_TILE_ID)) {
+            setTileParameters(statement, blob.level, blob.row, blob.col);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) {
+                    exists = true;
+                    old_tile_id = rs.getInt(1);
                 }
-                statement.setBytes(1, mvt.toByteArray());
-                statement.execute();
-                statement.close();
-                rs = SqlHelper.executeQuery(connection, "SELECT last_insert_rowid()");
-                tile_id = rs.getInt(1);
             }
-            PreparedStatement statement = exists
-                ? connection.prepareStatement("UPDATE tile_map SET tile_id=? WHERE zoom_level=? AND tile_row=? AND tile_column=?")
-                : connection.prepareStatement("INSERT INTO tile_map (tile_id,zoom_level,tile_row,tile_column) VALUES(?,?,?,?)");
+        }
+        // add the new tile, unless a tile with identical content is already stored
+        int tile_id = EMPTY_TILE_ID;
+        if (Objects.nonNull(blob.data)) {
+            Integer existing_tile_id = null;
+            try (PreparedStatement statement = connection.prepareStatement("SELECT tile_id FROM tile_blobs WHERE tile_hash=? LIMIT 1")) {
+                statement.setString(1, blob.hash);
+                try (ResultSet rs = statement.executeQuery()) {
+                    if (rs.next()) {
+                        existing_tile_id = rs.getInt(1);
+                    }
+                }
+            }
+            if (Objects.nonNull(existing_tile_id)) {
+                tile_id = existing_tile_id;
+            } else {
+                try (PreparedStatement statement = connection.prepareStatement("INSERT INTO tile_blobs (tile_data,tile_hash) VALUES(?,?)", Statement.RETURN_GENERATED_KEYS)) {
+                    statement.setBytes(1, blob.data);
+                    statement.setString(2, blob.hash);
+                    statement.executeUpdate();
+                    try (ResultSet rs = statement.getGeneratedKeys()) {
+                        rs.next();
+                        tile_id = rs.getInt(1);
+                    }
+                }
+            }
+        }
+        try (PreparedStatement statement = exists
+            ? connection.prepareStatement("UPDATE tile_map SET tile_id=?, last_modified=? WHERE zoom_level=? AND tile_row=? AND tile_column=?")
+            : connection.prepareStatement("INSERT INTO tile_map (tile_id,last_modified,zoom_level,tile_row,tile_column) VALUES(?,?,?,?,?)")) {
             statement.setInt(1, tile_id);
-            statement.setInt(2, level);
-            statement.setInt(3, row);
-            statement.setInt(4, col);
+            statement.setLong(2, blob.lastModified);
+            statement.setInt(3, blob.level);
+            statement.setInt(4, blob.row);
+            statement.setInt(5, blob.col);
             statement.execute();
-            statement.close();
-            // finally remove any old blob
-            if (Objects.nonNull(old_tile_id) && (old_tile_id != EMPTY_TILE_ID || !supportsEmtpyTile)) {
-                SqlHelper.execute(connection, String.format("DELETE FROM tile_map WHERE tile_id = %d", old_tile_id));
-            }
-        } catch (InterruptedException ignored) {
-        } finally {
-            mutex.release();
-            releaseConnection(connection);
+        }
+        // finally remove the old blob, unless it is still used by other tiles
+        if (Objects.nonNull(old_tile_id) && old_tile_id != tile_id && (old_tile_id != EMPTY_TILE_ID || !blob.supportsEmptyTile)) {
+            deleteUnusedBlob(connection, old_tile_id);
         }
     }
 
@@ -312,45 +683,227 @@ public class MbtilesTileset {
         int col = tile.getTileCol();
         try {
             mutex.acquire();
-            Connection connection = getConnection();
-            String sql = String.format("SELECT tile_id FROM tile_map WHERE zoom_level=%d AND tile_row=%d AND tile_column=%d", level, row, col);
-            ResultSet rs = SqlHelper.executeQuery(connection, sql);
-            if (rs.next()) {
-                int tile_id = rs.getInt(1);
-                SqlHelper.execute(connection, String.format("DELETE FROM tile_map WHERE zoom_level=%d AND tile_row=%d AND tile_column=%d", level, row, col));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            Connection connection = getWriteConnection();
+            Integer tile_id = null;
+            try (PreparedStatement statement = connection.prepareStatement(SQL_SELECT_TILE_ID)) {
+                setTileParameters(statement, level, row, col);
+                try (ResultSet rs = statement.executeQuery()) {
+                    if (rs.next()) {
+                        tile_id = rs.getInt(1);
+                    }
+                }
+            }
+            if (Objects.nonNull(tile_id)) {
+                try (PreparedStatement statement = connection.prepareStatement("DELETE FROM tile_map WHERE zoom_level=? AND tile_row=? AND tile_column=?")) {
+                    setTileParameters(statement, level, row, col);
+                    statement.execute();
+                }
                 if (tile_id != EMPTY_TILE_ID || !supportsEmtpyTile) {
-                    SqlHelper.execute(connection, String.format("DELETE FROM tile_blobs WHERE tile_id=%d", tile_id));
+                    deleteUnusedBlob(connection, tile_id);
                 }
             }
-        } catch (InterruptedException ignored) {
         } finally {
             mutex.release();
-            releaseConnection(connection);
         }
     }
 
     public void deleteTiles(TileMatrixSet tileMatrixSet, TileMatrixSetLimits limits) throws SQLException {
         int level = Integer.parseInt(limits.getTileMatrix());
+        String sqlFrom = "FROM tile_map WHERE zoom_level=? AND tile_row>=? AND tile_column>=? AND tile_row<=? AND tile_column<=?";
         try {
             mutex.acquire();
-            Connection connection = getConnection();
-            String sqlFrom = String.format("FROM tile_map WHERE zoom_level=%d AND tile_row>=%d AND tile_column>=%d AND tile_row<=%d AND tile_column<=%d",
-                                           level,
-                                           tileMatrixSet.getTmsRow(level, limits.getMaxTileRow()), limits.getMinTileCol(),
-                                           tileMatrixSet.getTmsRow(level, limits.getMinTileRow()), limits.getMaxTileCol());
-            ResultSet rs = SqlHelper.executeQuery(connection, String.format("SELECT DISTINCT tile_id %s", sqlFrom));
-            while (rs.next()) {
-                int tile_id = rs.getInt(1);
-                if (tile_id != EMPTY_TILE_ID) {
-                    SqlHelper.execute(connection, String.format("DELETE FROM tile_blobs WHERE tile_id=%d", tile_id));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            Connection connection = getWriteConnection();
+            SqlHelper.execute(connection, "BEGIN TRANSACTION IMMEDIATE");
+            try {
+                // remember the blobs of the deleted tiles in a temporary table
+                SqlHelper.execute(connection, "CREATE TEMP TABLE IF NOT EXISTS purged_blobs (tile_id integer primary key)");
+                try (PreparedStatement select = connection.prepareStatement(String.format("INSERT OR IGNORE INTO purged_blobs SELECT DISTINCT tile_id %s AND tile_id<>%d", sqlFrom, EMPTY_TILE_ID))) {
+                    setLimitsParameters(select, tileMatrixSet, level, limits);
+                    select.execute();
+                }
+                try (PreparedStatement statement = connection.prepareStatement(String.format("DELETE %s", sqlFrom))) {
+                    setLimitsParameters(statement, tileMatrixSet, level, limits);
+                    statement.execute();
                 }
+                // blobs may be shared with tiles outside of the limits
+                SqlHelper.execute(connection, SQL_DELETE_PURGED_BLOBS);
+                SqlHelper.execute(connection, "DELETE FROM purged_blobs");
+                SqlHelper.execute(connection, "COMMIT");
+            } catch (SQLException | RuntimeException e) {
+                SqlHelper.execute(connection, "ROLLBACK");
+                throw e;
             }
-            SqlHelper.execute(connection, String.format("DELETE %s", sqlFrom));
-        } catch (InterruptedException ignored) {
         } finally {
             mutex.release();
-            releaseConnection(connection);
         }
+    }
+
+    /**
+     * remove tile blobs that are no longer used by any tile and return unused pages to the file system; the work is
+     * done in small steps, each holding the write lock only briefly; the exception are Mbtiles files created by older
+     * versions without incremental vacuums, they are rebuilt once with a full vacuum that holds the write lock until
+     * the whole file has been rewritten, so tiles of the tile set cannot be written in the meantime
+     * @throws SQLException an error occurred while accessing the Mbtiles file
+     */
+    public void compact() throws SQLException {
+        int maxTileId;
+        Connection readConnection = getConnection();
+        try (PreparedStatement statement = readConnection.prepareStatement("SELECT max(tile_id) FROM tile_blobs");
+             ResultSet rs = statement.executeQuery()) {
+            maxTileId = rs.next() ? rs.getInt(1) : 0;
+        } finally {
+            releaseConnection(readConnection);
+        }
+
+        // caches written by older versions may contain blobs of tiles that have been replaced
+        long deletedBlobs = 0;
+        for (int fromTileId = 0; fromTileId < maxTileId && !Thread.currentThread().isInterrupted(); fromTileId += COMPACT_BLOB_BATCH) {
+            final int from = fromTileId;
+            deletedBlobs += withWriteConnection(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(SQL_DELETE_ORPHANED_BLOBS)) {
+                    statement.setInt(1, from);
+                    statement.setInt(2, from + COMPACT_BLOB_BATCH);
+                    statement.setInt(3, EMPTY_TILE_ID);
+                    return statement.executeUpdate();
+                }
+            }).orElse(0);
+        }
+
+        boolean incremental = withWriteConnection(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("PRAGMA auto_vacuum");
+                 ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 2;
+            }
+        }).orElse(true);
+        if (!incremental) {
+            // caches created by older versions have to be rebuilt once to support incremental vacuums
+            LOGGER.info("Enabling incremental vacuums for Mbtiles file, this requires a full vacuum and tiles cannot be written to the file until it has finished: {}", tilesetPath);
+            withWriteConnection(connection -> {
+                SqlHelper.execute(connection, "PRAGMA auto_vacuum=INCREMENTAL");
+                SqlHelper.execute(connection, "VACUUM");
+                return true;
+            });
+        } else {
+            boolean freePages = true;
+            while (freePages) {
+                freePages = withWriteConnection(connection -> {
+                    // each returned row frees a page
+                    try (PreparedStatement statement = connection.prepareStatement(String.format("PRAGMA incremental_vacuum(%d)", COMPACT_VACUUM_PAGES));
+                         ResultSet rs = statement.executeQuery()) {
+                        while (rs.next()) {
+                            // continue
+                        }
+                    }
+                    try (PreparedStatement statement = connection.prepareStatement("PRAGMA freelist_count");
+                         ResultSet rs = statement.executeQuery()) {
+                        return rs.next() && rs.getInt(1) > 0;
+                    }
+                }).orElse(false);
+            }
+        }
+
+        // also shrink the write-ahead log
+        withWriteConnection(connection -> {
+            SqlHelper.execute(connection, "PRAGMA wal_checkpoint(TRUNCATE)");
+            return true;
+        });
+
+        LOGGER.debug("Compacted Mbtiles file, {} unused tile blobs removed: {}", deletedBlobs, tilesetPath);
+    }
+
+    /**
+     * a change that is executed with the write connection
+     */
+    private interface WriteOperation<T> {
+        T apply(Connection connection) throws SQLException;
+    }
+
+    /**
+     * execute a change while holding the write lock
+     * @param operation the change
+     * @return the result of the change; empty, if the thread has been interrupted while waiting for the lock
+     * @throws SQLException an error occurred while accessing the Mbtiles file
+     */
+    private <T> Optional<T> withWriteConnection(WriteOperation<T> operation) throws SQLException {
+        try {
+            mutex.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+        try {
+            return Optional.ofNullable(operation.apply(getWriteConnection()));
+        } finally {
+            mutex.release();
+        }
+    }
+
+    private static void deleteUnusedBlob(Connection connection, int tile_id) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(SQL_DELETE_UNUSED_BLOB)) {
+            statement.setInt(1, tile_id);
+            statement.setInt(2, tile_id);
+            statement.execute();
+        }
+    }
+
+    private static void setTileParameters(PreparedStatement statement, int level, int row, int col) throws SQLException {
+        statement.setInt(1, level);
+        statement.setInt(2, row);
+        statement.setInt(3, col);
+    }
 
+    private static void setLimitsParameters(PreparedStatement statement, TileMatrixSet tileMatrixSet, int level, TileMatrixSetLimits limits) throws SQLException {
+        statement.setInt(1, level);
+        statement.setInt(2, tileMatrixSet.getTmsRow(level, limits.getMaxTileRow()));
+        statement.setInt(3, limits.getMinTileCol());
+        statement.setInt(4, tileMatrixSet.getTmsRow(level, limits.getMinTileRow()));
+        statement.setInt(5, limits.getMaxTileCol());
+    }
+
+    /**
+     * a tile prepared for storage: TMS row, compressed content, the hash of the uncompressed content and the time when
+     * the tile was generated
+     */
+    private static class TileBlob {
+        final int level;
+        final int row;
+        final int col;
+        final boolean supportsEmptyTile;
+        final byte[] data;
+        final String hash;
+        final long lastModified;
+
+        TileBlob(Tile tile, byte[] content, long lastModified) throws IOException {
+            this.lastModified = lastModified;
+            this.level = tile.getTileLevel();
+            this.row = tile.getTileMatrixSet().getTmsRow(level, tile.getTileRow());
+            this.col = tile.getTileCol();
+            this.supportsEmptyTile = tile.getOutputFormat().getSupportsEmptyTile();
+            if (content.length>0 || !supportsEmptyTile) {
+                this.hash = Hashing.murmur3_128().hashBytes(content).toString();
+                ByteArrayOutputStream mvt = new ByteArrayOutputStream(content.length);
+                if (tile.getOutputFormat().getGzippedInMbtiles()) {
+                    GZIPOutputStream gzipStream = new GZIPOutputStream(mvt);
+                    gzipStream.write(content);
+                    gzipStream.close();
+                } else {
+                    mvt.write(content);
+                }
+                this.data = mvt.toByteArray();
+            } else {
+                this.hash = null;
+                this.data = null;
+            }
+        }
     }
 }
@@ -13,13 +13,35 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Statement;
+import org.sqlite.SQLiteConfig;
 
 public class SqlHelper {
 
+    private static final int BUSY_TIMEOUT = 30_000;
+
     public static Connection getConnection(File mbtilesFile) {
+        return getConnection(mbtilesFile, false, false);
+    }
+
+    /**
+     * open a connection to an Mbtiles file
+     * @param mbtilesFile the Mbtiles file
+     * @param readOnly {@code true}, if the connection will only be used to read tiles or metadata
+     * @param walMode {@code true}, if the database should use write-ahead logging, so that readers
+     *                and the writer do not block each other; ignored for read-only connections
+     * @return the connection
+     */
+    public static Connection getConnection(File mbtilesFile, boolean readOnly, boolean walMode) {
         try {
             Class.forName("org.sqlite.JDBC");
-            return DriverManager.getConnection("jdbc:sqlite:" + mbtilesFile.getAbsolutePath());
+            SQLiteConfig config = new SQLiteConfig();
+            config.setReadOnly(readOnly);
+            config.setBusyTimeout(BUSY_TIMEOUT);
+            if (walMode && !readOnly) {
+                config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+                config.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+            }
+            return DriverManager.getConnection("jdbc:sqlite:" + mbtilesFile.getAbsolutePath(), config.toProperties());
         } catch (Exception e) {
             throw new RuntimeException("Connection to Mbtiles database could not be established.", e);
         }
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.domain;
+
+import com.google.common.io.ByteSource;
+import org.immutables.value.Value;
+
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Optional;
+
+/**
+ * A tile from the tile cache together with the information for conditional requests, if it is known
+ */
+@Value.Immutable
+@Value.Style(builder = "new")
+public interface CachedTile {
+
+    /**
+     *
+     * @return the content of the tile, the content is only read when the byte source is opened
+     */
+    ByteSource getContent();
+
+    /**
+     *
+     * @return the file of the tile, if the tile is stored as a file
+     */
+    Optional<Path> getPath();
+
+    /**
+     *
+     * @return the gzip-compressed content of the tile, if the cache stores the tile compressed
+     */
+    Optional<ByteSource> getGzipContent();
+
+    /**
+     *
+     * @return the file with the gzip-compressed content of the tile, if the tile is stored as a file
+     */
+    Optional<Path> getGzipPath();
+
+    /**
+     *
+     * @return the murmur3 hash of the tile content, if known
+     */
+    Optional<String> getEtag();
+
+    /**
+     *
+     * @return the time when the tile was written to the cache, if known
+     */
+    Optional<Date> getLastModified();
+}
@@ -8,7 +8,9 @@
 package de.ii.ldproxy.ogcapi.tiles.domain;
 
 import de.ii.ldproxy.ogcapi.features.core.domain.FeatureTransformationContext;
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
 import de.ii.xtraplatform.crs.domain.CrsTransformerFactory;
+import java.util.List;
 import java.util.Map;
 import org.immutables.value.Value;
 
@@ -20,6 +22,18 @@ public interface FeatureTransformationContextTiles extends FeatureTransformation
 
   Tile tile();
 
+  /**
+   * @return the other tiles of a metatile, they are generated from the same features as {@link #tile()} and
+   *         written to the tile cache by the encoder
+   */
+  List<Tile> additionalTiles();
+
+  /**
+   * @return the tile ranges of a bulk seeding, one per zoom level; all tiles in the ranges are generated from the
+   *         same features as {@link #tile()} and written to the tile cache by the encoder
+   */
+  List<TileMatrixSetLimits> bulkLimits();
+
   TileCache getTileCache();
 
   @Value.Lazy
@@ -61,4 +61,22 @@ public interface SeedingOptions {
     return Objects.isNull(getMaxThreads()) || getMaxThreads() <= 1 ? 1 : getMaxThreads();
   }
 
+  @Nullable
+  Integer getMetatileSize();
+
+  @Value.Lazy
+  @JsonIgnore
+  default int getEffectiveMetatileSize() {
+    return Objects.isNull(getMetatileSize()) || getMetatileSize() <= 1 ? 1 : getMetatileSize();
+  }
+
+  @Nullable
+  Boolean getBulk();
+
+  @Value.Lazy
+  @JsonIgnore
+  default boolean shouldSeedInBulk() {
+    return Objects.equals(getBulk(), true);
+  }
+
 }
@@ -118,6 +118,19 @@ public abstract class Tile {
         return tilePath;
     }
 
+    /**
+     *
+     * @return a key that identifies the tile across APIs, collections, tiling schemes and formats;
+     *         the key is not unique for temporary tiles
+     */
+    @Value.Derived
+    @Value.Auxiliary
+    public String getKey() {
+        return String.join("/", getApiData().getId(), isDatasetTile() ? "__all__" : getCollectionId(),
+                           getTileMatrixSet().getId(), String.valueOf(getTileLevel()), String.valueOf(getTileRow()),
+                           String.valueOf(getTileCol()), getOutputFormat().getExtension());
+    }
+
     /**
      * Verify that the zoom level is in the valid range for the tile matrix set.
      * Verify that the row number is in the valid range for the tile matrix.
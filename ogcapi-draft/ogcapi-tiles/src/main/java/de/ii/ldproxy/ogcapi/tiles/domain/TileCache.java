@@ -13,6 +13,7 @@ import de.ii.xtraplatform.crs.domain.BoundingBox;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.Optional;
 
@@ -39,6 +40,15 @@ public interface TileCache extends ApiExtension {
      */
     Optional<InputStream> getTile(Tile tile) throws IOException, SQLException;
 
+    /**
+     * fetch a tile from the cache together with its entity tag and last modification date, if known
+     * @param tile the tile
+     * @return the cached tile; the result is empty, if the tile is not cached
+     * @throws IOException an error occurred while accessing files
+     * @throws SQLException an error occurred while accessing an Mbtiles file
+     */
+    Optional<CachedTile> getCachedTile(Tile tile) throws IOException, SQLException;
+
     /**
      * checks whether a tile is cached, but contains no features
      * @param tile the tile
@@ -76,6 +86,49 @@ public interface TileCache extends ApiExtension {
      */
     void deleteTiles(OgcApiDataV2 apiData, Optional<String> collectionId, Optional<String> tileMatrixSetId, Optional<BoundingBox> boundingBox) throws IOException, SQLException;
 
+    /**
+     * write all tiles that have been queued for storage, but have not yet been written to the cache
+     * @throws IOException an error occurred while accessing files
+     * @throws SQLException an error occurred while accessing an Mbtiles file
+     */
+    void flush() throws IOException, SQLException;
+
+    /**
+     * write the bitmaps of the tiles in the cache of an API that have changed next to the cache, so they do not have to
+     * be rebuilt from the cache after a restart
+     * @param apiData the API
+     * @throws IOException an error occurred while writing a bitmap
+     */
+    void persistBitmaps(OgcApiDataV2 apiData) throws IOException;
+
+    /**
+     * build the read-optimized archives of all tile sets of an API that use the {@code ARCHIVE} cache from the tiles
+     * in the cache; an archive is not changed afterwards, tiles of the tile set that are changed or deleted are masked
+     * in the archive and read from the Mbtiles cache until the archive is rebuilt with the next seeding; if all tiles
+     * of a tile set are purged, the archive is removed
+     * @param apiData the API
+     * @throws IOException an error occurred while writing an archive
+     * @throws SQLException an error occurred while accessing an Mbtiles file
+     */
+    void archive(OgcApiDataV2 apiData) throws IOException, SQLException;
+
+    /**
+     * remove unused tile data from the Mbtiles caches of an API and return unused space to the file system; Mbtiles
+     * caches created by older versions are rebuilt once, which blocks writing tiles to the cache until it has finished
+     * @param apiData the API
+     * @throws IOException an error occurred while accessing files
+     * @throws SQLException an error occurred while accessing an Mbtiles file
+     */
+    void compact(OgcApiDataV2 apiData) throws IOException, SQLException;
+
+    /**
+     * return and if necessary create a directory for the working files of long-running tasks like the seeding; in
+     * contrast to the temporary tile files, the files are only removed on startup
+     * @return the directory
+     * @throws IOException the directory could not be created
+     */
+    Path getWorkDirectory() throws IOException;
+
     /**
      * clean-up temporary files that cannot be cached due to the use of parameters
      */
@@ -13,6 +13,7 @@ import de.ii.ldproxy.ogcapi.domain.OgcApiQueryParameter;
 import de.ii.ldproxy.ogcapi.domain.URICustomizer;
 import de.ii.ldproxy.ogcapi.features.core.domain.FeaturesCoreConfiguration;
 import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
 import de.ii.xtraplatform.features.domain.FeatureQuery;
 import de.ii.xtraplatform.features.domain.FeatureTokenEncoder;
 import de.ii.xtraplatform.features.domain.transform.PropertyTransformations;
@@ -31,6 +32,63 @@ public interface TileFromFeatureQuery {
                         TilesConfiguration tilesConfiguration,
                         URICustomizer uriCustomizer);
 
+  /**
+   * A metatile is a block of neighbouring tiles of the same tile matrix that are generated from a single query.
+   * The encoder of the format must generate the additional tiles, see
+   * {@link FeatureTransformationContextTiles#additionalTiles()}.
+   *
+   * @param tiles the tiles of the metatile, the first tile is the tile that is returned by the encoder
+   * @return the query for the features of all tiles; empty, if the format does not support metatiles
+   */
+  default Optional<FeatureQuery> getMetatileQuery(List<Tile> tiles,
+                                                  List<OgcApiQueryParameter> allowedParameters,
+                                                  Map<String, String> queryParameters,
+                                                  TilesConfiguration tilesConfiguration,
+                                                  URICustomizer uriCustomizer) {
+    return Optional.empty();
+  }
+
+  /**
+   * A bulk query returns all features of a collection for several zoom levels in a single scan. The encoder of the
+   * format must generate all tiles in the tile ranges, see {@link FeatureTransformationContextTiles#bulkLimits()}.
+   *
+   * @param tile a tile in the tile ranges, the tile that is returned by the encoder
+   * @param limits the tile ranges, one per zoom level
+   * @return the query for the features of all tiles; empty, if the format does not support bulk queries or if the
+   *         features of the zoom levels cannot be selected with the same query
+   */
+  default Optional<FeatureQuery> getBulkQuery(Tile tile,
+                                              List<TileMatrixSetLimits> limits,
+                                              List<OgcApiQueryParameter> allowedParameters,
+                                              Map<String, String> queryParameters,
+                                              TilesConfiguration tilesConfiguration,
+                                              URICustomizer uriCustomizer) {
+    return Optional.empty();
+  }
+
+  /**
+   * Generate a single-layer tile from the four cached tiles of the next zoom level that it covers, instead of
+   * querying the features, see {@link TilesConfiguration#getZoomLevelsFromChildTilesDerived()}.
+   *
+   * @param tile the tile
+   * @param tilesConfiguration the configuration of the collection
+   * @return the tile; empty, if the tile is not generated from child tiles or if not all child tiles are cached
+   */
+  default Optional<byte[]> getTileFromChildTiles(Tile tile, TilesConfiguration tilesConfiguration) {
+    return Optional.empty();
+  }
+
+  /**
+   * Extract layers from a multi-layer tile, without generating them again.
+   *
+   * @param multiLayerTile the encoded multi-layer tile
+   * @param layerNames the layers to extract, in the order of the result
+   * @return the tile with the layers; empty, if the format does not support this
+   */
+  default Optional<byte[]> getLayersFromMultiLayerTile(byte[] multiLayerTile, List<String> layerNames) {
+    return Optional.empty();
+  }
+
   class MultiLayerTileContent {
     public byte[] byteArray;
     public boolean isComplete;
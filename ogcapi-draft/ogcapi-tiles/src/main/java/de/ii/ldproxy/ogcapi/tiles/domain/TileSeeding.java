@@ -0,0 +1,25 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.domain;
+
+import java.util.Optional;
+
+/**
+ * Control of a running seeding of the tile cache of an API.
+ */
+public interface TileSeeding {
+
+    /**
+     * change the number of threads that generate tiles in the running seeding of an API; at most the number of
+     * threads that the seeding has been started with are used, see {@link SeedingOptions#getMaxThreads()}
+     * @param apiId the API
+     * @param threads the number of threads
+     * @return the number of threads that are now allowed; the result is empty, if no seeding of the API is running
+     */
+    Optional<Integer> setThreads(String apiId, int threads);
+}
@@ -41,7 +41,7 @@ import static de.ii.ldproxy.ogcapi.tiles.app.CapabilityTiles.MINIMUM_SIZE_IN_PIX
 @JsonDeserialize(builder = ImmutableTilesConfiguration.Builder.class)
 public interface TilesConfiguration extends ExtensionConfiguration, PropertyTransformations, CachingConfiguration {
 
-    enum TileCacheType { FILES, MBTILES, NONE }
+    enum TileCacheType { FILES, MBTILES, ARCHIVE, NONE }
 
     abstract class Builder extends ExtensionConfiguration.Builder {
     }
@@ -54,6 +54,15 @@ public interface TilesConfiguration extends ExtensionConfiguration, PropertyTran
     @Nullable
     TileCacheType getCache();
 
+    @Nullable
+    Integer getMemoryCacheSize();
+
+    @Nullable
+    Boolean getGzipFiles();
+
+    @Nullable
+    String getCompactCachePeriodic();
+
     @Nullable
     MapClient.Type getMapClientType();
 
@@ -177,6 +186,24 @@ public interface TilesConfiguration extends ExtensionConfiguration, PropertyTran
                         ImmutableMap.of();
     }
 
+    @Value.Auxiliary
+    @Value.Derived
+    @JsonIgnore
+    default Map<String, MinMax> getZoomLevelsFromChildTilesDerived() {
+        return getTileProvider() instanceof TileProviderFeatures ?
+                ((TileProviderFeatures) getTileProvider()).getZoomLevelsFromChildTiles() :
+                ImmutableMap.of();
+    }
+
+    @Value.Auxiliary
+    @Value.Derived
+    @JsonIgnore
+    default Map<String, MinMax> getZoomLevelsPointDeduplicationDerived() {
+        return getTileProvider() instanceof TileProviderFeatures ?
+                ((TileProviderFeatures) getTileProvider()).getZoomLevelsPointDeduplication() :
+                ImmutableMap.of();
+    }
+
     @Value.Auxiliary
     @Value.Derived
     @JsonIgnore
@@ -7,6 +7,7 @@
  */
 package de.ii.ldproxy.ogcapi.tiles.domain;
 
+import com.google.common.io.ByteSource;
 import de.ii.ldproxy.ogcapi.domain.QueriesHandler;
 import de.ii.ldproxy.ogcapi.domain.QueryHandler;
 import de.ii.ldproxy.ogcapi.domain.QueryIdentifier;
@@ -14,11 +15,13 @@ import de.ii.ldproxy.ogcapi.domain.QueryInput;
 import de.ii.ldproxy.ogcapi.features.core.domain.processing.FeatureProcessChain;
 import de.ii.ldproxy.ogcapi.tiles.app.TileProviderMbtiles;
 import de.ii.ldproxy.ogcapi.tiles.app.TileProviderTileServer;
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
 import de.ii.xtraplatform.crs.domain.EpsgCrs;
 import de.ii.xtraplatform.features.domain.FeatureQuery;
 import org.immutables.value.Value;
 
-import java.io.InputStream;
+import javax.ws.rs.core.EntityTag;
+
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.List;
@@ -42,7 +45,11 @@ public interface TilesQueriesHandler extends QueriesHandler<TilesQueriesHandler.
     interface QueryInputTileStream extends QueryInput {
 
         Tile getTile();
-        InputStream getTileContent();
+        ByteSource getTileContent();
+        Optional<Path> getTilePath();
+        Optional<ByteSource> getTileGzipContent();
+        Optional<Path> getTileGzipPath();
+        Optional<EntityTag> getTileEtag();
     }
 
     @Value.Immutable
@@ -66,6 +73,9 @@ public interface TilesQueriesHandler extends QueriesHandler<TilesQueriesHandler.
         Map<String, Tile> getSingleLayerTileMap();
         Map<String, FeatureQuery> getQueryMap();
         EpsgCrs getDefaultCrs();
+        // the cacheable tile with all collections, if the tile only selects some of its collections; the layers are
+        // then taken from the cached tile, see TileFromFeatureQuery.getLayersFromMultiLayerTile()
+        Optional<Tile> getFullTile();
 
         // the processing
         Optional<OutputStream> getOutputStream();
@@ -79,6 +89,10 @@ public interface TilesQueriesHandler extends QueriesHandler<TilesQueriesHandler.
         Tile getTile();
         FeatureQuery getQuery();
         EpsgCrs getDefaultCrs();
+        // the other tiles of a metatile, the query has to cover all tiles, see TileFromFeatureQuery.getMetatileQuery()
+        List<Tile> getAdditionalTiles();
+        // the tile ranges of a bulk seeding, the query has to cover all tiles, see TileFromFeatureQuery.getBulkQuery()
+        List<TileMatrixSetLimits> getBulkLimits();
 
         // the processing
         Optional<OutputStream> getOutputStream();
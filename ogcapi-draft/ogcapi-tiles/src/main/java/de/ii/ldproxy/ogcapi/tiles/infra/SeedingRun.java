@@ -0,0 +1,317 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.infra;
+
+import de.ii.ldproxy.ogcapi.tiles.domain.TileFormatWithQuerySupportExtension;
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The state of a seeding run of an API that is shared by the partials of the seeding task.
+ *
+ * <p>The tiles are split in small work units of neighbouring tiles. A partial takes the next work unit as soon as it
+ * has finished the previous one, so all partials stay busy until the end of the run, also if the features are very
+ * unevenly distributed. The number of partials that process work units at the same time can be changed while the
+ * seeding is running.
+ *
+ * <p>In a bulk seeding, the tile ranges of a collection, tile format and tile matrix set are first generated as a
+ * whole from a single scan of the features, see {@link BulkPhase}.
+ */
+class SeedingRun {
+
+    // work units have at most this number of rows and columns
+    static final int WORK_UNIT_SIZE = 8;
+    private static final long WAIT_MILLIS = 1_000;
+
+    private final AtomicInteger partials = new AtomicInteger();
+    private final Map<String, Phase> phases = new ConcurrentHashMap<>();
+    private final Map<String, BulkPhase> bulkPhases = new ConcurrentHashMap<>();
+    // the number of partials that the seeding task has been started with, more partials cannot be active
+    private final int startPartials;
+    private int maxActivePartials;
+    private int activePartials = 0;
+
+    SeedingRun(int maxActivePartials) {
+        this.startPartials = Math.max(1, maxActivePartials);
+        this.maxActivePartials = startPartials;
+    }
+
+    int join() {
+        return partials.incrementAndGet();
+    }
+
+    int leave() {
+        return partials.decrementAndGet();
+    }
+
+    /**
+     * get a phase of the run, e.g. the multi-layer tiles; the phase is created by the first partial
+     * @param name the name of the phase
+     * @param ranges the tiles of the phase
+     * @return the phase
+     */
+    Phase getPhase(String name, Supplier<List<TileRange>> ranges) {
+        return phases.computeIfAbsent(name, ignore -> new Phase(ranges.get()));
+    }
+
+    /**
+     * get a bulk phase of the run; the phase is created by the first partial
+     * @param name the name of the phase
+     * @param jobs the bulk jobs of the phase
+     * @return the phase
+     */
+    BulkPhase getBulkPhase(String name, Supplier<List<BulkJob>> jobs) {
+        return bulkPhases.computeIfAbsent(name, ignore -> new BulkPhase(jobs.get()));
+    }
+
+    /**
+     * change the number of partials that process work units at the same time; the value is limited to the range from
+     * 1 to the number of partials that the run has been started with
+     * @param maxActivePartials the requested number of partials
+     * @return the number of partials that may now be active
+     */
+    synchronized int setMaxActivePartials(int maxActivePartials) {
+        this.maxActivePartials = Math.min(startPartials, Math.max(1, maxActivePartials));
+        notifyAll();
+        return this.maxActivePartials;
+    }
+
+    /**
+     * wait until the partial may process the next work unit
+     * @param stopped {@code true}, if the task has been stopped
+     * @return {@code false}, if the task has been stopped while waiting
+     */
+    synchronized boolean acquire(BooleanSupplier stopped) throws InterruptedException {
+        while (activePartials >= maxActivePartials) {
+            if (stopped.getAsBoolean())
+                return false;
+            wait(WAIT_MILLIS);
+        }
+        activePartials++;
+        return true;
+    }
+
+    synchronized void release() {
+        activePartials--;
+        notifyAll();
+    }
+
+    /**
+     * the tiles of a zoom level that are seeded for a collection and a tile format
+     */
+    static class TileRange {
+        final String collectionId;
+        final TileFormatWithQuerySupportExtension outputFormat;
+        final TileMatrixSet tileMatrixSet;
+        final TileMatrixSetLimits limits;
+        // the tiles are generated from the tiles of the next zoom level, so the previous ranges have to be finished first
+        final boolean fromChildTiles;
+
+        TileRange(String collectionId, TileFormatWithQuerySupportExtension outputFormat, TileMatrixSet tileMatrixSet, TileMatrixSetLimits limits, boolean fromChildTiles) {
+            this.collectionId = collectionId;
+            this.outputFormat = outputFormat;
+            this.tileMatrixSet = tileMatrixSet;
+            this.limits = limits;
+            this.fromChildTiles = fromChildTiles;
+        }
+
+        int getLevel() {
+            return Integer.parseInt(limits.getTileMatrix());
+        }
+
+        long getNumberOfTiles() {
+            return Math.max(0L, limits.getMaxTileRow() - limits.getMinTileRow() + 1L) * Math.max(0L, limits.getMaxTileCol() - limits.getMinTileCol() + 1L);
+        }
+    }
+
+    /**
+     * a block of neighbouring tiles in a tile range
+     */
+    static class WorkUnit {
+        final TileRange range;
+        final int rangeIndex;
+        final int minRow;
+        final int maxRow;
+        final int minCol;
+        final int maxCol;
+
+        WorkUnit(TileRange range, int rangeIndex, int minRow, int maxRow, int minCol, int maxCol) {
+            this.range = range;
+            this.rangeIndex = rangeIndex;
+            this.minRow = minRow;
+            this.maxRow = maxRow;
+            this.minCol = minCol;
+            this.maxCol = maxCol;
+        }
+    }
+
+    /**
+     * the work units of a part of the seeding; the work units are created when they are taken, in the order of the
+     * tile ranges and then row by row
+     */
+    static class Phase {
+        private final List<TileRange> ranges;
+        private final long numberOfTiles;
+        private final AtomicLong processedTiles = new AtomicLong();
+        // the number of work units that have been taken, but are not finished, by tile range
+        private final int[] pendingUnits;
+        // the first tile of the next work unit
+        private int range = 0;
+        private int row;
+        private int col;
+
+        Phase(List<TileRange> ranges) {
+            this.ranges = ranges;
+            this.numberOfTiles = ranges.stream().mapToLong(TileRange::getNumberOfTiles).sum();
+            this.pendingUnits = new int[ranges.size()];
+            if (!ranges.isEmpty()) {
+                this.row = ranges.get(0).limits.getMinTileRow();
+                this.col = ranges.get(0).limits.getMinTileCol();
+            }
+        }
+
+        /**
+         * take the next work unit
+         * @param stopped {@code true}, if the task has been stopped
+         * @return the work unit; empty, if all work units have been taken or if the task has been stopped while waiting
+         */
+        synchronized Optional<WorkUnit> next(BooleanSupplier stopped) throws InterruptedException {
+            while (range < ranges.size()) {
+                TileRange tileRange = ranges.get(range);
+                TileMatrixSetLimits limits = tileRange.limits;
+                if (row > limits.getMaxTileRow() || col > limits.getMaxTileCol()) {
+                    range++;
+                    if (range < ranges.size()) {
+                        row = ranges.get(range).limits.getMinTileRow();
+                        col = ranges.get(range).limits.getMinTileCol();
+                    }
+                    continue;
+                }
+                if (tileRange.fromChildTiles && hasPendingUnitsBefore(range)) {
+                    // wait until the child tiles have been generated
+                    if (stopped.getAsBoolean())
+                        return Optional.empty();
+                    wait(WAIT_MILLIS);
+                    continue;
+                }
+                WorkUnit unit = new WorkUnit(tileRange, range, row, Math.min(row + WORK_UNIT_SIZE - 1, limits.getMaxTileRow()),
+                                             col, Math.min(col + WORK_UNIT_SIZE - 1, limits.getMaxTileCol()));
+                pendingUnits[range]++;
+                col += WORK_UNIT_SIZE;
+                if (col > limits.getMaxTileCol()) {
+                    col = limits.getMinTileCol();
+                    row += WORK_UNIT_SIZE;
+                }
+                return Optional.of(unit);
+            }
+            return Optional.empty();
+        }
+
+        /**
+         * mark a work unit as finished
+         * @param unit the work unit
+         */
+        synchronized void finished(WorkUnit unit) {
+            pendingUnits[unit.rangeIndex]--;
+            notifyAll();
+        }
+
+        private boolean hasPendingUnitsBefore(int range) {
+            for (int i = 0; i < range; i++) {
+                if (pendingUnits[i] > 0)
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * count processed tiles
+         * @param count the number of tiles
+         * @return the share of the tiles of the phase that have been processed
+         */
+        double tilesProcessed(int count) {
+            return numberOfTiles == 0 ? 1.0 : (double) processedTiles.addAndGet(count) / numberOfTiles;
+        }
+    }
+
+    /**
+     * tile ranges of the same collection, tile format and tile matrix set that are generated from a single scan of
+     * the features
+     */
+    static class BulkJob {
+        final List<TileRange> ranges;
+
+        BulkJob(List<TileRange> ranges) {
+            this.ranges = ranges;
+        }
+
+        long getNumberOfTiles() {
+            return ranges.stream().mapToLong(TileRange::getNumberOfTiles).sum();
+        }
+    }
+
+    /**
+     * the bulk jobs of a part of the seeding; each job is processed by a single partial
+     */
+    static class BulkPhase {
+        private final List<BulkJob> jobs;
+        private final long numberOfTiles;
+        private final AtomicLong processedTiles = new AtomicLong();
+        private int next = 0;
+        private int pendingJobs = 0;
+
+        BulkPhase(List<BulkJob> jobs) {
+            this.jobs = jobs;
+            this.numberOfTiles = jobs.stream().mapToLong(BulkJob::getNumberOfTiles).sum();
+        }
+
+        /**
+         * take the next bulk job
+         * @return the bulk job; empty, if all jobs have been taken
+         */
+        synchronized Optional<BulkJob> next() {
+            if (next >= jobs.size())
+                return Optional.empty();
+            pendingJobs++;
+            return Optional.of(jobs.get(next++));
+        }
+
+        /**
+         * mark a bulk job as finished
+         * @param job the bulk job
+         * @return the share of the tiles of the phase that have been processed
+         */
+        synchronized double finished(BulkJob job) {
+            pendingJobs--;
+            notifyAll();
+            return numberOfTiles == 0 ? 1.0 : (double) processedTiles.addAndGet(job.getNumberOfTiles()) / numberOfTiles;
+        }
+
+        /**
+         * wait until the jobs of the other partials are finished, too
+         * @param stopped {@code true}, if the task has been stopped
+         * @return {@code false}, if the task has been stopped while waiting
+         */
+        synchronized boolean awaitFinished(BooleanSupplier stopped) throws InterruptedException {
+            while (next < jobs.size() || pendingJobs > 0) {
+                if (stopped.getAsBoolean())
+                    return false;
+                wait(WAIT_MILLIS);
+            }
+            return true;
+        }
+    }
+}
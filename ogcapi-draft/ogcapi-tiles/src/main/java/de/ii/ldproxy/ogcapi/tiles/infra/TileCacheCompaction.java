@@ -0,0 +1,97 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.infra;
+
+import de.ii.ldproxy.ogcapi.domain.ExtensionConfiguration;
+import de.ii.ldproxy.ogcapi.domain.OgcApi;
+import de.ii.ldproxy.ogcapi.domain.OgcApiBackgroundTask;
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.tiles.domain.TileCache;
+import de.ii.ldproxy.ogcapi.tiles.domain.TilesConfiguration;
+import de.ii.xtraplatform.services.domain.TaskContext;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Optional;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically removes unused tile data from the Mbtiles tile caches of an API.
+ * The schedule is specified in the config.
+ */
+@Component
+@Provides
+@Instantiate
+public class TileCacheCompaction implements OgcApiBackgroundTask {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TileCacheCompaction.class);
+
+    private final TileCache tileCache;
+
+    public TileCacheCompaction(@Requires TileCache tileCache) {
+        this.tileCache = tileCache;
+    }
+
+    @Override
+    public boolean isEnabledForApi(OgcApiDataV2 apiData) {
+        return apiData.getExtension(TilesConfiguration.class)
+                      .filter(TilesConfiguration::isEnabled)
+                      .filter(config -> config.getCache() == TilesConfiguration.TileCacheType.MBTILES
+                          || config.getCache() == TilesConfiguration.TileCacheType.ARCHIVE)
+                      .map(TilesConfiguration::getCompactCachePeriodic)
+                      .isPresent();
+    }
+
+    @Override
+    public Class<? extends ExtensionConfiguration> getBuildingBlockConfigurationType() {
+        return TilesConfiguration.class;
+    }
+
+    @Override
+    public Class<OgcApi> getServiceType() {
+        return OgcApi.class;
+    }
+
+    @Override
+    public String getLabel() {
+        return "Tile cache compaction";
+    }
+
+    @Override
+    public boolean runOnStart(OgcApi api) {
+        return false;
+    }
+
+    @Override
+    public Optional<String> runPeriodic(OgcApi api) {
+        if (!isEnabledForApi(api.getData()))
+            return Optional.empty();
+        return api.getData().getExtension(TilesConfiguration.class)
+            .map(TilesConfiguration::getCompactCachePeriodic);
+    }
+
+    @Override
+    public int getMaxPartials(OgcApi api) {
+        return 1;
+    }
+
+    @Override
+    public void run(OgcApi api, TaskContext taskContext) {
+        try {
+            taskContext.setStatusMessage("compacting tile cache");
+            tileCache.compact(api.getData());
+            taskContext.setStatusMessage("compacted tile cache successfully");
+        } catch (IOException | SQLException e) {
+            LOGGER.error("{}: compacting the tile cache failed | {}", getLabel(), e.getMessage());
+        }
+    }
+}
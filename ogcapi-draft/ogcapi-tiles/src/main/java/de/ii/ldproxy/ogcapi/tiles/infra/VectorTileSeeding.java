@@ -31,6 +31,7 @@ import de.ii.ldproxy.ogcapi.tiles.domain.SeedingOptions;
 import de.ii.ldproxy.ogcapi.tiles.domain.Tile;
 import de.ii.ldproxy.ogcapi.tiles.domain.TileCache;
 import de.ii.ldproxy.ogcapi.tiles.domain.TileFormatWithQuerySupportExtension;
+import de.ii.ldproxy.ogcapi.tiles.domain.TileSeeding;
 import de.ii.ldproxy.ogcapi.tiles.domain.TilesConfiguration;
 import de.ii.ldproxy.ogcapi.tiles.domain.TilesQueriesHandler;
 import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
@@ -55,23 +56,27 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
  * This class is responsible for a automatic generation of the Tiles.
  * The range is specified in the config.
  * The automatic generation is executed, when the server is started/restarted.
+ * The partials of the task share the work, see {@link SeedingRun}.
  */
 @Component
 @Provides
 @Instantiate
-public class VectorTileSeeding implements OgcApiBackgroundTask {
+public class VectorTileSeeding implements OgcApiBackgroundTask, TileSeeding {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(VectorTileSeeding.class);
 
@@ -83,6 +88,8 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
     private final FeaturesCoreProviders providers;
     private final TilesQueriesHandler queryHandler;
     private final TileMatrixSetRepository tileMatrixSetRepository;
+    // the seeding runs in progress, by API
+    private final Map<String, SeedingRun> runs = new ConcurrentHashMap<>();
 
     public VectorTileSeeding(@Requires CrsTransformerFactory crsTransformerFactory,
                              @Requires ExtensionRegistry extensionRegistry,
@@ -166,6 +173,12 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
             .orElse(1);
     }
 
+    @Override
+    public Optional<Integer> setThreads(String apiId, int threads) {
+        return Optional.ofNullable(runs.get(apiId))
+                       .map(run -> run.setMaxActivePartials(threads));
+    }
+
     private boolean shouldPurge(OgcApi api) {
         return api.getData().getExtension(TilesConfiguration.class)
             .flatMap(TilesConfiguration::getSeedingOptions)
@@ -193,14 +206,31 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
 
         List<TileFormatWithQuerySupportExtension> outputFormats = extensionRegistry.getExtensionsForType(TileFormatWithQuerySupportExtension.class);
 
+        // the partials that run at the same time share the work units of a run
+        String apiId = api.getData().getId();
+        SeedingRun run = runs.compute(apiId, (id, current) -> {
+            SeedingRun next = Objects.isNull(current) ? new SeedingRun(getMaxPartials(api)) : current;
+            next.join();
+            return next;
+        });
         try {
-            // first seed the multi-layer tiles, which also generates the necessary single-layer tiles
-            if (!taskContext.isStopped())
-                seedMultiLayerTiles(api, outputFormats, taskContext);
-
-            // add any additional single-layer tiles
-            if (!taskContext.isStopped())
-                seedSingleLayerTiles(api, outputFormats, taskContext);
+            if (getMetatileSize(api.getData()) > 1 || hasZoomLevelsFromChildTiles(api.getData()) || shouldSeedInBulk(api.getData())) {
+                // first seed the single-layer tiles in bulk, in metatiles or from child tiles, the multi-layer tiles
+                // are then combined from the cached single-layer tiles
+                if (!taskContext.isStopped())
+                    seedSingleLayerTiles(api, run, outputFormats, taskContext);
+
+                if (!taskContext.isStopped())
+                    seedMultiLayerTiles(api, run, outputFormats, taskContext);
+            } else {
+                // first seed the multi-layer tiles, which also generates the necessary single-layer tiles
+                if (!taskContext.isStopped())
+                    seedMultiLayerTiles(api, run, outputFormats, taskContext);
+
+                // add any additional single-layer tiles
+                if (!taskContext.isStopped())
+                    seedSingleLayerTiles(api, run, outputFormats, taskContext);
+            }
 
         } catch (IOException e) {
             if (!taskContext.isStopped()) {
@@ -213,61 +243,56 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
             if (!taskContext.isStopped()) {
                 throw new RuntimeException("An error occurred during seeding. Note that this may be a side-effect of a server shutdown.", e);
             }
+        } finally {
+            // write the tiles that are still queued, also when the task has been stopped
+            try {
+                tileCache.flush();
+            } catch (IOException | SQLException e) {
+                LOGGER.debug("{}: writing queued tiles failed | {}", getLabel(), e.getMessage());
+            }
+
+            try {
+                tileCache.persistBitmaps(api.getData());
+            } catch (IOException e) {
+                LOGGER.debug("{}: writing tile bitmaps failed | {}", getLabel(), e.getMessage());
+            }
+
+            // the last partial ends the run and builds the tile archives
+            boolean lastPartial = Objects.isNull(runs.computeIfPresent(apiId, (id, current) -> current.leave() == 0 ? null : current));
+            if (lastPartial && !taskContext.isStopped()) {
+                try {
+                    taskContext.setStatusMessage("building tile archives");
+                    tileCache.archive(api.getData());
+                } catch (IOException | SQLException e) {
+                    LOGGER.error("{}: building tile archives failed | {}", getLabel(), e.getMessage());
+                }
+            }
         }
     }
 
-    private void seedSingleLayerTiles(OgcApi api, List<TileFormatWithQuerySupportExtension> outputFormats, TaskContext taskContext) throws IOException {
+    private void seedSingleLayerTiles(OgcApi api, SeedingRun run, List<TileFormatWithQuerySupportExtension> outputFormats, TaskContext taskContext) throws IOException {
         OgcApiDataV2 apiData = api.getData();
         // isEnabled checks that we have a feature provider
         FeatureProvider2 featureProvider = providers.getFeatureProviderOrThrow(apiData);
         Map<String, Map<String, MinMax>> seedingMap = getSeedingConfig(apiData);
 
-        long numberOfTiles = getNumberOfTiles2(api, outputFormats, seedingMap, taskContext);
-        final double[] currentTile = {0.0};
-
-        walkCollectionsAndTiles(api, outputFormats, seedingMap, taskContext, (api1, collectionId, outputFormat, tileMatrixSet, level, row, col) -> {
-            TilesConfiguration tilesConfiguration = getTilesConfiguration(apiData, collectionId).get();
-            Tile tile = new ImmutableTile.Builder()
-                    .collectionIds(ImmutableList.of(collectionId))
-                    .tileMatrixSet(tileMatrixSet)
-                    .tileLevel(level)
-                    .tileRow(row)
-                    .tileCol(col)
-                    .apiData(apiData)
-                    .temporary(false)
-                    .isDatasetTile(false)
-                    .featureProvider(featureProvider)
-                    .outputFormat(outputFormat)
-                    .build();
-            try {
-                if (tileCache.tileExists(tile)) {
-                    // already there, nothing to create, but advance progress
-                    currentTile[0] += 1;
-                    return true;
-                }
-            } catch (Exception e) {
-                LOGGER.warn("Failed to retrieve tile {}/{}/{}/{} for collection {} from the cache. Reason: {}",
-                            tile.getTileMatrixSet().getId(), tile.getTileLevel(), tile.getTileRow(),
-                            tile.getTileCol(), collectionId, e.getMessage());
-            }
-
-            URI uri;
-            String uriString = String.format("%s/%s/collections/%s/tiles/%s/%s/%s/%s", xtraPlatform.getServicesUri(), apiData.getId(), collectionId, tileMatrixSet.getId(), level, row, col);
-            try {
-                uri = new URI(uriString);
-            } catch (URISyntaxException e) {
-                LOGGER.error("Stopping seeding. Invalid request URI during seeding: " + uriString);
-                return false;
-            }
+        if (shouldSeedInBulk(apiData)) {
+            // generate as many tiles as possible from a single scan of each collection, the remaining tiles are
+            // generated below
+            seedSingleLayerTilesInBulk(api, run, outputFormats, seedingMap, taskContext);
+            if (taskContext.isStopped())
+                return;
+        }
 
-            URICustomizer uriCustomizer = new URICustomizer(uri);
-            ApiRequestContext requestContext = new ImmutableRequestContext.Builder()
-                    .api(api)
-                    .requestUri(uri)
-                    .mediaType(outputFormat.getMediaType())
-                    .build();
+        SeedingRun.Phase phase = run.getPhase("single-layer", () -> seedingMap.entrySet()
+                                                                              .stream()
+                                                                              .filter(entry -> getTilesConfiguration(apiData, entry.getKey()).isPresent())
+                                                                              .flatMap(entry -> getTileRanges(apiData, entry.getKey(), outputFormats, entry.getValue()).stream())
+                                                                              .collect(Collectors.toList()));
 
-            FeatureQuery query = outputFormat.getQuery(tile, ImmutableList.of(), ImmutableMap.of(), tilesConfiguration, uriCustomizer);
+        walkMetatiles(api, run, phase, getMetatileSize(apiData), taskContext, (api1, range, minRow, maxRow, minCol, maxCol) -> {
+            String collectionId = range.collectionId;
+            TilesConfiguration tilesConfiguration = getTilesConfiguration(apiData, collectionId).get();
 
             FeaturesCoreConfiguration coreConfiguration = apiData.getExtension(FeaturesCoreConfiguration.class)
                                                                  .get();
@@ -277,30 +302,253 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
                 || coreConfiguration.getQueryables().get().getSpatial().isEmpty())
                 return true;
 
-            TilesQueriesHandler.QueryInputTileSingleLayer queryInput = new ImmutableQueryInputTileSingleLayer.Builder()
-                    .tile(tile)
-                    .query(query)
-                    .defaultCrs(coreConfiguration.getDefaultEpsgCrs())
-                    .build();
+            List<Tile> tiles = new ArrayList<>();
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int col = minCol; col <= maxCol; col++) {
+                    Tile tile = new ImmutableTile.Builder()
+                            .collectionIds(ImmutableList.of(collectionId))
+                            .tileMatrixSet(range.tileMatrixSet)
+                            .tileLevel(range.getLevel())
+                            .tileRow(row)
+                            .tileCol(col)
+                            .apiData(apiData)
+                            .temporary(false)
+                            .isDatasetTile(false)
+                            .featureProvider(featureProvider)
+                            .outputFormat(range.outputFormat)
+                            .build();
+                    try {
+                        if (tileCache.tileExists(tile)) {
+                            // already there, nothing to create
+                            continue;
+                        }
+                    } catch (Exception e) {
+                        LOGGER.warn("Failed to retrieve tile {}/{}/{}/{} for collection {} from the cache. Reason: {}",
+                                    tile.getTileMatrixSet().getId(), tile.getTileLevel(), tile.getTileRow(),
+                                    tile.getTileCol(), collectionId, e.getMessage());
+                    }
+                    tiles.add(tile);
+                }
+            }
 
+            if (tiles.isEmpty()) {
+                // nothing to create
+                return true;
+            }
 
-            taskContext.setStatusMessage(String.format("currently processing -> %s, %s/%s/%s/%s, %s", collectionId, tileMatrixSet.getId(), level, row, col, outputFormat.getExtension()));
+            if (range.fromChildTiles) {
+                // the tiles are generated one by one from their child tiles
+                for (Tile tile : tiles) {
+                    if (!generateSingleLayerTiles(api, ImmutableList.of(tile), range.outputFormat, tilesConfiguration, coreConfiguration, taskContext))
+                        return false;
+                }
+                return true;
+            }
 
-            try {
-                queryHandler.handle(TilesQueriesHandler.Query.SINGLE_LAYER_TILE, queryInput, requestContext);
-            } catch (Throwable e) {
-                LOGGER.debug("{}: processing failed -> {}, {}/{}/{}/{}, {} | {}", getLabel(), collectionId, tileMatrixSet.getId(), level, row, col, outputFormat.getExtension(), e.getMessage());
+            return generateSingleLayerTiles(api, tiles, range.outputFormat, tilesConfiguration, coreConfiguration, taskContext);
+        });
+    }
+
+    /**
+     * generate single-layer tiles of the same collection and tile matrix; if there are several tiles, they are
+     * generated from a single query, if the tile format supports metatiles
+     *
+     * @return {@code false}, if the seeding should stop
+     */
+    private boolean generateSingleLayerTiles(OgcApi api, List<Tile> tiles, TileFormatWithQuerySupportExtension outputFormat,
+                                             TilesConfiguration tilesConfiguration, FeaturesCoreConfiguration coreConfiguration,
+                                             TaskContext taskContext) {
+        Tile tile = tiles.get(0);
+        String collectionId = tile.getCollectionId();
+        TileMatrixSet tileMatrixSet = tile.getTileMatrixSet();
+        int level = tile.getTileLevel();
+        int row = tile.getTileRow();
+        int col = tile.getTileCol();
+
+        Optional<ApiRequestContext> requestContext = getSingleLayerRequestContext(api, tile, outputFormat);
+        if (requestContext.isEmpty())
+            return false;
+        URICustomizer uriCustomizer = requestContext.get().getUriCustomizer();
+
+        Optional<FeatureQuery> query = tiles.size() > 1
+                ? outputFormat.getMetatileQuery(tiles, ImmutableList.of(), ImmutableMap.of(), tilesConfiguration, uriCustomizer)
+                : Optional.of(outputFormat.getQuery(tile, ImmutableList.of(), ImmutableMap.of(), tilesConfiguration, uriCustomizer));
+
+        if (query.isEmpty()) {
+            // the format does not support metatiles, generate the tiles one by one
+            for (Tile singleTile : tiles) {
+                if (!generateSingleLayerTiles(api, ImmutableList.of(singleTile), outputFormat, tilesConfiguration, coreConfiguration, taskContext))
+                    return false;
             }
+            return true;
+        }
 
-            currentTile[0] += 1;
-            taskContext.setCompleteness(currentTile[0] / numberOfTiles);
+        TilesQueriesHandler.QueryInputTileSingleLayer queryInput = new ImmutableQueryInputTileSingleLayer.Builder()
+                .tile(tile)
+                .additionalTiles(tiles.subList(1, tiles.size()))
+                .query(query.get())
+                .defaultCrs(coreConfiguration.getDefaultEpsgCrs())
+                .build();
 
+
+        taskContext.setStatusMessage(String.format("currently processing -> %s, %s/%s/%s/%s, %s", collectionId, tileMatrixSet.getId(), level, row, col, outputFormat.getExtension()));
+
+        try {
+            queryHandler.handle(TilesQueriesHandler.Query.SINGLE_LAYER_TILE, queryInput, requestContext.get());
+        } catch (Throwable e) {
+            LOGGER.debug("{}: processing failed -> {}, {}/{}/{}/{}, {} | {}", getLabel(), collectionId, tileMatrixSet.getId(), level, row, col, outputFormat.getExtension(), e.getMessage());
+        }
+
+        return !taskContext.isStopped();
+    }
+
+    /**
+     * the request context for the seeding of a single-layer tile
+     *
+     * @return the request context; empty, if the seeding should stop
+     */
+    private Optional<ApiRequestContext> getSingleLayerRequestContext(OgcApi api, Tile tile, TileFormatWithQuerySupportExtension outputFormat) {
+        URI uri;
+        String uriString = String.format("%s/%s/collections/%s/tiles/%s/%s/%s/%s", xtraPlatform.getServicesUri(), api.getData().getId(), tile.getCollectionId(), tile.getTileMatrixSet().getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+        try {
+            uri = new URI(uriString);
+        } catch (URISyntaxException e) {
+            LOGGER.error("Stopping seeding. Invalid request URI during seeding: " + uriString);
+            return Optional.empty();
+        }
+
+        return Optional.of(new ImmutableRequestContext.Builder()
+                .api(api)
+                .requestUri(uri)
+                .mediaType(outputFormat.getMediaType())
+                .build());
+    }
+
+    /**
+     * generate the single-layer tiles of each collection, tile format and tile matrix set from a single scan of the
+     * features; the zoom levels that are generated from child tiles are left to the regular seeding
+     */
+    private void seedSingleLayerTilesInBulk(OgcApi api, SeedingRun run, List<TileFormatWithQuerySupportExtension> outputFormats,
+                                            Map<String, Map<String, MinMax>> seedingMap, TaskContext taskContext) {
+        OgcApiDataV2 apiData = api.getData();
+        SeedingRun.BulkPhase phase = run.getBulkPhase("single-layer-bulk", () -> seedingMap.entrySet()
+                                                                                            .stream()
+                                                                                            .filter(entry -> getTilesConfiguration(apiData, entry.getKey()).isPresent())
+                                                                                            .flatMap(entry -> getTileRanges(apiData, entry.getKey(), outputFormats, entry.getValue())
+                                                                                                .stream()
+                                                                                                .filter(range -> !range.fromChildTiles)
+                                                                                                .collect(Collectors.groupingBy(range -> range.outputFormat.getExtension() + "/" + range.tileMatrixSet.getId(),
+                                                                                                                               LinkedHashMap::new, Collectors.toList()))
+                                                                                                .values()
+                                                                                                .stream())
+                                                                                            .map(SeedingRun.BulkJob::new)
+                                                                                            .collect(Collectors.toList()));
+
+        try {
+            while (!taskContext.isStopped()) {
+                if (!run.acquire(taskContext::isStopped))
+                    return;
+                try {
+                    Optional<SeedingRun.BulkJob> job = phase.next();
+                    if (job.isEmpty())
+                        break;
+                    try {
+                        if (!generateSingleLayerTilesInBulk(api, job.get().ranges, taskContext))
+                            return;
+                    } finally {
+                        taskContext.setCompleteness(phase.finished(job.get()));
+                    }
+                } finally {
+                    run.release();
+                }
+            }
+
+            // the regular seeding only starts when all bulk jobs are finished
+            phase.awaitFinished(taskContext::isStopped);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * generate the single-layer tiles of tile ranges of the same collection, tile format and tile matrix set from a
+     * single query, if the tile format supports bulk queries; if the zoom levels cannot share a query, each zoom level
+     * is generated from its own query
+     *
+     * @return {@code false}, if the seeding should stop
+     */
+    private boolean generateSingleLayerTilesInBulk(OgcApi api, List<SeedingRun.TileRange> ranges, TaskContext taskContext) {
+        OgcApiDataV2 apiData = api.getData();
+        SeedingRun.TileRange firstRange = ranges.get(0);
+        String collectionId = firstRange.collectionId;
+        TileFormatWithQuerySupportExtension outputFormat = firstRange.outputFormat;
+        TileMatrixSet tileMatrixSet = firstRange.tileMatrixSet;
+        TilesConfiguration tilesConfiguration = getTilesConfiguration(apiData, collectionId).get();
+        FeaturesCoreConfiguration coreConfiguration = apiData.getExtension(FeaturesCoreConfiguration.class)
+                                                             .get();
+
+        // skip collections without spatial queryable
+        if (coreConfiguration.getQueryables().isEmpty()
+            || coreConfiguration.getQueryables().get().getSpatial().isEmpty())
+            return true;
+
+        // the tile that is returned by the encoder
+        Tile tile = new ImmutableTile.Builder()
+                .collectionIds(ImmutableList.of(collectionId))
+                .tileMatrixSet(tileMatrixSet)
+                .tileLevel(firstRange.getLevel())
+                .tileRow(firstRange.limits.getMinTileRow())
+                .tileCol(firstRange.limits.getMinTileCol())
+                .apiData(apiData)
+                .temporary(false)
+                .isDatasetTile(false)
+                .featureProvider(providers.getFeatureProviderOrThrow(apiData))
+                .outputFormat(outputFormat)
+                .build();
+
+        Optional<ApiRequestContext> requestContext = getSingleLayerRequestContext(api, tile, outputFormat);
+        if (requestContext.isEmpty())
+            return false;
+
+        List<TileMatrixSetLimits> limits = ranges.stream()
+                                                 .map(range -> range.limits)
+                                                 .collect(Collectors.toList());
+        Optional<FeatureQuery> query = outputFormat.getBulkQuery(tile, limits, ImmutableList.of(), ImmutableMap.of(), tilesConfiguration, requestContext.get().getUriCustomizer());
+
+        if (query.isEmpty()) {
+            if (ranges.size() > 1) {
+                // the zoom levels cannot be selected with the same query, try each zoom level on its own
+                for (SeedingRun.TileRange range : ranges) {
+                    if (!generateSingleLayerTilesInBulk(api, ImmutableList.of(range), taskContext))
+                        return false;
+                }
+            }
+            // otherwise the format does not support bulk queries, the tiles are generated by the regular seeding
             return !taskContext.isStopped();
+        }
 
-        });
+        TilesQueriesHandler.QueryInputTileSingleLayer queryInput = new ImmutableQueryInputTileSingleLayer.Builder()
+                .tile(tile)
+                .bulkLimits(limits)
+                .query(query.get())
+                .defaultCrs(coreConfiguration.getDefaultEpsgCrs())
+                .build();
+
+        String levels = limits.stream()
+                              .map(TileMatrixSetLimits::getTileMatrix)
+                              .collect(Collectors.joining(","));
+        taskContext.setStatusMessage(String.format("currently processing in bulk -> %s, %s/%s, %s", collectionId, tileMatrixSet.getId(), levels, outputFormat.getExtension()));
+
+        try {
+            queryHandler.handle(TilesQueriesHandler.Query.SINGLE_LAYER_TILE, queryInput, requestContext.get());
+        } catch (Throwable e) {
+            LOGGER.debug("{}: bulk processing failed -> {}, {}/{}, {} | {}", getLabel(), collectionId, tileMatrixSet.getId(), levels, outputFormat.getExtension(), e.getMessage());
+        }
+
+        return !taskContext.isStopped();
     }
 
-    private void seedMultiLayerTiles(OgcApi api, List<TileFormatWithQuerySupportExtension> outputFormats, TaskContext taskContext) throws IOException {
+    private void seedMultiLayerTiles(OgcApi api, SeedingRun run, List<TileFormatWithQuerySupportExtension> outputFormats, TaskContext taskContext) throws IOException {
         OgcApiDataV2 apiData = api.getData();
         // isEnabled checks that we have a feature provider
         FeatureProvider2 featureProvider = providers.getFeatureProviderOrThrow(apiData);
@@ -318,10 +566,10 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
                                                                                    .filter(TileFormatWithQuerySupportExtension::canMultiLayer)
                                                                                    .collect(Collectors.toList());
 
-        long numberOfTiles = getNumberOfTiles(api, multiLayerFormats, multiLayerTilesSeeding, taskContext);
-        final double[] currentTile = {0.0};
+        Map<String, MinMax> seeding = multiLayerTilesSeeding;
+        SeedingRun.Phase phase = run.getPhase("multi-layer", () -> getTileRanges(apiData, "multi-layer", multiLayerFormats, seeding));
 
-        walkTiles(api, "multi-layer", multiLayerFormats, multiLayerTilesSeeding, taskContext, (api1, layerName, outputFormat, tileMatrixSet, level, row, col) -> {
+        walkTiles(api, run, phase, taskContext, (api1, layerName, outputFormat, tileMatrixSet, level, row, col) -> {
             List<String> collectionIds = apiData.getCollections()
                                                 .values()
                                                 .stream()
@@ -344,8 +592,7 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
                                                 .collect(Collectors.toList());
 
             if (collectionIds.isEmpty()) {
-                // nothing to generate, still advance progress
-                currentTile[0] += 1;
+                // nothing to generate
                 return true;
             }
 
@@ -363,8 +610,7 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
                     .build();
             try {
                 if (tileCache.tileExists(multiLayerTile)) {
-                    // already there, nothing to create, but still count for progress
-                    currentTile[0] += 1;
+                    // already there, nothing to create
                     return true;
                 }
             } catch (Exception e) {
@@ -438,9 +684,6 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
                 LOGGER.debug("{}: processing failed -> {}, {}/{}/{}/{}, {} | {}", getLabel(), layerName, tileMatrixSet.getId(), level, row, col, outputFormat.getExtension(), e.getMessage());
             }
 
-            currentTile[0] += 1;
-            taskContext.setCompleteness(currentTile[0] / numberOfTiles);
-
             return !taskContext.isStopped();
         });
     }
@@ -468,77 +711,122 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
         return minMaxMap;
     }
 
-    private long getNumberOfTiles2(OgcApi api, List<TileFormatWithQuerySupportExtension> outputFormats, Map<String, Map<String, MinMax>> seeding, TaskContext taskContext) {
-        final long[] numberOfTiles = {0};
-
-        try {
-            walkCollectionsAndTiles(api, outputFormats, seeding, taskContext, (ignore1, collectionId, ignore2, ignore3, ignore4, ignore5, ignore6) -> {
-                numberOfTiles[0]++;
-                return true;
-            });
-        } catch (IOException e) {
-            //ignore
-        }
-
-        return numberOfTiles[0];
-    }
-
-    private long getNumberOfTiles(OgcApi api, List<TileFormatWithQuerySupportExtension> outputFormats, Map<String, MinMax> seeding, TaskContext taskContext) {
-        final long[] numberOfTiles = {0};
-
-        try {
-            walkTiles(api, "", outputFormats, seeding, taskContext, (ignore1, collectionId, ignore2, ignore3, ignore4, ignore5, ignore6) -> {
-                numberOfTiles[0]++;
-                return true;
-            });
-        } catch (IOException e) {
-            //ignore
-        }
-
-        return numberOfTiles[0];
-    }
-
     interface TileWalker {
         boolean visit(OgcApi api, String collectionId, TileFormatWithQuerySupportExtension outputFormat, TileMatrixSet tileMatrixSet, int level, int row, int col) throws IOException;
     }
 
-    private void walkCollectionsAndTiles(OgcApi api, List<TileFormatWithQuerySupportExtension> outputFormats, Map<String, Map<String, MinMax>> seeding, TaskContext taskContext, TileWalker tileWalker) throws IOException {
-        for (Map.Entry<String, Map<String, MinMax>> entry : seeding.entrySet()) {
-            String collectionId = entry.getKey();
-            Map<String, MinMax> seedingConfig = entry.getValue();
-            Optional<TilesConfiguration> tilesConfiguration = getTilesConfiguration(api.getData(),collectionId);
-            if (tilesConfiguration.isPresent()) {
-                walkTiles(api, collectionId, outputFormats, seedingConfig, taskContext, tileWalker);
-            }
-        }
-    }
-
-    private void walkTiles(OgcApi api, String collectionId, List<TileFormatWithQuerySupportExtension> outputFormats, Map<String, MinMax> seeding, TaskContext taskContext, TileWalker tileWalker) throws IOException {
+    /**
+     * the tiles to seed for a collection, by tile format, tile matrix set and zoom level
+     */
+    private List<SeedingRun.TileRange> getTileRanges(OgcApiDataV2 apiData, String collectionId, List<TileFormatWithQuerySupportExtension> outputFormats, Map<String, MinMax> seeding) {
+        Map<String, MinMax> zoomLevelsFromChildTiles = getTilesConfiguration(apiData, collectionId).map(TilesConfiguration::getZoomLevelsFromChildTilesDerived)
+                                                                                                   .orElse(ImmutableMap.of());
+        List<SeedingRun.TileRange> ranges = new ArrayList<>();
         for (TileFormatWithQuerySupportExtension outputFormat : outputFormats) {
             for (Map.Entry<String, MinMax> entry : seeding.entrySet()) {
                 TileMatrixSet tileMatrixSet = getTileMatrixSetById(entry.getKey());
                 MinMax zoomLevels = entry.getValue();
-                List<TileMatrixSetLimits> allLimits = limitsGenerator.getTileMatrixSetLimits(api.getData(), tileMatrixSet, zoomLevels);
-
-                for (TileMatrixSetLimits limits : allLimits) {
+                List<TileMatrixSetLimits> limitsList = new ArrayList<>(limitsGenerator.getTileMatrixSetLimits(apiData, tileMatrixSet, zoomLevels));
+                MinMax levelsFromChildTiles = zoomLevelsFromChildTiles.get(entry.getKey());
+                if (Objects.nonNull(levelsFromChildTiles)) {
+                    // seed from the deepest zoom level upwards, only the deepest level is generated from the features
+                    limitsList.sort(Comparator.comparing((TileMatrixSetLimits limits) -> Integer.parseInt(limits.getTileMatrix())).reversed());
+                }
+                for (TileMatrixSetLimits limits : limitsList) {
                     int level = Integer.parseInt(limits.getTileMatrix());
+                    boolean fromChildTiles = Objects.nonNull(levelsFromChildTiles)
+                        && level >= levelsFromChildTiles.getMin() && level <= levelsFromChildTiles.getMax() && level < zoomLevels.getMax();
+                    ranges.add(new SeedingRun.TileRange(collectionId, outputFormat, tileMatrixSet, limits, fromChildTiles));
+                }
+            }
+        }
+        return ranges;
+    }
 
-                    for (int row = limits.getMinTileRow(); row <= limits.getMaxTileRow(); row++) {
-                        for (int col = limits.getMinTileCol(); col <= limits.getMaxTileCol(); col++) {
-                            if (taskContext.isPartial() && !taskContext.matchesPartialModulo(col)) {
-                                continue;
-                            }
-                            boolean shouldContinue = tileWalker.visit(api, collectionId, outputFormat, tileMatrixSet, level, row, col);
+    interface MetatileWalker {
+        boolean visit(OgcApi api, SeedingRun.TileRange range, int minRow, int maxRow, int minCol, int maxCol) throws IOException;
+    }
+
+    /**
+     * process work units of a phase of the run until all have been taken by a partial
+     */
+    private void walkTiles(OgcApi api, SeedingRun run, SeedingRun.Phase phase, TaskContext taskContext, TileWalker tileWalker) throws IOException {
+        walkMetatiles(api, run, phase, 1, taskContext, (api1, range, minRow, maxRow, minCol, maxCol) ->
+            tileWalker.visit(api1, range.collectionId, range.outputFormat, range.tileMatrixSet, range.getLevel(), minRow, minCol));
+    }
+
+    /**
+     * process work units of a phase of the run until all have been taken by a partial, the tiles of a work unit are
+     * visited in blocks of at most metatileSize x metatileSize tiles
+     */
+    private void walkMetatiles(OgcApi api, SeedingRun run, SeedingRun.Phase phase, int metatileSize, TaskContext taskContext, MetatileWalker metatileWalker) throws IOException {
+        while (!taskContext.isStopped()) {
+            try {
+                if (!run.acquire(taskContext::isStopped))
+                    return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                Optional<SeedingRun.WorkUnit> unit;
+                try {
+                    unit = phase.next(taskContext::isStopped);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (unit.isEmpty())
+                    return;
+                try {
+                    SeedingRun.TileRange range = unit.get().range;
+                    for (int row = unit.get().minRow; row <= unit.get().maxRow; row += metatileSize) {
+                        for (int col = unit.get().minCol; col <= unit.get().maxCol; col += metatileSize) {
+                            int maxRow = Math.min(row + metatileSize - 1, unit.get().maxRow);
+                            int maxCol = Math.min(col + metatileSize - 1, unit.get().maxCol);
+                            boolean shouldContinue = metatileWalker.visit(api, range, row, maxRow, col, maxCol);
+                            taskContext.setCompleteness(phase.tilesProcessed((maxRow - row + 1) * (maxCol - col + 1)));
                             if (!shouldContinue) {
                                 return;
                             }
                         }
                     }
+                } finally {
+                    phase.finished(unit.get());
                 }
+            } finally {
+                run.release();
             }
         }
     }
 
+    /**
+     * the number of rows and columns of the metatiles for single-layer tiles; metatiles do not cross the borders of
+     * work units
+     */
+    private int getMetatileSize(OgcApiDataV2 apiData) {
+        return apiData.getExtension(TilesConfiguration.class)
+                      .flatMap(TilesConfiguration::getSeedingOptions)
+                      .map(SeedingOptions::getEffectiveMetatileSize)
+                      .map(size -> Math.min(size, SeedingRun.WORK_UNIT_SIZE))
+                      .orElse(1);
+    }
+
+    private boolean shouldSeedInBulk(OgcApiDataV2 apiData) {
+        return apiData.getExtension(TilesConfiguration.class)
+                      .flatMap(TilesConfiguration::getSeedingOptions)
+                      .filter(SeedingOptions::shouldSeedInBulk)
+                      .isPresent();
+    }
+
+    private boolean hasZoomLevelsFromChildTiles(OgcApiDataV2 apiData) {
+        return apiData.getCollections()
+                      .keySet()
+                      .stream()
+                      .map(collectionId -> getTilesConfiguration(apiData, collectionId))
+                      .anyMatch(tilesConfiguration -> tilesConfiguration.isPresent() && !tilesConfiguration.get().getZoomLevelsFromChildTilesDerived().isEmpty());
+    }
+
     private Optional<TilesConfiguration> getTilesConfiguration(OgcApiDataV2 apiData, String collectionId) {
         return Optional.ofNullable(apiData.getCollections()
                                           .get(collectionId))
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app
+
+import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableMvtFeature
+import de.ii.ldproxy.ogcapi.tiles.domain.MvtFeature
+import org.locationtech.jts.io.WKTReader
+import spock.lang.Shared
+import spock.lang.Specification
+
+class ClusterAnalysisSpec extends Specification {
+
+    @Shared WKTReader reader = new WKTReader()
+
+    def 'Features that are connected through other features are in one cluster'() {
+
+        given: "a chain of three squares, where only neighbours overlap, and a disjoint square"
+
+        def a = feature(1, "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))")
+        def b = feature(2, "POLYGON ((8 0, 18 0, 18 10, 8 10, 8 0))")
+        def c = feature(3, "POLYGON ((16 0, 26 0, 26 10, 16 10, 16 0))")
+        def d = feature(4, "POLYGON ((50 50, 60 50, 60 60, 50 60, 50 50))")
+
+        when: "the clusters are determined"
+
+        def result = ClusterAnalysis.analyse([c, d, a, b], false)
+
+        then: "the first feature of the chain is the main feature of the cluster with the other two features"
+
+        result.clusters.keySet() == [c] as Set
+        result.clusters.get(c) as Set == [a, b] as Set
+        result.inCluster == [(a): c, (b): c]
+        result.standalone == [d] as Set
+    }
+
+    def 'Features that only touch are in one cluster'() {
+
+        given: "two squares that share an edge"
+
+        def a = feature(1, "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))")
+        def b = feature(2, "POLYGON ((10 0, 20 0, 20 10, 10 10, 10 0))")
+
+        when: "the clusters are determined"
+
+        def result = ClusterAnalysis.analyse([a, b], false)
+
+        then: "both squares are in the cluster"
+
+        result.clusters.get(a) == [b]
+        result.standalone.isEmpty()
+    }
+
+    def 'Line strings are connected by their end points'() {
+
+        given: "two line strings that share an end point and a line string that crosses them"
+
+        def a = feature(1, "LINESTRING (0 0, 10 0)")
+        def b = feature(2, "LINESTRING (10 0, 20 0)")
+        def c = feature(3, "LINESTRING (5 -5, 5 5)")
+
+        when: "the clusters are determined with the boundaries of the line strings"
+
+        def result = ClusterAnalysis.analyse([a, b, c], true)
+
+        then: "only the line strings with a common end point are in the cluster"
+
+        result.clusters.get(a) == [b]
+        result.standalone == [c] as Set
+    }
+
+    private MvtFeature feature(long id, String wkt) {
+        return new ImmutableMvtFeature.Builder()
+                .id(id)
+                .properties([:])
+                .geometry(reader.read(wkt))
+                .build()
+    }
+}
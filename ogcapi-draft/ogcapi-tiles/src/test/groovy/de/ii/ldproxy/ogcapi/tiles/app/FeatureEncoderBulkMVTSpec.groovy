@@ -0,0 +1,240 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app
+
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2
+import de.ii.ldproxy.ogcapi.tiles.domain.FeatureTransformationContextTiles
+import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableTile
+import de.ii.ldproxy.ogcapi.tiles.domain.Tile
+import de.ii.ldproxy.ogcapi.tiles.domain.TileCache
+import de.ii.ldproxy.ogcapi.tiles.domain.TileFormatExtension
+import de.ii.ldproxy.ogcapi.tiles.domain.TilesConfiguration
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.ImmutableTileMatrixSetLimits
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet
+import no.ecc.vectortile.VectorTileDecoder
+import org.locationtech.jts.geom.Coordinate
+import org.locationtech.jts.geom.GeometryFactory
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Path
+
+class FeatureEncoderBulkMVTSpec extends Specification {
+
+    @Shared
+    TileMatrixSet tileMatrixSet = TileMatrixSet.fromWellKnownId("WebMercatorQuad").orElseThrow()
+
+    @Shared
+    GeometryFactory geometryFactory = new GeometryFactory()
+
+    @TempDir
+    Path directory
+
+    Map<String, byte[]> stored = [:]
+    Set<String> cached = []
+
+    def 'The features are assigned to the tiles of all zoom levels'() {
+
+        given: "a bulk encoder for zoom levels 1 and 2 and two features in the upper left and the lower right tile"
+
+        def encoder = encoder(100, tile(1, 0, 0))
+        encoder.onStart(null)
+        encoder.onFeature(feature("1", point(2, 0, 0)))
+        encoder.onFeature(feature("2", point(2, 3, 3)))
+
+        when: "the tiles are written"
+
+        def mvt = encoder.writeTiles()
+
+        then: "the tile of the encoder is returned, but not written to the cache"
+
+        ids(mvt) == [1L]
+        !stored.containsKey("1/0/0")
+
+        and: "all other tiles are written to the cache, with the features in the tile"
+
+        stored.size() == 3 + 16
+        ids(stored["1/1/1"]) == [2L]
+        ids(stored["1/0/1"]) == []
+        ids(stored["2/0/0"]) == [1L]
+        ids(stored["2/3/3"]) == [2L]
+        ids(stored["2/1/2"]) == []
+    }
+
+    def 'Tiles that are already cached are skipped'() {
+
+        given: "a bulk encoder for zoom levels 1 and 2 where two tiles are cached"
+
+        cached.addAll(["1/0/0", "2/0/0"])
+        def encoder = encoder(100, tile(1, 0, 0))
+        encoder.onStart(null)
+        encoder.onFeature(feature("1", point(2, 0, 0)))
+
+        when: "the tiles are written"
+
+        def mvt = encoder.writeTiles()
+
+        then: "the cached tile is not written again, but the tile of the encoder is always returned"
+
+        stored.size() == 3 + 15
+        !stored.containsKey("2/0/0")
+        ids(mvt) == [1L]
+    }
+
+    def 'At most the limit of features is included in each tile'() {
+
+        given: "a limit of 2 features, three features in the upper left tile of zoom level 2 and one in the lower right tile"
+
+        def encoder = encoder(2, tile(1, 0, 0))
+        encoder.onStart(null)
+        encoder.onFeature(feature("1", point(2, 0, 0, 0.2)))
+        encoder.onFeature(feature("2", point(2, 0, 0, 0.4)))
+        encoder.onFeature(feature("3", point(2, 0, 0, 0.6)))
+        encoder.onFeature(feature("4", point(2, 3, 3)))
+
+        when: "the tiles are written"
+
+        def mvt = encoder.writeTiles()
+
+        then: "the first features in each tile are included, the limit applies per tile"
+
+        ids(mvt) == [1L, 2L]
+        ids(stored["2/0/0"]) == [1L, 2L]
+        ids(stored["2/3/3"]) == [4L]
+        ids(stored["1/1/1"]) == [4L]
+    }
+
+    def 'The working database is removed at the end of the stream'() {
+
+        given: "a bulk encoder with a feature"
+
+        def encoder = encoder(100, tile(1, 0, 0))
+        encoder.onStart(null)
+        encoder.onFeature(feature("1", point(2, 0, 0)))
+
+        expect:
+
+        workingDatabases().size() == 1
+
+        when: "the tiles are written"
+
+        encoder.writeTiles()
+
+        then: "the working database has been removed"
+
+        workingDatabases().isEmpty()
+    }
+
+    def 'The working database is removed, when the stream fails'() {
+
+        given: "a bulk encoder with a feature"
+
+        def encoder = encoder(100, tile(1, 0, 0))
+        encoder.onStart(null)
+        encoder.onFeature(feature("1", point(2, 0, 0)))
+
+        when: "the stream fails before its end and the caller closes the encoder"
+
+        encoder.close()
+
+        then: "the working database has been removed"
+
+        workingDatabases().isEmpty()
+
+        when: "the encoder is closed again"
+
+        encoder.close()
+
+        then: "nothing happens"
+
+        noExceptionThrown()
+    }
+
+    private FeatureEncoderBulkMVT encoder(int limit, Tile tile) {
+        def tilesConfiguration = Stub(TilesConfiguration) {
+            getLimitDerived() >> limit
+        }
+        def tileCache = Stub(TileCache) {
+            getWorkDirectory() >> directory
+            tileExists(_) >> { Tile t -> cached.contains(key(t)) }
+            storeTile(_, _) >> { Tile t, byte[] content -> stored.put(key(t), content) }
+        }
+        def context = Stub(FeatureTransformationContextTiles) {
+            tile() >> tile
+            bulkLimits() >> [limits(1, 0, 1), limits(2, 0, 3)]
+            tilesConfiguration() >> tilesConfiguration
+            getTileCache() >> tileCache
+            getCollectionId() >> "collection"
+            getFields() >> ["*"]
+            getApiData() >> tile.apiData
+        }
+        return new FeatureEncoderBulkMVT(context)
+    }
+
+    private Tile tile(int level, int row, int col) {
+        def apiData = Stub(OgcApiDataV2) {
+            getId() >> "api"
+        }
+        def outputFormat = Stub(TileFormatExtension) {
+            getExtension() >> "pbf"
+        }
+        return new ImmutableTile.Builder()
+                .collectionIds(["collection"])
+                .tileMatrixSet(tileMatrixSet)
+                .tileLevel(level)
+                .tileRow(row)
+                .tileCol(col)
+                .apiData(apiData)
+                .outputFormat(outputFormat)
+                .temporary(false)
+                .isDatasetTile(false)
+                .build()
+    }
+
+    private FeatureMVT feature(String id, Coordinate coordinate) {
+        def geometry = geometryFactory.createPoint(coordinate)
+        return Stub(FeatureMVT) {
+            getJtsGeometry(_) >> Optional.of(geometry)
+            getIdValue() >> id
+            getPropertiesAsMap() >> new TreeMap<String, Object>([name: id])
+        }
+    }
+
+    /**
+     * a position in a tile, the offset is the share of the tile width and height from the upper left corner
+     */
+    private Coordinate point(int level, int row, int col, double offset = 0.5) {
+        def bbox = tileMatrixSet.getTileBoundingBox(level, col, row)
+        return new Coordinate(bbox.xmin + (bbox.xmax - bbox.xmin) * offset, bbox.ymax - (bbox.ymax - bbox.ymin) * offset)
+    }
+
+    private static def limits(int level, int min, int max) {
+        return new ImmutableTileMatrixSetLimits.Builder()
+                .tileMatrix(String.valueOf(level))
+                .minTileRow(min)
+                .maxTileRow(max)
+                .minTileCol(min)
+                .maxTileCol(max)
+                .build()
+    }
+
+    private static String key(Tile tile) {
+        return "${tile.tileLevel}/${tile.tileRow}/${tile.tileCol}".toString()
+    }
+
+    private static List<Long> ids(byte[] mvt) {
+        def decoder = new VectorTileDecoder()
+        decoder.setAutoScale(false)
+        return decoder.decode(mvt).asList()*.id
+    }
+
+    private List<String> workingDatabases() {
+        return directory.toFile().list().findAll { it.startsWith("bulk-") }
+    }
+}
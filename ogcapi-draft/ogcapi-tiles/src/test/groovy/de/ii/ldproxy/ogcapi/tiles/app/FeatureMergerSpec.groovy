@@ -0,0 +1,147 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app
+
+import com.google.common.collect.ImmutableList
+import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableMvtFeature
+import de.ii.ldproxy.ogcapi.tiles.domain.MvtFeature
+import org.locationtech.jts.geom.GeometryFactory
+import org.locationtech.jts.geom.Polygon
+import org.locationtech.jts.geom.PrecisionModel
+import org.locationtech.jts.io.WKTReader
+import spock.lang.Shared
+import spock.lang.Specification
+
+class FeatureMergerSpec extends Specification {
+
+    @Shared PrecisionModel precisionModel = new PrecisionModel(16d)
+    @Shared GeometryFactory geometryFactory = new GeometryFactory(precisionModel)
+    @Shared WKTReader reader = new WKTReader(geometryFactory)
+
+    def 'Merge polygons that touch'() {
+
+        given: "two squares that share an edge"
+
+        def features = [feature(1, "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))", [type: "a"]),
+                        feature(2, "POLYGON ((10 0, 20 0, 20 10, 10 10, 10 0))", [type: "a"])] as Set
+
+        when: "the features are merged"
+
+        def result = merger(["type"]).merge(features)
+
+        then: "a single rectangle without holes is returned"
+
+        result.size() == 1
+        result[0].geometry instanceof Polygon
+        result[0].geometry.area == 200d
+        ((Polygon) result[0].geometry).numInteriorRing == 0
+        result[0].properties == [type: "a"]
+    }
+
+    def 'Merge polygons that overlap'() {
+
+        given: "two squares that overlap in a quarter of their area"
+
+        def features = [feature(1, "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))", [type: "a"]),
+                        feature(2, "POLYGON ((5 5, 15 5, 15 15, 5 15, 5 5))", [type: "a"])] as Set
+
+        when: "the features are merged"
+
+        def result = merger(["type"]).merge(features)
+
+        then: "the overlap is part of the merged polygon and does not become a hole"
+
+        result.size() == 1
+        result[0].geometry instanceof Polygon
+        result[0].geometry.area == 175d
+        ((Polygon) result[0].geometry).numInteriorRing == 0
+    }
+
+    def 'Merge polygons that are connected through another polygon'() {
+
+        given: "two squares that are disjoint, but both overlap a third square"
+
+        def features = [feature(1, "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))", [type: "a"]),
+                        feature(2, "POLYGON ((20 0, 30 0, 30 10, 20 10, 20 0))", [type: "a"]),
+                        feature(3, "POLYGON ((5 2, 25 2, 25 8, 5 8, 5 2))", [type: "a"])] as Set
+
+        when: "the features are merged"
+
+        def result = merger(["type"]).merge(features)
+
+        then: "all three squares are merged"
+
+        result.size() == 1
+        result[0].geometry.area == 260d
+    }
+
+    def 'Only merge polygons with the same values of the groupBy attributes'() {
+
+        given: "two squares that touch, but have different values"
+
+        def features = [feature(1, "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))", [type: "a"]),
+                        feature(2, "POLYGON ((10 0, 20 0, 20 10, 10 10, 10 0))", [type: "b"])] as Set
+
+        when: "the features are merged"
+
+        def result = merger(["type"]).merge(features)
+
+        then: "both features are returned unchanged"
+
+        result.size() == 2
+        result.collect { it.properties.type } as Set == ["a", "b"] as Set
+        result.every { it.geometry.area == 100d }
+    }
+
+    def 'Keep only the properties that are the same in all merged features'() {
+
+        given: "two squares that touch, with a common and a different property"
+
+        def features = [feature(1, "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))", [type: "a", name: "x"]),
+                        feature(2, "POLYGON ((10 0, 20 0, 20 10, 10 10, 10 0))", [type: "a", name: "y"])] as Set
+
+        when: "the features are merged"
+
+        def result = merger(["type"]).merge(features)
+
+        then: "only the common property is kept"
+
+        result.size() == 1
+        result[0].properties == [type: "a"]
+    }
+
+    def 'Merge line strings that touch'() {
+
+        given: "two line strings that share an end point and a disjoint line string"
+
+        def features = [feature(1, "LINESTRING (0 0, 10 0)", [type: "a"]),
+                        feature(2, "LINESTRING (10 0, 20 5)", [type: "a"]),
+                        feature(3, "LINESTRING (0 50, 10 50)", [type: "a"])] as Set
+
+        when: "the features are merged"
+
+        def result = merger(["type"]).merge(features)
+
+        then: "the touching line strings are merged into a single line"
+
+        result.size() == 2
+        result.find { it.geometry.numGeometries == 1 && it.geometry.getGeometryN(0).numPoints == 3 } != null
+    }
+
+    private FeatureMerger merger(List<String> groupBy) {
+        return new FeatureMerger(groupBy, true, ImmutableList.of(), geometryFactory, precisionModel, "Test")
+    }
+
+    private MvtFeature feature(long id, String wkt, Map<String, Object> properties) {
+        return new ImmutableMvtFeature.Builder()
+                .id(id)
+                .properties(properties)
+                .geometry(reader.read(wkt))
+                .build()
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app
+
+import spock.lang.Specification
+
+class MemoryTileCacheSpec extends Specification {
+
+    static final Date LAST_MODIFIED = new Date(1_640_000_000_000L)
+
+    def 'A cached tile has its content, entity tag and modification date'() {
+
+        given: "a memory cache with a tile"
+
+        def cache = new MemoryTileCache(64 * 1024)
+        def put = cache.put("a", cache.getVersion("a"), "content".bytes, "gzip".bytes, LAST_MODIFIED)
+
+        when: "the tile is read"
+
+        def tile = cache.get("a")
+
+        then: "the tile is the same as the one that has been added"
+
+        tile.isPresent()
+        tile.get().content.read() == "content".bytes
+        tile.get().gzipContent.get().read() == "gzip".bytes
+        tile.get().lastModified.get() == LAST_MODIFIED
+        tile.get().etag.isPresent()
+        tile.get().etag == put.etag
+        cache.get("b").isEmpty()
+    }
+
+    def 'The total size of the tiles is bounded'() {
+
+        given: "a memory cache of 64 kB"
+
+        def cache = new MemoryTileCache(64 * 1024)
+
+        when: "tiles of 1000 bytes and their compressed copies of 500 bytes with a total of 300 kB are added"
+
+        200.times { cache.put("tile-$it", cache.getVersion("tile-$it"), new byte[1000], new byte[500], LAST_MODIFIED) }
+
+        then: "the tiles that are still cached use at most 64 kB"
+
+        def cached = (0..<200).findAll { cache.get("tile-$it").isPresent() }
+        !cached.isEmpty()
+        cached.size() * 1500 <= 64 * 1024
+    }
+
+    def 'Tiles that are larger than their share of the capacity are not cached'() {
+
+        given: "a memory cache of 64 kB, a tile may use 1 kB"
+
+        def cache = new MemoryTileCache(64 * 1024)
+
+        when: "a tile at the limit and a tile above the limit are added"
+
+        cache.put("small", cache.getVersion("small"), new byte[1024], null, LAST_MODIFIED)
+        def large = cache.put("large", cache.getVersion("large"), new byte[1000], new byte[25], LAST_MODIFIED)
+
+        then: "only the tile at the limit is cached, the large tile is still returned"
+
+        cache.get("small").isPresent()
+        cache.get("large").isEmpty()
+        large.content.size() == 1000
+    }
+
+    def 'Invalidated tiles are removed'() {
+
+        given: "a memory cache with three tiles"
+
+        def cache = new MemoryTileCache(64 * 1024)
+        ["a", "b", "c"].each { cache.put(it, cache.getVersion(it), it.bytes, null, LAST_MODIFIED) }
+
+        when: "a tile is invalidated"
+
+        cache.invalidate("a")
+
+        then: "only this tile is removed"
+
+        cache.get("a").isEmpty()
+        cache.get("b").isPresent()
+
+        when: "all tiles are invalidated"
+
+        cache.invalidateAll()
+
+        then: "all tiles are removed"
+
+        cache.get("b").isEmpty()
+        cache.get("c").isEmpty()
+    }
+
+    def 'A tile that has been invalidated while it was read is not cached'() {
+
+        given: "a memory cache and a reader that has taken the version of a tile before reading it"
+
+        def cache = new MemoryTileCache(64 * 1024)
+        def version = cache.getVersion("a")
+
+        when: "the tile is changed and invalidated before the reader adds the previous content"
+
+        invalidation.call(cache)
+        def returned = cache.put("a", version, "old".bytes, null, LAST_MODIFIED)
+
+        then: "the previous content is returned to the reader, but not cached"
+
+        returned.content.read() == "old".bytes
+        cache.get("a").isEmpty()
+
+        and: "a reader that starts after the change caches the tile"
+
+        cache.put("a", cache.getVersion("a"), "new".bytes, null, LAST_MODIFIED)
+        cache.get("a").get().content.read() == "new".bytes
+
+        where:
+
+        invalidation << [{ it.invalidate("a") }, { it.invalidateAll() }]
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app
+
+import de.ii.ldproxy.ogcapi.tiles.domain.Tile
+import de.ii.ldproxy.ogcapi.tiles.domain.TilesConfiguration
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet
+import no.ecc.vectortile.VectorTileDecoder
+import org.locationtech.jts.io.WKTReader
+import spock.lang.Shared
+import spock.lang.Specification
+
+class ParentTileEncoderMVTSpec extends Specification {
+
+    @Shared
+    TileMatrixSet tileMatrixSet = TileMatrixSet.fromWellKnownId("WebMercatorQuad").orElseThrow()
+
+    @Shared
+    WKTReader reader = new WKTReader()
+
+    def 'The child tiles are scaled and translated to their quarter of the tile'() {
+
+        given: "the tile 3/2/4 and a point in the center of each of its four child tiles"
+
+        def encoder = encoder(tile(3, 2, 4), 100)
+        [[4, 8], [4, 9], [5, 8], [5, 9]].eachWithIndex { List<Integer> rowCol, int i ->
+            encoder.addChildTile(tile(4, rowCol[0], rowCol[1]), childTile([[i + 1, "POINT (128 128)"]]))
+        }
+
+        when: "the tile is encoded"
+
+        def features = decode(encoder.encode())
+
+        then: "each point is in the center of the quarter of its child tile"
+
+        features*.id == [1L, 2L, 3L, 4L]
+        features*.geometry*.toText() == ["POINT (1024 1024)", "POINT (3072 1024)", "POINT (1024 3072)", "POINT (3072 3072)"]
+    }
+
+    def 'The pieces of a feature in different child tiles are combined'() {
+
+        given: "a line that is split between the two upper child tiles and another feature with the same id, but other attributes"
+
+        def encoder = encoder(tile(3, 2, 4), 100)
+        encoder.addChildTile(tile(4, 4, 8), childTile([[7, "LINESTRING (128 128, 256 128)"]]))
+        encoder.addChildTile(tile(4, 4, 9), childTile([[7, "LINESTRING (0 128, 128 128)"], [7, "POINT (128 128)", "other"]]))
+
+        when: "the tile is encoded"
+
+        def features = decode(encoder.encode())
+
+        then: "the pieces of the line are one feature that spans both child tiles"
+
+        features.size() == 2
+        features[0].id == 7L
+        features[0].attributes.name == "7"
+        features[0].geometry.envelopeInternal == reader.read("LINESTRING (1024 1024, 3072 1024)").envelopeInternal
+        features[0].geometry.length == 2048.0d
+
+        and: "the feature with other attributes is kept"
+
+        features[1].id == 7L
+        features[1].attributes.name == "other"
+    }
+
+    def 'Features with the id 0 are not combined'() {
+
+        given: "a line with the id 0 that is split between the two upper child tiles"
+
+        def encoder = encoder(tile(3, 2, 4), 100)
+        encoder.addChildTile(tile(4, 4, 8), childTile([[0, "LINESTRING (128 128, 256 128)"]]))
+        encoder.addChildTile(tile(4, 4, 9), childTile([[0, "LINESTRING (0 128, 128 128)"]]))
+
+        when: "the tile is encoded"
+
+        def features = decode(encoder.encode())
+
+        then: "the pieces are separate features"
+
+        features.size() == 2
+    }
+
+    def 'At most the limit of features is included in each layer'() {
+
+        given: "a limit of 2 features and a point in each child tile as well as a point in a second layer"
+
+        def encoder = encoder(tile(3, 2, 4), 2)
+        [[4, 8], [4, 9], [5, 8], [5, 9]].eachWithIndex { List<Integer> rowCol, int i ->
+            encoder.addChildTile(tile(4, rowCol[0], rowCol[1]), childTile([[i + 1, "POINT (128 128)"]]))
+        }
+        encoder.addChildTile(tile(4, 5, 9), childTile([[5, "POINT (64 64)"]], "other"))
+
+        when: "the tile is encoded"
+
+        def features = decode(encoder.encode())
+
+        then: "the first features in the order of the child tiles are included in each layer"
+
+        features.findAll { it.layerName == "layer" }*.id == [1L, 2L]
+        features.findAll { it.layerName == "other" }*.id == [5L]
+    }
+
+    def 'Empty child tiles are skipped'() {
+
+        given: "an empty child tile and a child tile with a point"
+
+        def encoder = encoder(tile(3, 2, 4), 100)
+        encoder.addChildTile(tile(4, 4, 8), new byte[0])
+        encoder.addChildTile(tile(4, 5, 9), childTile([[1, "POINT (128 128)"]]))
+
+        expect:
+
+        decode(encoder.encode())*.id == [1L]
+    }
+
+    private ParentTileEncoderMVT encoder(Tile tile, int limit) {
+        def tilesConfiguration = Stub(TilesConfiguration) {
+            getLimitDerived() >> limit
+        }
+        return new ParentTileEncoderMVT(tile, tilesConfiguration)
+    }
+
+    private Tile tile(int level, int row, int col) {
+        return Stub(Tile) {
+            getTileMatrixSet() >> tileMatrixSet
+            getTileLevel() >> level
+            getTileRow() >> row
+            getTileCol() >> col
+        }
+    }
+
+    /**
+     * a child tile with features, each given by its id and geometry in pixels and optionally its name
+     */
+    private byte[] childTile(List<List<Object>> features, String layerName = "layer") {
+        def writer = new TileWriterMVT(4096, 256)
+        features.each { List<Object> feature ->
+            def name = feature.size() > 2 ? feature[2] : String.valueOf(feature[0])
+            writer.addFeature(layerName, [name: name], reader.read((String) feature[1]), ((Integer) feature[0]).longValue())
+        }
+        return writer.encode()
+    }
+
+    private static List<VectorTileDecoder.Feature> decode(byte[] tile) {
+        def decoder = new VectorTileDecoder()
+        decoder.setAutoScale(false)
+        return decoder.decode(tile).asList()
+    }
+}
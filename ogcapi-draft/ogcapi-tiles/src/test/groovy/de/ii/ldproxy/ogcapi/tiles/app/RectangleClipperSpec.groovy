@@ -0,0 +1,153 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app
+
+import org.locationtech.jts.geom.Envelope
+import org.locationtech.jts.geom.Polygon
+import org.locationtech.jts.io.WKTReader
+import spock.lang.Shared
+import spock.lang.Specification
+
+class RectangleClipperSpec extends Specification {
+
+    @Shared WKTReader reader = new WKTReader()
+    @Shared Envelope rectangle = new Envelope(0, 10, 0, 10)
+
+    def 'Clip line strings'() {
+
+        given: "a rectangle from 0 to 10"
+
+        def clipper = new RectangleClipper(rectangle)
+
+        when: "a line string is clipped"
+
+        def result = clipper.clip(reader.read(input))
+
+        then: "only the parts in the rectangle are left"
+
+        result.isPresent()
+        result.get().equalsExact(reader.read(expected), 1e-9)
+
+        where:
+
+        input                                         | expected
+        "LINESTRING (2 2, 8 8)"                       | "LINESTRING (2 2, 8 8)"
+        "LINESTRING (-5 5, 15 5)"                     | "LINESTRING (0 5, 10 5)"
+        "LINESTRING (2 2, 15 2, 15 8, 2 8)"           | "MULTILINESTRING ((2 2, 10 2), (10 8, 2 8))"
+        "MULTILINESTRING ((-5 1, 5 1), (20 0, 30 0))" | "MULTILINESTRING ((0 1, 5 1))"
+    }
+
+    def 'Line strings outside of the rectangle are removed'() {
+
+        given: "a rectangle from 0 to 10"
+
+        def clipper = new RectangleClipper(rectangle)
+
+        when: "a line string is clipped that passes the rectangle within its envelope"
+
+        def result = clipper.clip(reader.read("LINESTRING (-5 8, 5 20, 15 8)"))
+
+        then: "the result is empty"
+
+        result.isPresent()
+        result.get().isEmpty()
+    }
+
+    def 'Clip points'() {
+
+        given: "a rectangle from 0 to 10"
+
+        def clipper = new RectangleClipper(rectangle)
+
+        when: "a multi-point is clipped"
+
+        def result = clipper.clip(reader.read("MULTIPOINT ((1 1), (20 20), (10 10))"))
+
+        then: "the points on the boundary are kept"
+
+        result.get().equalsExact(reader.read("MULTIPOINT ((1 1), (10 10))"))
+    }
+
+    def 'Clip a polygon with holes'() {
+
+        given: "a rectangle from 0 to 10 and a polygon that covers it, with one hole inside, one across the boundary and one outside"
+
+        def clipper = new RectangleClipper(rectangle)
+        def polygon = reader.read("POLYGON ((-5 -5, 15 -5, 15 15, -5 15, -5 -5), (2 2, 4 2, 4 4, 2 4, 2 2), (8 6, 12 6, 12 8, 8 8, 8 6), (12 12, 14 12, 14 14, 12 14, 12 12))")
+
+        when: "the polygon is clipped"
+
+        def result = clipper.clip(polygon)
+
+        then: "the shell is the rectangle, the hole outside is removed and the hole across the boundary is clipped"
+
+        result.get() instanceof Polygon
+        def clipped = (Polygon) result.get()
+        clipped.exteriorRing.envelopeInternal == rectangle
+        clipped.numInteriorRing == 2
+        clipped.getInteriorRingN(1).envelopeInternal == new Envelope(8, 10, 6, 8)
+        clipped.area == 100d - 4d - 4d
+    }
+
+    def 'Clip a concave polygon that leaves and re-enters the rectangle'() {
+
+        given: "a rectangle from 0 to 10 and a C-shaped polygon that is open towards the left, with the bend outside"
+
+        def clipper = new RectangleClipper(rectangle)
+        def polygon = reader.read("POLYGON ((2 2, 15 2, 15 8, 2 8, 2 6, 12 6, 12 4, 2 4, 2 2))")
+
+        when: "the polygon is clipped"
+
+        def result = clipper.clip(polygon)
+
+        then: "the ring has the area of both arms and all positions are in the rectangle"
+
+        result.get().area == 32d
+        result.get().coordinates.every { rectangle.intersects(it) }
+    }
+
+    def 'Rings that touch the boundary'() {
+
+        given: "a rectangle from 0 to 10"
+
+        def clipper = new RectangleClipper(rectangle)
+
+        when: "a polygon is clipped"
+
+        def result = clipper.clip(reader.read(input))
+
+        then:
+
+        result.get().isEmpty() == empty
+        result.get().area == area
+
+        where:
+
+        input                                            | empty | area
+        // inside, touching the boundary from the inside
+        "POLYGON ((0 0, 5 0, 5 5, 0 5, 0 0))"            | false | 25d
+        // outside, touching the boundary from the outside
+        "POLYGON ((10 0, 20 0, 20 10, 10 10, 10 0))"     | true  | 0d
+        // outside, touching a corner
+        "POLYGON ((10 10, 20 10, 20 20, 10 20, 10 10))"  | true  | 0d
+        // across the boundary, with an edge on the boundary
+        "POLYGON ((5 0, 15 0, 15 5, 5 5, 5 0))"          | false | 25d
+    }
+
+    def 'Geometries inside the rectangle are not changed'() {
+
+        given: "a rectangle from 0 to 10 and a polygon inside"
+
+        def clipper = new RectangleClipper(rectangle)
+        def polygon = reader.read("POLYGON ((1 1, 9 1, 9 9, 1 9, 1 1))")
+
+        expect:
+
+        clipper.clip(polygon).get().is(polygon)
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app
+
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+class TileBitmapSpec extends Specification {
+
+    @TempDir
+    Path directory
+
+    def 'Add and remove tiles'() {
+
+        given: "an empty bitmap"
+
+        def bitmap = TileBitmap.create(directory.resolve("tiles.bitmap"))
+
+        when: "tiles are added, neighbours in one block, tiles in other blocks and on other zoom levels"
+
+        bitmap.add(10, 5, 5)
+        bitmap.add(10, 5, 6)
+        bitmap.add(10, 63, 64)
+        bitmap.add(20, 1000000, 63)
+        bitmap.add(11, 5, 5)
+        bitmap.remove(10, 5, 6)
+        bitmap.remove(12, 0, 0)
+
+        then: "exactly the tiles that have been added and not removed are in the bitmap"
+
+        bitmap.isComplete()
+        bitmap.contains(10, 5, 5)
+        !bitmap.contains(10, 5, 6)
+        bitmap.contains(10, 63, 64)
+        !bitmap.contains(10, 64, 63)
+        bitmap.contains(20, 1000000, 63)
+        !bitmap.contains(20, 63, 1000000)
+        bitmap.contains(11, 5, 5)
+        !bitmap.contains(12, 5, 5)
+        !bitmap.contains(12, 0, 0)
+    }
+
+    def 'A bitmap without a persisted copy is filled from the cache'() {
+
+        given: "a bitmap that has not been persisted"
+
+        def bitmap = TileBitmap.load(directory.resolve("tiles.bitmap"))
+
+        expect: "the bitmap is not complete"
+
+        !bitmap.isComplete()
+
+        when: "the bitmap is filled"
+
+        bitmap.complete({ it.add(3, 1, 2); it.add(3, 2, 1) } as TileBitmap.Filler)
+
+        then: "the bitmap is complete and has the tiles of the cache"
+
+        bitmap.isComplete()
+        bitmap.contains(3, 1, 2)
+        bitmap.contains(3, 2, 1)
+        !bitmap.contains(3, 1, 1)
+    }
+
+    def 'A bitmap is not complete, if a tile is removed while it is filled'() {
+
+        given: "a bitmap that has not been persisted and a cache where a tile is removed while the bitmap is filled"
+
+        def bitmap = TileBitmap.load(directory.resolve("tiles.bitmap"))
+        def fills = 0
+        def filler = {
+            fills++
+            it.add(3, 1, 2)
+            bitmap.remove(3, 1, 2)
+        } as TileBitmap.Filler
+
+        when: "the bitmap is filled repeatedly"
+
+        5.times { bitmap.complete(filler) }
+
+        then: "the bitmap is not complete and filling it has been given up after three attempts"
+
+        !bitmap.isComplete()
+        fills == 3
+    }
+
+    def 'A complete bitmap is not filled again'() {
+
+        given: "a complete bitmap"
+
+        def bitmap = TileBitmap.create(directory.resolve("tiles.bitmap"))
+        def filler = Mock(TileBitmap.Filler)
+
+        when: "the bitmap is filled"
+
+        bitmap.complete(filler)
+
+        then: "the cache is not read"
+
+        0 * filler.fill(_)
+    }
+
+    def 'Persist and load a bitmap'() {
+
+        given: "a complete bitmap with tiles"
+
+        def path = directory.resolve("tiles.bitmap")
+        def bitmap = TileBitmap.create(path)
+        bitmap.add(0, 0, 0)
+        bitmap.add(14, 8000, 9000)
+
+        when: "the bitmap is persisted and loaded again"
+
+        bitmap.persist()
+        def loaded = TileBitmap.load(path)
+
+        then: "the loaded bitmap is complete and has the tiles"
+
+        Files.exists(path)
+        !Files.exists(directory.resolve("tiles.bitmap.tmp"))
+        loaded.isComplete()
+        loaded.contains(0, 0, 0)
+        loaded.contains(14, 8000, 9000)
+        !loaded.contains(14, 8000, 9001)
+    }
+
+    def 'A persisted bitmap is deleted when the bitmap changes'() {
+
+        given: "a persisted bitmap"
+
+        def path = directory.resolve("tiles.bitmap")
+        def bitmap = TileBitmap.create(path)
+        bitmap.add(1, 1, 1)
+        bitmap.persist()
+
+        when: "a tile is added again"
+
+        bitmap.add(1, 1, 1)
+
+        then: "the persisted bitmap is still up to date"
+
+        Files.exists(path)
+
+        when: "a new tile is added"
+
+        bitmap.add(1, 0, 1)
+
+        then: "the persisted bitmap is deleted"
+
+        !Files.exists(path)
+
+        when: "the bitmap is persisted again"
+
+        bitmap.persist()
+
+        then: "the persisted bitmap has the new tile"
+
+        TileBitmap.load(path).contains(1, 0, 1)
+    }
+
+    def 'An incomplete bitmap is not persisted'() {
+
+        given: "a bitmap that has been reset"
+
+        def path = directory.resolve("tiles.bitmap")
+        def bitmap = TileBitmap.create(path)
+        bitmap.add(1, 1, 1)
+        bitmap.reset()
+
+        when: "the bitmap is persisted"
+
+        bitmap.persist()
+
+        then: "the bitmap is empty and not complete and nothing has been written"
+
+        !bitmap.isComplete()
+        !bitmap.contains(1, 1, 1)
+        !Files.exists(path)
+    }
+
+    def 'A bitmap that cannot be read is rebuilt'() {
+
+        given: "a file that is not a bitmap"
+
+        def path = directory.resolve("tiles.bitmap")
+        Files.write(path, "not a bitmap".bytes)
+
+        when: "the bitmap is loaded"
+
+        def bitmap = TileBitmap.load(path)
+
+        then: "the bitmap is empty and not complete"
+
+        !bitmap.isComplete()
+        !bitmap.contains(0, 0, 0)
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app
+
+import de.ii.ldproxy.ogcapi.domain.FeatureTypeConfigurationOgcApi
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2
+import de.ii.ldproxy.ogcapi.domain.URICustomizer
+import de.ii.ldproxy.ogcapi.features.core.domain.FeaturesQuery
+import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableTile
+import de.ii.ldproxy.ogcapi.tiles.domain.Tile
+import de.ii.ldproxy.ogcapi.tiles.domain.TileCache
+import de.ii.ldproxy.ogcapi.tiles.domain.TileFormatExtension
+import de.ii.ldproxy.ogcapi.tiles.domain.TilesConfiguration
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet
+import de.ii.xtraplatform.crs.domain.BoundingBox
+import de.ii.xtraplatform.crs.domain.CrsTransformerFactory
+import de.ii.xtraplatform.cql.domain.CqlFilter
+import de.ii.xtraplatform.cql.domain.CqlPredicate
+import de.ii.xtraplatform.cql.domain.Intersects
+import no.ecc.vectortile.VectorTileDecoder
+import org.locationtech.jts.geom.Coordinate
+import org.locationtech.jts.geom.Geometry
+import org.locationtech.jts.geom.GeometryFactory
+import spock.lang.Shared
+import spock.lang.Specification
+
+class TileFormatMVTSpec extends Specification {
+
+    static final int LIMIT = 2
+
+    @Shared
+    TileMatrixSet tileMatrixSet = TileMatrixSet.fromWellKnownId("WebMercatorQuad").orElseThrow()
+
+    @Shared
+    GeometryFactory geometryFactory = new GeometryFactory()
+
+    TilesConfiguration tilesConfiguration = Stub(TilesConfiguration) {
+        getLimitDerived() >> LIMIT
+    }
+
+    def 'The query of a metatile selects the features of all tiles'() {
+
+        given: "a metatile of 2x2 tiles"
+
+        def tiles = metatile()
+        def queryParser = Stub(FeaturesQuery) {
+            getFilterableFields(_, _) >> [bbox: "geometry"]
+        }
+        def format = new TileFormatMVT(Stub(CrsTransformerFactory), queryParser, Stub(TileCache))
+
+        when: "the query is created"
+
+        def query = format.getMetatileQuery(tiles, [], [:], tilesConfiguration, new URICustomizer())
+
+        then: "the query selects the features in the bounding box of the metatile, up to the limit of each tile"
+
+        query.isPresent()
+        query.get().limit == LIMIT * 4
+        query.get().filter.get() == CqlFilter.of(CqlPredicate.of(Intersects.of("geometry", BoundingBox.of(
+                tiles[0].boundingBox.xmin, tiles[3].boundingBox.ymin, tiles[3].boundingBox.xmax, tiles[0].boundingBox.ymax, tileMatrixSet.crs))))
+    }
+
+    def 'The features of a metatile are split into its tiles and the limit applies to each tile'() {
+
+        given: "the encoders of the tiles of a metatile with a limit of 2 features per tile"
+
+        def tiles = metatile()
+        def encoders = tiles.collect { new TileEncoderMVT(it, tilesConfiguration, "collection", ["*"], true) }
+
+        when: "the features of the metatile are added to each tile, as by the encoder of the metatile"
+
+        [
+                [1, line(position(3, 2, 4, 0.2), position(3, 2, 4, 0.4))],
+                [2, line(position(3, 2, 4, 0.5), position(3, 2, 5, 0.5))],
+                [3, point(position(3, 3, 5, 0.2))],
+                [4, point(position(3, 3, 5, 0.4))],
+                [5, point(position(3, 3, 5, 0.6))],
+                [6, line(position(3, 2, 5, 0.6), position(3, 2, 5, 0.8))],
+                [7, line(position(3, 2, 4, 0.6), position(3, 2, 4, 0.8))]
+        ].each { List<Object> feature ->
+            encoders.each { it.addFeature(String.valueOf(feature[0]), [name: "feature"], (Geometry) feature[1]) }
+        }
+
+        then: "each tile has the features that it intersects, up to the limit"
+
+        ids(encoders[0]) == [1L, 2L]
+        ids(encoders[1]) == [2L, 6L]
+        ids(encoders[2]) == []
+        ids(encoders[3]) == [3L, 4L]
+    }
+
+    /**
+     * the tiles 3/2/4, 3/2/5, 3/3/4 and 3/3/5
+     */
+    private List<Tile> metatile() {
+        def collectionData = Stub(FeatureTypeConfigurationOgcApi) {
+            getId() >> "collection"
+        }
+        def apiData = Stub(OgcApiDataV2) {
+            getId() >> "api"
+            getCollections() >> [collection: collectionData]
+        }
+        def outputFormat = Stub(TileFormatExtension) {
+            getExtension() >> "pbf"
+        }
+        return [[2, 4], [2, 5], [3, 4], [3, 5]].collect { List<Integer> rowCol ->
+            (Tile) new ImmutableTile.Builder()
+                    .collectionIds(["collection"])
+                    .tileMatrixSet(tileMatrixSet)
+                    .tileLevel(3)
+                    .tileRow(rowCol[0])
+                    .tileCol(rowCol[1])
+                    .apiData(apiData)
+                    .outputFormat(outputFormat)
+                    .temporary(false)
+                    .isDatasetTile(false)
+                    .build()
+        }
+    }
+
+    /**
+     * a position in a tile, the offset is the share of the tile width and height from the upper left corner
+     */
+    private Coordinate position(int level, int row, int col, double offset) {
+        def bbox = tileMatrixSet.getTileBoundingBox(level, col, row)
+        return new Coordinate(bbox.xmin + (bbox.xmax - bbox.xmin) * offset, bbox.ymax - (bbox.ymax - bbox.ymin) * offset)
+    }
+
+    private Geometry point(Coordinate coordinate) {
+        return geometryFactory.createPoint(coordinate)
+    }
+
+    private Geometry line(Coordinate from, Coordinate to) {
+        return geometryFactory.createLineString([from, to] as Coordinate[])
+    }
+
+    private static List<Long> ids(TileEncoderMVT encoder) {
+        def decoder = new VectorTileDecoder()
+        decoder.setAutoScale(false)
+        return decoder.decode(encoder.encode()).asList()*.id
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app
+
+import no.ecc.vectortile.VectorTileDecoder
+import org.locationtech.jts.io.WKTReader
+import spock.lang.Shared
+import spock.lang.Specification
+
+class TileLayersMVTSpec extends Specification {
+
+    @Shared WKTReader reader = new WKTReader()
+
+    def 'Split a tile into its layers'() {
+
+        given: "a tile with two layers"
+
+        def writer = new TileWriterMVT(4096, 256)
+        writer.addFeature("a", [name: "1"], reader.read("POINT (1 1)"), 1L)
+        writer.addFeature("b", [name: "2"], reader.read("POINT (2 2)"), 2L)
+        writer.addFeature("a", [name: "3"], reader.read("POINT (3 3)"), 3L)
+        def tile = writer.encode()
+
+        when: "the layers are read"
+
+        def layers = TileLayersMVT.read(tile)
+
+        then: "the layers are in the order of the tile"
+
+        layers*.name == ["a", "b"]
+
+        and: "each layer is a complete tile with its features"
+
+        decode(toTile(layers[0]))*.id == [1L, 3L]
+        decode(toTile(layers[1]))*.id == [2L]
+    }
+
+    def 'Splice the layers of several tiles'() {
+
+        given: "two single-layer tiles"
+
+        def writer1 = new TileWriterMVT(4096, 256)
+        writer1.addFeature("a", [name: "1"], reader.read("POINT (1 1)"), 1L)
+        def writer2 = new TileWriterMVT(4096, 256)
+        writer2.addFeature("b", [name: "2"], reader.read("LINESTRING (0 0, 10 10)"), 2L)
+
+        when: "the layers are concatenated"
+
+        def out = new ByteArrayOutputStream()
+        TileLayersMVT.read(writer1.encode()).each { it.writeTo(out) }
+        TileLayersMVT.read(writer2.encode()).each { it.writeTo(out) }
+        def features = decode(out.toByteArray())
+
+        then: "the result is a tile with both layers and unchanged features"
+
+        features*.layerName == ["a", "b"]
+        features*.id == [1L, 2L]
+        features*.attributes*.name == ["1", "2"]
+        features[1].geometry.equalsExact(reader.read("LINESTRING (0 0, 160 160)"))
+    }
+
+    def 'Rename a layer'() {
+
+        given: "a tile with a layer"
+
+        def writer = new TileWriterMVT(4096, 256)
+        writer.addFeature("collection", [name: "1"], reader.read("POINT (1 1)"), 1L)
+
+        when: "the layer is written with another name"
+
+        def out = new ByteArrayOutputStream()
+        TileLayersMVT.read(writer.encode())[0].writeTo(out, "renamed-collection")
+        def tile = out.toByteArray()
+
+        then: "the layer has the new name and the features are unchanged"
+
+        TileLayersMVT.read(tile)*.name == ["renamed-collection"]
+        def features = decode(tile)
+        features*.layerName == ["renamed-collection"]
+        features*.id == [1L]
+        features*.attributes == [[name: "1"]]
+        features*.extent == [4096]
+    }
+
+    def 'An empty tile has no layers'() {
+
+        expect:
+
+        TileLayersMVT.read(new byte[0]).isEmpty()
+    }
+
+    def 'Malformed tiles are rejected'() {
+
+        when: "the layers of an invalid tile are read"
+
+        TileLayersMVT.read(tile as byte[])
+
+        then:
+
+        thrown IllegalArgumentException
+
+        where:
+
+        tile << [
+                // a layer with a length that exceeds the tile
+                [0x1A, 0x10, 0x0A, 0x01],
+                // a truncated varint
+                [0x1A, 0x80],
+                // an unsupported wire type
+                [0x1B],
+                // a fixed64 field that exceeds the tile
+                [0x09, 0x01, 0x02],
+                // a layer with a name that exceeds the layer
+                [0x1A, 0x02, 0x0A, 0x05]
+        ]
+    }
+
+    private static byte[] toTile(TileLayersMVT.Layer layer) {
+        def out = new ByteArrayOutputStream()
+        layer.writeTo(out)
+        return out.toByteArray()
+    }
+
+    private static List<VectorTileDecoder.Feature> decode(byte[] tile) {
+        def decoder = new VectorTileDecoder()
+        decoder.setAutoScale(false)
+        return decoder.decode(tile).asList()
+    }
+}
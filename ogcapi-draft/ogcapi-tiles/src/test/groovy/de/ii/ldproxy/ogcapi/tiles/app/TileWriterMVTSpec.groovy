@@ -0,0 +1,156 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app
+
+import no.ecc.vectortile.VectorTileDecoder
+import org.locationtech.jts.algorithm.Orientation
+import org.locationtech.jts.geom.LineString
+import org.locationtech.jts.geom.MultiPoint
+import org.locationtech.jts.geom.Point
+import org.locationtech.jts.geom.Polygon
+import org.locationtech.jts.io.WKTReader
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class TileWriterMVTSpec extends Specification {
+
+    @Shared WKTReader reader = new WKTReader()
+
+    def 'Write and decode features of all geometry types'() {
+
+        given: "a tile with an extent of 4096 and a size of 256 pixels"
+
+        def writer = new TileWriterMVT(4096, 256)
+
+        when: "a point, a multi-point, a line string and a polygon are added and the tile is decoded"
+
+        writer.addFeature("layer", [name: "p"], reader.read("POINT (1 2)"), 1L)
+        writer.addFeature("layer", [name: "mp"], reader.read("MULTIPOINT ((1 2), (3 4))"), 2L)
+        writer.addFeature("layer", [name: "l"], reader.read("LINESTRING (0 0, 10 0, 10 10)"), 3L)
+        writer.addFeature("layer", [name: "a"], reader.read("POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))"), 4L)
+        def features = decode(writer.encode())
+
+        then: "the features have the ids, properties and geometries in the extent of the tile"
+
+        features.size() == 4
+        features*.layerName == ["layer"] * 4
+        features*.id == [1L, 2L, 3L, 4L]
+        features*.attributes*.name == ["p", "mp", "l", "a"]
+        features*.extent == [4096] * 4
+
+        features[0].geometry instanceof Point
+        features[0].geometry.equalsExact(reader.read("POINT (16 32)"))
+        features[1].geometry instanceof MultiPoint
+        features[1].geometry.equalsExact(reader.read("MULTIPOINT ((16 32), (48 64))"))
+        features[2].geometry instanceof LineString
+        features[2].geometry.equalsExact(reader.read("LINESTRING (0 0, 160 0, 160 160)"))
+        features[3].geometry instanceof Polygon
+        features[3].geometry.area == 160d * 160d
+    }
+
+    def 'Exterior rings are clockwise and interior rings counter-clockwise in tile coordinates'() {
+
+        given: "a polygon with a hole, both rings in the wrong orientation"
+
+        def writer = new TileWriterMVT(4096, 256)
+        def polygon = reader.read("POLYGON ((0 0, 0 10, 10 10, 10 0, 0 0), (2 2, 8 2, 8 8, 2 8, 2 2))")
+
+        when: "the polygon is written and the tile is decoded"
+
+        writer.addFeature("layer", [:], polygon, null)
+        def features = decode(writer.encode())
+
+        then: "the exterior ring has a positive area with the y axis pointing down, the hole a negative area"
+
+        features.size() == 1
+        features[0].geometry instanceof Polygon
+        def decoded = (Polygon) features[0].geometry
+        decoded.numInteriorRing == 1
+        Orientation.isCCW(decoded.exteriorRing.coordinateSequence)
+        !Orientation.isCCW(decoded.getInteriorRingN(0).coordinateSequence)
+        decoded.area == (160d * 160d) - (96d * 96d)
+    }
+
+    def 'Geometries that collapse in the tile grid are not written'() {
+
+        given: "a polygon that is smaller than a tile coordinate"
+
+        def writer = new TileWriterMVT(4096, 256)
+
+        when: "the polygon is written"
+
+        def added = writer.addFeature("layer", [:], reader.read("POLYGON ((0 0, 0.01 0, 0.01 0.01, 0 0.01, 0 0))"), 1L)
+
+        then: "the feature is skipped and the tile is empty"
+
+        !added
+        writer.encode().length == 0
+    }
+
+    def 'Keys and values are stored once per layer'() {
+
+        given: "two features with the same property"
+
+        def writer = new TileWriterMVT(4096, 256)
+        def key = "a-property-with-a-long-name"
+        def value = "a-value-that-is-shared-by-the-features"
+
+        when: "the features are written"
+
+        writer.addFeature("layer", [(key): value, count: 1L], reader.read("POINT (1 1)"), 1L)
+        writer.addFeature("layer", [(key): value, count: 2L], reader.read("POINT (2 2)"), 2L)
+        def tile = writer.encode()
+        def features = decode(tile)
+
+        then: "the key and the value occur once in the tile, the properties of the features are unchanged"
+
+        occurrences(tile, key) == 1
+        occurrences(tile, value) == 1
+        features*.attributes == [[(key): value, count: 1L], [(key): value, count: 2L]]
+    }
+
+    def 'Properties without a value and negative ids are skipped'() {
+
+        given: "a feature with a null value and a negative id"
+
+        def writer = new TileWriterMVT(4096, 256)
+        def attributes = new LinkedHashMap<String, Object>()
+        attributes.put("a", "x")
+        attributes.put("b", null)
+
+        when: "the feature is written"
+
+        writer.addFeature("layer", attributes, reader.read("POINT (1 1)"), -1L)
+        def features = decode(writer.encode())
+
+        then: "the feature has no id and only the property with a value"
+
+        features.size() == 1
+        features[0].id == 0L
+        features[0].attributes == [a: "x"]
+    }
+
+    private static List<VectorTileDecoder.Feature> decode(byte[] tile) {
+        def decoder = new VectorTileDecoder()
+        decoder.setAutoScale(false)
+        return decoder.decode(tile).asList()
+    }
+
+    private static int occurrences(byte[] tile, String string) {
+        def bytes = string.getBytes(StandardCharsets.UTF_8)
+        int count = 0
+        for (int i = 0; i + bytes.length <= tile.length; i++) {
+            if (Arrays.equals(tile, i, i + bytes.length, bytes, 0, bytes.length)) {
+                count++
+            }
+        }
+        return count
+    }
+}
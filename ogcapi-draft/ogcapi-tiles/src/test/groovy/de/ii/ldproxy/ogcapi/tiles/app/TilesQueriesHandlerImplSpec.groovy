@@ -0,0 +1,304 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app
+
+import com.google.common.io.ByteSource
+import de.ii.ldproxy.ogcapi.domain.ApiRequestContext
+import de.ii.ldproxy.ogcapi.domain.ExtensionRegistry
+import de.ii.ldproxy.ogcapi.domain.I18n
+import de.ii.ldproxy.ogcapi.domain.URICustomizer
+import de.ii.ldproxy.ogcapi.features.core.domain.FeaturesCoreProviders
+import de.ii.ldproxy.ogcapi.tiles.domain.ImmutableQueryInputTileStream
+import de.ii.ldproxy.ogcapi.tiles.domain.StaticTileProviderStore
+import de.ii.ldproxy.ogcapi.tiles.domain.Tile
+import de.ii.ldproxy.ogcapi.tiles.domain.TileCache
+import de.ii.ldproxy.ogcapi.tiles.domain.TileFormatExtension
+import de.ii.ldproxy.ogcapi.tiles.domain.TilesQueriesHandler
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimitsGenerator
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetRepository
+import de.ii.xtraplatform.crs.domain.CrsTransformerFactory
+import de.ii.xtraplatform.store.domain.entities.EntityRegistry
+import spock.lang.Specification
+
+import javax.ws.rs.core.EntityTag
+import javax.ws.rs.core.Request
+import javax.ws.rs.core.Response
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Predicate
+import java.util.function.Supplier
+
+class TilesQueriesHandlerImplSpec extends Specification {
+
+    static final int REQUESTS = 8
+    static final Predicate<Object> REUSABLE = { true } as Predicate<Object>
+    static final Predicate<Object> NOT_REUSABLE = { false } as Predicate<Object>
+    static final Date LAST_MODIFIED = new Date(1_640_000_000_000L)
+
+    TilesQueriesHandlerImpl handler
+
+    def setup() {
+        handler = new TilesQueriesHandlerImpl(Stub(I18n), Stub(CrsTransformerFactory), Stub(EntityRegistry),
+                Stub(ExtensionRegistry), Stub(TileMatrixSetLimitsGenerator), Stub(TileCache),
+                Stub(StaticTileProviderStore), Stub(FeaturesCoreProviders), Stub(TileMatrixSetRepository))
+    }
+
+    def cleanup() {
+        handler.onStop()
+    }
+
+    def 'Concurrent requests of a tile generate the tile once and share the result'() {
+
+        given: "a generator that blocks until all requests wait for the tile"
+
+        def generations = new AtomicInteger()
+        def release = new CountDownLatch(1)
+        Supplier<Object> generator = { generations.incrementAndGet(); release.await(); new Object() } as Supplier<Object>
+
+        when: "the tile is requested concurrently"
+
+        def results = new Object[REQUESTS]
+        def requests = (0..<REQUESTS).collect { int i -> Thread.start { results[i] = handler.generateOnce(tile(false), generator, REUSABLE) } }
+        awaitWaiting(requests)
+        release.countDown()
+        requests*.join(10_000)
+
+        then: "the tile is generated once and all requests return the same result"
+
+        generations.get() == 1
+        results.every { it != null && it.is(results[0]) }
+    }
+
+    def 'A failed generation is reported to all waiting requests and the tile is generated again by the next request'() {
+
+        given: "a generator that blocks until all requests wait for the tile and then fails"
+
+        def generations = new AtomicInteger()
+        def release = new CountDownLatch(1)
+        Supplier<Object> generator = { generations.incrementAndGet(); release.await(); throw new IllegalStateException("failed") } as Supplier<Object>
+
+        when: "the tile is requested concurrently"
+
+        def errors = new Throwable[REQUESTS]
+        def requests = (0..<REQUESTS).collect { int i ->
+            Thread.start {
+                try {
+                    handler.generateOnce(tile(false), generator, REUSABLE)
+                } catch (Throwable e) {
+                    errors[i] = e
+                }
+            }
+        }
+        awaitWaiting(requests)
+        release.countDown()
+        requests*.join(10_000)
+
+        then: "the tile is generated once and all requests fail with the error of the generation"
+
+        generations.get() == 1
+        errors.every { it instanceof IllegalStateException && it.message == "failed" }
+
+        when: "the tile is requested again"
+
+        def result = handler.generateOnce(tile(false), { generations.incrementAndGet(); "tile" } as Supplier<Object>, REUSABLE)
+
+        then: "the failed generation is no longer in progress and the tile is generated"
+
+        result == "tile"
+        generations.get() == 2
+    }
+
+    def 'A result that cannot be reused is generated again by each waiting request'() {
+
+        given: "a generator that blocks until all requests wait for the tile"
+
+        def generations = new AtomicInteger()
+        def release = new CountDownLatch(1)
+        Supplier<Object> generator = { generations.incrementAndGet(); release.await(); new Object() } as Supplier<Object>
+
+        when: "the tile is requested concurrently, but the result of another request cannot be used"
+
+        def requests = (0..<REQUESTS).collect { Thread.start { handler.generateOnce(tile(false), generator, NOT_REUSABLE) } }
+        awaitWaiting(requests)
+        release.countDown()
+        requests*.join(10_000)
+
+        then: "each request generates the tile"
+
+        generations.get() == REQUESTS
+    }
+
+    def 'Temporary tiles are always generated'() {
+
+        given: "a generator that blocks until all requests have started"
+
+        def generations = new AtomicInteger()
+        def release = new CountDownLatch(1)
+        Supplier<Object> generator = { generations.incrementAndGet(); release.await(); new Object() } as Supplier<Object>
+
+        when: "a temporary tile is requested concurrently"
+
+        def requests = (0..<REQUESTS).collect { Thread.start { handler.generateOnce(tile(true), generator, REUSABLE) } }
+        awaitWaiting(requests)
+        release.countDown()
+        requests*.join(10_000)
+
+        then: "each request generates the tile"
+
+        generations.get() == REQUESTS
+    }
+
+    def 'Accept-Encoding header'() {
+
+        expect:
+
+        TilesQueriesHandlerImpl.acceptsGzip(request(acceptEncoding)) == gzip
+
+        where:
+
+        acceptEncoding           | gzip
+        null                     | false
+        ""                       | false
+        "gzip"                   | true
+        "GZIP"                   | true
+        "deflate, gzip, br"      | true
+        "gzip;q=0.5"             | true
+        "gzip;q=0.001"           | true
+        "gzip;q=0"               | false
+        "gzip; q=0.000"          | false
+        "*"                      | true
+        "*;q=0"                  | false
+        "gzip;q=0, *"            | false
+        "*;q=0, gzip"            | true
+        "identity"               | false
+        "identity, deflate"      | false
+    }
+
+    def 'A compressed tile is returned, if the client accepts gzip'() {
+
+        given: "a cached tile with a compressed copy"
+
+        def queryInput = tileStream(true)
+
+        when: "the tile is requested"
+
+        def response = handler.handle(TilesQueriesHandler.Query.TILE_STREAM, queryInput, request(acceptEncoding))
+
+        then: "the representation depends on the Accept-Encoding header and has its own entity tag"
+
+        response.status == 200
+        response.getHeaderString("Content-Encoding") == contentEncoding
+        response.getHeaderString("Vary") == "Accept-Encoding"
+        response.entityTag.value == etag
+        new String((byte[]) response.entity, StandardCharsets.UTF_8) == content
+
+        where:
+
+        acceptEncoding  | contentEncoding | etag       | content
+        "gzip, deflate" | "gzip"          | "abc-gzip" | "compressed"
+        "gzip;q=0"      | null            | "abc"      | "tile"
+        null            | null            | "abc"      | "tile"
+    }
+
+    def 'The response does not vary on the Accept-Encoding header without a compressed tile'() {
+
+        given: "a cached tile without a compressed copy"
+
+        def queryInput = tileStream(false)
+
+        when: "the tile is requested by a client that accepts gzip"
+
+        def response = handler.handle(TilesQueriesHandler.Query.TILE_STREAM, queryInput, request("gzip"))
+
+        then: "the uncompressed tile is returned"
+
+        response.status == 200
+        response.getHeaderString("Content-Encoding") == null
+        response.getHeaderString("Vary") == null
+        response.entityTag.value == "abc"
+    }
+
+    def 'The preconditions are evaluated with the entity tag of the compressed tile'() {
+
+        given: "a cached tile with a compressed copy and a client that has the compressed tile"
+
+        def queryInput = tileStream(true)
+        def conditionalRequest = Stub(Request) {
+            evaluatePreconditions(_ as Date, _ as EntityTag) >> { Date date, EntityTag tag -> tag.value == "abc-gzip" ? Response.notModified(tag) : null }
+        }
+
+        when: "the tile is requested again"
+
+        def response = handler.handle(TilesQueriesHandler.Query.TILE_STREAM, queryInput, request(acceptEncoding, conditionalRequest))
+
+        then: "the tile has not been modified, if the client accepts gzip"
+
+        response.status == status
+        response.getHeaderString("Vary") == "Accept-Encoding"
+
+        where:
+
+        acceptEncoding | status
+        "gzip"         | 304
+        "identity"     | 200
+    }
+
+    private ImmutableQueryInputTileStream tileStream(boolean withGzip) {
+        def tileMatrixSet = Stub(TileMatrixSet) {
+            getId() >> "WebMercatorQuad"
+        }
+        def outputFormat = Stub(TileFormatExtension) {
+            getMediaType() >> TileFormatMVT.MEDIA_TYPE
+        }
+        def tile = Stub(Tile) {
+            getTileMatrixSet() >> tileMatrixSet
+            getTileLevel() >> 10
+            getTileRow() >> 1
+            getTileCol() >> 2
+            getOutputFormat() >> outputFormat
+        }
+        def builder = new ImmutableQueryInputTileStream.Builder()
+                .tile(tile)
+                .tileContent(ByteSource.wrap("tile".getBytes(StandardCharsets.UTF_8)))
+                .tileEtag(new EntityTag("abc"))
+                .lastModified(LAST_MODIFIED)
+        if (withGzip)
+            builder.tileGzipContent(ByteSource.wrap("compressed".getBytes(StandardCharsets.UTF_8)))
+        return builder.build()
+    }
+
+    private ApiRequestContext request(String acceptEncoding, Request conditionalRequest = null) {
+        return Stub(ApiRequestContext) {
+            getHeader(_) >> { String name -> Optional.ofNullable(name == "Accept-Encoding" ? acceptEncoding : null) }
+            getMediaType() >> TileFormatMVT.MEDIA_TYPE
+            getAlternateMediaTypes() >> []
+            getLanguage() >> Optional.empty()
+            getUriCustomizer() >> new URICustomizer()
+            getRequest() >> Optional.ofNullable(conditionalRequest)
+        }
+    }
+
+    private Tile tile(boolean temporary) {
+        return Stub(Tile) {
+            getKey() >> "api/collection/WebMercatorQuad/10/1/2/pbf"
+            getTemporary() >> temporary
+        }
+    }
+
+    /**
+     * wait until all requests either generate the tile and are blocked by the generator or wait for another request
+     */
+    private static void awaitWaiting(List<Thread> requests) {
+        long deadline = System.currentTimeMillis() + 10_000
+        while (!requests.every { it.state == Thread.State.WAITING } && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app.archive
+
+import de.ii.ldproxy.ogcapi.tiles.app.mbtiles.ImmutableMbtilesMetadata
+import de.ii.ldproxy.ogcapi.tiles.app.mbtiles.MbtilesMetadata
+import de.ii.ldproxy.ogcapi.tiles.domain.Tile
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.stream.Collectors
+import java.util.zip.GZIPOutputStream
+
+class TileArchiveSpec extends Specification {
+
+    @TempDir
+    Path directory
+
+    def 'The keys of a zoom level follow a Hilbert curve'() {
+
+        given: "all tiles of zoom level 3"
+
+        def tiles = []
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                tiles << [row, col]
+            }
+        }
+
+        when: "the tiles are sorted by their keys"
+
+        def keys = tiles.collectEntries { [(TileArchive.getKey(3, it[0], it[1])): it] }
+        def sorted = keys.keySet().sort()
+
+        then: "the keys are distinct and consecutive"
+
+        keys.size() == 64
+        sorted.last() - sorted.first() == 63
+
+        and: "tiles with consecutive keys are neighbours"
+
+        (1..<sorted.size()).every { i ->
+            def previous = keys[sorted[i - 1]]
+            def current = keys[sorted[i]]
+            Math.abs(previous[0] - current[0]) + Math.abs(previous[1] - current[1]) == 1
+        }
+    }
+
+    def 'The keys are ordered by zoom level first'() {
+
+        expect:
+
+        TileArchive.getKey(2, 3, 3) < TileArchive.getKey(3, 0, 0)
+        TileArchive.getKey(3, 7, 0) < TileArchive.getKey(4, 0, 0)
+    }
+
+    def 'Tiles outside of the supported range have no key'() {
+
+        when:
+
+        TileArchive.getKey(0, row, col)
+
+        then:
+
+        thrown IllegalArgumentException
+
+        where:
+
+        row       | col
+        -1        | 0
+        0         | -1
+        1 << 28   | 0
+        0         | 1 << 28
+    }
+
+    def 'Write and read a tile archive'() {
+
+        given: "tiles that are added in no particular order, two of them with the same content, and an empty tile"
+
+        def path = directory.resolve("tiles.tilearchive")
+        def writer = new TileArchiveWriter(path, metadata(), false)
+        writer.add(2, 3, 1, bytes("a"))
+        writer.add(0, 0, 0, bytes("root"))
+        writer.add(2, 0, 0, bytes("a"))
+        writer.add(1, 1, 0, new byte[0])
+        writer.add(2, 1, 2, bytes("b"))
+
+        when: "the archive is written and opened"
+
+        writer.finish()
+        def archive = new TileArchive(path)
+
+        then: "the tiles have their content"
+
+        string(archive.getTileData(tile(0, 0, 0))) == "root"
+        string(archive.getTileData(tile(2, 3, 1))) == "a"
+        string(archive.getTileData(tile(2, 0, 0))) == "a"
+        string(archive.getTileData(tile(2, 1, 2))) == "b"
+        archive.getTileData(tile(1, 1, 0)).get().length == 0
+
+        and: "tiles that have not been added are not in the archive"
+
+        archive.getTileData(tile(1, 0, 0)).isEmpty()
+        !archive.tileExists(tile(3, 0, 0))
+        archive.tileExists(tile(1, 1, 0))
+
+        and: "the metadata is stored and the temporary files are removed"
+
+        archive.metadata.name == "test"
+        archive.metadata.format == MbtilesMetadata.MbtilesFormat.pbf
+        Files.list(directory).collect(Collectors.toList()) == [path]
+
+        and: "identical tiles are only stored once"
+
+        Files.size(path) < sizeWithoutDeduplication()
+    }
+
+    def 'A tile that is added again is stored once'() {
+
+        given: "a tile that is added twice"
+
+        def path = directory.resolve("tiles.tilearchive")
+        def writer = new TileArchiveWriter(path, metadata(), false)
+        writer.add(1, 0, 1, bytes("first"))
+        writer.add(1, 0, 1, bytes("second"))
+
+        when: "the archive is written and opened"
+
+        writer.finish()
+        def archive = new TileArchive(path)
+
+        then: "one of the versions is in the archive"
+
+        string(archive.getTileData(tile(1, 0, 1))) in ["first", "second"]
+    }
+
+    def 'Compressed tiles are decompressed when they are read'() {
+
+        given: "an archive with gzip-compressed tiles"
+
+        def path = directory.resolve("tiles.tilearchive")
+        def writer = new TileArchiveWriter(path, metadata(), true)
+        writer.add(0, 0, 0, gzip("content"))
+        writer.add(1, 0, 0, new byte[0])
+        writer.finish()
+
+        when: "the archive is opened"
+
+        def archive = new TileArchive(path)
+
+        then: "the tiles are decompressed, empty tiles stay empty"
+
+        new String(archive.getTile(tile(0, 0, 0)).get().readAllBytes(), StandardCharsets.UTF_8) == "content"
+        archive.getTile(tile(1, 0, 0)).get().readAllBytes().length == 0
+        archive.getCachedTile(tile(0, 0, 0)).get().gzipContent.isPresent()
+    }
+
+    def 'Files that are not tile archives are rejected'() {
+
+        given: "a file with other content"
+
+        def path = directory.resolve("other.tilearchive")
+        Files.write(path, new byte[64])
+
+        when: "the file is opened as a tile archive"
+
+        new TileArchive(path)
+
+        then:
+
+        thrown IOException
+    }
+
+    private long sizeWithoutDeduplication() {
+        def path = directory.resolve("reference.tilearchive")
+        def writer = new TileArchiveWriter(path, metadata(), false)
+        writer.add(2, 3, 1, bytes("a"))
+        writer.add(0, 0, 0, bytes("root"))
+        writer.add(2, 0, 0, bytes("c"))
+        writer.add(1, 1, 0, new byte[0])
+        writer.add(2, 1, 2, bytes("b"))
+        writer.finish()
+        def size = Files.size(path)
+        Files.delete(path)
+        return size
+    }
+
+    private Tile tile(int level, int row, int col) {
+        return Stub(Tile) {
+            getTileLevel() >> level
+            getTileRow() >> row
+            getTileCol() >> col
+        }
+    }
+
+    private static MbtilesMetadata metadata() {
+        return ImmutableMbtilesMetadata.builder()
+                .name("test")
+                .format(MbtilesMetadata.MbtilesFormat.pbf)
+                .build()
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8)
+    }
+
+    private static String string(Optional<byte[]> content) {
+        return new String(content.get(), StandardCharsets.UTF_8)
+    }
+
+    private static byte[] gzip(String content) {
+        def out = new ByteArrayOutputStream()
+        new GZIPOutputStream(out).withCloseable { it.write(bytes(content)) }
+        return out.toByteArray()
+    }
+}
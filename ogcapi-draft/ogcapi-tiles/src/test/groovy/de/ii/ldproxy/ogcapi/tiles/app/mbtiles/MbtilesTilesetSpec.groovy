@@ -0,0 +1,232 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.app.mbtiles
+
+import de.ii.ldproxy.ogcapi.tiles.domain.Tile
+import de.ii.ldproxy.ogcapi.tiles.domain.TileFormatExtension
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.ImmutableTileMatrixSetLimits
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+
+class MbtilesTilesetSpec extends Specification {
+
+    @TempDir
+    Path directory
+
+    Path path
+    MbtilesTileset tileset
+
+    def setup() {
+        path = directory.resolve("tiles.mbtiles")
+        tileset = new MbtilesTileset(path, ImmutableMbtilesMetadata.builder()
+                .name("test")
+                .format(MbtilesMetadata.MbtilesFormat.pbf)
+                .build())
+    }
+
+    def cleanup() {
+        tileset.close()
+    }
+
+    def 'Tiles with identical content share a blob'() {
+
+        when: "two tiles with the same content and a tile with other content are written"
+
+        tileset.writeTiles([tile(0, 0, 0, "a"), tile(1, 0, 0, "a"), tile(1, 0, 1, "b")])
+
+        then: "there is one blob per content, in addition to the empty tile"
+
+        count("SELECT count(*) FROM tile_blobs") == 3
+        count("SELECT count(DISTINCT tile_id) FROM tile_map") == 2
+
+        and: "the tiles have their content"
+
+        read(0, 0, 0) == "a"
+        read(1, 0, 0) == "a"
+        read(1, 0, 1) == "b"
+    }
+
+    def 'A blob is removed, when it is no longer used'() {
+
+        given: "two tiles with the same content"
+
+        tileset.writeTiles([tile(0, 0, 0, "a"), tile(1, 0, 0, "a")])
+
+        when: "one of the tiles is replaced"
+
+        tileset.writeTiles([tile(0, 0, 0, "b")])
+
+        then: "the blob is kept for the other tile"
+
+        count("SELECT count(*) FROM tile_blobs") == 3
+        read(1, 0, 0) == "a"
+
+        when: "the other tile is replaced, too"
+
+        tileset.writeTiles([tile(1, 0, 0, "c")])
+
+        then: "the blob is removed"
+
+        count("SELECT count(*) FROM tile_blobs") == 3
+        read(0, 0, 0) == "b"
+        read(1, 0, 0) == "c"
+
+        when: "a tile is deleted"
+
+        tileset.deleteTile(tile(1, 0, 0, "").key)
+
+        then: "its blob is removed"
+
+        count("SELECT count(*) FROM tile_blobs") == 2
+        !tileset.tileExists(tile(1, 0, 0, "").key)
+    }
+
+    def 'Empty tiles use the shared empty tile'() {
+
+        when: "two empty tiles are written"
+
+        tileset.writeTiles([tile(1, 0, 0, ""), tile(1, 1, 1, "")])
+
+        then: "no blob is added"
+
+        count("SELECT count(*) FROM tile_blobs") == 1
+        tileset.tileIsEmpty(tile(1, 0, 0, "").key) == Optional.of(true)
+
+        when: "the empty tiles are deleted or replaced"
+
+        tileset.deleteTile(tile(1, 0, 0, "").key)
+        tileset.writeTiles([tile(1, 1, 1, "a")])
+
+        then: "the empty tile is kept"
+
+        count("SELECT count(*) FROM tile_blobs WHERE tile_id=1") == 1
+        tileset.tileIsEmpty(tile(1, 1, 1, "").key) == Optional.of(false)
+    }
+
+    def 'Deleting a range of tiles removes the blobs that are only used in the range'() {
+
+        given: "tiles in two zoom levels, one blob is shared between the zoom levels"
+
+        tileset.writeTiles([tile(0, 0, 0, "a"), tile(1, 0, 0, "a"), tile(1, 0, 1, "b"), tile(1, 1, 0, "c")])
+
+        when: "the first row of zoom level 1 is deleted"
+
+        tileset.deleteTiles(tileMatrixSet(), limits(1, 0, 0, 0, 1))
+
+        then: "the tiles in the range and the blob that is only used there are removed"
+
+        !tileset.tileExists(tile(1, 0, 0, "").key)
+        !tileset.tileExists(tile(1, 0, 1, "").key)
+        read(0, 0, 0) == "a"
+        read(1, 1, 0) == "c"
+        count("SELECT count(*) FROM tile_blobs") == 3
+    }
+
+    def 'Compacting removes unused blobs and returns free pages to the file system'() {
+
+        given: "many tiles that are deleted again and a blob that is not used by any tile, as in caches of older versions"
+
+        def content = new Random(1).with { random -> (0..<1000).collect { random.nextInt().toString() }.join(",") }
+        tileset.writeTiles((0..<64).collect { tile(6, it.intdiv(8), it % 8, content + it) })
+        tileset.deleteTiles(tileMatrixSet(), limits(6, 0, 7, 0, 7))
+        execute("INSERT INTO tile_blobs (tile_data, tile_hash) VALUES (x'0102', 'orphan')", "PRAGMA wal_checkpoint(TRUNCATE)")
+        def sizeBefore = Files.size(path)
+
+        when: "the tile set is compacted"
+
+        tileset.compact()
+
+        then: "the blob is removed, there are no free pages and the file is smaller"
+
+        count("SELECT count(*) FROM tile_blobs WHERE tile_hash='orphan'") == 0
+        count("SELECT count(*) FROM tile_blobs WHERE tile_id=1") == 1
+        count("PRAGMA freelist_count") == 0
+        Files.size(path) < sizeBefore
+    }
+
+    def 'Compacting enables incremental vacuums in caches of older versions'() {
+
+        given: "a tile set without incremental vacuums"
+
+        tileset.close()
+        execute("PRAGMA auto_vacuum=NONE", "VACUUM")
+        tileset = new MbtilesTileset(path)
+
+        expect:
+
+        count("PRAGMA auto_vacuum") == 0
+
+        when: "the tile set is compacted"
+
+        tileset.compact()
+
+        then: "incremental vacuums are enabled"
+
+        count("PRAGMA auto_vacuum") == 2
+    }
+
+    private Map.Entry<Tile, byte[]> tile(int level, int row, int col, String content) {
+        def tileMatrixSet = tileMatrixSet()
+        def outputFormat = Stub(TileFormatExtension) {
+            getGzippedInMbtiles() >> true
+            getSupportsEmptyTile() >> true
+        }
+        Tile tile = Stub(Tile) {
+            getTileLevel() >> level
+            getTileRow() >> row
+            getTileCol() >> col
+            getTileMatrixSet() >> tileMatrixSet
+            getOutputFormat() >> outputFormat
+        }
+        return new AbstractMap.SimpleImmutableEntry<Tile, byte[]>(tile, content.getBytes(StandardCharsets.UTF_8))
+    }
+
+    private TileMatrixSet tileMatrixSet() {
+        return Stub(TileMatrixSet) {
+            getTmsRow(_, _) >> { int level, int row -> (1 << level) - 1 - row }
+        }
+    }
+
+    private static def limits(int level, int minRow, int maxRow, int minCol, int maxCol) {
+        return new ImmutableTileMatrixSetLimits.Builder()
+                .tileMatrix(String.valueOf(level))
+                .minTileRow(minRow)
+                .maxTileRow(maxRow)
+                .minTileCol(minCol)
+                .maxTileCol(maxCol)
+                .build()
+    }
+
+    private String read(int level, int row, int col) {
+        return new String(tileset.getTile(tile(level, row, col, "").key).get().readAllBytes(), StandardCharsets.UTF_8)
+    }
+
+    private int count(String sql) {
+        def connection = SqlHelper.getConnection(path.toFile(), true, false)
+        try {
+            def rs = SqlHelper.executeQuery(connection, sql)
+            return rs.next() ? rs.getInt(1) : 0
+        } finally {
+            connection.close()
+        }
+    }
+
+    private void execute(String... sql) {
+        def connection = SqlHelper.getConnection(path.toFile(), false, true)
+        try {
+            sql.each { SqlHelper.execute(connection, it) }
+        } finally {
+            connection.close()
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.tiles.infra
+
+import de.ii.ldproxy.ogcapi.tiles.domain.tileMatrixSet.ImmutableTileMatrixSetLimits
+import spock.lang.Specification
+
+import java.util.function.BooleanSupplier
+
+class SeedingRunSpec extends Specification {
+
+    static final BooleanSupplier RUNNING = { false } as BooleanSupplier
+    static final BooleanSupplier STOPPED = { true } as BooleanSupplier
+
+    def 'The number of active partials is limited'() {
+
+        given: "a run with two partials"
+
+        def run = new SeedingRun(2)
+
+        when: "two partials are active"
+
+        def first = run.acquire(RUNNING)
+        def second = run.acquire(RUNNING)
+
+        then: "a third partial has to wait until the task is stopped"
+
+        first
+        second
+        !run.acquire(STOPPED)
+
+        when: "a partial has finished its work unit"
+
+        run.release()
+
+        then: "the next partial may start"
+
+        run.acquire(STOPPED)
+    }
+
+    def 'The number of active partials can only be changed within the number of partials of the run'() {
+
+        given: "a run with four partials"
+
+        def run = new SeedingRun(4)
+
+        expect:
+
+        run.setMaxActivePartials(requested) == effective
+
+        where:
+
+        requested | effective
+        0         | 1
+        -1        | 1
+        1         | 1
+        3         | 3
+        4         | 4
+        10        | 4
+    }
+
+    def 'Partials wait, if the number of active partials is reduced'() {
+
+        given: "a run with two active partials"
+
+        def run = new SeedingRun(2)
+        run.acquire(RUNNING)
+        run.acquire(RUNNING)
+
+        when: "the number of active partials is reduced to one and one partial has finished"
+
+        run.setMaxActivePartials(1)
+        run.release()
+
+        then: "no other partial may start"
+
+        !run.acquire(STOPPED)
+
+        when: "the number of active partials is increased again"
+
+        run.setMaxActivePartials(2)
+
+        then: "the next partial may start"
+
+        run.acquire(STOPPED)
+    }
+
+    def 'A tile range is split in work units'() {
+
+        given: "a tile range with 10 rows and 18 columns"
+
+        def range = tileRange(5, 0, 9, 0, 17, false)
+        def phase = new SeedingRun.Phase([range])
+
+        when: "all work units are taken"
+
+        def units = []
+        def unit = phase.next(RUNNING)
+        while (unit.isPresent()) {
+            units << unit.get()
+            unit = phase.next(RUNNING)
+        }
+
+        then: "the work units cover the tile range row by row, each tile once"
+
+        units.collect { [it.minRow, it.maxRow, it.minCol, it.maxCol] } == [
+                [0, 7, 0, 7], [0, 7, 8, 15], [0, 7, 16, 17],
+                [8, 9, 0, 7], [8, 9, 8, 15], [8, 9, 16, 17]
+        ]
+        units.sum { (it.maxRow - it.minRow + 1) * (it.maxCol - it.minCol + 1) } == range.numberOfTiles
+    }
+
+    def 'The work units of all tile ranges are taken in order'() {
+
+        given: "two tile ranges that are generated from the features"
+
+        def phase = new SeedingRun.Phase([tileRange(1, 0, 1, 0, 1, false), tileRange(2, 2, 3, 0, 3, false)])
+
+        when: "the work units are taken"
+
+        def first = phase.next(RUNNING)
+        def second = phase.next(RUNNING)
+        def third = phase.next(RUNNING)
+
+        then: "the work unit of the second range does not wait for the first range"
+
+        first.get().range.level == 1
+        second.get().range.level == 2
+        second.get().minRow == 2
+        third.isEmpty()
+    }
+
+    def 'Tiles that are generated from child tiles wait for the child tiles'() {
+
+        given: "a tile range and the tile range of the next lower zoom level that is generated from its tiles"
+
+        def phase = new SeedingRun.Phase([tileRange(6, 0, 3, 0, 3, false), tileRange(5, 0, 1, 0, 1, true)])
+
+        when: "the work unit of the child tiles is taken, but not finished"
+
+        def child = phase.next(RUNNING).get()
+
+        then: "the work unit of the parent tiles is not available until the task is stopped"
+
+        phase.next(STOPPED).isEmpty()
+
+        when: "the work unit of the child tiles is finished while another partial waits for the parent tiles"
+
+        def parent = null
+        def waiting = Thread.start { parent = phase.next(RUNNING) }
+        phase.finished(child)
+        waiting.join(10_000)
+
+        then: "the work unit of the parent tiles is taken"
+
+        !waiting.isAlive()
+        parent.get().range.level == 5
+        phase.next(STOPPED).isEmpty()
+    }
+
+    def 'Count the processed tiles of a phase'() {
+
+        given: "a phase with 20 tiles"
+
+        def phase = new SeedingRun.Phase([tileRange(3, 0, 3, 0, 4, false)])
+
+        expect:
+
+        phase.tilesProcessed(5) == 0.25d
+        phase.tilesProcessed(15) == 1.0d
+        new SeedingRun.Phase([]).tilesProcessed(0) == 1.0d
+    }
+
+    def 'Each bulk job is taken once'() {
+
+        given: "a bulk phase with two jobs"
+
+        def job1 = new SeedingRun.BulkJob([tileRange(1, 0, 1, 0, 1, false)])
+        def job2 = new SeedingRun.BulkJob([tileRange(2, 0, 3, 0, 2, false)])
+        def phase = new SeedingRun.BulkPhase([job1, job2])
+
+        when: "the jobs are taken"
+
+        def first = phase.next()
+        def second = phase.next()
+
+        then: "each job is taken once, in order"
+
+        first.get().is(job1)
+        second.get().is(job2)
+        phase.next().isEmpty()
+
+        and: "the phase is not finished while a job is processed"
+
+        !phase.awaitFinished(STOPPED)
+
+        when: "the jobs are finished"
+
+        def afterFirst = phase.finished(job1)
+        def afterSecond = phase.finished(job2)
+
+        then: "the processed share is reported and the phase is finished"
+
+        afterFirst == 4d / 16d
+        afterSecond == 1.0d
+        phase.awaitFinished(STOPPED)
+    }
+
+    def 'A bulk phase is not finished while jobs have not been taken'() {
+
+        given: "a bulk phase with a job that has not been taken"
+
+        def phase = new SeedingRun.BulkPhase([new SeedingRun.BulkJob([tileRange(1, 0, 1, 0, 1, false)])])
+
+        expect:
+
+        !phase.awaitFinished(STOPPED)
+    }
+
+    private static SeedingRun.TileRange tileRange(int level, int minRow, int maxRow, int minCol, int maxCol, boolean fromChildTiles) {
+        def limits = new ImmutableTileMatrixSetLimits.Builder()
+                .tileMatrix(String.valueOf(level))
+                .minTileRow(minRow)
+                .maxTileRow(maxRow)
+                .minTileCol(minCol)
+                .maxTileCol(maxCol)
+                .build()
+        return new SeedingRun.TileRange("collection", null, null, limits, fromChildTiles)
+    }
+}
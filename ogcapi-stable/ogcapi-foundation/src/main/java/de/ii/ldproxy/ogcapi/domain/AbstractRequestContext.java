@@ -39,6 +39,14 @@ public abstract class AbstractRequestContext implements ApiRequestContext {
     @Override
     public abstract Optional<Request> getRequest();
 
+    // header names in lower case
+    abstract Map<String, String> getHeaders();
+
+    @Override
+    public Optional<String> getHeader(String name) {
+        return Optional.ofNullable(getHeaders().get(name.toLowerCase(Locale.ROOT)));
+    }
+
     @Value.Derived
     @Override
     public URICustomizer getUriCustomizer() {
@@ -30,4 +30,8 @@ public interface ApiRequestContext {
     Map<String,String> getParameters();
 
     Optional<Request> getRequest();
+
+    default Optional<String> getHeader(String name) {
+        return Optional.empty();
+    }
 }
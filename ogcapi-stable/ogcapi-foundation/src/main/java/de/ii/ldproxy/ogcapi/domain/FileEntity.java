@@ -0,0 +1,66 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.domain;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A response entity that streams a file or a byte range of a file from disk, without loading the file into memory.
+ * The content is transferred with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which lets the
+ * operating system copy the data, where the output supports this.
+ */
+public class FileEntity implements StreamingOutput {
+
+    private final Path file;
+    private final long offset;
+    private final long length;
+
+    /**
+     *
+     * @param file the file
+     * @param offset the first byte to write
+     * @param length the number of bytes to write
+     */
+    public FileEntity(Path file, long offset, long length) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the target channel is not closed, the output stream is closed by the container
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = offset;
+            long remaining = length;
+            while (remaining > 0) {
+                long transferred = channel.transferTo(position, remaining, target);
+                if (transferred <= 0)
+                    break;
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+}
@@ -28,9 +28,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -38,6 +42,9 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.SimpleTimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public interface QueriesHandler<T extends QueryIdentifier> {
@@ -49,6 +56,8 @@ public interface QueriesHandler<T extends QueryIdentifier> {
                              .collect(Collectors.toUnmodifiableList())
                              .toArray(Locale[]::new);
     String[] ENCODINGS = {"gzip", "identity"};
+    // a single byte range, multiple ranges are not supported
+    Pattern BYTE_RANGE = Pattern.compile("^bytes=(\\d{0,18})-(\\d{0,18})$");
 
     Map<T, QueryHandler<? extends QueryInput>> getQueryHandlers();
 
@@ -184,6 +193,82 @@ public interface QueriesHandler<T extends QueryIdentifier> {
         return response;
     }
 
+    /**
+     * Stream a file from disk as the entity of a response. If the request asks for a single byte range and an
+     * "If-Range" header, if any, matches the file, only the byte range is returned with status 206.
+     *
+     * @param response the successful response for the complete file
+     * @param requestContext the request
+     * @param file the file
+     * @param lastModified the last modification date of the file
+     * @param etag the entity tag of the file
+     * @return the response with the entity
+     */
+    default Response.ResponseBuilder prepareFileResponse(Response.ResponseBuilder response,
+                                                         ApiRequestContext requestContext,
+                                                         java.nio.file.Path file,
+                                                         Date lastModified,
+                                                         EntityTag etag) {
+        long size;
+        try {
+            size = java.nio.file.Files.size(file);
+        } catch (IOException e) {
+            throw new InternalServerErrorException(MessageFormat.format("The file ''{0}'' could not be read.", file.getFileName()), e);
+        }
+        response.header("Accept-Ranges", "bytes");
+
+        Matcher range = requestContext.getHeader("Range")
+                                      .filter(header -> isCurrent(requestContext.getHeader("If-Range"), lastModified, etag))
+                                      .map(BYTE_RANGE::matcher)
+                                      .filter(matcher -> matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty()))
+                                      .orElse(null);
+        if (Objects.isNull(range))
+            return response.header("Content-Length", size)
+                           .entity(new FileEntity(file, 0, size));
+
+        long first;
+        long last;
+        if (range.group(1).isEmpty()) {
+            // the last n bytes
+            long suffixLength = Long.parseLong(range.group(2));
+            first = Math.max(0, size - suffixLength);
+            last = suffixLength > 0 ? size - 1 : -1;
+        } else {
+            first = Long.parseLong(range.group(1));
+            last = range.group(2).isEmpty() ? size - 1 : Math.min(Long.parseLong(range.group(2)), size - 1);
+        }
+        if (first >= size || first > last)
+            return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                           .header("Content-Range", "bytes */" + size);
+
+        return response.status(Response.Status.PARTIAL_CONTENT)
+                       .header("Content-Range", String.format("bytes %d-%d/%d", first, last, size))
+                       .header("Content-Length", last - first + 1)
+                       .entity(new FileEntity(file, first, last - first + 1));
+    }
+
+    /**
+     * @param ifRange the value of the "If-Range" header
+     * @param lastModified the last modification date of the current representation
+     * @param etag the entity tag of the current representation
+     * @return {@code true}, if there is no "If-Range" header or if it matches the current representation
+     */
+    private static boolean isCurrent(Optional<String> ifRange, Date lastModified, EntityTag etag) {
+        if (ifRange.isEmpty())
+            return true;
+        String value = ifRange.get().trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            // only strong entity tags match
+            return Objects.nonNull(etag) && !etag.isWeak() && value.equals("\"" + etag.getValue() + "\"");
+        }
+        try {
+            Instant date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return Objects.nonNull(lastModified) && date.getEpochSecond() == lastModified.toInstant().getEpochSecond();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
     default Date getLastModified(QueryInput queryInput, PageRepresentation resource) {
         return queryInput.getLastModified()
                          .orElse(resource.getLastModified()
@@ -249,6 +334,30 @@ public interface QueriesHandler<T extends QueryIdentifier> {
         return new EntityTag(etag, false);
     }
 
+    /**
+     * The entity tag of a large file is derived from its size and modification time, so the file is not read twice.
+     * Files that are replaced keep a strong entity tag, as long as the size or the modification time changes.
+     *
+     * @param file the file
+     * @return the entity tag, {@code null}, if the file attributes cannot be read
+     */
+    @SuppressWarnings("UnstableApiUsage")
+    default EntityTag getEtagFromAttributes(java.nio.file.Path file) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = java.nio.file.Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+        String etag = Hashing.murmur3_128()
+                             .newHasher()
+                             .putLong(attributes.size())
+                             .putLong(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS))
+                             .hash()
+                             .toString();
+        return new EntityTag(etag, false);
+    }
+
     @SuppressWarnings("UnstableApiUsage")
     default EntityTag getEtag(InputStream inputStream) {
         String etag = new HashingInputStream(Hashing.murmur3_128(), inputStream).hash().toString();
@@ -127,6 +127,10 @@ public class ApiRequestDispatcher implements ServiceEndpoint {
                 .requestUri(requestContext.getUriInfo()
                                           .getRequestUri())
                 .request(request)
+                .headers(requestContext.getHeaders()
+                                       .keySet()
+                                       .stream()
+                                       .collect(Collectors.toMap(name -> name.toLowerCase(Locale.ROOT), requestContext::getHeaderString, (value1, value2) -> value1)))
                 .externalUri(getExternalUri())
                 .mediaType(selectedMediaType)
                 .alternateMediaTypes(alternateMediaTypes)
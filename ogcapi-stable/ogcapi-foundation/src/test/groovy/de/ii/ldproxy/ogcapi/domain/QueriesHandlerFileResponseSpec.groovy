@@ -0,0 +1,192 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.domain
+
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import javax.ws.rs.core.EntityTag
+import javax.ws.rs.core.Response
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.ZoneOffset
+import java.time.ZonedDateTime
+import java.time.format.DateTimeFormatter
+
+class QueriesHandlerFileResponseSpec extends Specification {
+
+    @TempDir
+    Path directory
+
+    @Shared
+    QueriesHandler<QueryIdentifier> handler = new QueriesHandler<QueryIdentifier>() {
+        @Override
+        Map<QueryIdentifier, QueryHandler<? extends QueryInput>> getQueryHandlers() {
+            return [:]
+        }
+    }
+
+    @Shared
+    Date lastModified = Date.from(ZonedDateTime.of(2022, 3, 1, 12, 0, 0, 0, ZoneOffset.UTC).toInstant())
+
+    @Shared
+    EntityTag etag = new EntityTag("abc", false)
+
+    def 'The complete file is returned without a range'() {
+
+        given: "a file with 10 bytes and a request without a range"
+
+        def file = file("0123456789")
+
+        when: "the response is prepared"
+
+        def response = handler.prepareFileResponse(Response.ok(), request([:]), file, lastModified, etag).build()
+
+        then: "the response has the complete file"
+
+        response.status == 200
+        response.getHeaderString("Accept-Ranges") == "bytes"
+        response.getHeaderString("Content-Length") == "10"
+        content(response) == "0123456789"
+    }
+
+    def 'A byte range is returned'() {
+
+        given: "a file with 10 bytes"
+
+        def file = file("0123456789")
+
+        when: "a byte range is requested"
+
+        def response = handler.prepareFileResponse(Response.ok(), request([Range: range]), file, lastModified, etag).build()
+
+        then: "only the byte range is returned"
+
+        response.status == 206
+        response.getHeaderString("Content-Range") == contentRange
+        response.getHeaderString("Content-Length") == String.valueOf(expected.length())
+        content(response) == expected
+
+        where:
+
+        range          | contentRange     | expected
+        "bytes=0-3"    | "bytes 0-3/10"   | "0123"
+        "bytes=2-2"    | "bytes 2-2/10"   | "2"
+        "bytes=7-"     | "bytes 7-9/10"   | "789"
+        "bytes=5-100"  | "bytes 5-9/10"   | "56789"
+        "bytes=-4"     | "bytes 6-9/10"   | "6789"
+        "bytes=-100"   | "bytes 0-9/10"   | "0123456789"
+    }
+
+    def 'A byte range outside of the file cannot be satisfied'() {
+
+        given: "a file with 10 bytes"
+
+        def file = file("0123456789")
+
+        when: "a byte range is requested that is not in the file"
+
+        def response = handler.prepareFileResponse(Response.ok(), request([Range: range]), file, lastModified, etag).build()
+
+        then: "the range is rejected"
+
+        response.status == 416
+        response.getHeaderString("Content-Range") == "bytes */10"
+        !response.hasEntity()
+
+        where:
+
+        range << ["bytes=10-", "bytes=12-20", "bytes=5-3", "bytes=-0"]
+    }
+
+    def 'Ranges that are not supported are ignored'() {
+
+        given: "a file with 10 bytes"
+
+        def file = file("0123456789")
+
+        when: "multiple or malformed byte ranges are requested"
+
+        def response = handler.prepareFileResponse(Response.ok(), request([Range: range]), file, lastModified, etag).build()
+
+        then: "the complete file is returned"
+
+        response.status == 200
+        content(response) == "0123456789"
+
+        where:
+
+        range << ["bytes=0-1,4-5", "bytes=-", "items=0-1", "bytes=a-b"]
+    }
+
+    def 'A byte range is only returned, if the file has not changed'() {
+
+        given: "a file with 10 bytes"
+
+        def file = file("0123456789")
+
+        when: "a byte range is requested with a condition"
+
+        def response = handler.prepareFileResponse(Response.ok(), request([Range: "bytes=0-3", "If-Range": ifRange]), file, lastModified, etag).build()
+
+        then: "the byte range is returned, if the condition matches the file, otherwise the complete file"
+
+        response.status == status
+        content(response) == expected
+
+        where:
+
+        ifRange                                      | status | expected
+        '"abc"'                                      | 206    | "0123"
+        '"other"'                                    | 200    | "0123456789"
+        'W/"abc"'                                    | 200    | "0123456789"
+        httpDate(lastModified)                       | 206    | "0123"
+        httpDate(new Date(lastModified.time + 1000)) | 200    | "0123456789"
+        "not a date"                                 | 200    | "0123456789"
+    }
+
+    def 'A weak entity tag never matches'() {
+
+        given: "a file with a weak entity tag"
+
+        def file = file("0123456789")
+
+        when: "a byte range is requested with the entity tag as a condition"
+
+        def response = handler.prepareFileResponse(Response.ok(), request([Range: "bytes=0-3", "If-Range": '"abc"']), file, lastModified, new EntityTag("abc", true)).build()
+
+        then: "the complete file is returned"
+
+        response.status == 200
+        content(response) == "0123456789"
+    }
+
+    private Path file(String content) {
+        def file = directory.resolve("file.bin")
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8))
+        return file
+    }
+
+    private ApiRequestContext request(Map<String, String> headers) {
+        return Stub(ApiRequestContext) {
+            getHeader(_) >> { String name -> Optional.ofNullable(headers.get(name)) }
+        }
+    }
+
+    private static String content(Response response) {
+        def out = new ByteArrayOutputStream()
+        ((FileEntity) response.entity).write(out)
+        return new String(out.toByteArray(), StandardCharsets.UTF_8)
+    }
+
+    private static String httpDate(Date date) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(date.toInstant().atZone(ZoneOffset.UTC))
+    }
+}